@@ -33,6 +33,12 @@ public class UCSProxyProperties {
     @Value( "${api-end-access}" )
     private String apiEndAccess;
 
+    @Value( "${max-retries:3}" )
+    private int maxRetries = 3;
+
+    @Value( "${retry-backoff:500}" )
+    private long retryBackoff = 500;
+
     public String getUri() {
         return uri;
     }
@@ -65,4 +71,20 @@ public class UCSProxyProperties {
         this.apiEndAccess = apiEndAccess;
     }
 
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries( int maxRetries ) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public void setRetryBackoff( long retryBackoff ) {
+        this.retryBackoff = retryBackoff;
+    }
+
 }
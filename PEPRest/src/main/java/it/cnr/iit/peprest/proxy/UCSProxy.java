@@ -16,11 +16,16 @@
 package it.cnr.iit.peprest.proxy;
 
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
 
 import it.cnr.iit.peprest.configuration.UCSProxyProperties;
 import it.cnr.iit.ucs.constants.PURPOSE;
@@ -35,17 +40,61 @@ public class UCSProxy {
     @Autowired
     private UCSProxyProperties ucs;
 
+    /**
+     * Posts a message to the UCS. A message rejected because the UCS is
+     * overloaded is posted again after the delay suggested by the UCS, with a
+     * random jitter so that the rejected PEPs do not come back all together.
+     *
+     * @return true if the UCS accepted the message
+     */
     public boolean sendMessage( Message message ) {
+        for( int attempt = 0;; attempt++ ) {
+            try {
+                Optional<ResponseEntity<Void>> response = RESTUtils.post(
+                    ucs.getUri(),
+                    getApiNameFromPurpose( message.getPurpose() ),
+                    message );
+                return response.isPresent() && response.get().getStatusCode().is2xxSuccessful();
+            } catch( HttpStatusCodeException e ) {
+                if( e.getStatusCode() != HttpStatus.TOO_MANY_REQUESTS || attempt >= ucs.getMaxRetries() ) {
+                    log.severe( "Error posting message : " + e.getMessage() );
+                    return false;
+                }
+                if( !backOff( attempt, e.getResponseHeaders() ) ) {
+                    return false;
+                }
+            } catch( Exception e ) {
+                log.severe( "Error posting message : " + e.getMessage() );
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Waits before posting a rejected message again, at least the Retry-After
+     * delay of the UCS and the exponential backoff of the attempt
+     *
+     * @return false if interrupted while waiting
+     */
+    private boolean backOff( int attempt, HttpHeaders headers ) {
+        long delay = ucs.getRetryBackoff() << Math.min( attempt, 16 );
+        String retryAfter = headers != null ? headers.getFirst( HttpHeaders.RETRY_AFTER ) : null;
+        if( retryAfter != null ) {
+            try {
+                delay = Math.max( delay, TimeUnit.SECONDS.toMillis( Long.parseLong( retryAfter.trim() ) ) );
+            } catch( NumberFormatException e ) {
+                log.warning( "Ignoring Retry-After : " + retryAfter );
+            }
+        }
+        delay += ThreadLocalRandom.current().nextLong( delay / 2 + 1 );
+        log.info( "UCS overloaded, retrying in " + delay + " ms" );
         try {
-            Optional<ResponseEntity<Void>> response = RESTUtils.post(
-                ucs.getUri(),
-                getApiNameFromPurpose( message.getPurpose() ),
-                message );
-            return response.isPresent() && response.get().getStatusCode().is2xxSuccessful();
-        } catch( Exception e ) {
-            log.severe( "Error posting message : " + e.getMessage() );
+            Thread.sleep( delay );
+            return true;
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        return false;
     }
 
     private String getApiNameFromPurpose( PURPOSE purpose ) {
@@ -0,0 +1,78 @@
+package it.cnr.iit.peprest.proxy;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+
+import it.cnr.iit.peprest.configuration.UCSProxyProperties;
+import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
+
+/**
+ * Requests rejected by an overloaded UCS are sent again after the
+ * Retry-After delay, up to the configured number of retries.
+ */
+public class UCSProxyRetryTest {
+
+    private static final String TRY_ACCESS = "/tryAccess";
+
+    @Rule
+    public WireMockRule ucs = new WireMockRule( options().dynamicPort() );
+
+    private UCSProxy proxy;
+
+    @Before
+    public void setUp() {
+        UCSProxyProperties properties = new UCSProxyProperties();
+        properties.setUri( "http://localhost:" + ucs.port() );
+        properties.setApiTryAccess( "tryAccess" );
+        properties.setMaxRetries( 2 );
+        properties.setRetryBackoff( 10 );
+        proxy = new UCSProxy();
+        ReflectionTestUtils.setField( proxy, "ucs", properties );
+    }
+
+    @Test
+    public void testRetriedAfterOverload() {
+        ucs.stubFor( post( urlEqualTo( TRY_ACCESS ) ).inScenario( "overload" )
+            .whenScenarioStateIs( Scenario.STARTED )
+            .willReturn( aResponse().withStatus( 429 ).withHeader( "Retry-After", "1" ) )
+            .willSetStateTo( "recovered" ) );
+        ucs.stubFor( post( urlEqualTo( TRY_ACCESS ) ).inScenario( "overload" )
+            .whenScenarioStateIs( "recovered" )
+            .willReturn( aResponse().withStatus( 200 ) ) );
+
+        long start = System.currentTimeMillis();
+        assertTrue( proxy.sendMessage( new TryAccessMessage() ) );
+        assertTrue( System.currentTimeMillis() - start >= 1000 );
+        ucs.verify( 2, postRequestedFor( urlEqualTo( TRY_ACCESS ) ) );
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() {
+        ucs.stubFor( post( urlEqualTo( TRY_ACCESS ) ).willReturn( aResponse().withStatus( 429 ) ) );
+
+        assertFalse( proxy.sendMessage( new TryAccessMessage() ) );
+        ucs.verify( 3, postRequestedFor( urlEqualTo( TRY_ACCESS ) ) );
+    }
+
+    @Test
+    public void testOtherErrorsNotRetried() {
+        ucs.stubFor( post( urlEqualTo( TRY_ACCESS ) ).willReturn( aResponse().withStatus( 500 ) ) );
+
+        assertFalse( proxy.sendMessage( new TryAccessMessage() ) );
+        ucs.verify( 1, postRequestedFor( urlEqualTo( TRY_ACCESS ) ) );
+    }
+
+}
@@ -120,13 +120,31 @@ public final class PIPReader extends PIPBase {
     public void retrieve( RequestType request ) throws PIPException {
         Reject.ifNull( request );
 
-        Attribute attribute = getAttributes().get( 0 );
-        addAdditionalInformation( request, attribute );
+        Attribute attribute = getRetrievalAttributes( request ).get( 0 );
         String value = retrieve( attribute );
 
         request.addAttribute( attribute, value );
     }
 
+    /**
+     * The attribute is copied, hence requests retrieved at the same time do
+     * not share the entity they refer to
+     */
+    @Override
+    public List<Attribute> getRetrievalAttributes( RequestType request ) throws PIPException {
+        Reject.ifNull( request );
+
+        Attribute monitored = getAttributes().get( 0 );
+        Attribute attribute = new Attribute();
+        attribute.setAttributeId( monitored.getAttributeId() );
+        attribute.setCategory( monitored.getCategory() );
+        attribute.setDataType( monitored.getDataType() );
+        if( !isEnvironmentCategory( attribute ) ) {
+            addAdditionalInformation( request, attribute );
+        }
+        return Arrays.asList( attribute );
+    }
+
     /**
      * This is the function called by the context handler whenever we have a
      * remote retrieve request
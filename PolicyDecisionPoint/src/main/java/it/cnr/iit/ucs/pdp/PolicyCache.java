@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wso2.balana.finder.PolicyFinder;
+
+import it.cnr.iit.ucs.exceptions.PolicyException;
+import it.cnr.iit.utility.HashUtility;
+
+/**
+ * Bounded cache of the policies compiled by the PDP, keyed by the hash of
+ * the policy content and the condition evaluated. A known policy is evaluated
+ * with its compiled Balana policy tree, without extracting the condition and
+ * parsing the XML again. The least recently used policy is evicted when the
+ * cache is full.
+ * The compiled policies are only read by the evaluations, hence they are
+ * shared by the threads evaluating the same policy. The cache is thread safe.
+ */
+public final class PolicyCache {
+
+    private final int maxSize;
+    private final Map<String, CompiledPolicy> policies;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize
+     *          the number of compiled policies kept, 0 to disable the cache
+     */
+    PolicyCache( int maxSize ) {
+        this.maxSize = Math.max( 0, maxSize );
+        policies = new LinkedHashMap<String, CompiledPolicy>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, CompiledPolicy> eldest ) {
+                boolean evict = size() > PolicyCache.this.maxSize;
+                if( evict ) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the compiled policy for a condition, compiling it if it is
+     * not known yet
+     *
+     * @param policy
+     *          the content of the whole policy
+     * @param condition
+     *          the condition evaluated, empty for the whole policy
+     * @param compiler
+     *          compiles the policy for the condition
+     */
+    CompiledPolicy get( String policy, String condition, Compiler compiler ) throws PolicyException {
+        if( maxSize == 0 ) {
+            misses.incrementAndGet();
+            return compiler.compile();
+        }
+        String key = HashUtility.sha256Hex( policy ) + "#" + condition;
+        CompiledPolicy compiled;
+        synchronized( policies ) {
+            compiled = policies.get( key );
+        }
+        if( compiled != null ) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        compiled = compiler.compile();
+        synchronized( policies ) {
+            policies.put( key, compiled );
+        }
+        return compiled;
+    }
+
+    /**
+     * Retrieves the number of evaluations served by a compiled policy
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of evaluations that compiled their policy
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of compiled policies evicted
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Retrieves the number of compiled policies currently kept
+     */
+    public int size() {
+        synchronized( policies ) {
+            return policies.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "%d policies, %d hits, %d misses, %d evictions", size(), getHits(), getMisses(),
+            getEvictions() );
+    }
+
+    @FunctionalInterface
+    interface Compiler {
+        CompiledPolicy compile() throws PolicyException;
+    }
+
+    /**
+     * A policy compiled for a condition, with the content it was compiled from
+     */
+    static final class CompiledPolicy {
+        private final PolicyFinder policyFinder;
+        private final String policy;
+
+        CompiledPolicy( PolicyFinder policyFinder, String policy ) {
+            this.policyFinder = policyFinder;
+            this.policy = policy;
+        }
+
+        PolicyFinder getPolicyFinder() {
+            return policyFinder;
+        }
+
+        String getPolicy() {
+            return policy;
+        }
+    }
+
+}
@@ -17,13 +17,18 @@ package it.cnr.iit.ucs.pdp;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBException;
-
 import org.wso2.balana.AbstractPolicy;
 import org.wso2.balana.Balana;
 import org.wso2.balana.PDPConfig;
@@ -54,14 +59,13 @@ import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.exceptions.PolicyException;
 import it.cnr.iit.ucs.journaling.JournalBuilder;
 import it.cnr.iit.ucs.journaling.JournalingInterface;
+import it.cnr.iit.ucs.pdp.PolicyCache.CompiledPolicy;
 import it.cnr.iit.ucs.properties.components.PdpProperties;
-import it.cnr.iit.utility.JAXBUtility;
+import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.PolicyTags;
 import it.cnr.iit.xacml.wrappers.PolicyWrapper;
 import it.cnr.iit.xacml.wrappers.RequestWrapper;
 
-import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
-
 /**
  * This PDP is a wrapper around the one offered by BALANA.
  * In our implementation we are able to evaluate single condition policies only,
@@ -77,42 +81,108 @@ public final class PolicyDecisionPoint extends AbstractPDP {
 
     private static Logger log = Logger.getLogger( PolicyDecisionPoint.class.getName() );
 
+    private static final String WHOLE_POLICY = "";
+
     private Balana balana = Balana.getInstance();
     private JournalingInterface journalInterface;
+    private final PolicyCache policyCache;
+    // null when the requests of a batch are evaluated by the calling thread
+    private final ExecutorService evaluationExecutor;
 
     public PolicyDecisionPoint( PdpProperties properties ) {
         super( properties );
         journalInterface = JournalBuilder.build( properties );
+        policyCache = new PolicyCache( properties.getPolicyCacheSize() );
+        evaluationExecutor = buildEvaluationExecutor( properties.getEvaluationThreads() );
+    }
+
+    private static ExecutorService buildEvaluationExecutor( int threads ) {
+        if( threads <= 1 ) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool( threads, runnable -> {
+            Thread thread = new Thread( runnable, "pdp-evaluation-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
     }
 
     @Override
     public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy, STATUS status ) {
         String conditionName = PolicyTags.getCondition( status );
-        PolicyWrapper policyForCondition;
+        CompiledPolicy compiledPolicy;
         try {
-            policyForCondition = policy.getPolicyForCondition( conditionName );
+            compiledPolicy = policyCache.get( policy.getPolicy(), conditionName,
+                () -> compile( policy.getPolicyForCondition( conditionName ) ) );
         } catch( PolicyException e ) {
             return null;
         }
-        return evaluate( request, policyForCondition );
+        return evaluate( request, compiledPolicy );
+    }
+
+    /**
+     * Evaluates the requests versus the policy compiled once for all of them,
+     * in parallel on the evaluation threads. The evaluations are returned in
+     * the order of the requests.
+     */
+    @Override
+    public List<PDPEvaluation> evaluateBatch( List<RequestWrapper> requests, PolicyWrapper policy, STATUS status ) {
+        Reject.ifNull( requests );
+        List<PDPEvaluation> evaluations = new ArrayList<>( Collections.nCopies( requests.size(), null ) );
+        String conditionName = PolicyTags.getCondition( status );
+        CompiledPolicy compiledPolicy;
+        try {
+            compiledPolicy = policyCache.get( policy.getPolicy(), conditionName,
+                () -> compile( policy.getPolicyForCondition( conditionName ) ) );
+        } catch( PolicyException e ) {
+            return evaluations;
+        }
+        if( evaluationExecutor == null || requests.size() == 1 ) {
+            for( int i = 0; i < requests.size(); i++ ) {
+                evaluations.set( i, evaluate( requests.get( i ), compiledPolicy ) );
+            }
+            return evaluations;
+        }
+
+        List<Callable<PDPEvaluation>> tasks = new ArrayList<>( requests.size() );
+        for( RequestWrapper request : requests ) {
+            tasks.add( () -> evaluate( request, compiledPolicy ) );
+        }
+        try {
+            List<Future<PDPEvaluation>> futures = evaluationExecutor.invokeAll( tasks );
+            for( int i = 0; i < futures.size(); i++ ) {
+                evaluations.set( i, futures.get( i ).get() );
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch( ExecutionException e ) {
+            log.severe( "Error in batch evaluation : " + e.getMessage() );
+        }
+        return evaluations;
     }
 
     @Override
     public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy ) {
         try {
-            PolicyFinder policyFinder = getPolicyFinder( policy );
-            ResponseCtx responseCtx = evaluate( request.getRequest(), policyFinder );
-            journalInterface.logMultipleStrings( policy.getPolicy(), request.getRequest(), responseCtx.encode() );
-            ResponseType responseType = getResponseType( responseCtx.encode() );
-            return new PDPResponse( responseType );
+            return evaluate( request, policyCache.get( policy.getPolicy(), WHOLE_POLICY, () -> compile( policy ) ) );
         } catch( Exception e ) {
             log.severe( "Error in evaluation : " + e.getMessage() );
         }
         return null;
     }
 
-    private ResponseType getResponseType( String response ) throws JAXBException {
-        return JAXBUtility.unmarshalToObject( ResponseType.class, response );
+    private PDPEvaluation evaluate( RequestWrapper request, CompiledPolicy policy ) {
+        try {
+            ResponseCtx responseCtx = evaluate( request, policy.getPolicyFinder() );
+            if( journalInterface.isEnabled() ) {
+                journalInterface.logMultipleStrings( policy.getPolicy(), request.getRequest(), responseCtx.encode() );
+            }
+            return new PDPResponse( ResponseMapper.toResponseType( responseCtx ) );
+        } catch( Exception e ) {
+            log.severe( "Error in evaluation : " + e.getMessage() );
+        }
+        return null;
     }
 
     @Override
@@ -121,14 +191,21 @@ public final class PolicyDecisionPoint extends AbstractPDP {
         return null;
     }
 
-    private PolicyFinder getPolicyFinder( PolicyWrapper policy ) {
+    /**
+     * Retrieves the counters of the policies compiled by this PDP
+     */
+    public PolicyCache getPolicyCache() {
+        return policyCache;
+    }
+
+    private static CompiledPolicy compile( PolicyWrapper policy ) {
         PolicyFinder policyFinder = new PolicyFinder();
         Set<PolicyFinderModule> policyFinderModulesSet = new HashSet<>();
         InputStreamBasedPolicyFinderModule finderModule = new InputStreamBasedPolicyFinderModule( policy.getPolicy() );
         policyFinderModulesSet.add( finderModule );
         policyFinder.setModules( policyFinderModulesSet );
         policyFinder.init();
-        return policyFinder;
+        return new CompiledPolicy( policyFinder, policy.getPolicy() );
     }
 
     /**
@@ -139,16 +216,23 @@ public final class PolicyDecisionPoint extends AbstractPDP {
      * Note that if the request is somehow invalid (it was missing a required
      * attribute, it was using an unsupported scope, etc), then the result will be
      * a decision of INDETERMINATE.
+     * The BALANA request is built from the request type, its xml is parsed only
+     * when the request type cannot be mapped.
      *
      * @param request
      *          the request to evaluate
      *
      * @return a response paired to the request
      */
-    private ResponseCtx evaluate( String request, PolicyFinder policyFinder ) {
+    private ResponseCtx evaluate( RequestWrapper request, PolicyFinder policyFinder ) {
         try {
-            // TODO UCS-36 NOSONAR
-            AbstractRequestCtx requestCtx = RequestCtxFactory.getFactory().getRequestCtx( request.replaceAll( ">\\s+<", "><" ) );
+            AbstractRequestCtx requestCtx;
+            if( RequestMapper.canMap( request.getRequestType() ) ) {
+                requestCtx = RequestMapper.toRequestCtx( request.getRequestType(), balana.getAttributeFactory() );
+            } else {
+                // TODO UCS-36 NOSONAR
+                requestCtx = RequestCtxFactory.getFactory().getRequestCtx( request.getRequest().replaceAll( ">\\s+<", "><" ) );
+            }
             return evaluate( requestCtx, policyFinder );
         } catch( ParsingException e ) {
             return getResponseCtx( AbstractResult.DECISION_INDETERMINATE, Status.STATUS_SYNTAX_ERROR,
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.wso2.balana.ParsingException;
+import org.wso2.balana.UnknownIdentifierException;
+import org.wso2.balana.XACMLConstants;
+import org.wso2.balana.attr.AttributeFactory;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.ctx.Attribute;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.xacml3.Attributes;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * Builds the BALANA request straight from the RequestType, without
+ * marshalling it to xml and parsing it back.
+ * Requests using the content of the categories, multiple requests, request
+ * defaults or attributes without values cannot be mapped and have to be
+ * parsed from their xml.
+ */
+final class RequestMapper {
+
+    private RequestMapper() {}
+
+    static boolean canMap( RequestType requestType ) {
+        if( requestType.getMultiRequests() != null || requestType.getRequestDefaults() != null ) {
+            return false;
+        }
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            if( attributesType.getContent() != null ) {
+                return false;
+            }
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                // the data type of an attribute is the one of its values
+                if( attributeType.getAttributeValue().isEmpty() ) {
+                    return false;
+                }
+                for( AttributeValueType valueType : attributeType.getAttributeValue() ) {
+                    if( valueType.getContent().stream().anyMatch( content -> !( content instanceof String ) ) ) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    static RequestCtx toRequestCtx( RequestType requestType, AttributeFactory attributeFactory ) throws ParsingException {
+        Set<Attributes> attributesSet = new HashSet<>();
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            Set<Attribute> attributes = new HashSet<>();
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                attributes.add( toAttribute( attributeType, attributeFactory ) );
+            }
+            attributesSet.add( new Attributes( toURI( attributesType.getCategory() ), null, attributes, attributesType.getId() ) );
+        }
+        return new RequestCtx( null, attributesSet, requestType.isReturnPolicyIdList(), requestType.isCombinedDecision(), null,
+            null );
+    }
+
+    private static Attribute toAttribute( AttributeType attributeType, AttributeFactory attributeFactory )
+            throws ParsingException {
+        List<AttributeValue> values = new ArrayList<>();
+        URI type = null;
+        for( AttributeValueType valueType : attributeType.getAttributeValue() ) {
+            type = toURI( valueType.getDataType() );
+            try {
+                // the mixed content is marshalled as a single text
+                values.add( attributeFactory.createValue( type, String.join( "", getText( valueType ) ) ) );
+            } catch( UnknownIdentifierException e ) {
+                throw new ParsingException( "Unknown DataType : " + valueType.getDataType(), e );
+            }
+        }
+        return new Attribute( toURI( attributeType.getAttributeId() ), type, attributeType.getIssuer(), null, values,
+            attributeType.isIncludeInResult(), XACMLConstants.XACML_VERSION_3_0 );
+    }
+
+    private static List<String> getText( AttributeValueType valueType ) {
+        List<String> text = new ArrayList<>();
+        for( Object content : valueType.getContent() ) {
+            text.add( (String) content );
+        }
+        return text;
+    }
+
+    private static URI toURI( String value ) throws ParsingException {
+        try {
+            return new URI( value );
+        } catch( Exception e ) {
+            throw new ParsingException( "Invalid URI : " + value, e );
+        }
+    }
+
+}
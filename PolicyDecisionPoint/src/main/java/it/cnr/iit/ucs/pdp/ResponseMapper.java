@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.pdp;
+
+import java.util.List;
+
+import org.wso2.balana.ObligationResult;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.Attribute;
+import org.wso2.balana.ctx.AttributeAssignment;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.ctx.xacml3.Result;
+import org.wso2.balana.xacml3.Advice;
+import org.wso2.balana.xacml3.Attributes;
+import org.wso2.balana.xacml3.Obligation;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AdviceType;
+import oasis.names.tc.xacml.core.schema.wd_17.AssociatedAdviceType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeAssignmentType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml.core.schema.wd_17.ObligationType;
+import oasis.names.tc.xacml.core.schema.wd_17.ObligationsType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResultType;
+import oasis.names.tc.xacml.core.schema.wd_17.StatusCodeType;
+import oasis.names.tc.xacml.core.schema.wd_17.StatusType;
+
+/**
+ * Builds the ResponseType of an evaluation straight from the results computed
+ * by BALANA, without encoding them to xml and parsing them back.
+ * Decision, status, obligations, advices and the attributes included in the
+ * result are mapped, the status detail and the policy identifiers are not
+ * exposed by BALANA and are left out.
+ */
+final class ResponseMapper {
+
+    private ResponseMapper() {}
+
+    static ResponseType toResponseType( ResponseCtx responseCtx ) {
+        ResponseType responseType = new ResponseType();
+        for( AbstractResult result : responseCtx.getResults() ) {
+            responseType.getResult().add( toResultType( result ) );
+        }
+        return responseType;
+    }
+
+    private static ResultType toResultType( AbstractResult result ) {
+        ResultType resultType = new ResultType();
+        resultType.setDecision( toDecisionType( result.getDecision() ) );
+        if( result.getStatus() != null ) {
+            resultType.setStatus( toStatusType( result.getStatus() ) );
+        }
+        if( result.getObligations() != null && !result.getObligations().isEmpty() ) {
+            ObligationsType obligations = new ObligationsType();
+            for( ObligationResult obligation : result.getObligations() ) {
+                if( obligation instanceof Obligation ) {
+                    obligations.getObligation().add( toObligationType( (Obligation) obligation ) );
+                }
+            }
+            resultType.setObligations( obligations );
+        }
+        if( result.getAdvices() != null && !result.getAdvices().isEmpty() ) {
+            AssociatedAdviceType advices = new AssociatedAdviceType();
+            for( Advice advice : result.getAdvices() ) {
+                advices.getAdvice().add( toAdviceType( advice ) );
+            }
+            resultType.setAssociatedAdvice( advices );
+        }
+        if( result instanceof Result && ( (Result) result ).getAttributes() != null ) {
+            for( Attributes attributes : ( (Result) result ).getAttributes() ) {
+                resultType.getAttributes().add( toAttributesType( attributes ) );
+            }
+        }
+        return resultType;
+    }
+
+    private static DecisionType toDecisionType( int decision ) {
+        switch( decision ) {
+            case AbstractResult.DECISION_PERMIT:
+                return DecisionType.PERMIT;
+            case AbstractResult.DECISION_DENY:
+                return DecisionType.DENY;
+            case AbstractResult.DECISION_NOT_APPLICABLE:
+                return DecisionType.NOT_APPLICABLE;
+            default:
+                // the extended indeterminate decisions are encoded as indeterminate
+                return DecisionType.INDETERMINATE;
+        }
+    }
+
+    private static StatusType toStatusType( Status status ) {
+        StatusType statusType = new StatusType();
+        StatusCodeType parent = null;
+        for( String code : status.getCode() ) {
+            StatusCodeType statusCode = new StatusCodeType();
+            statusCode.setValue( code );
+            if( parent == null ) {
+                statusType.setStatusCode( statusCode );
+            } else {
+                parent.setStatusCode( statusCode );
+            }
+            parent = statusCode;
+        }
+        statusType.setStatusMessage( status.getMessage() );
+        return statusType;
+    }
+
+    private static ObligationType toObligationType( Obligation obligation ) {
+        ObligationType obligationType = new ObligationType();
+        obligationType.setObligationId( obligation.getObligationId().toString() );
+        addAssignments( obligation.getAssignments(), obligationType.getAttributeAssignment() );
+        return obligationType;
+    }
+
+    private static AdviceType toAdviceType( Advice advice ) {
+        AdviceType adviceType = new AdviceType();
+        adviceType.setAdviceId( advice.getAdviceId().toString() );
+        addAssignments( advice.getAssignments(), adviceType.getAttributeAssignment() );
+        return adviceType;
+    }
+
+    private static void addAssignments( List<AttributeAssignment> assignments, List<AttributeAssignmentType> assignmentTypes ) {
+        if( assignments == null ) {
+            return;
+        }
+        for( AttributeAssignment assignment : assignments ) {
+            AttributeAssignmentType assignmentType = new AttributeAssignmentType();
+            assignmentType.setAttributeId( toString( assignment.getAttributeId() ) );
+            assignmentType.setCategory( toString( assignment.getCategory() ) );
+            assignmentType.setIssuer( assignment.getIssuer() );
+            assignmentType.setDataType( toString( assignment.getType() ) );
+            if( assignment.getContent() != null ) {
+                assignmentType.getContent().add( assignment.getContent() );
+            }
+            assignmentTypes.add( assignmentType );
+        }
+    }
+
+    private static AttributesType toAttributesType( Attributes attributes ) {
+        AttributesType attributesType = new AttributesType();
+        attributesType.setCategory( toString( attributes.getCategory() ) );
+        attributesType.setId( attributes.getId() );
+        for( Attribute attribute : attributes.getAttributes() ) {
+            AttributeType attributeType = new AttributeType();
+            attributeType.setAttributeId( toString( attribute.getId() ) );
+            attributeType.setIssuer( attribute.getIssuer() );
+            attributeType.setIncludeInResult( attribute.isIncludeInResult() );
+            for( AttributeValue value : attribute.getValues() ) {
+                AttributeValueType valueType = new AttributeValueType();
+                valueType.setDataType( toString( value.getType() ) );
+                valueType.getContent().add( value.encode() );
+                attributeType.getAttributeValue().add( valueType );
+            }
+            attributesType.getAttribute().add( attributeType );
+        }
+        return attributesType;
+    }
+
+    private static String toString( Object value ) {
+        return value != null ? value.toString() : null;
+    }
+
+}
@@ -0,0 +1,87 @@
+package it.cnr.iit.ucs.pdp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.wso2.balana.Balana;
+import org.wso2.balana.attr.AttributeValue;
+import org.wso2.balana.ctx.Attribute;
+import org.wso2.balana.ctx.RequestCtxFactory;
+import org.wso2.balana.ctx.xacml3.RequestCtx;
+import org.wso2.balana.xacml3.Attributes;
+
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.MultiRequestsType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * The BALANA requests mapped from the request types hold the same attributes
+ * as the ones parsed from their xml.
+ */
+public class RequestMapperTest {
+
+    @Test
+    public void testMappedAsParsed() throws Exception {
+        RequestWrapper request = RequestWrapper.build( FileUtility.readFileAsString( "../res/xmls/request.xml" ) );
+        request.getRequestType().addAttribute( "urn:oasis:names:tc:xacml:3.0:attribute-category:environment",
+            "http://www.w3.org/2001/XMLSchema#integer", "urn:attribute:temperature", "21" );
+        assertTrue( RequestMapper.canMap( request.getRequestType() ) );
+
+        RequestCtx mapped = RequestMapper.toRequestCtx( request.getRequestType(), Balana.getInstance().getAttributeFactory() );
+        RequestCtx parsed = (RequestCtx) RequestCtxFactory.getFactory()
+            .getRequestCtx( RequestWrapper.marshalRequestType( request.getRequestType() ).replaceAll( ">\\s+<", "><" ) );
+        assertEquals( parsed.isReturnPolicyIdList(), mapped.isReturnPolicyIdList() );
+        assertEquals( parsed.isCombinedDecision(), mapped.isCombinedDecision() );
+        assertEquals( describe( parsed ), describe( mapped ) );
+        assertTrue( describe( mapped ).get( "urn:oasis:names:tc:xacml:3.0:attribute-category:environment" )
+            .containsKey( "urn:attribute:temperature" ) );
+    }
+
+    @Test
+    public void testMultipleRequestsParsed() throws Exception {
+        RequestType requestType = RequestWrapper.build( FileUtility.readFileAsString( "../res/xmls/request.xml" ) )
+            .getRequestType();
+        requestType.setMultiRequests( new MultiRequestsType() );
+        assertFalse( RequestMapper.canMap( requestType ) );
+    }
+
+    @Test
+    public void testAttributeWithoutValuesParsed() throws Exception {
+        RequestType requestType = RequestWrapper.build( FileUtility.readFileAsString( "../res/xmls/request.xml" ) )
+            .getRequestType();
+        AttributeType attributeType = new AttributeType();
+        attributeType.setAttributeId( "urn:attribute:empty" );
+        requestType.getAttributes().get( 0 ).getAttribute().add( attributeType );
+        assertFalse( RequestMapper.canMap( requestType ) );
+    }
+
+    /**
+     * Describes the attributes of each category of the request
+     */
+    private static Map<String, Map<String, String>> describe( RequestCtx request ) {
+        Map<String, Map<String, String>> categories = new TreeMap<>();
+        for( Attributes attributes : request.getAttributesSet() ) {
+            Map<String, String> category = categories.computeIfAbsent( attributes.getCategory().toString(),
+                key -> new TreeMap<>() );
+            for( Attribute attribute : attributes.getAttributes() ) {
+                StringBuilder description = new StringBuilder();
+                description.append( attribute.getType() ).append( ' ' ).append( attribute.getIssuer() ).append( ' ' )
+                    .append( attribute.isIncludeInResult() );
+                for( AttributeValue value : attribute.getValues() ) {
+                    description.append( ' ' ).append( value.encode() );
+                }
+                category.put( attribute.getId().toString(), description.toString() );
+            }
+        }
+        return categories;
+    }
+
+}
@@ -0,0 +1,115 @@
+package it.cnr.iit.ucs.pdp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.wso2.balana.ObligationResult;
+import org.wso2.balana.ctx.AbstractResult;
+import org.wso2.balana.ctx.AttributeAssignment;
+import org.wso2.balana.ctx.ResponseCtx;
+import org.wso2.balana.ctx.Status;
+import org.wso2.balana.ctx.xacml3.Result;
+import org.wso2.balana.xacml3.Advice;
+import org.wso2.balana.xacml3.Obligation;
+
+import it.cnr.iit.utility.JAXBUtility;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeAssignmentType;
+import oasis.names.tc.xacml.core.schema.wd_17.ObligationType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResponseType;
+import oasis.names.tc.xacml.core.schema.wd_17.ResultType;
+
+/**
+ * The responses mapped from the BALANA results match the ones obtained by
+ * encoding the results and parsing them back.
+ */
+public class ResponseMapperTest {
+
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
+    @Test
+    public void testObligationsAndAdvices() throws Exception {
+        AttributeAssignment assignment = new AttributeAssignment( URI.create( "urn:attribute:role" ), URI.create( STRING ),
+            URI.create( SUBJECT ), "IIT", null );
+        List<ObligationResult> obligations = Collections
+            .singletonList( new Obligation( Collections.singletonList( assignment ), URI.create( "urn:obligation:notify" ) ) );
+        List<Advice> advices = Collections
+            .singletonList( new Advice( URI.create( "urn:advice:log" ), Collections.singletonList( assignment ) ) );
+        assertMapped( new Result( AbstractResult.DECISION_PERMIT, Status.getOkInstance(), obligations, advices, null, null ) );
+    }
+
+    @Test
+    public void testIssuerMapped() {
+        // BALANA encodes the issuer of an assignment as malformed xml
+        AttributeAssignment assignment = new AttributeAssignment( URI.create( "urn:attribute:role" ), URI.create( STRING ),
+            URI.create( SUBJECT ), "IIT", "issuer" );
+        List<ObligationResult> obligations = Collections
+            .singletonList( new Obligation( Collections.singletonList( assignment ), URI.create( "urn:obligation:notify" ) ) );
+        ResponseType response = ResponseMapper.toResponseType(
+            new ResponseCtx( new Result( AbstractResult.DECISION_DENY, null, obligations, null, null, null ) ) );
+        ObligationType obligation = response.getResult().get( 0 ).getObligations().getObligation().get( 0 );
+        assertEquals( "issuer", obligation.getAttributeAssignment().get( 0 ).getIssuer() );
+        assertEquals( Collections.singletonList( "urn:obligation:notify" ), new PDPResponse( response ).getObligations() );
+    }
+
+    @Test
+    public void testIndeterminateStatus() throws Exception {
+        Status status = new Status( Arrays.asList( Status.STATUS_PROCESSING_ERROR, Status.STATUS_SYNTAX_ERROR ),
+            "invalid request" );
+        assertMapped( new Result( AbstractResult.DECISION_INDETERMINATE_DENY, status ) );
+        assertMapped( new Result( AbstractResult.DECISION_NOT_APPLICABLE, null ) );
+    }
+
+    private static void assertMapped( AbstractResult result ) throws Exception {
+        ResponseCtx responseCtx = new ResponseCtx( result );
+        ResultType parsed = parse( responseCtx ).getResult().get( 0 );
+        ResultType mapped = ResponseMapper.toResponseType( responseCtx ).getResult().get( 0 );
+
+        assertEquals( parsed.getDecision(), mapped.getDecision() );
+        if( parsed.getStatus() == null ) {
+            assertNull( mapped.getStatus() );
+        } else {
+            assertEquals( parsed.getStatus().getStatusCode().getValue(), mapped.getStatus().getStatusCode().getValue() );
+            assertEquals( getNestedCode( parsed ), getNestedCode( mapped ) );
+            assertEquals( parsed.getStatus().getStatusMessage(), mapped.getStatus().getStatusMessage() );
+        }
+        assertEquals( parsed.getObligations() == null, mapped.getObligations() == null );
+        if( parsed.getObligations() != null ) {
+            ObligationType parsedObligation = parsed.getObligations().getObligation().get( 0 );
+            ObligationType mappedObligation = mapped.getObligations().getObligation().get( 0 );
+            assertEquals( parsedObligation.getObligationId(), mappedObligation.getObligationId() );
+            assertAssignment( parsedObligation.getAttributeAssignment().get( 0 ),
+                mappedObligation.getAttributeAssignment().get( 0 ) );
+            assertEquals( parsed.getAssociatedAdvice().getAdvice().get( 0 ).getAdviceId(),
+                mapped.getAssociatedAdvice().getAdvice().get( 0 ).getAdviceId() );
+        }
+        assertEquals( new PDPResponse( parse( responseCtx ) ).getObligations(),
+            new PDPResponse( ResponseMapper.toResponseType( responseCtx ) ).getObligations() );
+    }
+
+    private static ResponseType parse( ResponseCtx responseCtx ) throws Exception {
+        return JAXBUtility.unmarshalToObject( ResponseType.class, responseCtx.encode() );
+    }
+
+    private static void assertAssignment( AttributeAssignmentType parsed, AttributeAssignmentType mapped ) {
+        assertEquals( parsed.getAttributeId(), mapped.getAttributeId() );
+        assertEquals( parsed.getCategory(), mapped.getCategory() );
+        assertEquals( parsed.getIssuer(), mapped.getIssuer() );
+        assertEquals( parsed.getDataType(), mapped.getDataType() );
+        assertEquals( parsed.getContent(), mapped.getContent() );
+    }
+
+    private static String getNestedCode( ResultType result ) {
+        return result.getStatus().getStatusCode().getStatusCode() != null
+                ? result.getStatus().getStatusCode().getStatusCode().getValue()
+                : null;
+    }
+
+}
@@ -1,11 +1,14 @@
 package it.cnr.iit.ucs.pdptest;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -108,6 +111,16 @@ public class PDPTest {
             public Map<String, String> getJournalAdditionalProperties() {
                 return null;
             }
+
+            @Override
+            public int getPolicyCacheSize() {
+                return 4;
+            }
+
+            @Override
+            public int getEvaluationThreads() {
+                return 2;
+            }
         };
 
         policyDecisionpoint = new PolicyDecisionPoint( pdpProperties );
@@ -139,6 +152,47 @@ public class PDPTest {
         assertThat( testEvaluation( requestPermit, policyWrapperDup, STATUS.TRY ) ).contains( "permit" );
     }
 
+    @Test
+    public void testPolicyCache() {
+        PolicyWrapper policyWrapper = getPolicyWrapper( this.policy );
+        assertThat( testEvaluation( requestPermit, policyWrapper, STATUS.START ) ).contains( "permit" );
+        assertEquals( 0, policyDecisionpoint.getPolicyCache().getHits() );
+        assertEquals( 1, policyDecisionpoint.getPolicyCache().getMisses() );
+
+        // the same policy built again is known by its content
+        assertThat( testEvaluation( requestDeny, getPolicyWrapper( this.policy ), STATUS.START ) ).contains( "deny" );
+        assertThat( testEvaluation( requestPermit, policyWrapper, STATUS.START ) ).contains( "permit" );
+        assertEquals( 2, policyDecisionpoint.getPolicyCache().getHits() );
+
+        // each condition is compiled apart, the least recently used is evicted
+        testEvaluation( requestPermit, policyWrapper, STATUS.TRY );
+        testEvaluation( requestPermit, policyWrapper, STATUS.END );
+        testEvaluation( requestPermit, policyWrapper );
+        testEvaluation( requestPermit, getPolicyWrapper( policyDup ), STATUS.TRY );
+        assertEquals( 5, policyDecisionpoint.getPolicyCache().getMisses() );
+        assertEquals( 1, policyDecisionpoint.getPolicyCache().getEvictions() );
+        assertEquals( 4, policyDecisionpoint.getPolicyCache().size() );
+        log.info( policyDecisionpoint.getPolicyCache().toString() );
+    }
+
+    @Test
+    public void testEvaluateBatch() {
+        PolicyWrapper policyWrapper = getPolicyWrapper( this.policy );
+        List<RequestWrapper> requests = new ArrayList<>();
+        for( int i = 0; i < 4; i++ ) {
+            requests.add( getRequestWrapper( requestPermit ) );
+            requests.add( getRequestWrapper( requestDeny ) );
+        }
+        List<PDPEvaluation> evaluations = policyDecisionpoint.evaluateBatch( requests, policyWrapper, STATUS.START );
+        assertEquals( requests.size(), evaluations.size() );
+        for( int i = 0; i < evaluations.size(); i++ ) {
+            assertThat( evaluations.get( i ).getResult().toLowerCase() ).contains( i % 2 == 0 ? "permit" : "deny" );
+        }
+        // the policy is compiled once for the whole batch
+        assertEquals( 1, policyDecisionpoint.getPolicyCache().getMisses() );
+        assertEquals( 0, policyDecisionpoint.getPolicyCache().getHits() );
+    }
+
     private String testEvaluation( String request, PolicyWrapper policy ) {
         RequestWrapper requestWrapper = null;
         try {
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only store of deduplicated blobs kept in memory-mapped segments.
+ * Each blob is written once, prefixed by its length plus one so that a zero
+ * marks the end of the data of a segment, and is addressed by its offset.
+ * A blob that does not fit in the rest of a segment starts the next one.
+ * The offsets of the stored blobs are indexed off heap by hash, the index is
+ * rebuilt by scanning the segments when the store is reopened.
+ * Blobs are not deleted while the store is open, the store grows with every
+ * distinct content stored; the owner reclaims the blobs no longer referenced
+ * by copying the referenced ones to a new store.
+ * The store is not thread safe.
+ */
+final class BlobStore {
+
+    // the offset 0 addresses no blob
+    static final long NULL_REF = 0;
+    private static final int HEADER_SIZE = 8;
+    private static final int LENGTH_SIZE = 4;
+
+    private final MappedSegments segments;
+    private final OffHeapIndex index = new OffHeapIndex();
+    private long tail;
+
+    BlobStore( MappedSegments segments ) throws IOException {
+        this.segments = segments;
+        segments.ensureSegments( 1 );
+        scan();
+    }
+
+    /**
+     * Stores a blob unless an equal one is already stored
+     *
+     * @return the offset addressing the blob
+     */
+    long store( byte[] bytes ) throws IOException {
+        long hash = OffHeapIndex.hash( bytes );
+        long[] found = { NULL_REF };
+        index.forEach( hash, ref -> {
+            if( found[0] == NULL_REF && Arrays.equals( bytes, load( ref ) ) ) {
+                found[0] = ref;
+            }
+        } );
+        if( found[0] != NULL_REF ) {
+            return found[0];
+        }
+
+        int segmentSize = segments.getSegmentSize();
+        if( bytes.length + LENGTH_SIZE > segmentSize - HEADER_SIZE ) {
+            throw new IllegalArgumentException( "blob of " + bytes.length + " bytes does not fit in a segment" );
+        }
+        if( segments.positionOf( tail ) + LENGTH_SIZE + bytes.length > segmentSize ) {
+            tail = ( tail / segmentSize + 1 ) * segmentSize;
+        }
+        segments.ensureSegments( (int) ( tail / segmentSize ) + 1 );
+        ByteBuffer segment = segments.segmentOf( tail ).duplicate();
+        segment.position( segments.positionOf( tail ) + LENGTH_SIZE );
+        segment.put( bytes );
+        // the length is written last, a blob is visible only once complete
+        segment.putInt( segments.positionOf( tail ), bytes.length + 1 );
+
+        long ref = tail;
+        tail += LENGTH_SIZE + bytes.length;
+        index.put( hash, ref );
+        return ref;
+    }
+
+    long storeString( String value ) throws IOException {
+        return value != null ? store( value.getBytes( StandardCharsets.UTF_8 ) ) : NULL_REF;
+    }
+
+    byte[] load( long ref ) {
+        ByteBuffer segment = segments.segmentOf( ref ).duplicate();
+        int position = segments.positionOf( ref );
+        byte[] bytes = new byte[segment.getInt( position ) - 1];
+        segment.position( position + LENGTH_SIZE );
+        segment.get( bytes );
+        return bytes;
+    }
+
+    String loadString( long ref ) {
+        return ref != NULL_REF ? new String( load( ref ), StandardCharsets.UTF_8 ) : null;
+    }
+
+    void force() {
+        segments.force();
+    }
+
+    void close() {
+        segments.close();
+    }
+
+    /**
+     * Retrieves the bytes taken by a blob, header included
+     */
+    int sizeOf( long ref ) {
+        return LENGTH_SIZE + segments.segmentOf( ref ).getInt( segments.positionOf( ref ) ) - 1;
+    }
+
+    /**
+     * Retrieves the bytes taken by the blobs, headers included
+     */
+    long getSize() {
+        return tail;
+    }
+
+    /**
+     * Retrieves the off heap memory taken by the index of the blobs
+     */
+    long getIndexMemory() {
+        return index.getMemory();
+    }
+
+    /**
+     * Indexes the blobs already stored and finds the end of the data, which
+     * is in the last segment holding any blob
+     */
+    private void scan() {
+        int segmentSize = segments.getSegmentSize();
+        tail = HEADER_SIZE;
+        for( int s = 0; s < segments.getSegmentCount(); s++ ) {
+            ByteBuffer segment = segments.segment( s );
+            int position = s == 0 ? HEADER_SIZE : 0;
+            while( position + LENGTH_SIZE <= segmentSize && segment.getInt( position ) != 0 ) {
+                long ref = (long) s * segmentSize + position;
+                index.put( OffHeapIndex.hash( load( ref ) ), ref );
+                position += LENGTH_SIZE + segment.getInt( position ) - 1;
+                tail = (long) s * segmentSize + position;
+            }
+        }
+    }
+
+}
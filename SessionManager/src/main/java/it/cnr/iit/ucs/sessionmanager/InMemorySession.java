@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Session kept by the in memory session managers. It carries the same
+ * informations of the persisted Session without any OrmLite binding.
+ */
+final class InMemorySession implements SessionInterface {
+
+    private final String id;
+    private final String policySet;
+    private volatile String originalRequest;
+    private volatile String status;
+    private final String pepURI;
+    private final String myIP;
+    private final List<OnGoingAttributesInterface> onGoingAttributes;
+
+    InMemorySession( String id, String policySet, String originalRequest, String status, String pepURI, String myIP,
+            List<OnGoingAttributesInterface> onGoingAttributes ) {
+        this.id = id;
+        this.policySet = policySet;
+        this.originalRequest = originalRequest;
+        this.status = status;
+        this.pepURI = pepURI;
+        this.myIP = myIP;
+        this.onGoingAttributes = Collections.unmodifiableList( new ArrayList<>( onGoingAttributes ) );
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getPolicySet() {
+        return policySet;
+    }
+
+    /**
+     * Retrieves the policySet, which is held in memory
+     */
+    @Override
+    public String getPolicyKey() {
+        return policySet;
+    }
+
+    @Override
+    public String getStatus() {
+        return status;
+    }
+
+    void setStatus( String status ) {
+        this.status = status;
+    }
+
+    @Override
+    public boolean isStatus( String status ) {
+        return this.status.equalsIgnoreCase( status );
+    }
+
+    @Override
+    public String getOriginalRequest() {
+        return originalRequest;
+    }
+
+    @Override
+    public String getPepId() {
+        return pepURI;
+    }
+
+    @Override
+    public String getIP() {
+        return myIP;
+    }
+
+    @Override
+    public List<OnGoingAttributesInterface> getOnGoingAttributes() {
+        return onGoingAttributes;
+    }
+
+    @Override
+    public void setRequest( String request ) {
+        this.originalRequest = request;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionId = " + id + "\nStatus = " + status + "\npepURI = " + pepURI + "\nOnGoingAttributes = " + onGoingAttributes;
+    }
+
+}
@@ -0,0 +1,427 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * Session Manager that keeps all the sessions in memory.
+ * Sessions are indexed by the on going attributes they are interested in
+ * (attribute id and name of the related entity) and by their status, hence the
+ * lookups performed on attribute changes cost as much as the number of the
+ * affected sessions and no database is involved. The ids in the indexes are
+ * kept sorted, so a page of the affected sessions is read from the id that
+ * follows the previous page.
+ * It can be selected by setting
+ * <code>ucs.session-manager.name=it.cnr.iit.ucs.sessionmanager.InMemorySessionManager</code>,
+ * the sessions do not survive a restart of the UCS.
+ */
+public final class InMemorySessionManager implements SessionManagerInterface {
+
+    private static Logger log = Logger.getLogger( InMemorySessionManager.class.getName() );
+
+    // sessions indexed by their id
+    private final ConcurrentMap<String, InMemorySession> sessions = new ConcurrentHashMap<>();
+    // attribute id and entity name -> ids of the sessions interested in it
+    private final ConcurrentMap<AttributeKey, NavigableSet<String>> attributeIndex = new ConcurrentHashMap<>();
+    // attribute id -> ids of the sessions interested in it, regardless of the entity
+    private final ConcurrentMap<String, NavigableSet<String>> attributeIdIndex = new ConcurrentHashMap<>();
+    // status -> ids of the sessions in that status
+    private final ConcurrentMap<String, NavigableSet<String>> statusIndex = new ConcurrentHashMap<>();
+
+    private final ReevaluationTable reevaluationTable = new ReevaluationTable();
+
+    private volatile boolean initialized = false;
+
+    public InMemorySessionManager( SessionManagerProperties properties ) {
+        Reject.ifNull( properties );
+        initialized = true;
+    }
+
+    @Override
+    public Boolean start() {
+        isInitialized();
+        return true;
+    }
+
+    @Override
+    public Boolean stop() {
+        isInitialized();
+        sessions.clear();
+        attributeIndex.clear();
+        attributeIdIndex.clear();
+        statusIndex.clear();
+        return true;
+    }
+
+    @Override
+    public Boolean createEntry( SessionAttributes parameterObject ) {
+        Reject.ifNull( parameterObject );
+        String sessionId = parameterObject.getSessionId();
+        validStateAndArguments( sessionId, parameterObject.getStatus() );
+
+        List<OnGoingAttributesInterface> onGoingAttributes = new ArrayList<>();
+        for( OnGoingAttribute attribute : OnGoingAttribute.createOnGoingAttributes( parameterObject ) ) {
+            attribute.setSessionId( sessionId );
+            onGoingAttributes.add( attribute );
+        }
+        InMemorySession session = new InMemorySession( sessionId, parameterObject.getPolicySet(),
+            parameterObject.getOriginalRequest(), parameterObject.getStatus(), parameterObject.getPepURI(),
+            parameterObject.getMyIP(), onGoingAttributes );
+
+        synchronized( session ) {
+            if( sessions.putIfAbsent( sessionId, session ) != null ) {
+                log.severe( "ID already exists" );
+                return false;
+            }
+            for( OnGoingAttributesInterface attribute : onGoingAttributes ) {
+                addToIndex( attributeIndex, AttributeKey.of( (OnGoingAttribute) attribute ), sessionId );
+                addToIndex( attributeIdIndex, attribute.getAttributeId(), sessionId );
+            }
+            addToIndex( statusIndex, statusKey( session.getStatus() ), sessionId );
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean updateEntry( String sessionId, String status ) {
+        Reject.ifBlank( status );
+        Reject.ifBlank( sessionId );
+        InMemorySession session = sessions.get( sessionId );
+        if( session == null ) {
+            return false;
+        }
+        synchronized( session ) {
+            if( sessions.get( sessionId ) != session ) {
+                return false;
+            }
+            removeFromIndex( statusIndex, statusKey( session.getStatus() ), sessionId );
+            session.setStatus( status );
+            addToIndex( statusIndex, statusKey( status ), sessionId );
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean deleteEntry( String sessionId ) {
+        validStateAndArguments( sessionId );
+        InMemorySession session = sessions.get( sessionId );
+        if( session == null ) {
+            return false;
+        }
+        synchronized( session ) {
+            if( !sessions.remove( sessionId, session ) ) {
+                return false;
+            }
+            for( OnGoingAttributesInterface attribute : session.getOnGoingAttributes() ) {
+                removeFromIndex( attributeIndex, AttributeKey.of( (OnGoingAttribute) attribute ), sessionId );
+                removeFromIndex( attributeIdIndex, attribute.getAttributeId(), sessionId );
+            }
+            removeFromIndex( statusIndex, statusKey( session.getStatus() ), sessionId );
+        }
+        return true;
+    }
+
+    @Override
+    public int deleteEntries( Collection<String> sessionIds ) {
+        Reject.ifNull( sessionIds );
+        int deleted = 0;
+        for( String sessionId : sessionIds ) {
+            if( deleteEntry( sessionId ) ) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForAttribute( String attributeId ) {
+        validStateAndArguments( attributeId );
+        return getOnGoingSessions( attributeIdIndex.get( attributeId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForSubjectAttributes( String subjectName, String attributeId ) {
+        validStateAndArguments( subjectName, attributeId );
+        return getOnGoingSessions( attributeIndex.get( new AttributeKey( attributeId, COLUMN.SUBJECT, subjectName ) ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForResourceAttributes( String resourceName, String attributeId ) {
+        validStateAndArguments( resourceName, attributeId );
+        return getOnGoingSessions( attributeIndex.get( new AttributeKey( attributeId, COLUMN.RESOURCE, resourceName ) ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForActionAttributes( String actionName, String attributeId ) {
+        validStateAndArguments( actionName, attributeId );
+        return getOnGoingSessions( attributeIndex.get( new AttributeKey( attributeId, COLUMN.ACTION, actionName ) ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForEnvironmentAttributes( String attributeId ) {
+        validStateAndArguments( attributeId );
+        return getOnGoingSessions( attributeIndex.get( new AttributeKey( attributeId, COLUMN.ENVIRONMENT, "" ) ) );
+    }
+
+    @Override
+    public Optional<SessionInterface> getSessionForId( String sessionId ) {
+        validStateAndArguments( sessionId );
+        return Optional.ofNullable( sessions.get( sessionId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForStatus( String status ) {
+        validStateAndArguments( status );
+        Set<String> sessionIds = statusIndex.get( statusKey( status ) );
+        List<SessionInterface> list = new ArrayList<>();
+        if( sessionIds != null ) {
+            for( String sessionId : sessionIds ) {
+                InMemorySession session = sessions.get( sessionId );
+                if( session != null && session.isStatus( status ) ) {
+                    list.add( session );
+                }
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public SessionCursor streamSessions( SessionQuery query ) {
+        Reject.ifNull( query, "Invalid query" );
+        isInitialized();
+        Set<String> sessionIds = getSelectedIds( query );
+        return new Selection( sessionIds != null ? sessionIds.iterator() : Collections.emptyIterator(), query );
+    }
+
+    @Override
+    public long countSessions( SessionQuery query ) {
+        try (SessionCursor cursor = streamSessions( query )) {
+            return SessionPages.count( cursor );
+        }
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsPage( SessionQuery query, String afterSessionId, int pageSize ) {
+        Reject.ifNull( query, "Invalid query" );
+        Reject.ifLessThan( pageSize, 1, "page size must be positive" );
+        isInitialized();
+        NavigableSet<String> sessionIds = getSelectedIds( query );
+        if( sessionIds == null ) {
+            return new ArrayList<>();
+        }
+        if( afterSessionId != null ) {
+            sessionIds = sessionIds.tailSet( afterSessionId, false );
+        }
+        try (SessionCursor cursor = new Selection( sessionIds.iterator(), query )) {
+            return SessionPages.first( cursor, pageSize );
+        }
+    }
+
+    @Override
+    public List<OnGoingAttributesInterface> getOnGoingAttributes( String sessionId ) {
+        validStateAndArguments( sessionId );
+        InMemorySession session = sessions.get( sessionId );
+        return session != null ? new ArrayList<>( session.getOnGoingAttributes() ) : new ArrayList<>();
+    }
+
+    @Override
+    public REEV_STATUS checkSession( String sessionId, Attribute attribute ) {
+        return reevaluationTable.checkSession( sessionId, attribute );
+    }
+
+    @Override
+    public boolean insertSession( SessionInterface session, Attribute attribute ) {
+        return reevaluationTable.insertSession( session, attribute );
+    }
+
+    @Override
+    public boolean startSession( SessionInterface session ) {
+        return reevaluationTable.startSession( session );
+    }
+
+    @Override
+    public boolean stopSession( SessionInterface session ) {
+        return reevaluationTable.stopSession( session );
+    }
+
+    @Override
+    public boolean isInitialized() {
+        Reject.ifFalse( initialized, "SessionManager was not correctly initialized" );
+        return initialized;
+    }
+
+    /**
+     * Retrieves the sessions whose ids are passed as parameter keeping only the
+     * ones whose status is either START or REVOKE
+     */
+    private List<SessionInterface> getOnGoingSessions( Set<String> sessionIds ) {
+        List<SessionInterface> list = new ArrayList<>();
+        if( sessionIds == null ) {
+            return list;
+        }
+        for( String sessionId : sessionIds ) {
+            InMemorySession session = sessions.get( sessionId );
+            if( session != null && isOnGoing( session ) ) {
+                list.add( session );
+            }
+        }
+        return list;
+    }
+
+    private static boolean isOnGoing( InMemorySession session ) {
+        return session.isStatus( STATUS.START.name() ) || session.isStatus( STATUS.REVOKE.name() );
+    }
+
+    /**
+     * Retrieves the ids of the sessions that may be selected by the query from
+     * the index that serves it
+     */
+    private NavigableSet<String> getSelectedIds( SessionQuery query ) {
+        if( query.isStatusQuery() ) {
+            return statusIndex.get( statusKey( query.getStatus() ) );
+        } else if( query.getCategory() == null ) {
+            return attributeIdIndex.get( query.getAttributeId() );
+        }
+        return attributeIndex.get( new AttributeKey( query.getAttributeId(),
+            COLUMN.valueOf( query.getCategory().name() ), query.getName() ) );
+    }
+
+    private static <K> void addToIndex( ConcurrentMap<K, NavigableSet<String>> index, K key, String sessionId ) {
+        index.compute( key, ( k, set ) -> {
+            NavigableSet<String> result = set != null ? set : new ConcurrentSkipListSet<>();
+            result.add( sessionId );
+            return result;
+        } );
+    }
+
+    private static <K> void removeFromIndex( ConcurrentMap<K, NavigableSet<String>> index, K key, String sessionId ) {
+        index.computeIfPresent( key, ( k, set ) -> {
+            set.remove( sessionId );
+            return set.isEmpty() ? null : set;
+        } );
+    }
+
+    private static String statusKey( String status ) {
+        return status.toUpperCase( Locale.ROOT );
+    }
+
+    private void validStateAndArguments( String... strings ) {
+        isInitialized();
+        for( String string : strings ) {
+            Reject.ifBlank( string );
+        }
+    }
+
+    /**
+     * Cursor over the ids of an index, it looks the sessions up while it
+     * advances and skips the ones deleted or no longer selected by the query
+     */
+    private final class Selection implements SessionCursor {
+        private final Iterator<String> sessionIds;
+        private final SessionQuery query;
+        private InMemorySession next;
+
+        private Selection( Iterator<String> sessionIds, SessionQuery query ) {
+            this.sessionIds = sessionIds;
+            this.query = query;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( next == null && sessionIds.hasNext() ) {
+                InMemorySession session = sessions.get( sessionIds.next() );
+                if( session != null
+                        && ( query.isStatusQuery() ? session.isStatus( query.getStatus() ) : isOnGoing( session ) ) ) {
+                    next = session;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SessionInterface next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            SessionInterface session = next;
+            next = null;
+            return session;
+        }
+
+        @Override
+        public void close() {
+            // the ids are read from the live index, there is nothing to release
+        }
+    }
+
+    /**
+     * Key of the attribute index: the attribute id along with the column and
+     * the name of the entity to which it is related
+     */
+    private static final class AttributeKey {
+        private final String attributeId;
+        private final COLUMN column;
+        private final String name;
+
+        private AttributeKey( String attributeId, COLUMN column, String name ) {
+            this.attributeId = attributeId;
+            this.column = column;
+            this.name = name;
+        }
+
+        private static AttributeKey of( OnGoingAttribute attribute ) {
+            return new AttributeKey( attribute.getAttributeId(), attribute.getColumn(), attribute.getEntityName() );
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if( this == obj ) {
+                return true;
+            } else if( obj == null || getClass() != obj.getClass() ) {
+                return false;
+            }
+            AttributeKey other = (AttributeKey) obj;
+            return column == other.column && attributeId.equals( other.attributeId ) && name.equals( other.name );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash( attributeId, column, name );
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Sequence of memory-mapped files of the same size, named
+ * <code>prefix-00000.seg</code>, <code>prefix-00001.seg</code> and so on.
+ * The segments already present in the directory are mapped when the sequence
+ * is opened, new ones are appended on demand and are zero filled.
+ * Offsets are global: the segment is the offset divided by the segment size,
+ * data never crosses the end of a segment.
+ * The sequence is not thread safe, the callers serialize the writes and the
+ * mapping of new segments.
+ */
+final class MappedSegments {
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    MappedSegments( Path directory, String prefix, int segmentSize ) throws IOException {
+        Reject.ifNull( directory );
+        Reject.ifBlank( prefix );
+        Reject.ifLessThan( segmentSize, 1, "segment size" );
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        Files.createDirectories( directory );
+        int count = 0;
+        while( Files.exists( path( count ) ) ) {
+            count++;
+        }
+        ensureSegments( count );
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Maps segments until there are at least the given number of them
+     */
+    void ensureSegments( int count ) throws IOException {
+        if( count <= segments.length ) {
+            return;
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf( segments, count );
+        for( int i = segments.length; i < count; i++ ) {
+            try (FileChannel channel = FileChannel.open( path( i ), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE )) {
+                grown[i] = channel.map( FileChannel.MapMode.READ_WRITE, 0, segmentSize );
+            }
+        }
+        segments = grown;
+    }
+
+    ByteBuffer segment( int index ) {
+        return segments[index];
+    }
+
+    ByteBuffer segmentOf( long offset ) {
+        return segments[(int) ( offset / segmentSize )];
+    }
+
+    int positionOf( long offset ) {
+        return (int) ( offset % segmentSize );
+    }
+
+    /**
+     * Writes the modified pages of all the segments to their files
+     */
+    void force() {
+        for( MappedByteBuffer segment : segments ) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Forgets the segments, the mappings are released when they are collected
+     */
+    void close() {
+        segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Replaces the segments of a sequence with the first count segments of
+     * another one, which are renamed. The segments renamed by an interrupted
+     * replacement are not found again, so the replacement can be repeated.
+     * The sequences must not be mapped.
+     */
+    static void replace( Path directory, String prefix, String replacement, int count ) throws IOException {
+        for( int i = 0; i < count; i++ ) {
+            Path source = path( directory, replacement, i );
+            if( Files.exists( source ) ) {
+                Files.move( source, path( directory, prefix, i ), StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        delete( directory, prefix, count );
+    }
+
+    /**
+     * Deletes the segments of a sequence from the given index on, the sequence
+     * must not be mapped
+     */
+    static void delete( Path directory, String prefix, int from ) throws IOException {
+        for( int i = from; Files.deleteIfExists( path( directory, prefix, i ) ); i++ ) {
+            // deleted
+        }
+    }
+
+    private Path path( int index ) {
+        return path( directory, prefix, index );
+    }
+
+    private static Path path( Path directory, String prefix, int index ) {
+        return directory.resolve( String.format( "%s-%05d.seg", prefix, index ) );
+    }
+
+}
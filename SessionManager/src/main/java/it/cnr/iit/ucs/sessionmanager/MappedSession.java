@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.List;
+
+/**
+ * Session read from the records of the MappedSessionManager. It holds the
+ * references to the blobs of the record, the policy, the request and the on
+ * going attributes are loaded only when they are read. Blobs are never
+ * overwritten, hence the session stays readable after its record is deleted.
+ */
+final class MappedSession implements SessionInterface {
+
+    private final MappedSessionManager manager;
+    private final String id;
+    private final String status;
+    private final long[] refs;
+    private volatile String originalRequest;
+
+    MappedSession( MappedSessionManager manager, String id, String status, long[] refs ) {
+        this.manager = manager;
+        this.id = id;
+        this.status = status;
+        this.refs = refs;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getPolicySet() {
+        return manager.loadString( refs[MappedSessionManager.POLICY] );
+    }
+
+    /**
+     * Retrieves the reference of the policy blob, equal policies are stored
+     * once
+     */
+    @Override
+    public String getPolicyKey() {
+        long ref = refs[MappedSessionManager.POLICY];
+        return ref != BlobStore.NULL_REF ? Long.toString( ref ) : null;
+    }
+
+    @Override
+    public String getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean isStatus( String status ) {
+        return this.status.equalsIgnoreCase( status );
+    }
+
+    @Override
+    public String getOriginalRequest() {
+        String request = originalRequest;
+        return request != null ? request : manager.loadString( refs[MappedSessionManager.REQUEST] );
+    }
+
+    @Override
+    public String getPepId() {
+        return manager.loadString( refs[MappedSessionManager.PEP_URI] );
+    }
+
+    @Override
+    public String getIP() {
+        return manager.loadString( refs[MappedSessionManager.MY_IP] );
+    }
+
+    @Override
+    public List<OnGoingAttributesInterface> getOnGoingAttributes() {
+        return manager.toOnGoingAttributes( id, refs );
+    }
+
+    @Override
+    public void setRequest( String request ) {
+        this.originalRequest = request;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionId = " + id + "\nStatus = " + status;
+    }
+
+}
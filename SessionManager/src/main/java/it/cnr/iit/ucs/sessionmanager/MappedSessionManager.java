@@ -0,0 +1,1058 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+
+/**
+ * Session Manager that keeps the sessions off heap, in memory-mapped files,
+ * for deployments with millions of long lived sessions whose objects would
+ * otherwise fill the heap.
+ * <ul>
+ * <li>sessions are fixed-size records in the <code>sessions-*.seg</code>
+ * files, a deleted record is reused by the next session</li>
+ * <li>policies, requests, entity names and the lists of on going attributes
+ * are deduplicated blobs in the <code>blobs-*.seg</code> files, the records
+ * reference them by offset. The blobs of the deleted sessions are kept until
+ * the next start, which compacts the blobs once the unreferenced ones take
+ * more than the referenced ones and at least a segment</li>
+ * <li>session ids and on going attributes are indexed by open-addressing
+ * tables in direct buffers, rebuilt from the records when the files are
+ * mapped again after a restart</li>
+ * </ul>
+ * It can be selected by setting
+ * <code>ucs.session-manager.name=it.cnr.iit.ucs.sessionmanager.MappedSessionManager</code>,
+ * the db-uri is the directory of the files. Session ids longer than
+ * MAX_ID_LENGTH bytes are rejected. The status lookups scan the records, they
+ * are meant for the recovery after a restart.
+ * The pages of a query are read from its selection sorted by id, which is
+ * built with the first page and kept for the following ones; the sessions
+ * created after the first page are not in the following pages.
+ */
+public final class MappedSessionManager implements SessionManagerInterface {
+
+    private static final Logger log = Logger.getLogger( MappedSessionManager.class.getName() );
+
+    // indexes of the blob references of a record
+    static final int POLICY = 0;
+    static final int REQUEST = 1;
+    static final int PEP_URI = 2;
+    static final int MY_IP = 3;
+    static final int SUBJECT = 4;
+    static final int RESOURCE = 5;
+    static final int ACTION = 6;
+    static final int ATTRIBUTES = 7;
+    static final int STATUS_NAME = 8;
+    private static final int REFS = 9;
+
+    // record layout: state, status code, blob references, id length and id
+    private static final int STATE_OFFSET = 0;
+    private static final int STATUSCODE_OFFSET = 4;
+    private static final int REFS_OFFSET = 8;
+    private static final int ID_LENGTH_OFFSET = REFS_OFFSET + REFS * 8;
+    private static final int ID_OFFSET = ID_LENGTH_OFFSET + 2;
+    static final int RECORD_SIZE = 128;
+    static final int MAX_ID_LENGTH = RECORD_SIZE - ID_OFFSET;
+    private static final int FREE = 0;
+    private static final int USED = 1;
+
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+    private static final int DEFAULT_BLOB_SEGMENT_SIZE = 1 << 26;
+    // strings shorter than this are names, uris and statuses, cached apart from the contents
+    private static final int SMALL_STRING = 256;
+    private static final int NAMES_CACHE_SIZE = 4096;
+    private static final int CONTENTS_CACHE_SIZE = 64;
+    private static final int PAGED_SELECTIONS_CACHE_SIZE = 16;
+
+    private static final String SESSIONS = "sessions";
+    private static final String BLOBS = "blobs";
+    // suffix of the compacted copies of the files and name of the marker
+    // written once the copies are complete
+    private static final String COMPACTED = "compacted";
+
+    private static final COLUMN[] COLUMNS = { COLUMN.SUBJECT, COLUMN.RESOURCE, COLUMN.ACTION, COLUMN.ENVIRONMENT };
+    private static final int[] COLUMN_NAMES = { SUBJECT, RESOURCE, ACTION, -1 };
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final int blobSegmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedSegments records;
+    private BlobStore blobs;
+    // session id -> slot
+    private final OffHeapIndex idIndex = new OffHeapIndex();
+    // attribute id, column and entity name -> slot
+    private final OffHeapIndex attributeIndex = new OffHeapIndex();
+    // attribute id -> slot
+    private final OffHeapIndex attributeIdIndex = new OffHeapIndex();
+    private int[] freeSlots = new int[0];
+    private int freeCount = 0;
+    private int sessionCount = 0;
+
+    private final Map<Long, String> names = lruCache( NAMES_CACHE_SIZE );
+    private final Map<Long, String> contents = lruCache( CONTENTS_CACHE_SIZE );
+    private final Map<Long, List<List<String>>> attributeLists = lruCache( NAMES_CACHE_SIZE );
+    // query -> its selection sorted by id, while its pages are read
+    private final Map<String, SortedSelection> pagedSelections = lruCache( PAGED_SELECTIONS_CACHE_SIZE );
+    private final ReevaluationTable reevaluationTable = new ReevaluationTable();
+
+    private volatile boolean initialized = false;
+
+    public MappedSessionManager( SessionManagerProperties properties ) {
+        this( toDirectory( properties ), DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_BLOB_SEGMENT_SIZE );
+    }
+
+    MappedSessionManager( Path directory, int recordsPerSegment, int blobSegmentSize ) {
+        Reject.ifNull( directory );
+        Reject.ifLessThan( recordsPerSegment, 1, "records per segment" );
+        Reject.ifLessThan( blobSegmentSize, 1, "blob segment size" );
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.blobSegmentSize = blobSegmentSize;
+    }
+
+    private static Path toDirectory( SessionManagerProperties properties ) {
+        Reject.ifNull( properties );
+        Reject.ifBlank( properties.getDbUri() );
+        String uri = properties.getDbUri();
+        return Paths.get( uri.startsWith( "file:" ) ? uri.substring( "file:".length() ) : uri );
+    }
+
+    /**
+     * Maps the files in the directory, creating them if needed, and rebuilds
+     * the indexes from the records found
+     */
+    @Override
+    public Boolean start() {
+        lock.writeLock().lock();
+        try {
+            recoverCompaction();
+            mapFiles();
+            if( compactBlobs() ) {
+                mapFiles();
+            }
+            names.clear();
+            contents.clear();
+            attributeLists.clear();
+            rebuildIndexes();
+            initialized = true;
+            log.log( Level.INFO, "MappedSessionManager started with {0} sessions in {1}",
+                new Object[] { sessionCount, directory } );
+            return true;
+        } catch( IOException e ) {
+            log.severe( "Error mapping the session files : " + e.getMessage() );
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void mapFiles() throws IOException {
+        records = new MappedSegments( directory, SESSIONS, recordsPerSegment * RECORD_SIZE );
+        records.ensureSegments( 1 );
+        blobs = new BlobStore( new MappedSegments( directory, BLOBS, blobSegmentSize ) );
+    }
+
+    /**
+     * Copies the blobs referenced by the records to new blob files, and the
+     * records to new record files with the new offsets of their blobs, when the
+     * blobs no longer referenced take more than the referenced ones and at
+     * least a segment. Once the copies are complete a marker with their number
+     * of segments is written, from then on the copies replace the files even if
+     * the replacement is interrupted.
+     *
+     * @return true if the files have been replaced and must be mapped again
+     */
+    private boolean compactBlobs() throws IOException {
+        long[] live = liveRefs();
+        long liveBytes = 0;
+        for( long ref : live ) {
+            liveBytes += blobs.sizeOf( ref );
+        }
+        long reclaimable = blobs.getSize() - liveBytes;
+        if( reclaimable < Math.max( liveBytes, blobSegmentSize ) ) {
+            return false;
+        }
+
+        MappedSegments compactedBlobs = new MappedSegments( directory, BLOBS + "-" + COMPACTED, blobSegmentSize );
+        BlobStore compacted = new BlobStore( compactedBlobs );
+        long[] moved = new long[live.length];
+        for( int i = 0; i < live.length; i++ ) {
+            moved[i] = compacted.store( blobs.load( live[i] ) );
+        }
+        MappedSegments compactedRecords = new MappedSegments( directory, SESSIONS + "-" + COMPACTED,
+            recordsPerSegment * RECORD_SIZE );
+        compactedRecords.ensureSegments( records.getSegmentCount() );
+        byte[] bytes = new byte[RECORD_SIZE];
+        for( int slot = 0; slot < records.getSegmentCount() * recordsPerSegment; slot++ ) {
+            if( record( slot ).getInt( position( slot ) + STATE_OFFSET ) != USED ) {
+                continue;
+            }
+            ByteBuffer source = record( slot ).duplicate();
+            source.position( position( slot ) );
+            source.get( bytes );
+            ByteBuffer copy = ByteBuffer.wrap( bytes );
+            for( int i = 0; i < REFS; i++ ) {
+                long ref = copy.getLong( REFS_OFFSET + i * 8 );
+                if( ref != BlobStore.NULL_REF ) {
+                    copy.putLong( REFS_OFFSET + i * 8, moved[Arrays.binarySearch( live, ref )] );
+                }
+            }
+            ByteBuffer target = compactedRecords.segment( slot / recordsPerSegment ).duplicate();
+            target.position( position( slot ) );
+            target.put( bytes );
+        }
+        compacted.force();
+        compactedRecords.force();
+        try (FileChannel marker = FileChannel.open( directory.resolve( COMPACTED ), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE )) {
+            marker.write( ByteBuffer.wrap( ( compactedRecords.getSegmentCount() + " " + compactedBlobs.getSegmentCount() )
+                .getBytes( StandardCharsets.UTF_8 ) ) );
+            marker.force( true );
+        }
+        compacted.close();
+        compactedRecords.close();
+        blobs.close();
+        records.close();
+        installCompacted();
+        log.log( Level.INFO, "{0} bytes of blobs no longer referenced reclaimed", reclaimable );
+        return true;
+    }
+
+    /**
+     * Retrieves the distinct blob offsets referenced by the records, sorted
+     */
+    private long[] liveRefs() {
+        long[] refs = new long[64];
+        int count = 0;
+        for( int slot = 0; slot < records.getSegmentCount() * recordsPerSegment; slot++ ) {
+            if( record( slot ).getInt( position( slot ) + STATE_OFFSET ) != USED ) {
+                continue;
+            }
+            for( int i = 0; i < REFS; i++ ) {
+                long ref = record( slot ).getLong( position( slot ) + REFS_OFFSET + i * 8 );
+                if( ref != BlobStore.NULL_REF ) {
+                    if( count == refs.length ) {
+                        refs = Arrays.copyOf( refs, count * 2 );
+                    }
+                    refs[count++] = ref;
+                }
+            }
+        }
+        Arrays.sort( refs, 0, count );
+        int distinct = 0;
+        for( int i = 0; i < count; i++ ) {
+            if( distinct == 0 || refs[distinct - 1] != refs[i] ) {
+                refs[distinct++] = refs[i];
+            }
+        }
+        return Arrays.copyOf( refs, distinct );
+    }
+
+    /**
+     * Completes a compaction whose copies were complete, otherwise deletes the
+     * copies of an interrupted one
+     */
+    private void recoverCompaction() throws IOException {
+        if( Files.exists( directory.resolve( COMPACTED ) ) ) {
+            installCompacted();
+        } else {
+            MappedSegments.delete( directory, SESSIONS + "-" + COMPACTED, 0 );
+            MappedSegments.delete( directory, BLOBS + "-" + COMPACTED, 0 );
+        }
+    }
+
+    private void installCompacted() throws IOException {
+        Path marker = directory.resolve( COMPACTED );
+        String[] counts = new String( Files.readAllBytes( marker ), StandardCharsets.UTF_8 ).split( " " );
+        MappedSegments.replace( directory, SESSIONS, SESSIONS + "-" + COMPACTED, Integer.parseInt( counts[0] ) );
+        MappedSegments.replace( directory, BLOBS, BLOBS + "-" + COMPACTED, Integer.parseInt( counts[1] ) );
+        Files.delete( marker );
+    }
+
+    private void rebuildIndexes() {
+        idIndex.clear();
+        attributeIndex.clear();
+        attributeIdIndex.clear();
+        freeCount = 0;
+        sessionCount = 0;
+        // the slots are pushed backwards so that the lowest ones are reused first
+        for( int slot = records.getSegmentCount() * recordsPerSegment - 1; slot >= 0; slot-- ) {
+            if( record( slot ).getInt( position( slot ) + STATE_OFFSET ) == USED ) {
+                index( slot );
+            } else {
+                pushFree( slot );
+            }
+        }
+    }
+
+    /**
+     * Writes the records and the blobs to the files and unmaps them
+     */
+    @Override
+    public Boolean stop() {
+        isInitialized();
+        lock.writeLock().lock();
+        try {
+            blobs.force();
+            records.force();
+            blobs.close();
+            records.close();
+            blobs = null;
+            initialized = false;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean createEntry( SessionAttributes parameterObject ) {
+        Reject.ifNull( parameterObject );
+        String sessionId = parameterObject.getSessionId();
+        validStateAndArguments( sessionId, parameterObject.getStatus() );
+        byte[] id = sessionId.getBytes( StandardCharsets.UTF_8 );
+        Reject.ifFalse( id.length <= MAX_ID_LENGTH, "session id longer than " + MAX_ID_LENGTH + " bytes" );
+        List<OnGoingAttribute> onGoingAttributes = OnGoingAttribute.createOnGoingAttributes( parameterObject );
+
+        lock.writeLock().lock();
+        try {
+            if( findSlot( sessionId ) >= 0 ) {
+                log.severe( "ID already exists" );
+                return false;
+            }
+            long[] refs = new long[REFS];
+            refs[POLICY] = blobs.storeString( parameterObject.getPolicySet() );
+            refs[REQUEST] = blobs.storeString( parameterObject.getOriginalRequest() );
+            refs[PEP_URI] = blobs.storeString( parameterObject.getPepURI() );
+            refs[MY_IP] = blobs.storeString( parameterObject.getMyIP() );
+            refs[SUBJECT] = blobs.storeString( parameterObject.getSubjectName() );
+            refs[RESOURCE] = blobs.storeString( parameterObject.getResourceName() );
+            refs[ACTION] = blobs.storeString( parameterObject.getActionName() );
+            refs[ATTRIBUTES] = blobs.store( encodeAttributes( onGoingAttributes ) );
+            refs[STATUS_NAME] = blobs.storeString( parameterObject.getStatus() );
+
+            int slot = popFree();
+            ByteBuffer record = record( slot );
+            int position = position( slot );
+            record.putInt( position + STATUSCODE_OFFSET, Session.toStatusCode( parameterObject.getStatus() ) );
+            for( int i = 0; i < REFS; i++ ) {
+                record.putLong( position + REFS_OFFSET + i * 8, refs[i] );
+            }
+            record.putShort( position + ID_LENGTH_OFFSET, (short) id.length );
+            for( int i = 0; i < id.length; i++ ) {
+                record.put( position + ID_OFFSET + i, id[i] );
+            }
+            // the state is written last, a record is used only once complete
+            record.putInt( position + STATE_OFFSET, USED );
+            index( slot );
+            return true;
+        } catch( IOException | IllegalArgumentException e ) {
+            log.severe( "Error storing session " + sessionId + " : " + e.getMessage() );
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean updateEntry( String sessionId, String status ) {
+        Reject.ifBlank( status );
+        Reject.ifBlank( sessionId );
+        isInitialized();
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot( sessionId );
+            if( slot < 0 ) {
+                return false;
+            }
+            long statusRef = blobs.storeString( status );
+            record( slot ).putLong( position( slot ) + REFS_OFFSET + STATUS_NAME * 8, statusRef );
+            record( slot ).putInt( position( slot ) + STATUSCODE_OFFSET, Session.toStatusCode( status ) );
+            return true;
+        } catch( IOException e ) {
+            log.severe( "Error storing the status of session " + sessionId + " : " + e.getMessage() );
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean deleteEntry( String sessionId ) {
+        validStateAndArguments( sessionId );
+        lock.writeLock().lock();
+        try {
+            return delete( sessionId );
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int deleteEntries( Collection<String> sessionIds ) {
+        Reject.ifNull( sessionIds );
+        isInitialized();
+        lock.writeLock().lock();
+        try {
+            int deleted = 0;
+            for( String sessionId : sessionIds ) {
+                if( delete( sessionId ) ) {
+                    deleted++;
+                }
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean delete( String sessionId ) {
+        int slot = findSlot( sessionId );
+        if( slot < 0 ) {
+            return false;
+        }
+        unindex( slot );
+        record( slot ).putInt( position( slot ) + STATE_OFFSET, FREE );
+        pushFree( slot );
+        return true;
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForAttribute( String attributeId ) {
+        validStateAndArguments( attributeId );
+        return getSelectedSessions( SessionQuery.forAttribute( attributeId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForSubjectAttributes( String subjectName, String attributeId ) {
+        validStateAndArguments( subjectName, attributeId );
+        return getSelectedSessions( SessionQuery.forAttribute( Category.SUBJECT, subjectName, attributeId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForResourceAttributes( String resourceName, String attributeId ) {
+        validStateAndArguments( resourceName, attributeId );
+        return getSelectedSessions( SessionQuery.forAttribute( Category.RESOURCE, resourceName, attributeId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForActionAttributes( String actionName, String attributeId ) {
+        validStateAndArguments( actionName, attributeId );
+        return getSelectedSessions( SessionQuery.forAttribute( Category.ACTION, actionName, attributeId ) );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForEnvironmentAttributes( String attributeId ) {
+        validStateAndArguments( attributeId );
+        return getSelectedSessions( SessionQuery.forAttribute( Category.ENVIRONMENT, "", attributeId ) );
+    }
+
+    @Override
+    public Optional<SessionInterface> getSessionForId( String sessionId ) {
+        validStateAndArguments( sessionId );
+        lock.readLock().lock();
+        try {
+            int slot = findSlot( sessionId );
+            return slot >= 0 ? Optional.of( toSession( slot ) ) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForStatus( String status ) {
+        validStateAndArguments( status );
+        return getSelectedSessions( SessionQuery.forStatus( status ) );
+    }
+
+    /**
+     * Streams the sessions selected by the query. Only the slots of the
+     * selected records are collected upfront, each session is read when the
+     * cursor reaches it, provided that its record is still selected.
+     */
+    @Override
+    public SessionCursor streamSessions( SessionQuery query ) {
+        Reject.ifNull( query, "Invalid query" );
+        isInitialized();
+        IntPredicate selected = selector( query );
+        IntCollector slots = new IntCollector();
+        lock.readLock().lock();
+        try {
+            forEachSelected( query, selected, slots );
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new SlotCursor( slots.values, slots.size, selected );
+    }
+
+    @Override
+    public long countSessions( SessionQuery query ) {
+        Reject.ifNull( query, "Invalid query" );
+        isInitialized();
+        long[] count = { 0 };
+        lock.readLock().lock();
+        try {
+            forEachSelected( query, selector( query ), slot -> count[0]++ );
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count[0];
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsPage( SessionQuery query, String afterSessionId, int pageSize ) {
+        Reject.ifNull( query, "Invalid query" );
+        Reject.ifLessThan( pageSize, 1, "page size must be positive" );
+        isInitialized();
+        IntPredicate selected = selector( query );
+        SortedSelection selection = afterSessionId != null ? pagedSelections.get( query.toString() ) : null;
+        List<SessionInterface> page = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if( selection == null ) {
+                IntCollector slots = new IntCollector();
+                forEachSelected( query, selected, slots );
+                selection = new SortedSelection( slots.values, slots.size, this::readId );
+                pagedSelections.put( query.toString(), selection );
+            }
+            for( int i = selection.indexAfter( afterSessionId ); i < selection.size() && page.size() < pageSize; i++ ) {
+                int slot = selection.slots[i];
+                // the record may have been deleted, or its slot reused by another session
+                if( selected.test( slot ) && selection.ids[i].equals( readId( slot ) ) ) {
+                    page.add( toSession( slot ) );
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return page;
+    }
+
+    @Override
+    public List<OnGoingAttributesInterface> getOnGoingAttributes( String sessionId ) {
+        validStateAndArguments( sessionId );
+        lock.readLock().lock();
+        try {
+            int slot = findSlot( sessionId );
+            return slot >= 0 ? toOnGoingAttributes( sessionId, refs( slot ) ) : new ArrayList<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public REEV_STATUS checkSession( String sessionId, Attribute attribute ) {
+        return reevaluationTable.checkSession( sessionId, attribute );
+    }
+
+    @Override
+    public boolean insertSession( SessionInterface session, Attribute attribute ) {
+        return reevaluationTable.insertSession( session, attribute );
+    }
+
+    @Override
+    public boolean startSession( SessionInterface session ) {
+        return reevaluationTable.startSession( session );
+    }
+
+    @Override
+    public boolean stopSession( SessionInterface session ) {
+        return reevaluationTable.stopSession( session );
+    }
+
+    @Override
+    public boolean isInitialized() {
+        Reject.ifFalse( initialized, "SessionManager was not correctly initialized" );
+        return initialized;
+    }
+
+    /**
+     * Retrieves the number of sessions stored
+     */
+    public int getSessionCount() {
+        lock.readLock().lock();
+        try {
+            return sessionCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the memory taken outside of the heap by the indexes, the
+     * mapped files are paged in and out by the operating system
+     *
+     * @return the bytes allocated by the indexes
+     */
+    public long getIndexMemory() {
+        lock.readLock().lock();
+        try {
+            return idIndex.getMemory() + attributeIndex.getMemory() + attributeIdIndex.getMemory() + blobs.getIndexMemory();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the bytes taken by the blobs, the blobs of the sessions deleted
+     * since the start are included until the next start compacts them
+     *
+     * @return the bytes of the blob files holding data
+     */
+    public long getBlobSize() {
+        lock.readLock().lock();
+        try {
+            Reject.ifNull( blobs, "SessionManager was not correctly initialized" );
+            return blobs.getSize();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    String loadString( long ref ) {
+        if( ref == BlobStore.NULL_REF ) {
+            return null;
+        }
+        String value = names.get( ref );
+        if( value == null ) {
+            value = contents.get( ref );
+        }
+        if( value != null ) {
+            return value;
+        }
+        lock.readLock().lock();
+        try {
+            Reject.ifNull( blobs, "SessionManager was not correctly initialized" );
+            value = blobs.loadString( ref );
+        } finally {
+            lock.readLock().unlock();
+        }
+        ( value.length() < SMALL_STRING ? names : contents ).put( ref, value );
+        return value;
+    }
+
+    List<OnGoingAttributesInterface> toOnGoingAttributes( String sessionId, long[] refs ) {
+        List<List<String>> attributeIds = attributeIds( refs[ATTRIBUTES] );
+        List<OnGoingAttributesInterface> onGoingAttributes = new ArrayList<>();
+        for( int c = 0; c < COLUMNS.length; c++ ) {
+            String name = COLUMN_NAMES[c] >= 0 ? loadString( refs[COLUMN_NAMES[c]] ) : "";
+            for( String attributeId : attributeIds.get( c ) ) {
+                OnGoingAttribute attribute = OnGoingAttribute.createOnGoingAttribute( attributeId, name, COLUMNS[c] );
+                attribute.setSessionId( sessionId );
+                onGoingAttributes.add( attribute );
+            }
+        }
+        return onGoingAttributes;
+    }
+
+    private List<SessionInterface> getSelectedSessions( SessionQuery query ) {
+        List<SessionInterface> list = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            forEachSelected( query, selector( query ), slot -> list.add( toSession( slot ) ) );
+        } finally {
+            lock.readLock().unlock();
+        }
+        return list;
+    }
+
+    /**
+     * Passes the slots of the records selected by the query to the action.
+     * The candidate slots are read from the index serving the query, or from
+     * all the records for the status queries, and checked by the selector
+     * because the indexes are keyed by hash. The caller holds the read lock.
+     */
+    private void forEachSelected( SessionQuery query, IntPredicate selected, IntConsumer action ) {
+        IntConsumer candidate = slot -> {
+            if( selected.test( slot ) ) {
+                action.accept( slot );
+            }
+        };
+        if( query.isStatusQuery() ) {
+            for( int slot = 0; slot < records.getSegmentCount() * recordsPerSegment; slot++ ) {
+                candidate.accept( slot );
+            }
+        } else if( query.getCategory() == null ) {
+            attributeIdIndex.forEach( OffHeapIndex.hash( query.getAttributeId() ), value -> candidate.accept( (int) value ) );
+        } else {
+            long key = attributeKey( COLUMN.valueOf( query.getCategory().name() ), query.getName(), query.getAttributeId() );
+            attributeIndex.forEach( key, value -> candidate.accept( (int) value ) );
+        }
+    }
+
+    /**
+     * Tells if the record in a slot is selected by the query: in use and either
+     * in the status of the query or in START or REVOKE status and interested
+     * in the attribute of the query. The caller holds the read lock.
+     */
+    private IntPredicate selector( SessionQuery query ) {
+        IntPredicate used = slot -> record( slot ).getInt( position( slot ) + STATE_OFFSET ) == USED;
+        if( query.isStatusQuery() ) {
+            String status = query.getStatus();
+            int statusCode = Session.toStatusCode( status );
+            return used.and( slot -> statusCode != Session.UNKNOWN_STATUS_CODE
+                    ? record( slot ).getInt( position( slot ) + STATUSCODE_OFFSET ) == statusCode
+                    : status.equalsIgnoreCase( loadString( ref( slot, STATUS_NAME ) ) ) );
+        }
+        IntPredicate onGoing = used.and( slot -> {
+            int statusCode = record( slot ).getInt( position( slot ) + STATUSCODE_OFFSET );
+            return statusCode == Session.toStatusCode( STATUS.START ) || statusCode == Session.toStatusCode( STATUS.REVOKE );
+        } );
+        String attributeId = query.getAttributeId();
+        if( query.getCategory() == null ) {
+            return onGoing.and( slot -> {
+                for( List<String> attributeIds : attributeIds( slot ) ) {
+                    if( attributeIds.contains( attributeId ) ) {
+                        return true;
+                    }
+                }
+                return false;
+            } );
+        }
+        int c = Arrays.asList( COLUMNS ).indexOf( COLUMN.valueOf( query.getCategory().name() ) );
+        String name = query.getName();
+        return onGoing.and( slot -> {
+            String entityName = COLUMN_NAMES[c] >= 0 ? loadString( ref( slot, COLUMN_NAMES[c] ) ) : "";
+            return name.equals( entityName ) && attributeIds( slot ).get( c ).contains( attributeId );
+        } );
+    }
+
+    private MappedSession toSession( int slot ) {
+        return new MappedSession( this, readId( slot ), loadString( ref( slot, STATUS_NAME ) ), refs( slot ) );
+    }
+
+    private int findSlot( String sessionId ) {
+        int[] found = { -1 };
+        idIndex.forEach( OffHeapIndex.hash( sessionId ), value -> {
+            if( found[0] < 0 && sessionId.equals( readId( (int) value ) ) ) {
+                found[0] = (int) value;
+            }
+        } );
+        return found[0];
+    }
+
+    private void index( int slot ) {
+        idIndex.put( OffHeapIndex.hash( readId( slot ) ), slot );
+        for( long key : attributeKeys( slot ) ) {
+            attributeIndex.put( key, slot );
+        }
+        for( String attributeId : distinctAttributeIds( slot ) ) {
+            attributeIdIndex.put( OffHeapIndex.hash( attributeId ), slot );
+        }
+        sessionCount++;
+    }
+
+    private void unindex( int slot ) {
+        idIndex.remove( OffHeapIndex.hash( readId( slot ) ), slot );
+        for( long key : attributeKeys( slot ) ) {
+            attributeIndex.remove( key, slot );
+        }
+        for( String attributeId : distinctAttributeIds( slot ) ) {
+            attributeIdIndex.remove( OffHeapIndex.hash( attributeId ), slot );
+        }
+        sessionCount--;
+    }
+
+    private Set<Long> attributeKeys( int slot ) {
+        Set<Long> keys = new LinkedHashSet<>();
+        List<List<String>> attributeIds = attributeIds( slot );
+        for( int c = 0; c < COLUMNS.length; c++ ) {
+            String name = COLUMN_NAMES[c] >= 0 ? loadString( ref( slot, COLUMN_NAMES[c] ) ) : "";
+            for( String attributeId : attributeIds.get( c ) ) {
+                keys.add( attributeKey( COLUMNS[c], name, attributeId ) );
+            }
+        }
+        return keys;
+    }
+
+    private Set<String> distinctAttributeIds( int slot ) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for( List<String> attributeIds : attributeIds( slot ) ) {
+            distinct.addAll( attributeIds );
+        }
+        return distinct;
+    }
+
+    private static long attributeKey( COLUMN column, String name, String attributeId ) {
+        return OffHeapIndex.hash( column.name() + '\u0000' + name + '\u0000' + attributeId );
+    }
+
+    private List<List<String>> attributeIds( int slot ) {
+        return attributeIds( ref( slot, ATTRIBUTES ) );
+    }
+
+    /**
+     * Decodes the on going attribute ids of each column, the lists are shared
+     * by the sessions created from the same policy and are cached
+     */
+    private List<List<String>> attributeIds( long ref ) {
+        List<List<String>> attributeIds = attributeLists.get( ref );
+        if( attributeIds != null ) {
+            return attributeIds;
+        }
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            Reject.ifNull( blobs, "SessionManager was not correctly initialized" );
+            bytes = blobs.load( ref );
+        } finally {
+            lock.readLock().unlock();
+        }
+        attributeIds = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) )) {
+            for( int c = 0; c < COLUMNS.length; c++ ) {
+                int count = in.readShort();
+                List<String> ids = new ArrayList<>( count );
+                for( int i = 0; i < count; i++ ) {
+                    ids.add( in.readUTF() );
+                }
+                attributeIds.add( Collections.unmodifiableList( ids ) );
+            }
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        attributeLists.put( ref, attributeIds );
+        return attributeIds;
+    }
+
+    private static byte[] encodeAttributes( List<OnGoingAttribute> onGoingAttributes ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream( bytes )) {
+            for( COLUMN column : COLUMNS ) {
+                Set<String> ids = new LinkedHashSet<>();
+                for( OnGoingAttribute attribute : onGoingAttributes ) {
+                    if( attribute.getColumn() == column ) {
+                        ids.add( attribute.getAttributeId() );
+                    }
+                }
+                out.writeShort( ids.size() );
+                for( String id : ids ) {
+                    out.writeUTF( id );
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private String readId( int slot ) {
+        ByteBuffer record = record( slot );
+        int position = position( slot );
+        byte[] id = new byte[record.getShort( position + ID_LENGTH_OFFSET )];
+        for( int i = 0; i < id.length; i++ ) {
+            id[i] = record.get( position + ID_OFFSET + i );
+        }
+        return new String( id, StandardCharsets.UTF_8 );
+    }
+
+    private long ref( int slot, int index ) {
+        return record( slot ).getLong( position( slot ) + REFS_OFFSET + index * 8 );
+    }
+
+    private long[] refs( int slot ) {
+        long[] refs = new long[REFS];
+        for( int i = 0; i < REFS; i++ ) {
+            refs[i] = ref( slot, i );
+        }
+        return refs;
+    }
+
+    private ByteBuffer record( int slot ) {
+        return records.segment( slot / recordsPerSegment );
+    }
+
+    private int position( int slot ) {
+        return ( slot % recordsPerSegment ) * RECORD_SIZE;
+    }
+
+    private void pushFree( int slot ) {
+        if( freeCount == freeSlots.length ) {
+            freeSlots = Arrays.copyOf( freeSlots, Math.max( 16, freeCount * 2 ) );
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Takes a free record, mapping a new segment of records if none is left
+     */
+    private int popFree() throws IOException {
+        if( freeCount == 0 ) {
+            int segment = records.getSegmentCount();
+            records.ensureSegments( segment + 1 );
+            for( int slot = ( segment + 1 ) * recordsPerSegment - 1; slot >= segment * recordsPerSegment; slot-- ) {
+                pushFree( slot );
+            }
+        }
+        return freeSlots[--freeCount];
+    }
+
+    private void validStateAndArguments( String... strings ) {
+        isInitialized();
+        for( String string : strings ) {
+            Reject.ifBlank( string );
+        }
+    }
+
+    /**
+     * Cursor over the slots selected by a query, a session is read only if
+     * its record is still selected when the cursor reaches it
+     */
+    private final class SlotCursor implements SessionCursor {
+        private final int[] slots;
+        private final int count;
+        private final IntPredicate selected;
+        private int index = 0;
+        private MappedSession next;
+
+        private SlotCursor( int[] slots, int count, IntPredicate selected ) {
+            this.slots = slots;
+            this.count = count;
+            this.selected = selected;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( next == null && index < count ) {
+                int slot = slots[index++];
+                lock.readLock().lock();
+                try {
+                    next = selected.test( slot ) ? toSession( slot ) : null;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SessionInterface next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            SessionInterface session = next;
+            next = null;
+            return session;
+        }
+
+        @Override
+        public void close() {
+            // the slots are kept on heap, there is nothing to release
+        }
+    }
+
+    private static final class IntCollector implements IntConsumer {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        @Override
+        public void accept( int value ) {
+            if( size == values.length ) {
+                values = Arrays.copyOf( values, size * 2 );
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Slots selected by a query sorted by the id of their session, a page is
+     * found by binary search on the ids
+     */
+    private static final class SortedSelection {
+        private final String[] ids;
+        private final int[] slots;
+
+        private SortedSelection( int[] selectedSlots, int count, IntFunction<String> readId ) {
+            Integer[] order = new Integer[count];
+            String[] selectedIds = new String[count];
+            for( int i = 0; i < count; i++ ) {
+                order[i] = i;
+                selectedIds[i] = readId.apply( selectedSlots[i] );
+            }
+            Arrays.sort( order, ( a, b ) -> selectedIds[a].compareTo( selectedIds[b] ) );
+            ids = new String[count];
+            slots = new int[count];
+            for( int i = 0; i < count; i++ ) {
+                ids[i] = selectedIds[order[i]];
+                slots[i] = selectedSlots[order[i]];
+            }
+        }
+
+        private int size() {
+            return ids.length;
+        }
+
+        /**
+         * Retrieves the index of the first id greater than the given one
+         */
+        private int indexAfter( String afterSessionId ) {
+            if( afterSessionId == null ) {
+                return 0;
+            }
+            int index = Arrays.binarySearch( ids, afterSessionId );
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+
+    private static <K, V> Map<K, V> lruCache( int maxSize ) {
+        return Collections.synchronizedMap( new LinkedHashMap<K, V>( maxSize, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<K, V> eldest ) {
+                return size() > maxSize;
+            }
+        } );
+    }
+
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing multimap from 64 bit hashes to long values, kept in a
+ * direct buffer so that millions of entries are invisible to the garbage
+ * collector. Entries are probed linearly, removed entries leave a tombstone
+ * until the next rehash.
+ * Keys are hashes, hence different objects may share one: the callers check
+ * the values they get against the object they are looking for.
+ * The index is not thread safe.
+ */
+final class OffHeapIndex {
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = 1;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MIN_CAPACITY = 1024;
+    // the table is addressed by int positions
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size = 0;
+    // live entries and tombstones
+    private int used = 0;
+
+    OffHeapIndex() {
+        allocate( MIN_CAPACITY );
+    }
+
+    /**
+     * Adds an entry, the same key may be bound to several values
+     */
+    void put( long key, long value ) {
+        if( ( used + 1 ) * 2 > capacity ) {
+            rehash();
+        }
+        long k = normalize( key );
+        int slot = firstSlot( k );
+        while( true ) {
+            long current = table.getLong( slot * ENTRY_SIZE );
+            if( current == EMPTY || current == DELETED ) {
+                if( current == EMPTY ) {
+                    used++;
+                }
+                table.putLong( slot * ENTRY_SIZE, k );
+                table.putLong( slot * ENTRY_SIZE + 8, value );
+                size++;
+                return;
+            }
+            slot = ( slot + 1 ) & ( capacity - 1 );
+        }
+    }
+
+    /**
+     * Removes an entry
+     *
+     * @return true if the entry was present, false otherwise
+     */
+    boolean remove( long key, long value ) {
+        long k = normalize( key );
+        for( int slot = firstSlot( k );; slot = ( slot + 1 ) & ( capacity - 1 ) ) {
+            long current = table.getLong( slot * ENTRY_SIZE );
+            if( current == EMPTY ) {
+                return false;
+            }
+            if( current == k && table.getLong( slot * ENTRY_SIZE + 8 ) == value ) {
+                table.putLong( slot * ENTRY_SIZE, DELETED );
+                size--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Passes to the consumer all the values bound to a key
+     */
+    void forEach( long key, LongConsumer consumer ) {
+        long k = normalize( key );
+        for( int slot = firstSlot( k );; slot = ( slot + 1 ) & ( capacity - 1 ) ) {
+            long current = table.getLong( slot * ENTRY_SIZE );
+            if( current == EMPTY ) {
+                return;
+            }
+            if( current == k ) {
+                consumer.accept( table.getLong( slot * ENTRY_SIZE + 8 ) );
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves the off heap memory taken by the index
+     */
+    long getMemory() {
+        return (long) capacity * ENTRY_SIZE;
+    }
+
+    void clear() {
+        allocate( MIN_CAPACITY );
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Rebuilds the table dropping the tombstones, growing it if the live
+     * entries would take more than a quarter of it
+     */
+    private void rehash() {
+        int newCapacity = capacity;
+        while( ( size + 1 ) * 4L > newCapacity ) {
+            newCapacity <<= 1;
+        }
+        if( newCapacity > MAX_CAPACITY ) {
+            throw new IllegalStateException( "off heap index full" );
+        }
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        allocate( newCapacity );
+        size = 0;
+        used = 0;
+        for( int slot = 0; slot < oldCapacity; slot++ ) {
+            long k = old.getLong( slot * ENTRY_SIZE );
+            if( k != EMPTY && k != DELETED ) {
+                put( k, old.getLong( slot * ENTRY_SIZE + 8 ) );
+            }
+        }
+    }
+
+    private void allocate( int newCapacity ) {
+        table = ByteBuffer.allocateDirect( newCapacity * ENTRY_SIZE );
+        capacity = newCapacity;
+    }
+
+    private int firstSlot( long k ) {
+        return (int) ( k ^ ( k >>> 32 ) ) & ( capacity - 1 );
+    }
+
+    private static long normalize( long key ) {
+        return key == EMPTY || key == DELETED ? key + 2 : key;
+    }
+
+    /**
+     * Hashes a string into a key of the index
+     */
+    static long hash( String value ) {
+        return hash( value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Hashes bytes into a key of the index, FNV-1a followed by the MurmurHash3
+     * finalizer to spread the low bits used to address the table
+     */
+    static long hash( byte[] bytes ) {
+        long h = 0xcbf29ce484222325L;
+        for( byte b : bytes ) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -5,6 +5,8 @@
  */
 package it.cnr.iit.ucs.sessionmanager;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -21,13 +23,15 @@ import com.j256.ormlite.table.DatabaseTable;
 
 import it.cnr.iit.utility.errorhandling.Reject;
 
-@DatabaseTable( tableName = "on_going_attributes" )
+@DatabaseTable( tableName = OnGoingAttribute.TABLE_NAME )
 public class OnGoingAttribute implements OnGoingAttributesInterface {
 
     public enum COLUMN {
         SUBJECT, RESOURCE, ACTION, ENVIRONMENT;
     }
 
+    public static final String TABLE_NAME = "on_going_attributes";
+
     public static final String ID_FIELD_NAME = "id";
 
     public static final String SESSION_ID_FIELD_NAME = "session_id";
@@ -36,11 +40,15 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
     public static final String SUBJECTNAME_FIELD = "subject_name";
     public static final String RESOURCENAME_FIELD = "resource_name";
     public static final String ACTIONNAME_FIELD = "action_name";
+    public static final String CATEGORY_FIELD = "category";
+    public static final String ENTITYNAME_FIELD = "entity_name";
+
+    public static final String ENTITY_INDEX_NAME = "on_going_attributes_entity_idx";
 
     @DatabaseField( id = true, columnName = ID_FIELD_NAME )
     private String id;
 
-    @DatabaseField( canBeNull = false, columnName = ATTRIBUTEID_FIELD )
+    @DatabaseField( canBeNull = false, columnName = ATTRIBUTEID_FIELD, indexName = ENTITY_INDEX_NAME )
     private String attributeId;
 
     @DatabaseField( columnName = SUBJECTNAME_FIELD )
@@ -52,7 +60,13 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
     @DatabaseField( columnName = ACTIONNAME_FIELD )
     private String actionName;
 
-    @DatabaseField( foreign = true, foreignAutoRefresh = true, canBeNull = false,
+    @DatabaseField( columnName = CATEGORY_FIELD, indexName = ENTITY_INDEX_NAME )
+    private String category;
+
+    @DatabaseField( columnName = ENTITYNAME_FIELD, indexName = ENTITY_INDEX_NAME )
+    private String entityName;
+
+    @DatabaseField( foreign = true, canBeNull = false,
         columnName = SESSION_ID_FIELD_NAME )
     private Session session;
 
@@ -71,6 +85,7 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
         setSubjectName( subjectName );
         setResourceName( resourceName );
         setActionName( actionName );
+        bindEntity( getColumn() );
     }
 
     public static OnGoingAttribute createOnGoingAttribute( String attributeId, String name, COLUMN column ) {
@@ -94,9 +109,57 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
             default:
                 break;
         }
+        onGoingAttribute.bindEntity( column );
         return onGoingAttribute;
     }
 
+    private void bindEntity( COLUMN column ) {
+        category = column.name();
+        switch( column ) {
+            case SUBJECT:
+                entityName = subjectName;
+                break;
+            case RESOURCE:
+                entityName = resourceName;
+                break;
+            case ACTION:
+                entityName = actionName;
+                break;
+            default:
+                entityName = "";
+                break;
+        }
+    }
+
+    /**
+     * Builds the list of on going attributes declared in the session attributes,
+     * each one bound to the name of the entity it is related to
+     *
+     * @param parameterObject
+     *          the session attributes
+     * @return the list of on going attributes of the session
+     */
+    static List<OnGoingAttribute> createOnGoingAttributes( SessionAttributes parameterObject ) {
+        List<OnGoingAttribute> onGoingAttributes = new ArrayList<>();
+        addOnGoingAttributes( onGoingAttributes, parameterObject.getOnGoingAttributesForSubject(), parameterObject.getSubjectName(),
+            COLUMN.SUBJECT );
+        addOnGoingAttributes( onGoingAttributes, parameterObject.getOnGoingAttributesForResource(), parameterObject.getResourceName(),
+            COLUMN.RESOURCE );
+        addOnGoingAttributes( onGoingAttributes, parameterObject.getOnGoingAttributesForAction(), parameterObject.getActionName(),
+            COLUMN.ACTION );
+        addOnGoingAttributes( onGoingAttributes, parameterObject.getOnGoingAttributesForEnvironment(), "", COLUMN.ENVIRONMENT );
+        return onGoingAttributes;
+    }
+
+    private static void addOnGoingAttributes( List<OnGoingAttribute> onGoingAttributes, List<String> attributeIds, String name,
+            COLUMN column ) {
+        if( attributeIds != null ) {
+            for( String attributeId : attributeIds ) {
+                onGoingAttributes.add( createOnGoingAttribute( attributeId, name, column ) );
+            }
+        }
+    }
+
     public static OnGoingAttribute createOnGoingAttributeForAction( String attributeId, String actionName ) {
         Reject.ifBlank( attributeId );
         Reject.ifBlank( actionName );
@@ -109,6 +172,45 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
         return new OnGoingAttribute( attributeId, null, null, resourceName );
     }
 
+    /**
+     * Retrieves the column to which the attribute is related
+     *
+     * @return the column of the entity the attribute refers to
+     */
+    public COLUMN getColumn() {
+        if( category != null ) {
+            return COLUMN.valueOf( category );
+        } else if( subjectName != null ) {
+            return COLUMN.SUBJECT;
+        } else if( resourceName != null ) {
+            return COLUMN.RESOURCE;
+        } else if( actionName != null ) {
+            return COLUMN.ACTION;
+        }
+        return COLUMN.ENVIRONMENT;
+    }
+
+    /**
+     * Retrieves the name of the entity to which the attribute is related
+     *
+     * @return the name of the entity, an empty string for environment attributes
+     */
+    public String getEntityName() {
+        if( entityName != null ) {
+            return entityName;
+        }
+        switch( getColumn() ) {
+            case SUBJECT:
+                return subjectName;
+            case RESOURCE:
+                return resourceName;
+            case ACTION:
+                return actionName;
+            default:
+                return "";
+        }
+    }
+
     @Override
     public String getActionName() {
         return actionName;
@@ -120,7 +222,7 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
 
     @Override
     public String getSessionId() {
-        return sessionId;
+        return session != null ? session.getId() : sessionId;
     }
 
     public void setSessionId( String sessionId ) {
@@ -208,7 +310,8 @@ public class OnGoingAttribute implements OnGoingAttributesInterface {
     }
 
     /**
-     * Retrieves the Session of this attribute
+     * Retrieves the Session of this attribute, only its id is loaded from the
+     * database
      *
      * @return a Session object
      */
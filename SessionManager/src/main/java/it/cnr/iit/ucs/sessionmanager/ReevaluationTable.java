@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * In memory reevaluation table shared by the session managers.
+ * A session enters the table queued when a change notification selects it
+ * and leaves it once reevaluated. The notifications for a session that is
+ * already in the table are absorbed and mark it changed, whether it is
+ * queued or running: the pending reevaluation may fatten its request from
+ * values read before the notification, hence it is repeated once when it
+ * stops, however many notifications arrived in the meantime.
+ * The table is thread safe, each entry is updated atomically by the map.
+ */
+final class ReevaluationTable implements ReevaluationTableInterface {
+
+    private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong absorbed = new AtomicLong();
+
+    @Override
+    public REEV_STATUS checkSession( String sessionId, Attribute attribute ) {
+        Reject.ifBlank( sessionId );
+        Entry entry = sessions.get( sessionId );
+        if( entry == null ) {
+            return REEV_STATUS.NOT_IN_REEVALUATION;
+        } else if( attribute == null ) {
+            return REEV_STATUS.IN_REEVALUATION;
+        }
+        return entry.attributes.contains( key( attribute ) ) ? REEV_STATUS.IN_REEVALUATION_SAME_ATTRIBUTE
+                : REEV_STATUS.IN_REEVALUATION_DIFFERENT_ATTRIBUTE;
+    }
+
+    @Override
+    public boolean insertSession( SessionInterface session, Attribute attribute ) {
+        Reject.ifNull( session, "Invalid session" );
+        Reject.ifBlank( session.getId() );
+        boolean[] inserted = { false };
+        sessions.compute( session.getId(), ( id, entry ) -> {
+            if( entry == null ) {
+                entry = new Entry();
+                inserted[0] = true;
+            } else {
+                entry.changed = true;
+            }
+            if( attribute != null ) {
+                entry.attributes.add( key( attribute ) );
+            }
+            return entry;
+        } );
+        if( !inserted[0] ) {
+            absorbed.incrementAndGet();
+        }
+        return inserted[0];
+    }
+
+    @Override
+    public boolean startSession( SessionInterface session ) {
+        Reject.ifNull( session, "Invalid session" );
+        Reject.ifBlank( session.getId() );
+        return sessions.computeIfPresent( session.getId(), ( id, entry ) -> {
+            entry.running = true;
+            return entry;
+        } ) != null;
+    }
+
+    @Override
+    public boolean stopSession( SessionInterface session ) {
+        Reject.ifNull( session, "Invalid session" );
+        Reject.ifBlank( session.getId() );
+        return sessions.computeIfPresent( session.getId(), ( id, entry ) -> {
+            if( !entry.changed ) {
+                return null;
+            }
+            entry.running = false;
+            entry.changed = false;
+            return entry;
+        } ) == null;
+    }
+
+    /**
+     * Retrieves the number of sessions in the table
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Retrieves the number of notifications absorbed by a session already in
+     * the table
+     */
+    long getAbsorbedCount() {
+        return absorbed.get();
+    }
+
+    private static String key( Attribute attribute ) {
+        return attribute.getCategory() + "\u0000" + attribute.getAttributeId() + "\u0000"
+                + attribute.getAdditionalInformations();
+    }
+
+    private static final class Entry {
+        private final Set<String> attributes = ConcurrentHashMap.newKeySet();
+        // updated only while the map computes the entry
+        private boolean running;
+        private boolean changed;
+    }
+
+}
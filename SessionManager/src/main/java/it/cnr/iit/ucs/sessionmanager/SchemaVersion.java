@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Row of the table keeping track of the schema versions applied to the
+ * database of the Session Manager.
+ */
+@DatabaseTable( tableName = SchemaVersion.TABLE_NAME )
+final class SchemaVersion {
+
+    public static final String TABLE_NAME = "schema_version";
+
+    public static final String VERSION_FIELD_NAME = "version";
+    public static final String APPLIEDAT_FIELD_NAME = "applied_at";
+
+    @DatabaseField( id = true, columnName = VERSION_FIELD_NAME )
+    private int version;
+
+    @DatabaseField( columnName = APPLIEDAT_FIELD_NAME )
+    private long appliedAt;
+
+    SchemaVersion() {}
+
+    SchemaVersion( int version ) {
+        this.version = version;
+        this.appliedAt = System.currentTimeMillis();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+}
@@ -10,48 +10,66 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import com.j256.ormlite.dao.ForeignCollection;
-import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.field.ForeignCollectionField;
 import com.j256.ormlite.table.DatabaseTable;
 
+import it.cnr.iit.ucs.constants.STATUS;
+
 /**
  * Creates Session objects. It configures OrmLite annotations to persist these
  * objects in the sessions table of the database.
  *
  * @author Fabio Bindi, Filippo Lauria and Antonio La Marra
  */
-@DatabaseTable( tableName = "sessions" )
+@DatabaseTable( tableName = Session.TABLE_NAME )
 public final class Session implements SessionInterface {
 
     private static Logger log = Logger.getLogger( Session.class.getName() );
 
+    public static final String TABLE_NAME = "sessions";
+
     public static final String ID_FIELD_NAME = "id";
+    // columns holding the policy and the request up to schema version 2
     public static final String POLICYSET_FIELD_NAME = "policy_set";
     public static final String ORIGINALREQUEST_FIELD_NAME = "original_request";
+    public static final String POLICYHASH_FIELD_NAME = "policy_hash";
+    public static final String REQUESTHASH_FIELD_NAME = "request_hash";
     public static final String STATUS_FIELD_NAME = "status";
     public static final String PEPURI_FIELD_NAME = "pep_uri";
     public static final String MYIP_FIELD = "myip";
+    public static final String STATUSCODE_FIELD_NAME = "status_code";
+
+    public static final String STATUS_INDEX_NAME = "sessions_status_idx";
+    public static final int UNKNOWN_STATUS_CODE = -1;
 
     @DatabaseField( id = true, columnName = ID_FIELD_NAME )
     private String id;
 
-    @DatabaseField( columnName = POLICYSET_FIELD_NAME, dataType = DataType.LONG_STRING )
-    private String policySet;
+    @DatabaseField( columnName = POLICYHASH_FIELD_NAME, width = SessionContent.HASH_LENGTH )
+    private String policyHash;
 
-    @DatabaseField( columnName = ORIGINALREQUEST_FIELD_NAME, dataType = DataType.LONG_STRING )
+    @DatabaseField( columnName = REQUESTHASH_FIELD_NAME, width = SessionContent.HASH_LENGTH )
+    private String requestHash;
+
+    // loaded from the session contents the first time they are read
+    private String policySet;
     private String originalRequest;
+    private SessionContents contents;
 
     @DatabaseField( columnName = STATUS_FIELD_NAME )
     private String status;
 
+    @DatabaseField( columnName = STATUSCODE_FIELD_NAME, indexName = STATUS_INDEX_NAME )
+    private int statusCode = UNKNOWN_STATUS_CODE;
+
     @DatabaseField( columnName = PEPURI_FIELD_NAME )
     private String pepURI;
 
     @DatabaseField( columnName = MYIP_FIELD )
     private String myIP;
 
-    @ForeignCollectionField( eager = true, columnName = OnGoingAttribute.ATTRIBUTEID_FIELD )
+    @ForeignCollectionField( eager = false, columnName = OnGoingAttribute.ATTRIBUTEID_FIELD )
     private ForeignCollection<OnGoingAttribute> onGoingAttributes;
 
     public Session() {
@@ -73,7 +91,7 @@ public final class Session implements SessionInterface {
         this.id = id;
         this.policySet = policySet;
         this.originalRequest = originalRequest;
-        this.status = status;
+        setStatus( status );
         this.pepURI = pepURI;
         this.myIP = myIP;
     }
@@ -104,6 +122,9 @@ public final class Session implements SessionInterface {
      */
     @Override
     public String getPolicySet() {
+        if( policySet == null && policyHash != null && contents != null ) {
+            policySet = contents.load( policyHash );
+        }
         return policySet;
     }
 
@@ -123,9 +144,55 @@ public final class Session implements SessionInterface {
      */
     @Override
     public String getOriginalRequest() {
+        if( originalRequest == null && requestHash != null && contents != null ) {
+            originalRequest = contents.load( requestHash );
+        }
         return originalRequest;
     }
 
+    /**
+     * Retrieves the hash of the policySet, the policySet itself for a session
+     * that has not been stored in the session contents
+     */
+    @Override
+    public String getPolicyKey() {
+        return policyHash != null ? policyHash : policySet;
+    }
+
+    /**
+     * Retrieves the hash of the policySet in the session contents
+     *
+     * @return the policy hash
+     */
+    public String getPolicyHash() {
+        return policyHash;
+    }
+
+    void setPolicyHash( String policyHash ) {
+        this.policyHash = policyHash;
+    }
+
+    /**
+     * Retrieves the hash of the originalRequest in the session contents
+     *
+     * @return the request hash
+     */
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    void setRequestHash( String requestHash ) {
+        this.requestHash = requestHash;
+    }
+
+    /**
+     * Binds the session to the contents from which its policySet and
+     * originalRequest are loaded
+     */
+    void bindContents( SessionContents contents ) {
+        this.contents = contents;
+    }
+
     /**
      * Sets the originalRequest
      *
@@ -152,6 +219,55 @@ public final class Session implements SessionInterface {
      */
     public void setStatus( String status ) {
         this.status = status;
+        this.statusCode = toStatusCode( status );
+    }
+
+    /**
+     * Retrieves the code of the status of the session, the one used by the
+     * queries on the status
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Converts a status into the integer code stored in the database
+     *
+     * @param status the status of the session
+     * @return the code of the status, UNKNOWN_STATUS_CODE if the status is not
+     *         a known one
+     */
+    public static int toStatusCode( String status ) {
+        for( STATUS value : STATUS.values() ) {
+            if( value.name().equalsIgnoreCase( status ) ) {
+                return toStatusCode( value );
+            }
+        }
+        return UNKNOWN_STATUS_CODE;
+    }
+
+    /**
+     * Converts a status into the integer code stored in the database. The codes
+     * are persisted, hence they must not change.
+     *
+     * @param status the status of the session
+     * @return the code of the status
+     */
+    public static int toStatusCode( STATUS status ) {
+        switch( status ) {
+            case TRY:
+                return 0;
+            case START:
+                return 1;
+            case END:
+                return 2;
+            case REVOKE:
+                return 3;
+            default:
+                return UNKNOWN_STATUS_CODE;
+        }
     }
 
     @Override
@@ -211,8 +327,8 @@ public final class Session implements SessionInterface {
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append( "SessionId = " + id + "\nPolicySet = " + policySet + "\n" );
-        stringBuilder.append( "OriginalRequest = " + originalRequest + "\n" );
+        stringBuilder.append( "SessionId = " + id + "\nPolicyHash = " + policyHash + "\n" );
+        stringBuilder.append( "RequestHash = " + requestHash + "\n" );
         stringBuilder.append( "Status = " + status + "\npepURI = " + pepURI + "\n" );
         if( onGoingAttributes != null ) {
             stringBuilder.append( "OnGoingAttributes = " );
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import it.cnr.iit.utility.HashUtility;
+
+/**
+ * Content shared by the sessions, a policy or an original request, stored once
+ * and addressed by the SHA-256 hash of its text.
+ */
+@DatabaseTable( tableName = SessionContent.TABLE_NAME )
+final class SessionContent {
+
+    static final String TABLE_NAME = "session_contents";
+
+    static final String HASH_FIELD_NAME = "hash";
+    static final String CONTENT_FIELD_NAME = "content";
+
+    // length of the hex encoded SHA-256 hash
+    static final int HASH_LENGTH = HashUtility.SHA256_HEX_LENGTH;
+
+    @DatabaseField( id = true, columnName = HASH_FIELD_NAME, width = HASH_LENGTH )
+    private String hash;
+
+    @DatabaseField( columnName = CONTENT_FIELD_NAME, dataType = DataType.LONG_STRING, canBeNull = false )
+    private String content;
+
+    SessionContent() {}
+
+    SessionContent( String content ) {
+        this.hash = hash( content );
+        this.content = content;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * Computes the address of a content
+     *
+     * @param content
+     *          the text of the content
+     * @return the hex encoded SHA-256 hash of the text
+     */
+    static String hash( String content ) {
+        return HashUtility.sha256Hex( content );
+    }
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.support.ConnectionSource;
+
+/**
+ * Content-addressed store of the policies and the original requests of the
+ * sessions. Each distinct content is written once, the sessions keep its hash
+ * and load it only when it is actually read. The hashes known to be stored
+ * are remembered, so storing a content already seen costs no statement, and
+ * the most recently loaded contents are cached.
+ * Contents are never deleted, they are bounded by the distinct policies and
+ * requests the PEPs send.
+ */
+final class SessionContents {
+
+    private static final Logger log = Logger.getLogger( SessionContents.class.getName() );
+
+    private static final int CACHE_SIZE = 64;
+
+    private final Dao<SessionContent, String> contentDao;
+    private final Set<String> stored = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> cache = Collections.synchronizedMap(
+        new LinkedHashMap<String, String>( CACHE_SIZE, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, String> eldest ) {
+                return size() > CACHE_SIZE;
+            }
+        } );
+
+    SessionContents( ConnectionSource connectionSource ) throws SQLException {
+        contentDao = DaoManager.createDao( connectionSource, SessionContent.class );
+    }
+
+    /**
+     * Stores a content unless it is already stored. Contents not seen yet are
+     * stored one at a time, so that two sessions bringing the same new content
+     * do not insert it twice.
+     *
+     * @param content
+     *          the content to store, may be null
+     * @return the hash addressing the content, null if the content is null
+     */
+    String store( String content ) throws SQLException {
+        if( content == null ) {
+            return null;
+        }
+        String hash = SessionContent.hash( content );
+        if( stored.contains( hash ) ) {
+            return hash;
+        }
+        synchronized( stored ) {
+            if( !stored.contains( hash ) && !contentDao.idExists( hash ) ) {
+                contentDao.create( new SessionContent( content ) );
+            }
+            stored.add( hash );
+        }
+        cache.put( hash, content );
+        return hash;
+    }
+
+    /**
+     * Forgets which contents are stored, to be called when a transaction that
+     * may have stored some of them is rolled back
+     */
+    void forgetStored() {
+        stored.clear();
+    }
+
+    /**
+     * Loads the content addressed by a hash
+     *
+     * @param hash
+     *          the hash of the content
+     * @return the content, null if it is not stored
+     */
+    String load( String hash ) {
+        String content = cache.get( hash );
+        if( content != null ) {
+            return content;
+        }
+        try {
+            SessionContent sessionContent = contentDao.queryForId( hash );
+            if( sessionContent == null ) {
+                log.log( Level.SEVERE, "missing session content {0}", hash );
+                return null;
+            }
+            cache.put( hash, sessionContent.getContent() );
+            return sessionContent.getContent();
+        } catch( SQLException e ) {
+            log.severe( e.getMessage() );
+            return null;
+        }
+    }
+
+}
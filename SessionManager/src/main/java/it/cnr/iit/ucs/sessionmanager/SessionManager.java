@@ -8,18 +8,23 @@ package it.cnr.iit.ucs.sessionmanager;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.dao.ForeignCollection;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.UpdateBuilder;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
-import com.j256.ormlite.table.TableUtils;
 
 import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
@@ -40,13 +45,30 @@ public final class SessionManager implements SessionManagerInterface {
 
     private static final String MSG_ERR_SQL = "Error in SQL query : {0}";
 
+    // maximum number of on going attributes inserted by a single statement
+    private static final int INSERT_BATCH_SIZE = 100;
+    // maximum number of sessions deleted by a single statement
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final String[] ATTRIBUTE_COLUMNS = { OnGoingAttribute.ID_FIELD_NAME, OnGoingAttribute.ATTRIBUTEID_FIELD,
+        OnGoingAttribute.SUBJECTNAME_FIELD, OnGoingAttribute.RESOURCENAME_FIELD, OnGoingAttribute.ACTIONNAME_FIELD,
+        OnGoingAttribute.CATEGORY_FIELD, OnGoingAttribute.ENTITYNAME_FIELD, OnGoingAttribute.SESSION_ID_FIELD_NAME };
+
     // url to connect to the database
     private String databaseURL;
+    // idle connections kept open by the pool, lower than 2 to share a single
+    // connection
+    private int poolMaxFreeConnections = 1;
+    private boolean poolValidation = false;
+    private long poolMaxConnectionAge = 0;
     private ConnectionSource connection;
     // dao to perform operations on the session table
     private Dao<Session, String> sessionDao;
     // dao to perform operations on the attributes table
     private Dao<OnGoingAttribute, String> attributesDao;
+    // policies and requests referenced by the sessions
+    private SessionContents contents;
+
+    private final ReevaluationTable reevaluationTable = new ReevaluationTable();
 
     private volatile boolean initialized = false;
 
@@ -60,13 +82,18 @@ public final class SessionManager implements SessionManagerInterface {
         Reject.ifNull( properties );
         Reject.ifNull( properties.getDbUri() );
         databaseURL = properties.getDbUri();
+        poolMaxFreeConnections = properties.getPoolMaxFreeConnections();
+        poolValidation = properties.isPoolValidation();
+        poolMaxConnectionAge = properties.getPoolMaxConnectionAge();
+        Reject.ifNegative( poolMaxConnectionAge, "pool max connection age can't be negative" );
         sessionDao = null;
         attributesDao = null;
         initialized = true;
     }
 
     /**
-     * Starts the connection to the database and creates the tables if not exist
+     * Starts the connection to the database, creates the tables if not exist or
+     * upgrades them to the current schema version
      *
      * @return true if Session Manager starts properly, false otherwise
      */
@@ -74,12 +101,66 @@ public final class SessionManager implements SessionManagerInterface {
     public Boolean start() {
         isInitialized();
         try {
-            connection = new JdbcConnectionSource( databaseURL );
+            return start( createConnectionSource() );
+        } catch( SQLException e ) {
+            log.severe( e.getMessage() );
+            initialized = false;
+            throw new IllegalStateException( "SessionManager not in a valid state anymore" );
+        }
+    }
+
+    /**
+     * Creates the connection source to the database: a pool of connections if
+     * the configured maximum of free connections is greater than one, a single
+     * shared connection otherwise. In memory databases private to a connection must not be pooled.
+     *
+     * @return the connection source
+     */
+    private ConnectionSource createConnectionSource() throws SQLException {
+        if( poolMaxFreeConnections < 2 ) {
+            return new JdbcConnectionSource( databaseURL );
+        }
+        return configurePool( new JdbcPooledConnectionSource( databaseURL ) );
+    }
+
+    /**
+     * Applies the pool settings to a pooled connection source. The pool opens
+     * as many connections as the threads using the database at the same time
+     * and keeps at most the configured number of them open once released; the
+     * connections older than the maximum age are closed, the free ones are
+     * checked for this at the same interval
+     *
+     * @param pool
+     *          the pooled connection source
+     * @return the configured connection source
+     */
+    JdbcPooledConnectionSource configurePool( JdbcPooledConnectionSource pool ) {
+        pool.setMaxConnectionsFree( poolMaxFreeConnections );
+        pool.setTestBeforeGet( poolValidation );
+        if( poolMaxConnectionAge > 0 ) {
+            pool.setMaxConnectionAgeMillis( poolMaxConnectionAge );
+            pool.setCheckConnectionsEveryMillis( poolMaxConnectionAge );
+        }
+        return pool;
+    }
+
+    /**
+     * Starts the Session Manager on the given connection source, creates the
+     * tables if not exist or upgrades them to the current schema version
+     *
+     * @param connectionSource
+     *          the connection source to the database
+     * @return true if Session Manager starts properly, false otherwise
+     */
+    Boolean start( ConnectionSource connectionSource ) {
+        isInitialized();
+        try {
+            connection = connectionSource;
             sessionDao = DaoManager.createDao( connection, Session.class );
             attributesDao = DaoManager.createDao( connection, OnGoingAttribute.class );
+            contents = new SessionContents( connection );
 
-            TableUtils.createTableIfNotExists( connection, Session.class );
-            TableUtils.createTableIfNotExists( connection, OnGoingAttribute.class );
+            new SessionSchema( connection ).upgrade();
         } catch( SQLException e ) {
             log.severe( e.getMessage() );
             initialized = false;
@@ -108,6 +189,27 @@ public final class SessionManager implements SessionManagerInterface {
         return true;
     }
 
+    /**
+     * Runs the given operations in a single transaction, the operations of this
+     * session manager invoked from the callable join it
+     *
+     * @param callable
+     *          the operations to run
+     * @return the result of the callable
+     * @throws SQLException
+     *           if the transaction could not be committed
+     */
+    <T> T callInTransaction( Callable<T> callable ) throws SQLException {
+        isInitialized();
+        try {
+            return TransactionManager.callInTransaction( connection, callable );
+        } catch( SQLException e ) {
+            // contents stored by the callable have been rolled back
+            contents.forgetStored();
+            throw e;
+        }
+    }
+
     /**
      * Updates the status of a certain session
      *
@@ -123,18 +225,32 @@ public final class SessionManager implements SessionManagerInterface {
         Reject.ifBlank( status );
         Reject.ifBlank( sessionId );
         try {
-            Session s = sessionDao.queryForId( sessionId );
-            s.setStatus( status );
-            sessionDao.update( s );
+            return updateStatus( sessionId, status );
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return false;
         }
-        return true;
     }
 
     /**
-     * Deletes a certain session
+     * Updates the status of a certain session like updateEntry, errors are
+     * thrown to the caller
+     *
+     * @return true if the session is stored and its status is updated
+     * @throws SQLException
+     *           if the statement fails
+     */
+    boolean updateStatus( String sessionId, String status ) throws SQLException {
+        UpdateBuilder<Session, String> updateBuilder = sessionDao.updateBuilder();
+        updateBuilder.updateColumnValue( Session.STATUS_FIELD_NAME, status )
+            .updateColumnValue( Session.STATUSCODE_FIELD_NAME, Session.toStatusCode( status ) )
+            .where().idEq( sessionId );
+        return updateBuilder.update() == 1;
+    }
+
+    /**
+     * Deletes a certain session along with its on going attributes in a single
+     * transaction
      *
      * @param sessionId
      *          ID of the session to be deleted in the DB
@@ -144,23 +260,72 @@ public final class SessionManager implements SessionManagerInterface {
     public Boolean deleteEntry( String sessionId ) {
         validStateAndArguments( sessionId );
         try {
-            ForeignCollection<OnGoingAttribute> a = sessionDao.queryForId( sessionId )
-                .getOnGoingAttributesAsForeign();
-            for( OnGoingAttribute attribute : a ) {
-                attributesDao.deleteById( attribute.getId() );
-            }
-            a.clear();
-            sessionDao.deleteById( sessionId );
+            return removeEntry( sessionId );
         } catch( SQLException ex ) {
+            log.severe( String.format( MSG_ERR_SQL, ex.getMessage() ) );
             return false;
         }
-        return true;
+    }
+
+    /**
+     * Deletes a certain session like deleteEntry, errors are thrown to the
+     * caller
+     *
+     * @return true if the session was stored and has been deleted
+     * @throws SQLException
+     *           if the transaction fails
+     */
+    boolean removeEntry( String sessionId ) throws SQLException {
+        return TransactionManager.callInTransaction( connection, () -> {
+            DeleteBuilder<OnGoingAttribute, String> deleteBuilder = attributesDao.deleteBuilder();
+            deleteBuilder.where().eq( OnGoingAttribute.SESSION_ID_FIELD_NAME, sessionId );
+            deleteBuilder.delete();
+            return sessionDao.deleteById( sessionId ) == 1;
+        } );
+    }
+
+    /**
+     * Deletes the given sessions along with their on going attributes in a
+     * single transaction, the rows are removed by id ranges of at most
+     * DELETE_BATCH_SIZE sessions per statement
+     *
+     * @param sessionIds
+     *          IDs of the sessions to be deleted in the DB
+     * @return the number of sessions deleted, 0 if the transaction failed
+     */
+    @Override
+    public int deleteEntries( Collection<String> sessionIds ) {
+        Reject.ifNull( sessionIds );
+        isInitialized();
+        if( sessionIds.isEmpty() ) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>( sessionIds );
+        try {
+            return TransactionManager.callInTransaction( connection, () -> {
+                int deleted = 0;
+                for( int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE ) {
+                    List<String> batch = ids.subList( from, Math.min( from + DELETE_BATCH_SIZE, ids.size() ) );
+                    DeleteBuilder<OnGoingAttribute, String> attributesDelete = attributesDao.deleteBuilder();
+                    attributesDelete.where().in( OnGoingAttribute.SESSION_ID_FIELD_NAME, batch );
+                    attributesDelete.delete();
+                    deleted += sessionDao.deleteIds( batch );
+                }
+                return deleted;
+            } );
+        } catch( SQLException ex ) {
+            log.severe( String.format( MSG_ERR_SQL, ex.getMessage() ) );
+            return 0;
+        }
     }
 
     /**
      * Creates an entry for a session. This is the general function, in this case
      * the request has ongoingattributes related to the subject, the
-     * object/resource, the action and the environment
+     * object/resource, the action and the environment. The policy and the
+     * request are stored once in the session contents, the session references
+     * them by hash. The session and all its on going attributes are stored in a
+     * single transaction.
      * @param resourceName
      *          the name of the object to which the attributes are related
      *
@@ -170,46 +335,70 @@ public final class SessionManager implements SessionManagerInterface {
     public Boolean createEntry( SessionAttributes parameterObject ) {
         Reject.ifNull( parameterObject );
         try {
-            Session s = prepareSession( parameterObject );
+            return insertEntry( parameterObject );
+        } catch( SQLException e ) {
+            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+            return false;
+        }
+    }
 
-            if( sessionDao.idExists( parameterObject.getSessionId() ) ) {
+    /**
+     * Creates an entry for a session like createEntry, errors are thrown to the
+     * caller
+     *
+     * @return true if the session is stored, false if its ID already exists
+     * @throws SQLException
+     *           if the transaction fails
+     */
+    boolean insertEntry( SessionAttributes parameterObject ) throws SQLException {
+        Session session = prepareSession( parameterObject );
+        List<OnGoingAttribute> attributes = OnGoingAttribute.createOnGoingAttributes( parameterObject );
+        session.setPolicyHash( contents.store( parameterObject.getPolicySet() ) );
+        session.setRequestHash( contents.store( parameterObject.getOriginalRequest() ) );
+        return TransactionManager.callInTransaction( connection, () -> {
+            if( sessionDao.idExists( session.getId() ) ) {
                 log.severe( "ID already exists" );
                 return false;
             }
-            sessionDao.create( s );
-            Session sessionResult = sessionDao.queryForId( parameterObject.getSessionId() );
-            ForeignCollection<OnGoingAttribute> attributes = sessionResult
-                .getOnGoingAttributesAsForeign();
-            if( parameterObject.getOnGoingAttributesForSubject() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForSubject() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getSubjectName(), COLUMN.SUBJECT );
-                    attributes.add( a );
-                }
-            }
-            if( parameterObject.getOnGoingAttributesForResource() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForResource() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getResourceName(),
-                        COLUMN.RESOURCE );
-                    attributes.add( a );
-                }
-            }
-            if( parameterObject.getOnGoingAttributesForAction() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForAction() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, parameterObject.getActionName(), COLUMN.ACTION );
-                    attributes.add( a );
-                }
+            sessionDao.create( session );
+            insertAttributes( session, attributes );
+            return true;
+        } );
+    }
+
+    /**
+     * Inserts the on going attributes of a session with multi-row INSERT
+     * statements, each one carrying at most INSERT_BATCH_SIZE attributes
+     */
+    private void insertAttributes( Session session, List<OnGoingAttribute> attributes ) throws SQLException {
+        for( int from = 0; from < attributes.size(); from += INSERT_BATCH_SIZE ) {
+            List<OnGoingAttribute> batch = attributes.subList( from, Math.min( from + INSERT_BATCH_SIZE, attributes.size() ) );
+            StringBuilder sql = new StringBuilder( "INSERT INTO " );
+            appendEscaped( sql, attributesDao.getTableName() ).append( " (" );
+            for( int i = 0; i < ATTRIBUTE_COLUMNS.length; i++ ) {
+                appendEscaped( sql.append( i > 0 ? ", " : "" ), ATTRIBUTE_COLUMNS[i] );
             }
-            if( parameterObject.getOnGoingAttributesForEnvironment() != null ) {
-                for( String attr : parameterObject.getOnGoingAttributesForEnvironment() ) {
-                    OnGoingAttribute a = OnGoingAttribute.createOnGoingAttribute( attr, "", COLUMN.ENVIRONMENT );
-                    attributes.add( a );
-                }
+            sql.append( ") VALUES " );
+            List<String> arguments = new ArrayList<>( batch.size() * ATTRIBUTE_COLUMNS.length );
+            for( int i = 0; i < batch.size(); i++ ) {
+                OnGoingAttribute attribute = batch.get( i );
+                sql.append( i > 0 ? ", " : "" ).append( "(?, ?, ?, ?, ?, ?, ?, ?)" );
+                arguments.add( attribute.getId() );
+                arguments.add( attribute.getAttributeId() );
+                arguments.add( attribute.getSubjectName() );
+                arguments.add( attribute.getResourceName() );
+                arguments.add( attribute.getActionName() );
+                arguments.add( attribute.getColumn().name() );
+                arguments.add( attribute.getEntityName() );
+                arguments.add( session.getId() );
             }
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-            return false;
+            attributesDao.updateRaw( sql.toString(), arguments.toArray( new String[arguments.size()] ) );
         }
-        return true;
+    }
+
+    private StringBuilder appendEscaped( StringBuilder sb, String name ) {
+        connection.getDatabaseType().appendEscapedEntityName( sb, name );
+        return sb;
     }
 
     private Session prepareSession( SessionAttributes parameterObject ) {
@@ -228,26 +417,7 @@ public final class SessionManager implements SessionManagerInterface {
     @Override
     public List<SessionInterface> getSessionsForAttribute( String attributeId ) {
         validStateAndArguments( attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getOnGoingSessions( attributeId, null, null );
     }
 
     /**
@@ -266,34 +436,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForSubjectAttributes(
             String subjectName, String attributeId ) {
         validStateAndArguments( subjectName, attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNotNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.SUBJECTNAME_FIELD, subjectName ).query();
-
-            if( attributes == null ) {
-                return new ArrayList<>();
-            }
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getOnGoingSessions( attributeId, COLUMN.SUBJECT, subjectName );
     }
 
     /**
@@ -312,29 +455,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForResourceAttributes(
             String resourceName, String attributeId ) {
         validStateAndArguments( resourceName, attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNotNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.RESOURCENAME_FIELD, resourceName ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getOnGoingSessions( attributeId, COLUMN.RESOURCE, resourceName );
     }
 
     /**
@@ -353,29 +474,7 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForActionAttributes(
             String actionName, String attributeId ) {
         validStateAndArguments( actionName, attributeId );
-        try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNotNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).and()
-                .eq( OnGoingAttribute.ACTIONNAME_FIELD, actionName ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
-                }
-            }
-            return sessions;
-
-        } catch( SQLException e ) {
-            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
-        }
-        return new ArrayList<>();
+        return getOnGoingSessions( attributeId, COLUMN.ACTION, actionName );
     }
 
     /**
@@ -389,7 +488,7 @@ public final class SessionManager implements SessionManagerInterface {
     public Optional<SessionInterface> getSessionForId( String sessionId ) {
         validStateAndArguments( sessionId );
         try {
-            return Optional.ofNullable( sessionDao.queryForId( sessionId ) );
+            return Optional.ofNullable( bindContents( sessionDao.queryForId( sessionId ) ) );
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return Optional.empty();
@@ -409,10 +508,10 @@ public final class SessionManager implements SessionManagerInterface {
         try {
             QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
             List<Session> list = qbSessions.where()
-                .eq( Session.STATUS_FIELD_NAME, status ).query();
+                .eq( Session.STATUSCODE_FIELD_NAME, Session.toStatusCode( status ) ).query();
             List<SessionInterface> returnList = new ArrayList<>( list.size() );
             for( Session session : list ) {
-                returnList.add( session );
+                returnList.add( bindContents( session ) );
             }
             return returnList;
         } catch( SQLException e ) {
@@ -433,56 +532,207 @@ public final class SessionManager implements SessionManagerInterface {
     public List<SessionInterface> getSessionsForEnvironmentAttributes(
             String attributeId ) {
         validStateAndArguments( attributeId );
+        return getOnGoingSessions( attributeId, COLUMN.ENVIRONMENT, "" );
+    }
+
+    /**
+     * Streams the sessions selected by the query from a database cursor, the
+     * sessions are read one row at a time and their policy and request are
+     * loaded only when read
+     *
+     * @param query
+     *          the selection of the sessions
+     * @return the cursor over the selected sessions, it keeps the statement
+     *         open until it is closed or read to the end
+     */
+    @Override
+    public SessionCursor streamSessions( SessionQuery query ) {
+        Reject.ifNull( query, "Invalid query" );
+        isInitialized();
         try {
-            QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao
-                .queryBuilder();
-            List<OnGoingAttribute> attributes = qbAttributes.where()
-                .isNull( OnGoingAttribute.SUBJECTNAME_FIELD ).and()
-                .isNull( OnGoingAttribute.RESOURCENAME_FIELD ).and()
-                .isNull( OnGoingAttribute.ACTIONNAME_FIELD ).and()
-                .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId ).query();
-
-            List<SessionInterface> sessions = new LinkedList<>();
-            for( OnGoingAttribute attr : attributes ) {
-                // add the considered session only if its status is equal to 's'
-                if( attr.getSession().isStatus( STATUS.START.name() )
-                        || attr.getSession().isStatus( STATUS.REVOKE.name() ) ) {
-                    sessions.add( attr.getSession() );
+            QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
+            whereSelected( qbSessions, query );
+            CloseableIterator<Session> iterator = qbSessions.iterator();
+            return new SessionCursor() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public SessionInterface next() {
+                    return bindContents( iterator.next() );
                 }
-            }
-            return sessions;
 
+                @Override
+                public void close() {
+                    iterator.closeQuietly();
+                }
+            };
         } catch( SQLException e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+            throw new IllegalStateException( "Error streaming the sessions for " + query, e );
+        }
+    }
+
+    /**
+     * Counts the sessions selected by the query with a single COUNT statement
+     *
+     * @param query
+     *          the selection of the sessions
+     * @return the number of selected sessions, 0 if the query failed
+     */
+    @Override
+    public long countSessions( SessionQuery query ) {
+        Reject.ifNull( query, "Invalid query" );
+        isInitialized();
+        try {
+            QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
+            whereSelected( qbSessions, query );
+            return qbSessions.countOf();
+        } catch( SQLException e ) {
+            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+            return 0;
         }
-        return new ArrayList<>();
+    }
+
+    /**
+     * Retrieves a page of the sessions selected by the query, the page is
+     * selected by the database ordering the sessions by id
+     *
+     * @param query
+     *          the selection of the sessions
+     * @param afterSessionId
+     *          the id of the last session of the previous page, null for the
+     *          first page
+     * @param pageSize
+     *          the maximum number of sessions in the page
+     * @return the sessions in the page, an empty list if the query failed
+     */
+    @Override
+    public List<SessionInterface> getSessionsPage( SessionQuery query, String afterSessionId, int pageSize ) {
+        Reject.ifNull( query, "Invalid query" );
+        Reject.ifLessThan( pageSize, 1, "page size must be positive" );
+        isInitialized();
+        try {
+            QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder();
+            Where<Session, String> where = whereSelected( qbSessions, query );
+            if( afterSessionId != null ) {
+                where.and().gt( Session.ID_FIELD_NAME, afterSessionId );
+            }
+            qbSessions.orderBy( Session.ID_FIELD_NAME, true ).limit( (long) pageSize );
+            List<SessionInterface> list = new ArrayList<>( pageSize );
+            for( Session session : qbSessions.query() ) {
+                list.add( bindContents( session ) );
+            }
+            return list;
+        } catch( SQLException e ) {
+            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Restricts the query on the sessions table to the sessions selected by the
+     * query: by status code or, like the on going sessions lookups, by a
+     * subquery on the on going attributes
+     */
+    private Where<Session, String> whereSelected( QueryBuilder<Session, String> qbSessions, SessionQuery query )
+            throws SQLException {
+        Where<Session, String> where = qbSessions.where();
+        if( query.isStatusQuery() ) {
+            return where.eq( Session.STATUSCODE_FIELD_NAME, Session.toStatusCode( query.getStatus() ) );
+        }
+        COLUMN column = query.getCategory() != null ? COLUMN.valueOf( query.getCategory().name() ) : null;
+        return whereOnGoing( where, query.getAttributeId(), column, query.getName() );
+    }
+
+    /**
+     * Restricts a query on the sessions table to the sessions in START or
+     * REVOKE status interested in the attribute
+     */
+    private Where<Session, String> whereOnGoing( Where<Session, String> where, String attributeId, COLUMN column, String name )
+            throws SQLException {
+        QueryBuilder<OnGoingAttribute, String> qbAttributes = attributesDao.queryBuilder()
+            .selectColumns( OnGoingAttribute.SESSION_ID_FIELD_NAME );
+        Where<OnGoingAttribute, String> attributesWhere = qbAttributes.where()
+            .eq( OnGoingAttribute.ATTRIBUTEID_FIELD, attributeId );
+        if( column != null ) {
+            attributesWhere.and().eq( OnGoingAttribute.CATEGORY_FIELD, column.name() )
+                .and().eq( OnGoingAttribute.ENTITYNAME_FIELD, name );
+        }
+        return where.in( Session.ID_FIELD_NAME, qbAttributes ).and()
+            .in( Session.STATUSCODE_FIELD_NAME, Session.toStatusCode( STATUS.START ), Session.toStatusCode( STATUS.REVOKE ) );
     }
 
     @Override
     public List<OnGoingAttributesInterface> getOnGoingAttributes( String sessionId ) {
         validStateAndArguments( sessionId );
         try {
-            Session session = sessionDao.queryForId( sessionId );
-            return session.getOnGoingAttribute();
+            return new ArrayList<>( attributesDao.queryForEq( OnGoingAttribute.SESSION_ID_FIELD_NAME, sessionId ) );
         } catch( Exception e ) {
             log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
             return new ArrayList<>();
         }
     }
 
+    /**
+     * Retrieves in a single query the sessions in START or REVOKE status that
+     * are interested in the attribute. Only the columns needed to reevaluate the
+     * sessions are loaded and the on going attributes are not fetched, the
+     * policy and the request are loaded when the reevaluation reads them.
+     *
+     * @param attributeId
+     *          the attribute id
+     * @param column
+     *          the column of the entity to which the attribute is related, null
+     *          to match the attribute id only
+     * @param name
+     *          the name of the entity
+     * @return the list of sessions interested in the attribute
+     */
+    private List<SessionInterface> getOnGoingSessions( String attributeId, COLUMN column, String name ) {
+        try {
+            QueryBuilder<Session, String> qbSessions = sessionDao.queryBuilder()
+                .selectColumns( Session.ID_FIELD_NAME, Session.POLICYHASH_FIELD_NAME, Session.REQUESTHASH_FIELD_NAME,
+                    Session.STATUS_FIELD_NAME, Session.STATUSCODE_FIELD_NAME, Session.PEPURI_FIELD_NAME );
+            whereOnGoing( qbSessions.where(), attributeId, column, name );
+            List<SessionInterface> list = new ArrayList<>();
+            for( Session session : qbSessions.query() ) {
+                list.add( bindContents( session ) );
+            }
+            return list;
+        } catch( SQLException e ) {
+            log.severe( String.format( MSG_ERR_SQL, e.getMessage() ) );
+        }
+        return new ArrayList<>();
+    }
+
+    private Session bindContents( Session session ) {
+        if( session != null ) {
+            session.bindContents( contents );
+        }
+        return session;
+    }
+
     @Override
     public REEV_STATUS checkSession( String sessionId, Attribute attribute ) {
-        return null;
+        return reevaluationTable.checkSession( sessionId, attribute );
     }
 
     @Override
     public boolean insertSession( SessionInterface session, Attribute attribute ) {
-        return false;
+        return reevaluationTable.insertSession( session, attribute );
+    }
+
+    @Override
+    public boolean startSession( SessionInterface session ) {
+        return reevaluationTable.startSession( session );
     }
 
     @Override
     public boolean stopSession( SessionInterface session ) {
-        return false;
+        return reevaluationTable.stopSession( session );
     }
 
     private void validStateAndArguments( Object... objects ) {
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Keyset pagination over the sessions selected by a query. The session
+ * managers keep the selected ids sorted and read a page from the id that
+ * follows the previous page, so that a page costs as much as its size
+ * whatever the size of the selection.
+ */
+final class SessionPages {
+
+    private SessionPages() {}
+
+    /**
+     * Retrieves the first sessions of a cursor ordered by id
+     */
+    static List<SessionInterface> first( Iterator<? extends SessionInterface> sessions, int pageSize ) {
+        Reject.ifLessThan( pageSize, 1, "page size must be positive" );
+        List<SessionInterface> page = new ArrayList<>( Math.min( pageSize, 64 ) );
+        while( page.size() < pageSize && sessions.hasNext() ) {
+            page.add( sessions.next() );
+        }
+        return page;
+    }
+
+    static long count( Iterator<? extends SessionInterface> sessions ) {
+        long count = 0;
+        while( sessions.hasNext() ) {
+            sessions.next();
+            count++;
+        }
+        return count;
+    }
+
+}
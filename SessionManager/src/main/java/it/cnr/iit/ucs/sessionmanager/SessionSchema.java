@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableUtils;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Creates the tables of the Session Manager or upgrades them to the current
+ * schema version. Databases created before the schema was versioned are
+ * considered at version 1.
+ * <ul>
+ * <li>version 1: sessions and on going attributes, no indexes</li>
+ * <li>version 2: category and entity name columns on the on going attributes,
+ * integer status code on the sessions, indexes on (attribute_id, category,
+ * entity_name) and on the status code</li>
+ * <li>version 3: policies and requests moved to the content-addressed session
+ * contents table, the sessions reference them by hash</li>
+ * </ul>
+ */
+final class SessionSchema {
+
+    private static final Logger log = Logger.getLogger( SessionSchema.class.getName() );
+
+    static final int CURRENT_VERSION = 3;
+    private static final int UNVERSIONED = 1;
+
+    private static final String VARCHAR = "VARCHAR(255)";
+    private static final String INTEGER = "INTEGER";
+    private static final String HASH = "VARCHAR(" + SessionContent.HASH_LENGTH + ")";
+    // maximum number of sessions whose contents are moved by a single statement
+    static final int MIGRATION_BATCH_SIZE = 100;
+
+    private final ConnectionSource connectionSource;
+    private final DatabaseType databaseType;
+    private final Dao<Session, String> sessionDao;
+    private final Dao<OnGoingAttribute, String> attributesDao;
+    private final Dao<SchemaVersion, Integer> versionDao;
+    // escaped names of the tables, the database may require them upper case
+    private final String sessionsTable;
+    private final String attributesTable;
+
+    SessionSchema( ConnectionSource connectionSource ) throws SQLException {
+        Reject.ifNull( connectionSource );
+        this.connectionSource = connectionSource;
+        databaseType = connectionSource.getDatabaseType();
+        sessionDao = DaoManager.createDao( connectionSource, Session.class );
+        attributesDao = DaoManager.createDao( connectionSource, OnGoingAttribute.class );
+        versionDao = DaoManager.createDao( connectionSource, SchemaVersion.class );
+        sessionsTable = escape( sessionDao.getTableName() );
+        attributesTable = escape( attributesDao.getTableName() );
+    }
+
+    /**
+     * Creates the tables at the current version if they do not exist, otherwise
+     * applies the migrations needed to reach the current version
+     *
+     * @return the version the database had before the upgrade, 0 if it was empty
+     */
+    int upgrade() throws SQLException {
+        if( !versionDao.isTableExists() ) {
+            TableUtils.createTable( connectionSource, SchemaVersion.class );
+        }
+        if( !sessionDao.isTableExists() ) {
+            TableUtils.createTable( connectionSource, Session.class );
+            TableUtils.createTable( connectionSource, OnGoingAttribute.class );
+            TableUtils.createTableIfNotExists( connectionSource, SessionContent.class );
+            versionDao.createIfNotExists( new SchemaVersion( CURRENT_VERSION ) );
+            return 0;
+        }
+
+        int version = getVersion();
+        Reject.ifGreaterThan( version, CURRENT_VERSION, "database schema is newer than the supported one" );
+        for( int next = version + 1; next <= CURRENT_VERSION; next++ ) {
+            final int target = next;
+            TransactionManager.callInTransaction( connectionSource, () -> {
+                migrateTo( target );
+                versionDao.create( new SchemaVersion( target ) );
+                return null;
+            } );
+            log.info( "SessionManager schema upgraded to version " + target );
+        }
+        return version;
+    }
+
+    int getVersion() throws SQLException {
+        long version = versionDao.queryRawValue( "SELECT MAX(" + escape( SchemaVersion.VERSION_FIELD_NAME ) + ") FROM "
+                + escape( versionDao.getTableName() ) );
+        return version > 0 ? (int) version : UNVERSIONED;
+    }
+
+    private void migrateTo( int version ) throws SQLException {
+        switch( version ) {
+            case 2:
+                migrateToVersion2();
+                break;
+            case 3:
+                migrateToVersion3();
+                break;
+            default:
+                throw new IllegalStateException( "no migration to schema version " + version );
+        }
+    }
+
+    private void migrateToVersion2() throws SQLException {
+        addColumn( attributesTable, OnGoingAttribute.CATEGORY_FIELD, VARCHAR );
+        addColumn( attributesTable, OnGoingAttribute.ENTITYNAME_FIELD, VARCHAR );
+        addColumn( sessionsTable, Session.STATUSCODE_FIELD_NAME, INTEGER );
+
+        bindEntity( COLUMN.SUBJECT, OnGoingAttribute.SUBJECTNAME_FIELD );
+        bindEntity( COLUMN.RESOURCE, OnGoingAttribute.RESOURCENAME_FIELD );
+        bindEntity( COLUMN.ACTION, OnGoingAttribute.ACTIONNAME_FIELD );
+        attributesDao.updateRaw( "UPDATE " + attributesTable + " SET "
+                + escape( OnGoingAttribute.CATEGORY_FIELD ) + " = ?, " + escape( OnGoingAttribute.ENTITYNAME_FIELD ) + " = ? WHERE "
+                + escape( OnGoingAttribute.CATEGORY_FIELD ) + " IS NULL",
+            COLUMN.ENVIRONMENT.name(), "" );
+
+        for( STATUS status : STATUS.values() ) {
+            sessionDao.updateRaw( "UPDATE " + sessionsTable + " SET " + escape( Session.STATUSCODE_FIELD_NAME ) + " = "
+                    + Session.toStatusCode( status ) + " WHERE UPPER(" + escape( Session.STATUS_FIELD_NAME ) + ") = ?",
+                status.name() );
+        }
+        sessionDao.updateRaw( "UPDATE " + sessionsTable + " SET " + escape( Session.STATUSCODE_FIELD_NAME ) + " = "
+                + Session.UNKNOWN_STATUS_CODE + " WHERE " + escape( Session.STATUSCODE_FIELD_NAME ) + " IS NULL" );
+
+        createIndex( OnGoingAttribute.ENTITY_INDEX_NAME, attributesTable, OnGoingAttribute.ATTRIBUTEID_FIELD,
+            OnGoingAttribute.CATEGORY_FIELD, OnGoingAttribute.ENTITYNAME_FIELD );
+        createIndex( Session.STATUS_INDEX_NAME, sessionsTable, Session.STATUSCODE_FIELD_NAME );
+    }
+
+    /**
+     * Moves the policies and the requests inlined in the sessions to the session
+     * contents, the hashes are computed here since databases lack a portable
+     * hash function. The sessions are read one row at a time and updated by
+     * statements of at most MIGRATION_BATCH_SIZE sessions.
+     */
+    private void migrateToVersion3() throws SQLException {
+        TableUtils.createTableIfNotExists( connectionSource, SessionContent.class );
+        addColumn( sessionsTable, Session.POLICYHASH_FIELD_NAME, HASH );
+        addColumn( sessionsTable, Session.REQUESTHASH_FIELD_NAME, HASH );
+
+        SessionContents contents = new SessionContents( connectionSource );
+        List<String[]> batch = new ArrayList<>( MIGRATION_BATCH_SIZE );
+        CloseableIterator<String[]> rows = sessionDao.queryRaw( "SELECT " + escape( Session.ID_FIELD_NAME ) + ", "
+                + escape( Session.POLICYSET_FIELD_NAME ) + ", " + escape( Session.ORIGINALREQUEST_FIELD_NAME ) + " FROM "
+                + sessionsTable ).closeableIterator();
+        try {
+            while( rows.hasNext() ) {
+                batch.add( rows.next() );
+                if( batch.size() == MIGRATION_BATCH_SIZE ) {
+                    moveToContents( contents, batch );
+                    batch.clear();
+                }
+            }
+        } finally {
+            rows.closeQuietly();
+        }
+        moveToContents( contents, batch );
+    }
+
+    /**
+     * Stores the policies and the requests of the given sessions in the session
+     * contents and replaces them with their hashes in a single statement
+     *
+     * @param rows
+     *          id, policy and request of each session
+     */
+    private void moveToContents( SessionContents contents, List<String[]> rows ) throws SQLException {
+        if( rows.isEmpty() ) {
+            return;
+        }
+        StringBuilder policyHash = new StringBuilder( "CASE" );
+        StringBuilder requestHash = new StringBuilder( "CASE" );
+        StringBuilder ids = new StringBuilder();
+        String when = " WHEN " + escape( Session.ID_FIELD_NAME ) + " = ? THEN CAST(? AS " + HASH + ")";
+        List<String> policyArguments = new ArrayList<>( rows.size() * 2 );
+        List<String> requestArguments = new ArrayList<>( rows.size() * 2 );
+        List<String> idArguments = new ArrayList<>( rows.size() );
+        for( String[] row : rows ) {
+            policyHash.append( when );
+            requestHash.append( when );
+            ids.append( ids.length() > 0 ? ", ?" : "?" );
+            policyArguments.add( row[0] );
+            policyArguments.add( contents.store( row[1] ) );
+            requestArguments.add( row[0] );
+            requestArguments.add( contents.store( row[2] ) );
+            idArguments.add( row[0] );
+        }
+        List<String> arguments = new ArrayList<>( rows.size() * 5 );
+        arguments.addAll( policyArguments );
+        arguments.addAll( requestArguments );
+        arguments.addAll( idArguments );
+        sessionDao.updateRaw( "UPDATE " + sessionsTable + " SET " + escape( Session.POLICYHASH_FIELD_NAME ) + " = "
+                + policyHash + " END, " + escape( Session.REQUESTHASH_FIELD_NAME ) + " = " + requestHash + " END, "
+                + escape( Session.POLICYSET_FIELD_NAME ) + " = NULL, " + escape( Session.ORIGINALREQUEST_FIELD_NAME )
+                + " = NULL WHERE " + escape( Session.ID_FIELD_NAME ) + " IN (" + ids + ")",
+            arguments.toArray( new String[arguments.size()] ) );
+    }
+
+    /**
+     * Fills category and entity name of the attributes stored in the given
+     * column and not bound yet
+     */
+    private void bindEntity( COLUMN column, String nameField ) throws SQLException {
+        attributesDao.updateRaw( "UPDATE " + attributesTable + " SET "
+                + escape( OnGoingAttribute.CATEGORY_FIELD ) + " = ?, " + escape( OnGoingAttribute.ENTITYNAME_FIELD ) + " = "
+                + escape( nameField ) + " WHERE " + escape( OnGoingAttribute.CATEGORY_FIELD ) + " IS NULL AND "
+                + escape( nameField ) + " IS NOT NULL",
+            column.name() );
+    }
+
+    private void addColumn( String table, String column, String type ) throws SQLException {
+        sessionDao.executeRawNoArgs( "ALTER TABLE " + table + " ADD COLUMN " + escape( column ) + " " + type );
+    }
+
+    private void createIndex( String index, String table, String... columns ) throws SQLException {
+        StringBuilder sb = new StringBuilder( "CREATE INDEX " ).append( escape( index ) )
+            .append( " ON " ).append( table ).append( " (" );
+        for( int i = 0; i < columns.length; i++ ) {
+            sb.append( i > 0 ? ", " : "" ).append( escape( columns[i] ) );
+        }
+        sessionDao.executeRawNoArgs( sb.append( ")" ).toString() );
+    }
+
+    private String escape( String name ) {
+        StringBuilder sb = new StringBuilder();
+        databaseType.appendEscapedEntityName( sb, name );
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * Session Manager that keeps the authoritative state of the sessions in memory
+ * and writes it behind to the database configured by the db-uri property.
+ * Creations, updates and deletions are applied to an InMemorySessionManager and
+ * queued, a background writer coalesces the queued writes per session and
+ * flushes them to the SessionManager in a single transaction every flush
+ * interval or as soon as flush batch size sessions are waiting, hence no
+ * request waits on the database. On start the memory is rebuilt from the
+ * database, the writes not yet flushed when the UCS crashes are lost.
+ * It can be selected by setting
+ * <code>ucs.session-manager.name=it.cnr.iit.ucs.sessionmanager.WriteBehindSessionManager</code>.
+ */
+public final class WriteBehindSessionManager implements SessionManagerInterface {
+
+    private static Logger log = Logger.getLogger( WriteBehindSessionManager.class.getName() );
+
+    private final InMemorySessionManager memory;
+    private final SessionManager store;
+    private final long flushInterval;
+    private final int flushBatchSize;
+
+    // writes not yet handed to the writer, coalesced per session id
+    private final Object pendingLock = new Object();
+    private Map<String, PendingWrite> pending = new LinkedHashMap<>();
+    // time of the oldest write not yet flushed, both pending and in flight
+    private long pendingSince = 0;
+    private volatile long inFlightSince = 0;
+    private volatile int inFlightWrites = 0;
+    private final AtomicBoolean flushRequested = new AtomicBoolean( false );
+
+    private ScheduledExecutorService writer;
+    private volatile boolean running = false;
+    private volatile boolean initialized = false;
+
+    public WriteBehindSessionManager( SessionManagerProperties properties ) {
+        Reject.ifNull( properties );
+        flushInterval = properties.getFlushInterval();
+        flushBatchSize = properties.getFlushBatchSize();
+        Reject.ifLessThan( flushInterval, 1, "flush interval must be positive" );
+        Reject.ifLessThan( flushBatchSize, 1, "flush batch size must be positive" );
+        memory = new InMemorySessionManager( properties );
+        store = new SessionManager( properties );
+        initialized = true;
+    }
+
+    /**
+     * Starts the underlying database, loads the stored sessions in memory and
+     * starts the background writer
+     *
+     * @return true if the Session Manager starts properly, false otherwise
+     */
+    @Override
+    public Boolean start() {
+        isInitialized();
+        if( !memory.start() || !store.start() ) {
+            return false;
+        }
+        int loaded = 0;
+        for( STATUS status : STATUS.values() ) {
+            try (SessionCursor sessions = store.streamSessions( SessionQuery.forStatus( status.name() ) )) {
+                while( sessions.hasNext() ) {
+                    SessionInterface session = sessions.next();
+                    if( memory.createEntry( toSessionAttributes( session, store.getOnGoingAttributes( session.getId() ) ) ) ) {
+                        loaded++;
+                    }
+                }
+            }
+        }
+        log.log( Level.INFO, "{0} sessions loaded from the database", loaded );
+
+        writer = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "session-write-behind" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        running = true;
+        writer.scheduleWithFixedDelay( this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+        return true;
+    }
+
+    /**
+     * Stops the background writer, flushes the pending writes and closes the
+     * database
+     *
+     * @return true if the Session Manager stops properly, false otherwise
+     */
+    @Override
+    public Boolean stop() {
+        isInitialized();
+        running = false;
+        if( writer != null ) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination( flushInterval, TimeUnit.MILLISECONDS );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        if( getPendingWrites() > 0 ) {
+            log.log( Level.SEVERE, "{0} session writes could not be flushed", getPendingWrites() );
+        }
+        store.stop();
+        return memory.stop();
+    }
+
+    @Override
+    public Boolean createEntry( SessionAttributes parameterObject ) {
+        Reject.ifNull( parameterObject );
+        synchronized( pendingLock ) {
+            if( !memory.createEntry( parameterObject ) ) {
+                return false;
+            }
+            PendingWrite write = pending.get( parameterObject.getSessionId() );
+            if( write == null ) {
+                write = enqueue( parameterObject.getSessionId() );
+            }
+            write.create = parameterObject;
+            write.status = null;
+        }
+        requestFlushIfFull();
+        return true;
+    }
+
+    @Override
+    public Boolean updateEntry( String sessionId, String status ) {
+        synchronized( pendingLock ) {
+            if( !memory.updateEntry( sessionId, status ) ) {
+                return false;
+            }
+            PendingWrite write = pending.get( sessionId );
+            if( write == null ) {
+                write = enqueue( sessionId );
+            }
+            write.status = status;
+        }
+        requestFlushIfFull();
+        return true;
+    }
+
+    @Override
+    public Boolean deleteEntry( String sessionId ) {
+        synchronized( pendingLock ) {
+            if( !memory.deleteEntry( sessionId ) ) {
+                return false;
+            }
+            PendingWrite write = pending.get( sessionId );
+            if( write != null && !write.delete && write.create != null ) {
+                // the session never reached the database
+                pending.remove( sessionId );
+                if( pending.isEmpty() ) {
+                    pendingSince = 0;
+                }
+                return true;
+            }
+            if( write == null ) {
+                write = enqueue( sessionId );
+            }
+            write.delete = true;
+            write.create = null;
+            write.status = null;
+        }
+        requestFlushIfFull();
+        return true;
+    }
+
+    /**
+     * Deletes the sessions from memory, the deletions reach the database with
+     * the next flush in a single transaction
+     */
+    @Override
+    public int deleteEntries( Collection<String> sessionIds ) {
+        Reject.ifNull( sessionIds );
+        int deleted = 0;
+        for( String sessionId : sessionIds ) {
+            if( deleteEntry( sessionId ) ) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForAttribute( String attributeId ) {
+        return memory.getSessionsForAttribute( attributeId );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForSubjectAttributes( String subjectName, String attributeId ) {
+        return memory.getSessionsForSubjectAttributes( subjectName, attributeId );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForResourceAttributes( String resourceName, String attributeId ) {
+        return memory.getSessionsForResourceAttributes( resourceName, attributeId );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForActionAttributes( String actionName, String attributeId ) {
+        return memory.getSessionsForActionAttributes( actionName, attributeId );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForEnvironmentAttributes( String attributeId ) {
+        return memory.getSessionsForEnvironmentAttributes( attributeId );
+    }
+
+    @Override
+    public Optional<SessionInterface> getSessionForId( String sessionId ) {
+        return memory.getSessionForId( sessionId );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsForStatus( String status ) {
+        return memory.getSessionsForStatus( status );
+    }
+
+    @Override
+    public SessionCursor streamSessions( SessionQuery query ) {
+        return memory.streamSessions( query );
+    }
+
+    @Override
+    public long countSessions( SessionQuery query ) {
+        return memory.countSessions( query );
+    }
+
+    @Override
+    public List<SessionInterface> getSessionsPage( SessionQuery query, String afterSessionId, int pageSize ) {
+        return memory.getSessionsPage( query, afterSessionId, pageSize );
+    }
+
+    @Override
+    public List<OnGoingAttributesInterface> getOnGoingAttributes( String sessionId ) {
+        return memory.getOnGoingAttributes( sessionId );
+    }
+
+    @Override
+    public REEV_STATUS checkSession( String sessionId, Attribute attribute ) {
+        return memory.checkSession( sessionId, attribute );
+    }
+
+    @Override
+    public boolean insertSession( SessionInterface session, Attribute attribute ) {
+        return memory.insertSession( session, attribute );
+    }
+
+    @Override
+    public boolean startSession( SessionInterface session ) {
+        return memory.startSession( session );
+    }
+
+    @Override
+    public boolean stopSession( SessionInterface session ) {
+        return memory.stopSession( session );
+    }
+
+    @Override
+    public boolean isInitialized() {
+        Reject.ifFalse( initialized, "SessionManager was not correctly initialized" );
+        return initialized;
+    }
+
+    /**
+     * Retrieves the flush lag, that is how long the oldest write not yet stored
+     * in the database has been waiting
+     *
+     * @return the flush lag in milliseconds, 0 if every write has been flushed
+     */
+    public long getFlushLag() {
+        long since;
+        synchronized( pendingLock ) {
+            since = pendingSince;
+        }
+        long flushing = inFlightSince;
+        if( since == 0 || ( flushing != 0 && flushing < since ) ) {
+            since = flushing;
+        }
+        return since == 0 ? 0 : Math.max( 0, System.currentTimeMillis() - since );
+    }
+
+    /**
+     * Retrieves the number of sessions whose writes are not yet stored in the
+     * database, both waiting and being flushed
+     *
+     * @return the number of pending session writes
+     */
+    public int getPendingWrites() {
+        synchronized( pendingLock ) {
+            return pending.size() + inFlightWrites;
+        }
+    }
+
+    /**
+     * Flushes the pending writes to the database in a single transaction, if
+     * the transaction fails the writes are queued again ahead of the newer ones
+     */
+    void flush() {
+        flushRequested.set( false );
+        Map<String, PendingWrite> batch;
+        synchronized( pendingLock ) {
+            if( pending.isEmpty() ) {
+                return;
+            }
+            batch = pending;
+            inFlightSince = pendingSince;
+            inFlightWrites = batch.size();
+            pending = new LinkedHashMap<>();
+            pendingSince = 0;
+        }
+        long lag = System.currentTimeMillis() - inFlightSince;
+        try {
+            store.callInTransaction( () -> {
+                for( PendingWrite write : batch.values() ) {
+                    apply( write );
+                }
+                return null;
+            } );
+            log.log( Level.FINE, "flushed {0} session writes, flush lag {1} ms", new Object[] { batch.size(), lag } );
+        } catch( SQLException | RuntimeException e ) {
+            log.log( Level.SEVERE, "Error flushing session writes : {0}", e.getMessage() );
+            requeue( batch );
+        } finally {
+            synchronized( pendingLock ) {
+                inFlightSince = 0;
+                inFlightWrites = 0;
+            }
+        }
+    }
+
+    /**
+     * Applies a coalesced write to the database, a statement that fails or a
+     * creation or update the database does not take throws so that the whole
+     * batch is rolled back and queued again
+     */
+    private void apply( PendingWrite write ) throws SQLException {
+        if( write.delete && !store.removeEntry( write.sessionId ) ) {
+            log.log( Level.FINE, "session {0} was not stored", write.sessionId );
+        }
+        if( write.create != null && !store.insertEntry( write.create ) ) {
+            throw new SQLException( "session " + write.sessionId + " could not be stored" );
+        }
+        if( write.status != null && !store.updateStatus( write.sessionId, write.status ) ) {
+            throw new SQLException( "status of session " + write.sessionId + " could not be stored" );
+        }
+    }
+
+    private void requeue( Map<String, PendingWrite> batch ) {
+        synchronized( pendingLock ) {
+            for( PendingWrite newer : pending.values() ) {
+                PendingWrite older = batch.get( newer.sessionId );
+                if( older == null ) {
+                    batch.put( newer.sessionId, newer );
+                } else if( newer.delete ) {
+                    older.delete = true;
+                    older.create = newer.create;
+                    older.status = newer.status;
+                } else if( newer.create != null ) {
+                    older.create = newer.create;
+                    older.status = newer.status;
+                } else {
+                    older.status = newer.status;
+                }
+            }
+            pending = batch;
+            pendingSince = pendingSince == 0 ? inFlightSince : Math.min( pendingSince, inFlightSince );
+        }
+    }
+
+    private PendingWrite enqueue( String sessionId ) {
+        PendingWrite write = new PendingWrite( sessionId );
+        if( pending.isEmpty() ) {
+            pendingSince = System.currentTimeMillis();
+        }
+        pending.put( sessionId, write );
+        return write;
+    }
+
+    private void requestFlushIfFull() {
+        int waiting;
+        synchronized( pendingLock ) {
+            waiting = pending.size();
+        }
+        if( running && waiting >= flushBatchSize && flushRequested.compareAndSet( false, true ) ) {
+            writer.execute( this::flush );
+        }
+    }
+
+    private static SessionAttributes toSessionAttributes( SessionInterface session,
+            List<OnGoingAttributesInterface> attributes ) {
+        SessionAttributesBuilder builder = new SessionAttributesBuilder().setSessionId( session.getId() )
+            .setPolicySet( session.getPolicySet() ).setOriginalRequest( session.getOriginalRequest() )
+            .setStatus( session.getStatus() ).setPepURI( session.getPepId() ).setMyIP( session.getIP() );
+        List<String> subject = new ArrayList<>();
+        List<String> resource = new ArrayList<>();
+        List<String> action = new ArrayList<>();
+        List<String> environment = new ArrayList<>();
+        for( OnGoingAttributesInterface attribute : attributes ) {
+            OnGoingAttribute onGoingAttribute = (OnGoingAttribute) attribute;
+            COLUMN column = onGoingAttribute.getColumn();
+            if( column == COLUMN.SUBJECT ) {
+                builder.setSubjectName( onGoingAttribute.getEntityName() );
+                subject.add( attribute.getAttributeId() );
+            } else if( column == COLUMN.RESOURCE ) {
+                builder.setResourceName( onGoingAttribute.getEntityName() );
+                resource.add( attribute.getAttributeId() );
+            } else if( column == COLUMN.ACTION ) {
+                builder.setActionName( onGoingAttribute.getEntityName() );
+                action.add( attribute.getAttributeId() );
+            } else {
+                environment.add( attribute.getAttributeId() );
+            }
+        }
+        return builder.setOnGoingAttributesForSubject( subject ).setOnGoingAttributesForResource( resource )
+            .setOnGoingAttributesForAction( action ).setOnGoingAttributesForEnvironment( environment ).build();
+    }
+
+    /**
+     * Writes of a session not yet flushed: the deletion of the stored session,
+     * the creation of the new one and its last status, applied in this order
+     */
+    private static final class PendingWrite {
+        private final String sessionId;
+        private boolean delete = false;
+        private SessionAttributes create;
+        private String status;
+
+        private PendingWrite( String sessionId ) {
+            this.sessionId = sessionId;
+        }
+    }
+
+}
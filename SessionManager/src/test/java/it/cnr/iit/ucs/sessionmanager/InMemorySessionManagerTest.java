@@ -0,0 +1,20 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertTrue;
+
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.utility.ReflectionsUtility;
+
+public class InMemorySessionManagerTest extends SessionManagerContractTest<SessionManagerInterface> {
+
+    @Override
+    protected SessionManagerInterface createSessionManager() {
+        SessionManagerProperties properties = new SessionManagerTestProperties( InMemorySessionManager.class.getName(), null );
+
+        SessionManagerInterface manager = ReflectionsUtility.buildComponent( properties, SessionManagerInterface.class ).get();
+        assertTrue( manager instanceof InMemorySessionManager );
+        assertTrue( manager.start() );
+        return manager;
+    }
+
+}
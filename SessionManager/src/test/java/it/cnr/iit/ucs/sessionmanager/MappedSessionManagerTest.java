@@ -0,0 +1,128 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+
+public class MappedSessionManagerTest extends SessionManagerContractTest<MappedSessionManager> {
+
+    // small segments, so that the tests map several of them
+    private static final int RECORDS_PER_SEGMENT = 4;
+    private static final int BLOB_SEGMENT_SIZE = 256;
+
+    private Path directory;
+
+    @Override
+    protected MappedSessionManager createSessionManager() throws IOException {
+        directory = Files.createTempDirectory( "mapped-sessions" );
+        return start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list( directory )) {
+            files.forEach( path -> path.toFile().delete() );
+        }
+        directory.toFile().delete();
+    }
+
+    @Test
+    public void testSurvivesRestart() {
+        for( int i = 0; i < 10; i++ ) {
+            assertTrue( createSession( "s" + i, "subject" + ( i % 3 ), "file1" ) );
+            assertTrue( sessionManager.updateEntry( "s" + i, STATUS.START.name() ) );
+        }
+        assertEquals( 7, sessionManager.deleteEntries( Arrays.asList( "s0", "s1", "s2", "s3", "s4", "s5", "s6", "missing" ) ) );
+        assertTrue( sessionManager.stop() );
+
+        sessionManager = start();
+        assertEquals( 3, sessionManager.getSessionCount() );
+        assertEquals( 3, sessionManager.getSessionsForStatus( STATUS.START.name() ).size() );
+        assertEquals( 1, sessionManager.getSessionsForSubjectAttributes( "subject0", "role" ).size() );
+        assertEquals( "xacml_policy", sessionManager.getSessionForId( "s9" ).get().getPolicySet() );
+
+        // the records freed before the restart are reused
+        for( int i = 10; i < 17; i++ ) {
+            assertTrue( createSession( "s" + i, "subject" + ( i % 3 ), "file1" ) );
+        }
+        assertEquals( 3, countFiles( "sessions" ) );
+        assertEquals( 10, sessionManager.getSessionCount() );
+    }
+
+    @Test
+    public void testBlobsCompactedOnStart() {
+        List<String> deleted = new ArrayList<>();
+        for( int i = 0; i < 40; i++ ) {
+            assertTrue( createSession( "s" + i, "subject" + i, "file" + i ) );
+            if( i % 10 != 0 ) {
+                deleted.add( "s" + i );
+            }
+        }
+        assertEquals( 36, sessionManager.deleteEntries( deleted ) );
+        long blobSize = sessionManager.getBlobSize();
+        long blobFiles = countFiles( "blobs" );
+        assertTrue( sessionManager.stop() );
+
+        sessionManager = start();
+        assertTrue( sessionManager.getBlobSize() * 4 < blobSize );
+        assertTrue( countFiles( "blobs" ) < blobFiles );
+        assertEquals( 0, countFiles( "compacted" ) + countFiles( "sessions-compacted" ) + countFiles( "blobs-compacted" ) );
+        assertEquals( 4, sessionManager.getSessionCount() );
+        for( int i = 0; i < 40; i += 10 ) {
+            assertTrue( sessionManager.updateEntry( "s" + i, STATUS.START.name() ) );
+            List<SessionInterface> sessions = sessionManager.getSessionsForSubjectAttributes( "subject" + i, "role" );
+            assertEquals( 1, sessions.size() );
+            assertEquals( "xacml_policy", sessions.get( 0 ).getPolicySet() );
+            assertEquals( "localhost:9999", sessions.get( 0 ).getPepId() );
+            assertEquals( 1, sessionManager.getSessionsForResourceAttributes( "file" + i, "owner" ).size() );
+        }
+        assertFalse( sessionManager.getSessionForId( "s1" ).isPresent() );
+
+        // nothing left to reclaim, the next start keeps the files
+        blobSize = sessionManager.getBlobSize();
+        assertTrue( sessionManager.stop() );
+        sessionManager = start();
+        assertEquals( blobSize, sessionManager.getBlobSize() );
+        assertEquals( 4, sessionManager.getSessionsForStatus( STATUS.START.name() ).size() );
+    }
+
+    @Test
+    public void testContentsStoredOnce() {
+        String policy = String.join( "", Collections.nCopies( 10, "<Policy/>" ) );
+        for( int i = 0; i < 50; i++ ) {
+            assertTrue( sessionManager.createEntry( SessionManagerTestSessions.builder( "s" + i ).setPolicySet( policy ).build() ) );
+        }
+        // 50 sessions share the same policy, a single blob segment holds all the contents
+        assertEquals( 1, countFiles( "blobs" ) );
+        assertEquals( policy, sessionManager.getSessionForId( "s49" ).get().getPolicySet() );
+    }
+
+    private MappedSessionManager start() {
+        MappedSessionManager manager = new MappedSessionManager( directory, RECORDS_PER_SEGMENT, BLOB_SEGMENT_SIZE );
+        assertTrue( manager.start() );
+        return manager;
+    }
+
+    private long countFiles( String prefix ) {
+        try (Stream<Path> files = Files.list( directory )) {
+            return files.filter( path -> path.getFileName().toString().startsWith( prefix ) ).count();
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+
+public class OrmLiteSessionManagerTest extends SessionManagerContractTest<SessionManager> {
+
+    private File dbFile;
+
+    @Override
+    protected SessionManager createSessionManager() throws IOException {
+        dbFile = File.createTempFile( "sessions", ".db" );
+        SessionManager manager = new SessionManager(
+            new SessionManagerTestProperties( SessionManager.class.getName(), "jdbc:sqlite:" + dbFile.getAbsolutePath() ) );
+        assertTrue( manager.start() );
+        return manager;
+    }
+
+    @After
+    public void tearDown() {
+        sessionManager.stop();
+        dbFile.delete();
+    }
+
+}
@@ -0,0 +1,102 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.sessionmanager.ReevaluationTableInterface.REEV_STATUS;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+
+public class ReevaluationTableTest {
+
+    private final ReevaluationTable table = new ReevaluationTable();
+
+    @Test
+    public void testQueuedSessionAbsorbsChanges() {
+        SessionInterface session = session( "s1" );
+        assertEquals( REEV_STATUS.NOT_IN_REEVALUATION, table.checkSession( "s1", null ) );
+        assertTrue( table.insertSession( session, attribute( "temperature" ) ) );
+        assertFalse( table.insertSession( session, attribute( "temperature" ) ) );
+        assertFalse( table.insertSession( session, attribute( "humidity" ) ) );
+
+        assertEquals( REEV_STATUS.IN_REEVALUATION, table.checkSession( "s1", null ) );
+        assertEquals( REEV_STATUS.IN_REEVALUATION_SAME_ATTRIBUTE, table.checkSession( "s1", attribute( "humidity" ) ) );
+        assertEquals( REEV_STATUS.IN_REEVALUATION_DIFFERENT_ATTRIBUTE, table.checkSession( "s1", attribute( "role" ) ) );
+        assertEquals( 2, table.getAbsorbedCount() );
+
+        // the changes absorbed before the reevaluation starts repeat it once
+        assertTrue( table.startSession( session ) );
+        assertFalse( table.stopSession( session ) );
+        assertTrue( table.startSession( session ) );
+        assertTrue( table.stopSession( session ) );
+        assertEquals( REEV_STATUS.NOT_IN_REEVALUATION, table.checkSession( "s1", null ) );
+        assertEquals( 0, table.size() );
+    }
+
+    @Test
+    public void testChangesDuringReevaluationRepeatItOnce() {
+        SessionInterface session = session( "s1" );
+        assertTrue( table.insertSession( session, attribute( "temperature" ) ) );
+        assertTrue( table.startSession( session ) );
+        assertFalse( table.insertSession( session, attribute( "temperature" ) ) );
+        assertFalse( table.insertSession( session, attribute( "temperature" ) ) );
+
+        assertFalse( table.stopSession( session ) );
+        assertEquals( REEV_STATUS.IN_REEVALUATION, table.checkSession( "s1", null ) );
+        assertTrue( table.startSession( session ) );
+        assertTrue( table.stopSession( session ) );
+        assertFalse( table.startSession( session ) );
+        assertTrue( table.stopSession( session ) );
+    }
+
+    @Test
+    public void testConcurrentNotificationsSpawnOneReevaluation() throws Exception {
+        int threads = 8;
+        int notifications = 1000;
+        SessionInterface session = session( "s1" );
+        AtomicInteger owners = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for( int t = 0; t < threads; t++ ) {
+                futures.add( executor.submit( () -> {
+                    for( int i = 0; i < notifications; i++ ) {
+                        if( table.insertSession( session, attribute( "temperature" ) ) ) {
+                            owners.incrementAndGet();
+                        }
+                    }
+                } ) );
+            }
+            for( Future<?> future : futures ) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals( 1, owners.get() );
+        assertEquals( threads * notifications - 1L, table.getAbsorbedCount() );
+    }
+
+    private static SessionInterface session( String sessionId ) {
+        return new Session( sessionId, "xacml_policy", "xacml_request", STATUS.START.name(), "localhost:9999", "localhost" );
+    }
+
+    private static Attribute attribute( String attributeId ) {
+        Attribute attribute = new Attribute();
+        attribute.setAttributeId( attributeId );
+        attribute.setCategory( Category.ENVIRONMENT );
+        return attribute;
+    }
+
+}
@@ -0,0 +1,121 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Checks that the policies and the requests shared by the sessions are stored
+ * once and loaded only when they are read.
+ */
+public class SessionContentsTest {
+
+    private static final Logger log = Logger.getLogger( SessionContentsTest.class.getName() );
+
+    private static final String DB_URI = "jdbc:sqlite::memory:";
+    private static final int SESSIONS = 1000;
+
+    private final StatementCounter counter = new StatementCounter();
+    private Connection sqlConnection;
+    private SessionManager sessionManager;
+    private String policy;
+    private String request;
+
+    @Before
+    public void init() throws SQLException {
+        sqlConnection = DriverManager.getConnection( DB_URI );
+        sessionManager = new SessionManager( properties() );
+        sessionManager.start( counter.connectionSource( DB_URI, sqlConnection ) );
+        policy = xml( "Policy", 40 );
+        request = xml( "Request", 10 );
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        sqlConnection.close();
+    }
+
+    @Test
+    public void testStorageSavedPerSession() throws SQLException {
+        for( int i = 0; i < SESSIONS; i++ ) {
+            assertTrue( createSession( "s" + i ) );
+        }
+
+        long inlined = (long) SESSIONS * ( policy.length() + request.length() );
+        long stored = queryLong( "SELECT SUM(LENGTH(content)) FROM " + SessionContent.TABLE_NAME )
+                + queryLong( "SELECT SUM(LENGTH(policy_hash) + LENGTH(request_hash)) FROM " + Session.TABLE_NAME );
+        long savedPerSession = ( inlined - stored ) / SESSIONS;
+        log.info( String.format( "policy and request of %d sessions take %d bytes instead of %d, %d bytes saved per session",
+            SESSIONS, stored, inlined, savedPerSession ) );
+
+        assertEquals( 2, queryLong( "SELECT COUNT(*) FROM " + SessionContent.TABLE_NAME ) );
+        assertTrue( savedPerSession > policy.length() + request.length() - 2 * SessionContent.HASH_LENGTH - 10 );
+    }
+
+    @Test
+    public void testContentsLoadedWhenRead() throws SQLException {
+        assertTrue( createSession( "s1" ) );
+        assertTrue( createSession( "s2" ) );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        assertTrue( sessionManager.updateEntry( "s2", STATUS.START.name() ) );
+
+        // a new session manager has not loaded any content yet
+        sessionManager = new SessionManager( properties() );
+        sessionManager.start( counter.connectionSource( DB_URI, sqlConnection ) );
+        counter.reset();
+        List<SessionInterface> sessions = sessionManager.getSessionsForSubjectAttributes( "alice", "role" );
+        assertEquals( 2, sessions.size() );
+        assertEquals( 1, counter.getStatements() );
+
+        assertEquals( policy, sessions.get( 0 ).getPolicySet() );
+        assertEquals( request, sessions.get( 0 ).getOriginalRequest() );
+        assertEquals( 3, counter.getStatements() );
+        // the contents shared by the other session are cached
+        assertEquals( policy, sessions.get( 1 ).getPolicySet() );
+        assertEquals( request, sessions.get( 1 ).getOriginalRequest() );
+        assertEquals( 3, counter.getStatements() );
+    }
+
+    private long queryLong( String sql ) throws SQLException {
+        try (Statement statement = sqlConnection.createStatement();
+                ResultSet resultSet = statement.executeQuery( sql )) {
+            assertTrue( resultSet.next() );
+            return resultSet.getLong( 1 );
+        }
+    }
+
+    private boolean createSession( String sessionId ) {
+        return sessionManager.createEntry( SessionManagerTestSessions.builder( sessionId )
+            .setPolicySet( policy ).setOriginalRequest( request )
+            .setSubjectName( "alice" ).setOnGoingAttributesForSubject( Arrays.asList( "role" ) ).build() );
+    }
+
+    private static String xml( String element, int attributes ) {
+        StringBuilder sb = new StringBuilder( "<" ).append( element ).append( ">" );
+        for( int i = 0; i < attributes; i++ ) {
+            sb.append( "<Attribute AttributeId=\"urn:oasis:names:tc:xacml:1.0:subject:attribute-" ).append( i )
+                .append( "\" IncludeInResult=\"false\"><AttributeValue>value</AttributeValue></Attribute>" );
+        }
+        return sb.append( "</" ).append( element ).append( ">" ).toString();
+    }
+
+    private static SessionManagerProperties properties() {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), DB_URI );
+    }
+
+}
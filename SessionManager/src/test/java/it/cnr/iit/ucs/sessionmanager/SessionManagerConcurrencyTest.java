@@ -0,0 +1,175 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Runs the session manager operations performed by tryAccess, startAccess and
+ * endAccess from several threads, comparing a single shared connection with
+ * the connection pool. Every statement pays a fixed latency while holding its
+ * connection, as it happens with a database reached through the network.
+ */
+public class SessionManagerConcurrencyTest {
+
+    private static final Logger log = Logger.getLogger( SessionManagerConcurrencyTest.class.getName() );
+
+    private static final long STATEMENT_LATENCY_MILLIS = 2;
+    private static final int THREADS = 8;
+    private static final int CYCLES = 64;
+    private static final int MAX_FREE_CONNECTIONS = THREADS;
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    @Test
+    public void testPoolScalesWithThreads() throws Exception {
+        double single = throughput( false, 1 );
+        double singleConcurrent = throughput( false, THREADS );
+        double pooled = throughput( true, 1 );
+        double pooledConcurrent = throughput( true, THREADS );
+
+        log.info( String.format( "single connection: %.1f cycles/s with 1 thread, %.1f cycles/s with %d threads", single,
+            singleConcurrent, THREADS ) );
+        log.info( String.format( "pooled connections: %.1f cycles/s with 1 thread, %.1f cycles/s with %d threads", pooled,
+            pooledConcurrent, THREADS ) );
+        assertTrue( "pooled connections do not scale", pooledConcurrent > 3 * pooled );
+        assertTrue( "pooled connections are slower than a single one", pooledConcurrent > 2 * singleConcurrent );
+    }
+
+    private double throughput( boolean pooled, int threads ) throws Exception {
+        String dbUri = "jdbc:hsqldb:mem:concurrency" + databases.incrementAndGet() + ";hsqldb.tx=mvcc";
+        SessionManager sessionManager = new SessionManager( properties( dbUri, pooled ? MAX_FREE_CONNECTIONS : 1 ) );
+        sessionManager.start( pooled ? sessionManager.configurePool( new JdbcPooledConnectionSource( dbUri ) {
+            @Override
+            protected DatabaseConnection makeConnection( com.j256.ormlite.logger.Logger logger ) throws SQLException {
+                return new JdbcDatabaseConnection( slowConnection( super.makeConnection( logger ) ) );
+            }
+        } ) : new JdbcConnectionSource( dbUri ) {
+            @Override
+            protected DatabaseConnection makeConnection( com.j256.ormlite.logger.Logger logger ) throws SQLException {
+                return new JdbcDatabaseConnection( slowConnection( super.makeConnection( logger ) ) );
+            }
+        } );
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for( int i = 0; i < CYCLES; i++ ) {
+            String sessionId = "session" + i;
+            tasks.add( () -> {
+                accessCycle( sessionManager, sessionId );
+                return null;
+            } );
+        }
+        long start = System.nanoTime();
+        for( Future<Void> future : executor.invokeAll( tasks ) ) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination( 10, TimeUnit.SECONDS );
+
+        for( STATUS status : STATUS.values() ) {
+            assertEquals( 0, sessionManager.getSessionsForStatus( status.name() ).size() );
+        }
+        sessionManager.stop();
+        return CYCLES / ( elapsed / 1e9 );
+    }
+
+    /**
+     * Performs the session manager calls of a tryAccess, startAccess and
+     * endAccess on the same session
+     */
+    private static void accessCycle( SessionManager sessionManager, String sessionId ) {
+        assertTrue( sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+            .setPolicySet( "xacml_policy" ).setOriginalRequest( "xacml_request" ).setStatus( STATUS.TRY.name() )
+            .setPepURI( "localhost:9999" ).setMyIP( "localhost" )
+            .setSubjectName( "subject" ).setOnGoingAttributesForSubject( Arrays.asList( "role" ) )
+            .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature" ) ).build() ) );
+
+        assertTrue( sessionManager.getSessionForId( sessionId ).isPresent() );
+        assertTrue( sessionManager.updateEntry( sessionId, STATUS.START.name() ) );
+
+        assertTrue( sessionManager.getSessionForId( sessionId ).isPresent() );
+        for( OnGoingAttributesInterface attribute : sessionManager.getOnGoingAttributes( sessionId ) ) {
+            sessionManager.getSessionsForAttribute( attribute.getAttributeId() );
+        }
+        assertTrue( sessionManager.deleteEntry( sessionId ) );
+    }
+
+    private static Connection slowConnection( DatabaseConnection databaseConnection ) {
+        Connection connection = ( (JdbcDatabaseConnection) databaseConnection ).getInternalConnection();
+        return (Connection) Proxy.newProxyInstance( SessionManagerConcurrencyTest.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, ( proxy, method, args ) -> {
+                Object result = invoke( connection, method, args );
+                if( method.getName().endsWith( "Statement" ) && result != null ) {
+                    return slowStatement( connection, result );
+                }
+                return result;
+            } );
+    }
+
+    private static Object slowStatement( Connection connection, Object statement ) {
+        Class<?>[] interfaces = statement.getClass().getInterfaces();
+        return Proxy.newProxyInstance( SessionManagerConcurrencyTest.class.getClassLoader(), interfaces,
+            ( proxy, method, args ) -> {
+                if( method.getName().startsWith( "execute" ) ) {
+                    // the connection is busy until the database answers
+                    synchronized( connection ) {
+                        Thread.sleep( STATEMENT_LATENCY_MILLIS );
+                        return invoke( statement, method, args );
+                    }
+                }
+                return invoke( statement, method, args );
+            } );
+    }
+
+    private static Object invoke( Object target, Method method, Object[] args ) throws Throwable {
+        try {
+            return method.invoke( target, args );
+        } catch( InvocationTargetException e ) {
+            throw e.getCause();
+        }
+    }
+
+    private static SessionManagerProperties properties( String dbUri, int maxFreeConnections ) {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), dbUri ) {
+
+            @Override
+            public int getPoolMaxFreeConnections() {
+                return maxFreeConnections;
+            }
+
+            @Override
+            public long getPoolMaxConnectionAge() {
+                return 60_000;
+            }
+        };
+    }
+
+}
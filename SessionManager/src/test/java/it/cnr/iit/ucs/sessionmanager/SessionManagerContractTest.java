@@ -0,0 +1,79 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+
+/**
+ * Behavior shared by every session manager, checked by a subclass per
+ * backend. The subclasses add the cases specific to their backend.
+ */
+public abstract class SessionManagerContractTest<T extends SessionManagerInterface> {
+
+    protected T sessionManager;
+
+    @Before
+    public void startSessionManager() throws Exception {
+        sessionManager = createSessionManager();
+    }
+
+    /**
+     * Creates and starts the session manager under test
+     */
+    protected abstract T createSessionManager() throws Exception;
+
+    @Test
+    public void testIndexedLookups() {
+        assertTrue( createSession( "s1", "alice", "file1" ) );
+        assertTrue( createSession( "s2", "bob", "file1" ) );
+        assertFalse( createSession( "s1", "alice", "file1" ) );
+
+        // sessions in TRY are not returned by the attribute lookups
+        assertEquals( 0, sessionManager.getSessionsForSubjectAttributes( "alice", "role" ).size() );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        assertTrue( sessionManager.updateEntry( "s2", STATUS.START.name() ) );
+
+        List<SessionInterface> sessions = sessionManager.getSessionsForSubjectAttributes( "alice", "role" );
+        assertEquals( 1, sessions.size() );
+        assertEquals( "s1", sessions.get( 0 ).getId() );
+        assertEquals( "xacml_policy", sessions.get( 0 ).getPolicySet() );
+        assertEquals( "xacml_request", sessions.get( 0 ).getOriginalRequest() );
+        assertEquals( "localhost:9999", sessions.get( 0 ).getPepId() );
+        assertEquals( 2, sessionManager.getSessionsForResourceAttributes( "file1", "owner" ).size() );
+        assertEquals( 2, sessionManager.getSessionsForEnvironmentAttributes( "temperature" ).size() );
+        assertEquals( 2, sessionManager.getSessionsForAttribute( "role" ).size() );
+        assertEquals( 0, sessionManager.getSessionsForActionAttributes( "read", "role" ).size() );
+        assertEquals( 0, sessionManager.getSessionsForSubjectAttributes( "alice", "owner" ).size() );
+        assertEquals( 3, sessionManager.getOnGoingAttributes( "s1" ).size() );
+    }
+
+    @Test
+    public void testStatusAndDelete() {
+        assertTrue( createSession( "s1", "alice", "file1" ) );
+        assertEquals( 1, sessionManager.getSessionsForStatus( STATUS.TRY.name() ).size() );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.REVOKE.name() ) );
+        assertEquals( 0, sessionManager.getSessionsForStatus( STATUS.TRY.name() ).size() );
+        assertEquals( 1, sessionManager.getSessionsForStatus( STATUS.REVOKE.name() ).size() );
+        assertEquals( 1, sessionManager.getSessionsForSubjectAttributes( "alice", "role" ).size() );
+
+        assertTrue( sessionManager.deleteEntry( "s1" ) );
+        assertFalse( sessionManager.deleteEntry( "s1" ) );
+        assertFalse( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        assertFalse( sessionManager.getSessionForId( "s1" ).isPresent() );
+        assertEquals( 0, sessionManager.getSessionsForStatus( STATUS.REVOKE.name() ).size() );
+        assertEquals( 0, sessionManager.getSessionsForAttribute( "role" ).size() );
+        assertEquals( 0, sessionManager.getOnGoingAttributes( "s1" ).size() );
+    }
+
+    protected boolean createSession( String sessionId, String subject, String resource ) {
+        return sessionManager.createEntry( SessionManagerTestSessions.session( sessionId, subject, resource ) );
+    }
+
+}
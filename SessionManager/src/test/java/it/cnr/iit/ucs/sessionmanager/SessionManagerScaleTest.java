@@ -0,0 +1,159 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.ucs.sessionmanager.OnGoingAttribute.COLUMN;
+
+/**
+ * Checks that the attribute lookups issue a constant number of statements
+ * regardless of the number of sessions stored and of the ones returned.
+ */
+public class SessionManagerScaleTest {
+
+    private static final Logger log = Logger.getLogger( SessionManagerScaleTest.class.getName() );
+
+    private static final String DB_URI = "jdbc:sqlite::memory:";
+    private static final int SESSIONS = 100_000;
+    private static final int SUBJECTS = 1_000;
+
+    private final StatementCounter statements = new StatementCounter();
+    private Connection sqlConnection;
+    private SessionManager sessionManager;
+
+    @Before
+    public void init() throws SQLException {
+        sqlConnection = DriverManager.getConnection( DB_URI );
+        sessionManager = new SessionManager( properties() );
+        sessionManager.start( statements.connectionSource( DB_URI, sqlConnection ) );
+        populate();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        sqlConnection.close();
+    }
+
+    @Test
+    public void testLookupsUseASingleStatement() {
+        // every subject has SESSIONS / SUBJECTS sessions, one out of three is in TRY
+        List<SessionInterface> sessions = countStatements( () -> sessionManager.getSessionsForSubjectAttributes( "subject7", "role" ) );
+        assertEquals( expectedOnGoing( i -> i % SUBJECTS == 7 ), sessions.size() );
+        for( SessionInterface session : sessions ) {
+            assertEquals( "xacml_policy", session.getPolicySet() );
+            assertEquals( "xacml_request", session.getOriginalRequest() );
+        }
+
+        sessions = countStatements( () -> sessionManager.getSessionsForEnvironmentAttributes( "temperature" ) );
+        assertEquals( expectedOnGoing( i -> true ), sessions.size() );
+
+        sessions = countStatements( () -> sessionManager.getSessionsForAttribute( "role" ) );
+        assertEquals( expectedOnGoing( i -> true ), sessions.size() );
+
+        sessions = countStatements( () -> sessionManager.getSessionsForResourceAttributes( "subject7", "role" ) );
+        assertEquals( 0, sessions.size() );
+    }
+
+    private List<SessionInterface> countStatements( Lookup lookup ) {
+        statements.reset();
+        long start = System.nanoTime();
+        List<SessionInterface> sessions = lookup.get();
+        log.info( String.format( "%d sessions retrieved in %d ms with %d statements", sessions.size(),
+            ( System.nanoTime() - start ) / 1_000_000, statements.getStatements() ) );
+        assertEquals( 1, statements.getStatements() );
+        return sessions;
+    }
+
+    private int expectedOnGoing( SessionFilter filter ) {
+        int count = 0;
+        for( int i = 0; i < SESSIONS; i++ ) {
+            if( filter.matches( i ) && !status( i ).equals( STATUS.TRY.name() ) ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String status( int i ) {
+        switch( i % 3 ) {
+            case 0:
+                return STATUS.TRY.name();
+            case 1:
+                return STATUS.START.name();
+            default:
+                return STATUS.REVOKE.name();
+        }
+    }
+
+    private void populate() throws SQLException {
+        sqlConnection.setAutoCommit( false );
+        try (PreparedStatement contentStatement = sqlConnection.prepareStatement(
+            "INSERT INTO session_contents (hash, content) VALUES (?, ?)" )) {
+            for( String content : new String[] { "xacml_policy", "xacml_request" } ) {
+                contentStatement.setString( 1, SessionContent.hash( content ) );
+                contentStatement.setString( 2, content );
+                contentStatement.executeUpdate();
+            }
+        }
+        try (PreparedStatement sessionStatement = sqlConnection.prepareStatement(
+            "INSERT INTO sessions (id, policy_hash, request_hash, status, status_code, pep_uri, myip) VALUES (?, ?, ?, ?, ?, ?, ?)" );
+                PreparedStatement attributeStatement = sqlConnection.prepareStatement(
+                    "INSERT INTO on_going_attributes (id, attribute_id, subject_name, category, entity_name, session_id) VALUES (?, ?, ?, ?, ?, ?)" )) {
+            for( int i = 0; i < SESSIONS; i++ ) {
+                String sessionId = "session" + i;
+                sessionStatement.setString( 1, sessionId );
+                sessionStatement.setString( 2, SessionContent.hash( "xacml_policy" ) );
+                sessionStatement.setString( 3, SessionContent.hash( "xacml_request" ) );
+                sessionStatement.setString( 4, status( i ) );
+                sessionStatement.setInt( 5, Session.toStatusCode( status( i ) ) );
+                sessionStatement.setString( 6, "localhost:9999" );
+                sessionStatement.setString( 7, "localhost" );
+                sessionStatement.addBatch();
+                addAttribute( attributeStatement, sessionId + "-role", "role", "subject" + ( i % SUBJECTS ), sessionId );
+                addAttribute( attributeStatement, sessionId + "-temperature", "temperature", null, sessionId );
+            }
+            sessionStatement.executeBatch();
+            attributeStatement.executeBatch();
+        }
+        sqlConnection.commit();
+        sqlConnection.setAutoCommit( true );
+    }
+
+    private static void addAttribute( PreparedStatement statement, String id, String attributeId, String subjectName,
+            String sessionId ) throws SQLException {
+        statement.setString( 1, id );
+        statement.setString( 2, attributeId );
+        statement.setString( 3, subjectName );
+        statement.setString( 4, subjectName != null ? COLUMN.SUBJECT.name() : COLUMN.ENVIRONMENT.name() );
+        statement.setString( 5, subjectName != null ? subjectName : "" );
+        statement.setString( 6, sessionId );
+        statement.addBatch();
+    }
+
+    private static SessionManagerProperties properties() {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), DB_URI );
+    }
+
+    @FunctionalInterface
+    private interface Lookup {
+        List<SessionInterface> get();
+    }
+
+    @FunctionalInterface
+    private interface SessionFilter {
+        boolean matches( int i );
+    }
+
+}
@@ -0,0 +1,122 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Checks the number of statements and transactions issued by the session
+ * mutations.
+ */
+public class SessionManagerStatementsTest {
+
+    private static final String DB_URI = "jdbc:sqlite::memory:";
+
+    private final StatementCounter counter = new StatementCounter();
+    private Connection sqlConnection;
+    private SessionManager sessionManager;
+
+    @Before
+    public void init() throws SQLException {
+        sqlConnection = DriverManager.getConnection( DB_URI );
+        sessionManager = new SessionManager( properties() );
+        sessionManager.start( counter.connectionSource( DB_URI, sqlConnection ) );
+        counter.reset();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        sqlConnection.close();
+    }
+
+    @Test
+    public void testCreateEntry() {
+        // the first session stores the policy and the request: existence check and insert each
+        assertTrue( createSession( "s0" ) );
+        assertEquals( 7, counter.getStatements() );
+
+        // existence check, session insert and a single insert for eight attributes
+        counter.reset();
+        assertTrue( createSession( "s1" ) );
+        assertEquals( 3, counter.getStatements() );
+        assertEquals( 1, counter.getCommits() );
+        assertEquals( 8, sessionManager.getOnGoingAttributes( "s1" ).size() );
+        assertEquals( STATUS.TRY.name(), sessionManager.getSessionForId( "s1" ).get().getStatus() );
+
+        counter.reset();
+        assertFalse( createSession( "s1" ) );
+        assertEquals( 1, counter.getStatements() );
+    }
+
+    @Test
+    public void testUpdateEntry() {
+        assertTrue( createSession( "s1" ) );
+        counter.reset();
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        assertEquals( 1, counter.getStatements() );
+        assertEquals( STATUS.START.name(), sessionManager.getSessionForId( "s1" ).get().getStatus() );
+        assertEquals( 8, sessionManager.getOnGoingAttributes( "s1" ).size() );
+
+        counter.reset();
+        assertFalse( sessionManager.updateEntry( "missing", STATUS.START.name() ) );
+        assertEquals( 1, counter.getStatements() );
+    }
+
+    @Test
+    public void testDeleteEntry() {
+        assertTrue( createSession( "s1" ) );
+        assertTrue( createSession( "s2" ) );
+        counter.reset();
+        assertTrue( sessionManager.deleteEntry( "s1" ) );
+        assertEquals( 2, counter.getStatements() );
+        assertEquals( 1, counter.getCommits() );
+        assertFalse( sessionManager.getSessionForId( "s1" ).isPresent() );
+        assertEquals( 0, sessionManager.getOnGoingAttributes( "s1" ).size() );
+        assertEquals( 8, sessionManager.getOnGoingAttributes( "s2" ).size() );
+
+        assertFalse( sessionManager.deleteEntry( "s1" ) );
+    }
+
+    @Test
+    public void testDeleteEntries() {
+        for( int i = 0; i < 20; i++ ) {
+            assertTrue( createSession( "s" + i ) );
+        }
+        counter.reset();
+        assertEquals( 19, sessionManager.deleteEntries( Arrays.asList( "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9",
+            "s10", "s11", "s12", "s13", "s14", "s15", "s16", "s17", "s18", "s19", "missing" ) ) );
+        assertEquals( 2, counter.getStatements() );
+        assertEquals( 1, counter.getCommits() );
+        assertTrue( sessionManager.getSessionForId( "s0" ).isPresent() );
+        assertFalse( sessionManager.getSessionForId( "s19" ).isPresent() );
+        assertEquals( 8, sessionManager.getOnGoingAttributes( "s0" ).size() );
+        assertEquals( 0, sessionManager.getOnGoingAttributes( "s19" ).size() );
+
+        assertEquals( 0, sessionManager.deleteEntries( Arrays.asList( "s1" ) ) );
+    }
+
+    private boolean createSession( String sessionId ) {
+        return sessionManager.createEntry( SessionManagerTestSessions.builder( sessionId )
+            .setSubjectName( "subject" ).setOnGoingAttributesForSubject( Arrays.asList( "role0", "role1", "role2" ) )
+            .setResourceName( "resource" ).setOnGoingAttributesForResource( Arrays.asList( "owner", "size" ) )
+            .setActionName( "action" ).setOnGoingAttributesForAction( Arrays.asList( "mode" ) )
+            .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature", "time" ) ).build() );
+    }
+
+    private static SessionManagerProperties properties() {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), DB_URI );
+    }
+
+}
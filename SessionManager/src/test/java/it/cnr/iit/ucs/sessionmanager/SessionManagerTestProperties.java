@@ -0,0 +1,41 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.Map;
+
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Session manager properties shared by the tests, the tests override the
+ * settings they need and keep the defaults for the others.
+ */
+public class SessionManagerTestProperties implements SessionManagerProperties {
+
+    private final String name;
+    private final String dbUri;
+
+    public SessionManagerTestProperties( String name, String dbUri ) {
+        this.name = name;
+        this.dbUri = dbUri;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getDbUri() {
+        return dbUri;
+    }
+
+    @Override
+    public Map<String, String> getAdditionalProperties() {
+        return null;
+    }
+
+    @Override
+    public String getId() {
+        return null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.Arrays;
+
+import it.cnr.iit.ucs.constants.STATUS;
+
+/**
+ * Sessions shared by the tests, the tests set the fields they check on top
+ * of the common ones.
+ */
+public final class SessionManagerTestSessions {
+
+    private SessionManagerTestSessions() {
+    }
+
+    /**
+     * Retrieves the builder of a session in TRY with the common policy,
+     * request and PEP
+     */
+    public static SessionAttributesBuilder builder( String sessionId ) {
+        return new SessionAttributesBuilder().setSessionId( sessionId )
+            .setPolicySet( "xacml_policy" ).setOriginalRequest( "xacml_request" ).setStatus( STATUS.TRY.name() )
+            .setPepURI( "localhost:9999" ).setMyIP( "localhost" );
+    }
+
+    /**
+     * Retrieves a session in TRY monitoring the role of its subject, the
+     * owner of its resource and the temperature
+     */
+    public static SessionAttributes session( String sessionId, String subject, String resource ) {
+        return builder( sessionId )
+            .setSubjectName( subject ).setOnGoingAttributesForSubject( Arrays.asList( "role" ) )
+            .setResourceName( resource ).setOnGoingAttributesForResource( Arrays.asList( "owner" ) )
+            .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature" ) ).build();
+    }
+
+}
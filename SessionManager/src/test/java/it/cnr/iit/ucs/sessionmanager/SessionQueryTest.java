@@ -0,0 +1,190 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.xacml.Category;
+
+/**
+ * Checks the streaming, counting and paginated queries of the ORMLite, the in
+ * memory and the memory-mapped session managers on the same sessions.
+ */
+@RunWith( Parameterized.class )
+public class SessionQueryTest {
+
+    private static final int SESSIONS = 25;
+    private static final int ON_GOING = 20;
+
+    private final String kind;
+    private Path directory;
+    private SessionManagerInterface sessionManager;
+
+    public SessionQueryTest( String kind ) {
+        this.kind = kind;
+    }
+
+    @Parameters( name = "{0}" )
+    public static Collection<Object[]> kinds() {
+        return Arrays.asList( new Object[][] { { "ormlite" }, { "in memory" }, { "mapped" } } );
+    }
+
+    @Before
+    public void init() throws IOException {
+        directory = Files.createTempDirectory( "mapped-sessions" );
+        switch( kind ) {
+            case "ormlite":
+                sessionManager = new SessionManager( properties() );
+                break;
+            case "in memory":
+                sessionManager = new InMemorySessionManager( properties() );
+                break;
+            default:
+                sessionManager = new MappedSessionManager( directory, 8, 1 << 12 );
+        }
+        assertTrue( sessionManager.start() );
+        for( int i = 0; i < SESSIONS; i++ ) {
+            String sessionId = String.format( "s%02d", i );
+            assertTrue( sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( sessionId )
+                .setPolicySet( "xacml_policy" ).setOriginalRequest( "xacml_request" ).setStatus( STATUS.TRY.name() )
+                .setPepURI( "localhost:9999" ).setMyIP( "localhost" )
+                .setSubjectName( i % 2 == 0 ? "alice" : "bob" ).setOnGoingAttributesForSubject( Arrays.asList( "role" ) )
+                .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature" ) ).build() ) );
+            if( i < ON_GOING ) {
+                assertTrue( sessionManager.updateEntry( sessionId, ( i % 5 == 0 ? STATUS.REVOKE : STATUS.START ).name() ) );
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sessionManager.stop();
+        try (Stream<Path> files = Files.list( directory )) {
+            files.forEach( path -> path.toFile().delete() );
+        }
+        directory.toFile().delete();
+    }
+
+    @Test
+    public void testStreamAndCount() {
+        SessionQuery temperature = SessionQuery.forAttribute( Category.ENVIRONMENT, null, "temperature" );
+        assertEquals( ON_GOING, stream( temperature ).size() );
+        assertEquals( ON_GOING, sessionManager.countSessions( temperature ) );
+        assertEquals( ON_GOING, sessionManager.countSessions( SessionQuery.forAttribute( "role" ) ) );
+
+        SessionQuery alice = SessionQuery.forAttribute( Category.SUBJECT, "alice", "role" );
+        assertEquals( ON_GOING / 2, sessionManager.countSessions( alice ) );
+        for( SessionInterface session : stream( alice ) ) {
+            assertEquals( 0, Integer.parseInt( session.getId().substring( 1 ) ) % 2 );
+            assertEquals( "xacml_policy", session.getPolicySet() );
+        }
+        assertEquals( 0, sessionManager.countSessions( SessionQuery.forAttribute( Category.SUBJECT, "carol", "role" ) ) );
+
+        assertEquals( SESSIONS - ON_GOING, stream( SessionQuery.forStatus( STATUS.TRY.name() ) ).size() );
+        assertEquals( ON_GOING / 5, sessionManager.countSessions( SessionQuery.forStatus( STATUS.REVOKE.name() ) ) );
+    }
+
+    @Test
+    public void testPagesFollowTheLastId() {
+        SessionQuery temperature = SessionQuery.forAttribute( Category.ENVIRONMENT, "", "temperature" );
+        List<String> ids = new ArrayList<>();
+        String lastSessionId = null;
+        List<SessionInterface> page;
+        int pages = 0;
+        do {
+            page = sessionManager.getSessionsPage( temperature, lastSessionId, 7 );
+            for( SessionInterface session : page ) {
+                ids.add( session.getId() );
+            }
+            if( !page.isEmpty() ) {
+                lastSessionId = page.get( page.size() - 1 ).getId();
+                // a session deleted behind the pages does not shift them
+                assertTrue( sessionManager.deleteEntry( page.get( 0 ).getId() ) );
+            }
+            pages++;
+        } while( page.size() == 7 );
+
+        assertEquals( 3, pages );
+        assertEquals( ON_GOING, ids.size() );
+        for( int i = 0; i < ON_GOING; i++ ) {
+            assertEquals( String.format( "s%02d", i ), ids.get( i ) );
+        }
+        assertEquals( ON_GOING - 3, sessionManager.countSessions( temperature ) );
+    }
+
+    @Test
+    public void testPagesSkipReusedRecords() {
+        SessionQuery temperature = SessionQuery.forAttribute( Category.ENVIRONMENT, "", "temperature" );
+        List<SessionInterface> page = sessionManager.getSessionsPage( temperature, null, 7 );
+        assertEquals( "s06", page.get( 6 ).getId() );
+
+        // the record of a deleted session is reused by a session sorted before the page
+        assertTrue( sessionManager.deleteEntry( "s09" ) );
+        assertTrue( sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( "s05a" )
+            .setPolicySet( "xacml_policy" ).setOriginalRequest( "xacml_request" ).setStatus( STATUS.START.name() )
+            .setPepURI( "localhost:9999" ).setMyIP( "localhost" ).setSubjectName( "alice" )
+            .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature" ) ).build() ) );
+
+        List<String> ids = new ArrayList<>();
+        String lastSessionId = "s06";
+        do {
+            page = sessionManager.getSessionsPage( temperature, lastSessionId, 7 );
+            for( SessionInterface session : page ) {
+                ids.add( session.getId() );
+            }
+            lastSessionId = page.isEmpty() ? lastSessionId : page.get( page.size() - 1 ).getId();
+        } while( page.size() == 7 );
+
+        List<String> expected = new ArrayList<>();
+        for( int i = 7; i < ON_GOING; i++ ) {
+            if( i != 9 ) {
+                expected.add( String.format( "s%02d", i ) );
+            }
+        }
+        assertEquals( expected, ids );
+    }
+
+    @Test
+    public void testDeletedSessionsAreNotStreamed() {
+        SessionQuery status = SessionQuery.forStatus( STATUS.TRY.name() );
+        try (SessionCursor cursor = sessionManager.streamSessions( status )) {
+            assertTrue( cursor.hasNext() );
+            assertTrue( sessionManager.deleteEntry( cursor.next().getId() ) );
+        }
+        assertEquals( SESSIONS - ON_GOING - 1, sessionManager.countSessions( status ) );
+        try (SessionCursor cursor = sessionManager.streamSessions( SessionQuery.forStatus( STATUS.END.name() ) )) {
+            assertFalse( cursor.hasNext() );
+        }
+    }
+
+    private List<SessionInterface> stream( SessionQuery query ) {
+        List<SessionInterface> sessions = new ArrayList<>();
+        try (SessionCursor cursor = sessionManager.streamSessions( query )) {
+            cursor.forEachRemaining( sessions::add );
+        }
+        return sessions;
+    }
+
+    private static SessionManagerProperties properties() {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), "jdbc:sqlite::memory:" );
+    }
+
+}
@@ -0,0 +1,264 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.DatabaseTable;
+import com.j256.ormlite.table.TableUtils;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Checks that databases created with the first, unversioned, schema are
+ * upgraded to the current one when the Session Manager starts.
+ */
+@RunWith( Parameterized.class )
+public class SessionSchemaTest {
+
+    static {
+        System.setProperty( "derby.stream.error.file", "target/derby.log" );
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String database;
+
+    public SessionSchemaTest( String database ) {
+        this.database = database;
+    }
+
+    @Parameters( name = "{0}" )
+    public static Collection<Object[]> databases() {
+        return Arrays.asList( new Object[][] { { "sqlite" }, { "hsqldb" }, { "derby" } } );
+    }
+
+    @Test
+    public void testUpgradeFromVersion1() throws Exception {
+        String dbUri = dbUri();
+        createVersion1( dbUri );
+
+        SessionManager sessionManager = new SessionManager( properties( dbUri ) );
+        sessionManager.start();
+
+        List<SessionInterface> sessions = sessionManager.getSessionsForSubjectAttributes( "alice", "role" );
+        assertEquals( 1, sessions.size() );
+        assertEquals( "s1", sessions.get( 0 ).getId() );
+        assertEquals( 0, sessionManager.getSessionsForSubjectAttributes( "bob", "role" ).size() );
+        assertEquals( 1, sessionManager.getSessionsForResourceAttributes( "file", "owner" ).size() );
+        assertEquals( 0, sessionManager.getSessionsForEnvironmentAttributes( "temperature" ).size() );
+        assertEquals( 1, sessionManager.getSessionsForStatus( STATUS.TRY.name() ).size() );
+        assertEquals( "xacml_policy", sessions.get( 0 ).getPolicySet() );
+        assertEquals( "xacml_request", sessions.get( 0 ).getOriginalRequest() );
+
+        assertTrue( sessionManager.updateEntry( "s2", STATUS.START.name() ) );
+        assertEquals( "s2", sessionManager.getSessionsForEnvironmentAttributes( "temperature" ).get( 0 ).getId() );
+        assertEquals( 2, sessionManager.getSessionsForStatus( STATUS.START.name() ).size() );
+        sessionManager.stop();
+
+        // a second start finds the schema up to date
+        sessionManager = new SessionManager( properties( dbUri ) );
+        sessionManager.start();
+        assertEquals( 2, sessionManager.getSessionsForAttribute( "role" ).size() );
+        sessionManager.stop();
+
+        ConnectionSource connectionSource = new JdbcConnectionSource( dbUri );
+        assertEquals( SessionSchema.CURRENT_VERSION, new SessionSchema( connectionSource ).getVersion() );
+        connectionSource.close();
+
+        try (Connection connection = DriverManager.getConnection( dbUri )) {
+            assertTrue( hasIndex( connection, OnGoingAttribute.TABLE_NAME, OnGoingAttribute.ENTITY_INDEX_NAME ) );
+            assertTrue( hasIndex( connection, Session.TABLE_NAME, Session.STATUS_INDEX_NAME ) );
+            // the inlined policies and requests have been moved to the session contents
+            try (ResultSet resultSet = connection.createStatement().executeQuery( "SELECT COUNT(*) FROM "
+                    + Session.TABLE_NAME + " WHERE \"" + Session.POLICYSET_FIELD_NAME + "\" IS NOT NULL" )) {
+                assertTrue( resultSet.next() );
+                assertEquals( 0, resultSet.getInt( 1 ) );
+            }
+            try (ResultSet resultSet = connection.createStatement().executeQuery( "SELECT COUNT(*) FROM "
+                    + SessionContent.TABLE_NAME )) {
+                assertTrue( resultSet.next() );
+                assertEquals( 2, resultSet.getInt( 1 ) );
+            }
+        }
+    }
+
+    @Test
+    public void testUpgradeMovesContentsInBatches() throws Exception {
+        String dbUri = dbUri();
+        int sessions = SessionSchema.MIGRATION_BATCH_SIZE * 2 + 10;
+        ConnectionSource connectionSource = new JdbcConnectionSource( dbUri );
+        TableUtils.createTable( connectionSource, LegacySession.class );
+        TableUtils.createTable( connectionSource, LegacyOnGoingAttribute.class );
+        Dao<LegacySession, String> sessionDao = DaoManager.createDao( connectionSource, LegacySession.class );
+        for( int i = 0; i < sessions; i++ ) {
+            LegacySession session = new LegacySession( "s" + i, STATUS.START.name() );
+            session.policySet = "xacml_policy_" + i % 3;
+            sessionDao.create( session );
+        }
+        connectionSource.close();
+
+        SessionManager sessionManager = new SessionManager( properties( dbUri ) );
+        sessionManager.start();
+        List<SessionInterface> started = sessionManager.getSessionsForStatus( STATUS.START.name() );
+        assertEquals( sessions, started.size() );
+        for( SessionInterface session : started ) {
+            int i = Integer.parseInt( session.getId().substring( 1 ) );
+            assertEquals( "xacml_policy_" + i % 3, session.getPolicySet() );
+            assertEquals( "xacml_request", session.getOriginalRequest() );
+        }
+        sessionManager.stop();
+
+        try (Connection connection = DriverManager.getConnection( dbUri );
+                ResultSet resultSet = connection.createStatement().executeQuery( "SELECT COUNT(*) FROM "
+                        + SessionContent.TABLE_NAME )) {
+            assertTrue( resultSet.next() );
+            assertEquals( 4, resultSet.getInt( 1 ) );
+        }
+    }
+
+    @Test
+    public void testNewDatabase() throws Exception {
+        String dbUri = dbUri();
+        SessionManager sessionManager = new SessionManager( properties( dbUri ) );
+        sessionManager.start();
+        sessionManager.stop();
+
+        ConnectionSource connectionSource = new JdbcConnectionSource( dbUri );
+        assertEquals( SessionSchema.CURRENT_VERSION, new SessionSchema( connectionSource ).getVersion() );
+        connectionSource.close();
+        try (Connection connection = DriverManager.getConnection( dbUri )) {
+            assertTrue( hasIndex( connection, OnGoingAttribute.TABLE_NAME, OnGoingAttribute.ENTITY_INDEX_NAME ) );
+            assertTrue( hasIndex( connection, Session.TABLE_NAME, Session.STATUS_INDEX_NAME ) );
+        }
+    }
+
+    private String dbUri() throws IOException {
+        String name = "schema" + System.nanoTime();
+        switch( database ) {
+            case "sqlite":
+                return "jdbc:sqlite:" + new File( folder.getRoot(), name + ".db" ).getAbsolutePath();
+            case "hsqldb":
+                return "jdbc:hsqldb:mem:" + name;
+            default:
+                return "jdbc:derby:memory:" + name + ";create=true";
+        }
+    }
+
+    private static void createVersion1( String dbUri ) throws Exception {
+        ConnectionSource connectionSource = new JdbcConnectionSource( dbUri );
+        TableUtils.createTable( connectionSource, LegacySession.class );
+        TableUtils.createTable( connectionSource, LegacyOnGoingAttribute.class );
+        Dao<LegacySession, String> sessionDao = DaoManager.createDao( connectionSource, LegacySession.class );
+        Dao<LegacyOnGoingAttribute, String> attributesDao = DaoManager.createDao( connectionSource,
+            LegacyOnGoingAttribute.class );
+
+        LegacySession s1 = new LegacySession( "s1", STATUS.START.name() );
+        LegacySession s2 = new LegacySession( "s2", STATUS.TRY.name() );
+        LegacySession s3 = new LegacySession( "s3", "revoke" );
+        sessionDao.create( s1 );
+        sessionDao.create( s2 );
+        sessionDao.create( s3 );
+        attributesDao.create( new LegacyOnGoingAttribute( "a1", "role", "alice", null, null, s1 ) );
+        attributesDao.create( new LegacyOnGoingAttribute( "a2", "temperature", null, null, null, s2 ) );
+        attributesDao.create( new LegacyOnGoingAttribute( "a3", "owner", null, "file", null, s3 ) );
+        attributesDao.create( new LegacyOnGoingAttribute( "a4", "role", "bob", null, null, s2 ) );
+        connectionSource.close();
+    }
+
+    private static boolean hasIndex( Connection connection, String table, String index ) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for( String tableName : new String[] { table, table.toUpperCase( Locale.ROOT ) } ) {
+            try (ResultSet resultSet = metaData.getIndexInfo( null, null, tableName, false, false )) {
+                while( resultSet.next() ) {
+                    if( index.equalsIgnoreCase( resultSet.getString( "INDEX_NAME" ) ) ) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static SessionManagerProperties properties( String dbUri ) {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), dbUri );
+    }
+
+    @DatabaseTable( tableName = "sessions" )
+    static class LegacySession {
+        @DatabaseField( id = true, columnName = "id" )
+        private String id;
+        @DatabaseField( columnName = "policy_set", dataType = DataType.LONG_STRING )
+        private String policySet = "xacml_policy";
+        @DatabaseField( columnName = "original_request", dataType = DataType.LONG_STRING )
+        private String originalRequest = "xacml_request";
+        @DatabaseField( columnName = "status" )
+        private String status;
+        @DatabaseField( columnName = "pep_uri" )
+        private String pepURI = "localhost:9999";
+        @DatabaseField( columnName = "myip" )
+        private String myIP = "localhost";
+
+        LegacySession() {}
+
+        LegacySession( String id, String status ) {
+            this.id = id;
+            this.status = status;
+        }
+    }
+
+    @DatabaseTable( tableName = "on_going_attributes" )
+    static class LegacyOnGoingAttribute {
+        @DatabaseField( id = true, columnName = "id" )
+        private String id;
+        @DatabaseField( canBeNull = false, columnName = "attribute_id" )
+        private String attributeId;
+        @DatabaseField( columnName = "subject_name" )
+        private String subjectName;
+        @DatabaseField( columnName = "resource_name" )
+        private String resourceName;
+        @DatabaseField( columnName = "action_name" )
+        private String actionName;
+        @DatabaseField( foreign = true, canBeNull = false, columnName = "session_id" )
+        private LegacySession session;
+
+        LegacyOnGoingAttribute() {}
+
+        LegacyOnGoingAttribute( String id, String attributeId, String subjectName, String resourceName, String actionName,
+                LegacySession session ) {
+            this.id = id;
+            this.attributeId = attributeId;
+            this.subjectName = subjectName;
+            this.resourceName = resourceName;
+            this.actionName = actionName;
+            this.session = session;
+        }
+    }
+
+}
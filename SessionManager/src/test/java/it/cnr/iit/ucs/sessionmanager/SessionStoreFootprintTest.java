@@ -0,0 +1,192 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Benchmark of the heap taken by the sessions and of the garbage collection
+ * pauses it causes, for the ORMLite, the in memory and the memory-mapped
+ * session managers holding the same sessions. The results are logged, only
+ * the heap retained by the mapped sessions is checked.
+ */
+public class SessionStoreFootprintTest {
+
+    private static final Logger log = Logger.getLogger( SessionStoreFootprintTest.class.getName() );
+
+    private static final String DB_URI = "jdbc:sqlite::memory:";
+    private static final int SESSIONS = 20_000;
+    private static final int SUBJECTS = 100;
+    private static final int LOOKUPS = 200;
+
+    private final GcPauses pauses = new GcPauses();
+    private Connection sqlConnection;
+    private Path directory;
+
+    @Before
+    public void init() throws SQLException, IOException {
+        sqlConnection = DriverManager.getConnection( DB_URI );
+        directory = Files.createTempDirectory( "mapped-sessions" );
+        pauses.register();
+    }
+
+    @After
+    public void tearDown() throws SQLException, IOException {
+        pauses.unregister();
+        sqlConnection.close();
+        try (Stream<Path> files = Files.list( directory )) {
+            files.forEach( path -> path.toFile().delete() );
+        }
+        directory.toFile().delete();
+    }
+
+    @Test
+    public void testMappedSessionsStayOffHeap() throws SQLException {
+        SessionManager ormLite = new SessionManager( properties() );
+        ormLite.start( new StatementCounter().connectionSource( DB_URI, sqlConnection ) );
+        measure( "ORMLite", ormLite );
+        ormLite = null; // NOSONAR
+
+        InMemorySessionManager inMemory = new InMemorySessionManager( properties() );
+        inMemory.start();
+        Footprint inMemoryFootprint = measure( "in memory", inMemory );
+        inMemory = null; // NOSONAR
+
+        MappedSessionManager mapped = new MappedSessionManager( directory, 1 << 12, 1 << 20 );
+        assertTrue( mapped.start() );
+        Footprint mappedFootprint = measure( "mapped", mapped );
+        log.info( String.format( "mapped indexes take %d KB off heap", mapped.getIndexMemory() / 1024 ) );
+        mapped.stop();
+
+        assertTrue( mappedFootprint.retainedHeap * 4 < inMemoryFootprint.retainedHeap );
+    }
+
+    private Footprint measure( String name, SessionManagerInterface sessionManager ) {
+        long heapBefore = usedHeapAfterGc();
+        for( int i = 0; i < SESSIONS; i++ ) {
+            assertTrue( sessionManager.createEntry( new SessionAttributesBuilder().setSessionId( "session-" + i )
+                .setPolicySet( "xacml_policy" ).setOriginalRequest( "xacml_request" ).setStatus( STATUS.START.name() )
+                .setPepURI( "localhost:9999" ).setMyIP( "localhost" )
+                .setSubjectName( "subject" + ( i % SUBJECTS ) ).setOnGoingAttributesForSubject( Arrays.asList( "role", "position" ) )
+                .setOnGoingAttributesForEnvironment( Arrays.asList( "temperature" ) ).build() ) );
+        }
+        Footprint footprint = new Footprint();
+        footprint.retainedHeap = usedHeapAfterGc() - heapBefore;
+        long start = System.nanoTime();
+        System.gc();
+        footprint.fullGcPause = ( System.nanoTime() - start ) / 1_000_000;
+
+        pauses.reset();
+        start = System.nanoTime();
+        for( int i = 0; i < LOOKUPS; i++ ) {
+            List<SessionInterface> sessions = sessionManager.getSessionsForSubjectAttributes( "subject" + ( i % SUBJECTS ), "role" );
+            assertEquals( SESSIONS / SUBJECTS, sessions.size() );
+        }
+        long lookupTime = ( System.nanoTime() - start ) / 1_000_000;
+
+        log.info( String.format( "%s: %d sessions retain %d KB of heap, full gc %d ms, %d lookups in %d ms, "
+                + "%d gc pauses, p99 %d ms, max %d ms",
+            name, SESSIONS, footprint.retainedHeap / 1024, footprint.fullGcPause, LOOKUPS, lookupTime, pauses.count(),
+            pauses.percentile( 0.99 ), pauses.percentile( 1 ) ) );
+        return footprint;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for( int i = 0; i < 3; i++ ) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Footprint {
+        private long retainedHeap;
+        private long fullGcPause;
+    }
+
+    /**
+     * Collects the durations of the garbage collections notified by the JVM
+     */
+    private static final class GcPauses implements NotificationListener {
+        private final List<Long> durations = Collections.synchronizedList( new ArrayList<>() );
+
+        private void register() {
+            for( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+                ( (NotificationEmitter) gc ).addNotificationListener( this, null, null );
+            }
+        }
+
+        private void unregister() {
+            for( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+                try {
+                    ( (NotificationEmitter) gc ).removeNotificationListener( this );
+                } catch( ListenerNotFoundException e ) {
+                    // not registered
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification( Notification notification, Object handback ) {
+            if( GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals( notification.getType() ) ) {
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                    .from( (CompositeData) notification.getUserData() );
+                durations.add( info.getGcInfo().getDuration() );
+            }
+        }
+
+        private void reset() {
+            durations.clear();
+        }
+
+        private int count() {
+            return durations.size();
+        }
+
+        private long percentile( double percentile ) {
+            List<Long> sorted;
+            synchronized( durations ) {
+                sorted = new ArrayList<>( durations );
+            }
+            if( sorted.isEmpty() ) {
+                return 0;
+            }
+            Collections.sort( sorted );
+            return sorted.get( (int) Math.ceil( percentile * sorted.size() ) - 1 );
+        }
+    }
+
+    private static SessionManagerProperties properties() {
+        return new SessionManagerTestProperties( SessionManager.class.getName(), DB_URI );
+    }
+
+}
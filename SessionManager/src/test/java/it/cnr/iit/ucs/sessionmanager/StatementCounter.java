@@ -0,0 +1,74 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+/**
+ * Counts the statements and the commits issued on a JDBC connection shared
+ * by an OrmLite connection source.
+ */
+final class StatementCounter {
+
+    private final AtomicInteger statements = new AtomicInteger();
+    private final AtomicInteger commits = new AtomicInteger();
+
+    /**
+     * Builds a connection source that always hands out the given connection,
+     * which is never closed by OrmLite
+     */
+    ConnectionSource connectionSource( String dbUri, Connection connection ) throws SQLException {
+        Connection counting = wrap( connection );
+        return new JdbcConnectionSource( dbUri ) {
+            @Override
+            protected DatabaseConnection makeConnection( com.j256.ormlite.logger.Logger logger ) {
+                return new JdbcDatabaseConnection( counting );
+            }
+        };
+    }
+
+    private Connection wrap( Connection connection ) {
+        return (Connection) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[] { Connection.class },
+            ( proxy, method, args ) -> {
+                switch( method.getName() ) {
+                    case "prepareStatement":
+                    case "createStatement":
+                        statements.incrementAndGet();
+                        break;
+                    case "commit":
+                        commits.incrementAndGet();
+                        break;
+                    case "close":
+                        return null;
+                    default:
+                        break;
+                }
+                try {
+                    return method.invoke( connection, args );
+                } catch( InvocationTargetException e ) {
+                    throw e.getCause();
+                }
+            } );
+    }
+
+    void reset() {
+        statements.set( 0 );
+        commits.set( 0 );
+    }
+
+    int getStatements() {
+        return statements.get();
+    }
+
+    int getCommits() {
+        return commits.get();
+    }
+
+}
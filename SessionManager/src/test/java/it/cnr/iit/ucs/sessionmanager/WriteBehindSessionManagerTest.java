@@ -0,0 +1,199 @@
+package it.cnr.iit.ucs.sessionmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+
+/**
+ * Checks that the write-behind session manager serves the writes from memory,
+ * flushes them to the database by interval or batch size and rebuilds its
+ * memory from the database on restart.
+ */
+public class WriteBehindSessionManagerTest extends SessionManagerContractTest<WriteBehindSessionManager> {
+
+    private static final long NEVER = 3_600_000;
+
+    private File dbFile;
+
+    @Override
+    protected WriteBehindSessionManager createSessionManager() throws IOException {
+        dbFile = File.createTempFile( "sessions", ".db" );
+        return start( NEVER, 1000 );
+    }
+
+    @After
+    public void tearDown() {
+        if( sessionManager != null ) {
+            sessionManager.stop();
+        }
+        dbFile.delete();
+    }
+
+    @Test
+    public void testWritesAreFlushedBehind() {
+        assertTrue( createSession( "s1" ) );
+        assertTrue( createSession( "s2" ) );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+
+        // served from memory before reaching the database
+        assertEquals( 1, sessionManager.getSessionsForSubjectAttributes( "alice", "role" ).size() );
+        assertEquals( 2, sessionManager.getPendingWrites() );
+        assertEquals( 0, countStored() );
+
+        sessionManager.flush();
+        assertEquals( 0, sessionManager.getPendingWrites() );
+        assertEquals( 0, sessionManager.getFlushLag() );
+        SessionManager store = startStore();
+        assertEquals( STATUS.START.name(), store.getSessionForId( "s1" ).get().getStatus() );
+        assertEquals( STATUS.TRY.name(), store.getSessionForId( "s2" ).get().getStatus() );
+        assertEquals( 3, store.getOnGoingAttributes( "s1" ).size() );
+        store.stop();
+
+        assertTrue( sessionManager.deleteEntry( "s1" ) );
+        sessionManager.flush();
+        assertEquals( 1, countStored() );
+    }
+
+    @Test
+    public void testCreatedAndDeletedSessionNeverStored() {
+        assertTrue( createSession( "s1" ) );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        assertTrue( sessionManager.deleteEntry( "s1" ) );
+        assertEquals( 0, sessionManager.getPendingWrites() );
+        assertEquals( 0, sessionManager.getFlushLag() );
+        assertFalse( sessionManager.updateEntry( "s1", STATUS.END.name() ) );
+    }
+
+    @Test
+    public void testFlushByBatchSizeAndInterval() throws InterruptedException {
+        sessionManager.stop();
+        sessionManager = start( NEVER, 2 );
+        assertTrue( createSession( "s1" ) );
+        assertTrue( sessionManager.getFlushLag() >= 0 );
+        assertTrue( createSession( "s2" ) );
+        assertEquals( 0, awaitFlush() );
+        sessionManager.stop();
+
+        sessionManager = start( 50, 1000 );
+        assertTrue( createSession( "s3" ) );
+        assertEquals( 0, awaitFlush() );
+        assertEquals( 3, countStored() );
+    }
+
+    @Test
+    public void testRejectedWritesAreQueuedAgain() throws SQLException {
+        assertTrue( createSession( "s1" ) );
+        sessionManager.flush();
+
+        // the database fails the creation and ignores the status update
+        execute( "CREATE TRIGGER reject_create BEFORE INSERT ON " + Session.TABLE_NAME
+                + " BEGIN SELECT RAISE(ABORT, 'rejected'); END" );
+        execute( "CREATE TRIGGER ignore_update BEFORE UPDATE ON " + Session.TABLE_NAME
+                + " BEGIN SELECT RAISE(IGNORE); END" );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.START.name() ) );
+        sessionManager.flush();
+        assertEquals( 1, sessionManager.getPendingWrites() );
+        assertTrue( createSession( "s2" ) );
+        sessionManager.flush();
+        assertEquals( 2, sessionManager.getPendingWrites() );
+        execute( "DROP TRIGGER ignore_update" );
+        sessionManager.flush();
+        assertEquals( 2, sessionManager.getPendingWrites() );
+        assertEquals( 1, countStored() );
+
+        execute( "DROP TRIGGER reject_create" );
+        sessionManager.flush();
+        assertEquals( 0, sessionManager.getPendingWrites() );
+        SessionManager store = startStore();
+        assertEquals( STATUS.START.name(), store.getSessionForId( "s1" ).get().getStatus() );
+        assertEquals( STATUS.TRY.name(), store.getSessionForId( "s2" ).get().getStatus() );
+        assertEquals( 3, store.getOnGoingAttributes( "s2" ).size() );
+        store.stop();
+    }
+
+    @Test
+    public void testRestartRebuildsMemory() {
+        assertTrue( createSession( "s1" ) );
+        assertTrue( createSession( "s2" ) );
+        assertTrue( sessionManager.updateEntry( "s1", STATUS.REVOKE.name() ) );
+        // stopping flushes the pending writes
+        sessionManager.stop();
+
+        sessionManager = start( NEVER, 1000 );
+        assertEquals( STATUS.REVOKE.name(), sessionManager.getSessionForId( "s1" ).get().getStatus() );
+        assertEquals( 1, sessionManager.getSessionsForStatus( STATUS.TRY.name() ).size() );
+        assertEquals( 1, sessionManager.getSessionsForSubjectAttributes( "alice", "role" ).size() );
+        assertEquals( 1, sessionManager.getSessionsForResourceAttributes( "file", "owner" ).size() );
+        assertEquals( 1, sessionManager.getSessionsForEnvironmentAttributes( "temperature" ).size() );
+        assertEquals( 3, sessionManager.getOnGoingAttributes( "s2" ).size() );
+        assertEquals( 0, sessionManager.getPendingWrites() );
+    }
+
+    private long awaitFlush() throws InterruptedException {
+        for( int i = 0; i < 200 && sessionManager.getPendingWrites() > 0; i++ ) {
+            Thread.sleep( 10 );
+        }
+        return sessionManager.getPendingWrites();
+    }
+
+    private void execute( String sql ) throws SQLException {
+        try (Connection connection = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() )) {
+            connection.createStatement().execute( sql );
+        }
+    }
+
+    private int countStored() {
+        SessionManager store = startStore();
+        int count = 0;
+        for( STATUS status : STATUS.values() ) {
+            count += store.getSessionsForStatus( status.name() ).size();
+        }
+        store.stop();
+        return count;
+    }
+
+    private boolean createSession( String sessionId ) {
+        return createSession( sessionId, sessionId.equals( "s1" ) ? "alice" : "bob", "file" );
+    }
+
+    private WriteBehindSessionManager start( long flushInterval, int flushBatchSize ) {
+        WriteBehindSessionManager manager = new WriteBehindSessionManager( properties( flushInterval, flushBatchSize ) );
+        assertTrue( manager.start() );
+        return manager;
+    }
+
+    private SessionManager startStore() {
+        SessionManager store = new SessionManager( properties( NEVER, 1000 ) );
+        assertTrue( store.start() );
+        return store;
+    }
+
+    private SessionManagerProperties properties( long flushInterval, int flushBatchSize ) {
+        String dbUri = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+        return new SessionManagerTestProperties( WriteBehindSessionManager.class.getName(), dbUri ) {
+
+            @Override
+            public long getFlushInterval() {
+                return flushInterval;
+            }
+
+            @Override
+            public int getFlushBatchSize() {
+                return flushBatchSize;
+            }
+        };
+    }
+
+}
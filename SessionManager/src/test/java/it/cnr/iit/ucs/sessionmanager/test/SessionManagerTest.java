@@ -4,7 +4,6 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
 
@@ -26,6 +25,7 @@ import it.cnr.iit.ucs.sessionmanager.OnGoingAttributesInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionAttributesBuilder;
 import it.cnr.iit.ucs.sessionmanager.SessionInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionManager;
+import it.cnr.iit.ucs.sessionmanager.SessionManagerTestProperties;
 
 @EnableConfigurationProperties
 @TestPropertySource( properties = "application.properties" )
@@ -78,30 +78,7 @@ public class SessionManagerTest {
     @Before
     public void init() {
 
-        SessionManagerProperties sessionManagerProperties = new SessionManagerProperties() {
-
-            @Override
-            public String getName() {
-                return className;
-            }
-
-            @Override
-            public String getDbUri() {
-                return dbUri;
-            }
-
-            @Override
-            public Map<String, String> getAdditionalProperties() {
-                // TODO Auto-generated method stub
-                return null;
-            }
-
-            @Override
-            public String getId() {
-                // TODO Auto-generated method stub
-                return null;
-            }
-        };
+        SessionManagerProperties sessionManagerProperties = new SessionManagerTestProperties( className, dbUri );
 
         sessionManager = new SessionManager( sessionManagerProperties );
         sessionManager.start();
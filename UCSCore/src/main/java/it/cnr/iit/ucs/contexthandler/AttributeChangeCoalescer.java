@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * Coalesces the attribute changes notified within a window.
+ * The first change received opens the window, the changes received until it
+ * closes are merged per attribute and handed over as a single batch, so that
+ * an attribute flapping several times is reevaluated once with its latest
+ * value. The batches are handed over by a single daemon thread, one at a
+ * time, while the next window collects the changes arrived meanwhile.
+ */
+final class AttributeChangeCoalescer {
+
+    private static final Logger log = Logger.getLogger( AttributeChangeCoalescer.class.getName() );
+
+    private final long window;
+    private final Consumer<Batch> consumer;
+    private final ScheduledExecutorService timer;
+    private Batch pending;
+
+    AttributeChangeCoalescer( long window, Consumer<Batch> consumer ) {
+        Reject.ifLessThan( window, 1, "coalescing window" );
+        Reject.ifNull( consumer );
+        this.window = window;
+        this.consumer = consumer;
+        timer = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "attribute-change-coalescer" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Adds the changed attributes to the current window, opening one if
+     * none is open
+     */
+    synchronized void add( Collection<Attribute> attributes ) {
+        if( pending == null ) {
+            pending = new Batch();
+            timer.schedule( this::flush, window, TimeUnit.MILLISECONDS );
+        }
+        pending.addAll( attributes );
+    }
+
+    private void flush() {
+        Batch batch;
+        synchronized( this ) {
+            batch = pending;
+            pending = null;
+        }
+        try {
+            consumer.accept( batch );
+        } catch( RuntimeException e ) {
+            log.severe( "Error handling coalesced attribute changes : " + e.getMessage() );
+        }
+    }
+
+    /**
+     * The attribute changes to reevaluate at once, merged per attribute.
+     * The batch remembers when its first change has been received and how
+     * many changes each attribute merged.
+     */
+    static final class Batch {
+        private final long since = System.nanoTime();
+        private final Map<String, Attribute> attributes = new LinkedHashMap<>();
+        private final Map<String, Integer> notifications = new LinkedHashMap<>();
+
+        void addAll( Collection<Attribute> changed ) {
+            for( Attribute attribute : changed ) {
+                // the latest value of the attribute wins
+                attributes.put( key( attribute ), attribute );
+                notifications.merge( key( attribute ), 1, Integer::sum );
+            }
+        }
+
+        Collection<Attribute> getAttributes() {
+            return attributes.values();
+        }
+
+        /**
+         * Retrieves the number of changes merged into the change of an
+         * attribute of the batch
+         */
+        int getMerged( Attribute attribute ) {
+            return notifications.get( key( attribute ) ) - 1;
+        }
+
+        /**
+         * Retrieves the time the first change of the batch has been received,
+         * as given by {@link System#nanoTime()}
+         */
+        long getSince() {
+            return since;
+        }
+
+        private static String key( Attribute attribute ) {
+            return attribute.getCategory() + "#" + attribute.getAttributeId() + "#" + attribute.getAdditionalInformations();
+        }
+    }
+
+}
@@ -16,15 +16,29 @@
 package it.cnr.iit.ucs.contexthandler;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.contexthandler.pipregistry.PIPRegistryInterface;
 import it.cnr.iit.ucs.exceptions.PolicyException;
 import it.cnr.iit.ucs.exceptions.RequestException;
 import it.cnr.iit.ucs.exceptions.StatusException;
@@ -37,10 +51,13 @@ import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessResponseMessage;
 import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
 import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
-import it.cnr.iit.ucs.sessionmanager.OnGoingAttributesInterface;
 import it.cnr.iit.ucs.sessionmanager.SessionAttributesBuilder;
+import it.cnr.iit.ucs.sessionmanager.SessionCursor;
 import it.cnr.iit.ucs.sessionmanager.SessionInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionManagerInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionQuery;
 import it.cnr.iit.utility.errorhandling.Reject;
 import it.cnr.iit.xacml.Attribute;
 import it.cnr.iit.xacml.Category;
@@ -53,6 +70,50 @@ import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
 /**
  * The context handler coordinates the ucs operations and spawns a thread in charge of  monitoring
  * eventual changes in the value of the attributes.
+ * <br>
+ * Sessions whose PEP never completes them are expired after the time to live
+ * configured for their status, see {@link ContextHandlerProperties#getSessionTtl(STATUS)}.
+ * The deadlines are kept in a timing wheel advanced by a daemon thread, the
+ * sessions expired at the same tick are deleted in a single batch.
+ * <br>
+ * The sessions selected by an attribute change go through the reevaluation
+ * table of the session manager, a change for a session already queued or
+ * under reevaluation is absorbed instead of evaluating the session again.
+ * <br>
+ * Reevaluations and revokes of the same session are serialized by striped
+ * per-session locks, operations on different sessions run in parallel.
+ * <br>
+ * The subscriptions to the attributes are reference counted by the PIP
+ * registry: a started session acquires the attributes of its request and
+ * releases them when it is revoked or expired, an attribute is unsubscribed
+ * from its PIP when the last session monitoring it releases it.
+ * <br>
+ * The sessions selected by an attribute change are reevaluated by a bounded
+ * pool of threads, see {@link ContextHandlerProperties#getReevaluationThreads()}.
+ * A page of sessions is reevaluated before the next one is read, so at most
+ * a page is in flight. The reevaluation table hands a session to one thread
+ * at a time, the changes absorbed meanwhile are reevaluated by that thread
+ * afterwards, hence the reevaluations of a session keep their order.
+ * <br>
+ * The changes notified within the window configured by
+ * {@link ContextHandlerProperties#getAttributeChangeWindow()} are coalesced:
+ * the changes of the same attribute are merged and the sessions interested
+ * in several changed attributes are reevaluated once. The requests of the
+ * sessions of a batch are fattened from a single snapshot of the attribute
+ * values, holding the pushed values of the changed attributes and reading
+ * every other attribute once per entity.
+ * <br>
+ * When {@link ContextHandlerProperties#getDecisionCacheTtl()} is set the PDP
+ * is placed behind a {@link DecisionCache}, identical requests against the
+ * same policy are then evaluated once within the time to live and the
+ * decisions taken on a changed attribute are dropped as soon as the change
+ * is notified.
+ * <br>
+ * The sessions of a page sharing a policy are evaluated by the PDP in a
+ * single batch, which resolves the policy once, when they are at least
+ * BATCH_EVALUATION_MIN_SESSIONS. The batch is evaluated without locks, each
+ * decision is applied holding the lock of its session only; the sessions it
+ * could not evaluate are evaluated one by one.
  *
  * @author Antonio La Marra, Alessandro Rosetti
  */
@@ -62,9 +123,186 @@ public final class ContextHandler extends AbstractContextHandler {
 
     @Deprecated
     public static final String PEP_ID_SEPARATOR = "#";
+    // maximum number of sessions read at once by the reevaluation of an attribute change
+    private static final int REEVALUATION_CHUNK_SIZE = 500;
+    // minimum number of sessions of a chunk sharing a policy evaluated as a batch
+    private static final int BATCH_EVALUATION_MIN_SESSIONS = 8;
+
+    private final SessionTimingWheel expiryWheel;
+    private ScheduledExecutorService expiryTimer;
+    private final SessionLocks sessionLocks = new SessionLocks();
+    // null when the sessions are reevaluated by the thread notifying the change
+    private final ExecutorService reevaluationExecutor;
+    private final ReevaluationMetrics reevaluationMetrics = new ReevaluationMetrics();
+    // null when the attribute changes are reevaluated as soon as they are notified
+    private final AttributeChangeCoalescer changeCoalescer;
+    // null when the decisions of the PDP are not cached
+    private volatile DecisionCache decisionCache;
 
     public ContextHandler( ContextHandlerProperties properties ) {
         super( properties );
+        expiryWheel = new SessionTimingWheel( properties.getSessionExpiryTick(), System.currentTimeMillis() );
+        reevaluationExecutor = buildReevaluationExecutor( properties.getReevaluationThreads() );
+        changeCoalescer = properties.getAttributeChangeWindow() > 0
+                ? new AttributeChangeCoalescer( properties.getAttributeChangeWindow(), this::handleChanges )
+                : null;
+    }
+
+    private static ExecutorService buildReevaluationExecutor( int threads ) {
+        if( threads <= 1 ) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool( threads, runnable -> {
+            Thread thread = new Thread( runnable, "reevaluation-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Sets the PDP, placing it behind the decision cache if one is configured
+     */
+    @Override
+    public void setPdp( PDPInterface pdp ) {
+        Reject.ifNull( pdp, PDPInterface.class.getName() );
+        if( properties.getDecisionCacheTtl() > 0 ) {
+            decisionCache = new DecisionCache( pdp, properties.getDecisionCacheTtl(), properties.getDecisionCacheSize(),
+                properties.isDecisionCacheObligations() );
+            super.setPdp( decisionCache );
+        } else {
+            super.setPdp( pdp );
+        }
+    }
+
+    /**
+     * Retrieves the decision cache in front of the PDP, if configured
+     */
+    public Optional<DecisionCache> getDecisionCache() {
+        return Optional.ofNullable( decisionCache );
+    }
+
+    /**
+     * Retrieves the counters of the reevaluations triggered by the attribute
+     * changes
+     */
+    public ReevaluationMetrics getReevaluationMetrics() {
+        return reevaluationMetrics;
+    }
+
+    /**
+     * Sets the session manager and schedules the expiry of the sessions it
+     * already holds, their time to live is counted from now since the time of
+     * their last status change is not stored
+     */
+    @Override
+    public void setSessionManager( SessionManagerInterface sessionManager ) {
+        super.setSessionManager( sessionManager );
+        if( !isExpiryEnabled() ) {
+            return;
+        }
+        for( STATUS status : STATUS.values() ) {
+            if( properties.getSessionTtl( status ) > 0 ) {
+                try (SessionCursor sessions = sessionManager.streamSessions( SessionQuery.forStatus( status.name() ) )) {
+                    while( sessions != null && sessions.hasNext() ) {
+                        scheduleExpiry( sessions.next().getId(), status );
+                    }
+                }
+            }
+        }
+        startExpiryTimer();
+    }
+
+    private boolean isExpiryEnabled() {
+        for( STATUS status : STATUS.values() ) {
+            if( properties.getSessionTtl( status ) > 0 ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void startExpiryTimer() {
+        if( expiryTimer != null ) {
+            return;
+        }
+        expiryTimer = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "session-expiry" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        long tick = properties.getSessionExpiryTick();
+        expiryTimer.scheduleWithFixedDelay( this::expireSessions, tick, tick, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Schedules the expiry of a session that entered a status, sessions in a
+     * status without time to live never expire
+     */
+    private void scheduleExpiry( String sessionId, STATUS status ) {
+        long ttl = properties.getSessionTtl( status );
+        if( ttl > 0 ) {
+            expiryWheel.schedule( sessionId, status, ttl, System.currentTimeMillis() );
+        } else {
+            expiryWheel.cancel( sessionId );
+        }
+    }
+
+    /**
+     * Expires the sessions whose time to live has passed
+     */
+    void expireSessions() {
+        try {
+            Map<String, STATUS> expired = expiryWheel.advance( System.currentTimeMillis() );
+            if( !expired.isEmpty() ) {
+                expire( expired );
+            }
+        } catch( Exception e ) {
+            log.severe( "Error expiring sessions : " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Releases the subscriptions of the expired sessions, then deletes them in
+     * a single batch. The sessions are read again holding their locks, the
+     * ones ended, moved to another status or scheduled again since the tick
+     * are left alone. Sessions in TRY have never subscribed their attributes.
+     */
+    private void expire( Map<String, STATUS> expired ) {
+        List<String> sessionIds = new ArrayList<>( expired.size() );
+        List<Lock> locks = sessionLocks.lockAll( expired.keySet() );
+        try {
+            for( Map.Entry<String, STATUS> entry : expired.entrySet() ) {
+                Optional<SessionInterface> session = getSessionManager().getSessionForId( entry.getKey() );
+                if( !session.isPresent() || !session.get().isStatus( entry.getValue().name() )
+                        || expiryWheel.isScheduled( entry.getKey() ) ) {
+                    log.log( Level.FINE, "Session {0} changed since its expiry", entry.getKey() );
+                    continue;
+                }
+                if( !session.get().isStatus( STATUS.TRY.name() ) ) {
+                    releaseSubscriptions( session.get() );
+                }
+                sessionIds.add( entry.getKey() );
+            }
+            int deleted = sessionIds.isEmpty() ? 0 : getSessionManager().deleteEntries( sessionIds );
+            log.log( Level.INFO, "Expired {0} sessions, {1} deleted", new Object[] { sessionIds.size(), deleted } );
+        } finally {
+            SessionLocks.unlockAll( locks );
+        }
+    }
+
+    /**
+     * Releases the subscriptions the session acquired when it started, the
+     * attributes no other session monitors are unsubscribed
+     */
+    private void releaseSubscriptions( SessionInterface session ) {
+        try {
+            RequestWrapper request = RequestWrapper.build( session.getOriginalRequest() );
+            getPipRegistry().unsubscribeAll( request.getRequestType() );
+        } catch( RequestException | RuntimeException e ) {
+            log.log( Level.SEVERE, "Error releasing the subscriptions of session {0} : {1}",
+                new Object[] { session.getId(), e.getMessage() } );
+        }
     }
 
     /**
@@ -78,7 +316,7 @@ public final class ContextHandler extends AbstractContextHandler {
         PolicyWrapper policy = PolicyWrapper.build( getPap(), message );
         RequestWrapper request = RequestWrapper.build( message.getRequest(), getPipRegistry() );
         request.fatten( false );
-        log.info( "TryAccess fattened request contents : \n" + request.getRequest() );
+        log.fine( () -> "TryAccess fattened request contents : \n" + request.getRequest() );
 
         PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.TRY );
         Reject.ifNull( evaluation );
@@ -92,6 +330,7 @@ public final class ContextHandler extends AbstractContextHandler {
             // If access decision is PERMIT create entry in SessionManager
             RequestWrapper origRequest = RequestWrapper.build( message.getRequest(), getPipRegistry() );
             createSession( message, origRequest, policy, sessionId );
+            scheduleExpiry( sessionId, STATUS.TRY );
         }
 
         return buildTryAccessResponse( message, evaluation, sessionId );
@@ -170,47 +409,54 @@ public final class ContextHandler extends AbstractContextHandler {
     }
 
     /**
-     * startAccess method invoked by PEP
+     * startAccess method invoked by PEP, the session is locked from the check
+     * of its status to its update so that it does not expire in between
      */
     @Override
     public StartAccessResponseMessage startAccess( StartAccessMessage message )
             throws StatusException, PolicyException, RequestException {
-        log.log( Level.INFO, "StartAccess begin scheduling at {0}", System.currentTimeMillis() );
+        Lock lock = sessionLocks.get( message.getSessionId() );
+        lock.lock();
+        try {
+            log.log( Level.INFO, "StartAccess begin scheduling at {0}", System.currentTimeMillis() );
 
-        Optional<SessionInterface> optSession = getSessionManager().getSessionForId( message.getSessionId() );
-        Reject.ifAbsent( optSession, "StartAccess: no session for id " + message.getSessionId() );
-        SessionInterface session = optSession.get(); // NOSONAR
+            Optional<SessionInterface> optSession = getSessionManager().getSessionForId( message.getSessionId() );
+            Reject.ifAbsent( optSession, "StartAccess: no session for id " + message.getSessionId() );
+            SessionInterface session = optSession.get(); // NOSONAR
 
-        // Check if the session has the correct status
-        if( !session.isStatus( STATUS.TRY.name() ) ) {
-            log.log( Level.SEVERE, "StartAccess: wrong status for session {0}", message.getSessionId() );
-            throw new StatusException( "StartAccess: tryaccess must be performed yet for session " + message.getSessionId() );
-        }
+            // Check if the session has the correct status
+            if( !session.isStatus( STATUS.TRY.name() ) ) {
+                log.log( Level.SEVERE, "StartAccess: wrong status for session {0}", message.getSessionId() );
+                throw new StatusException( "StartAccess: tryaccess must be performed yet for session " + message.getSessionId() );
+            }
 
-        PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
-        RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
-        request.fatten( true );
+            PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
+            RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
+            request.fatten( true );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
-        Reject.ifNull( evaluation );
-        log.log( Level.INFO, "StartAccess evaluated at {0} pdp response : {1}",
-            new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
+            PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
+            Reject.ifNull( evaluation );
+            log.log( Level.INFO, "StartAccess evaluated at {0} pdp response : {1}",
+                new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
 
-        getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.TRY );
+            getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.TRY );
 
-        if( evaluation.isDecision( DecisionType.PERMIT ) ) {
-            if( !getSessionManager().updateEntry( message.getSessionId(), STATUS.START.name() ) ) {
-                log.log( Level.SEVERE, "StartAccess error, sessionId {0} status update failed", message.getSessionId() );
-            }
-        } else {
-            List<Attribute> attributes = policy.getAttributesForCondition( PolicyTags.getCondition( STATUS.START ) );
-            if( revoke( session, attributes ) && !getSessionManager().deleteEntry( message.getSessionId() ) ) {
-                log.log( Level.SEVERE, "StartAccess error, sessionId {0} deletion failed",
-                    message.getSessionId() );
+            if( evaluation.isDecision( DecisionType.PERMIT ) ) {
+                if( !getSessionManager().updateEntry( message.getSessionId(), STATUS.START.name() ) ) {
+                    log.log( Level.SEVERE, "StartAccess error, sessionId {0} status update failed", message.getSessionId() );
+                }
+                scheduleExpiry( message.getSessionId(), STATUS.START );
+            } else {
+                if( revoke( session ) && !getSessionManager().deleteEntry( message.getSessionId() ) ) {
+                    log.log( Level.SEVERE, "StartAccess error, sessionId {0} deletion failed",
+                        message.getSessionId() );
+                }
             }
-        }
 
-        return buildStartAccessResponse( message, evaluation );
+            return buildStartAccessResponse( message, evaluation );
+        } finally {
+            lock.unlock();
+        }
     }
 
     private StartAccessResponseMessage buildStartAccessResponse( StartAccessMessage message, PDPEvaluation evaluation ) {
@@ -223,117 +469,26 @@ public final class ContextHandler extends AbstractContextHandler {
     /**
      * This is the code for the revoke. A revoke is always triggered by and
      * EndAccess, in this function, all the attributes are un-subscribed.
+     * The attributes other sessions still monitor keep their subscription.
      */
-    private synchronized boolean revoke( SessionInterface session, List<Attribute> attributes ) {
-        log.log( Level.INFO, "Revoke begins at {0}", System.currentTimeMillis() );
-
-        boolean otherSessions = attributesToUnsubscribe( session.getId(), (ArrayList<Attribute>) attributes );
-        if( !otherSessions ) {
-            getPipRegistry().unsubscribeAll( attributes );
-        }
-
-        if( !getSessionManager().deleteEntry( session.getId() ) ) {
-            log.log( Level.SEVERE, "EndAccess: errors during entry deletion for sessionId {0}", session.getId() );
-            return false;
-        }
-
-        log.log( Level.INFO, "Revoke ends at {0}", System.currentTimeMillis() );
-        return true;
-    }
-
-    /**
-     * This function checks if there are attributes to be unsubscribed.
-     * The first step is to retrieve the list of ongoing attributes, then we
-     * have to unsubscribe all those attributes that are not needed anymore.
-     * @param sessionId
-     *            the id of the session we're revoking
-     * @param attributes
-     *            the JSON object to be filled by this function
-     * @return true if there are attributes to unsubscribe, false otherwise
-     */
-    private boolean attributesToUnsubscribe( String sessionId, ArrayList<Attribute> attributes ) {
-        String subjectName = "";
-        String resourceName = "";
-        String actionName = "";
-        // retrieve on going attributes for both subject and object
-        Collection<OnGoingAttributesInterface> onGoingAttributes = getSessionManager().getOnGoingAttributes( sessionId );
-        List<OnGoingAttributesInterface> subjectOnGoingAttributesList = new LinkedList<>();
-        List<OnGoingAttributesInterface> resourceOnGoingAttributesList = new LinkedList<>();
-        List<OnGoingAttributesInterface> actionOnGoingAttributesList = new LinkedList<>();
-        List<OnGoingAttributesInterface> environmentOnGoingAttributesList = new LinkedList<>();
-
-        // build attribute lists for subject, resource, action and environment
-        if( onGoingAttributes != null && !onGoingAttributes.isEmpty() ) {
-            // fill the correspondent list of ongoingAttributes
-            for( OnGoingAttributesInterface attribute : onGoingAttributes ) {
-                if( attribute.getSubjectName() != null && !attribute.getSubjectName().equals( "null" ) ) {
-                    subjectOnGoingAttributesList.add( attribute );
-                    subjectName = attribute.getSubjectName();
-                } else if( attribute.getResourceName() != null && !attribute.getResourceName().equals( "null" ) ) {
-                    resourceOnGoingAttributesList.add( attribute );
-                    resourceName = attribute.getResourceName();
-                } else if( attribute.getActionName() != null && !attribute.getActionName().equals( "null" ) ) {
-                    actionOnGoingAttributesList.add( attribute );
-                    actionName = attribute.getActionName();
-                } else {
-                    environmentOnGoingAttributesList.add( attribute );
-                }
-            }
-        }
-
-        // builds up the JSON object that is needed to perform unsubscribe
-        boolean otherSessions = true;
-        if( onGoingAttributes != null && !onGoingAttributes.isEmpty() ) {
-            otherSessions = buildOnGoingAttributes( Category.RESOURCE, attributes, resourceName, otherSessions,
-                resourceOnGoingAttributesList );
-            otherSessions = buildOnGoingAttributes( Category.SUBJECT, attributes, subjectName, otherSessions,
-                subjectOnGoingAttributesList );
-            otherSessions = buildOnGoingAttributes( Category.ACTION, attributes, actionName, otherSessions, actionOnGoingAttributesList );
-            otherSessions = buildOnGoingAttributes( Category.ENVIRONMENT, attributes, "", otherSessions,
-                environmentOnGoingAttributesList );
-        }
-        return otherSessions;
-    }
+    private boolean revoke( SessionInterface session ) {
+        Lock lock = sessionLocks.get( session.getId() );
+        lock.lock();
+        try {
+            log.log( Level.INFO, "Revoke begins at {0}", System.currentTimeMillis() );
+            expiryWheel.cancel( session.getId() );
+            releaseSubscriptions( session );
 
-    private boolean buildOnGoingAttributes( Category category, ArrayList<Attribute> attributes, String name, boolean otherSessions,
-            List<OnGoingAttributesInterface> listOngoingAttributes ) {
-        for( OnGoingAttributesInterface attribute : listOngoingAttributes ) {
-            List<SessionInterface> sessionList = getSessionListForCategory( category, attribute.getAttributeId(), name );
-            if( sessionList == null || sessionList.isEmpty() || sessionList.size() == 1 ) {
-                otherSessions = false;
-                attributes.add( buildAttribute( attribute, name ) );
+            if( !getSessionManager().deleteEntry( session.getId() ) ) {
+                log.log( Level.SEVERE, "EndAccess: errors during entry deletion for sessionId {0}", session.getId() );
+                return false;
             }
-        }
-        return otherSessions;
-    }
-
-    private List<SessionInterface> getSessionListForCategory( Category category, String id, String name ) {
-        switch( category ) {
-            case ENVIRONMENT:
-                return getSessionManager()
-                    .getSessionsForEnvironmentAttributes( id );
-            case ACTION:
-                return getSessionManager()
-                    .getSessionsForActionAttributes( name, id );
-            case SUBJECT:
-                return getSessionManager()
-                    .getSessionsForSubjectAttributes( name, id );
-            case RESOURCE:
-                return getSessionManager()
-                    .getSessionsForResourceAttributes( name, id );
-            default:
-                log.severe( "Invalid attribute passed" );
-                return new ArrayList<>();
-        }
-    }
 
-    private Attribute buildAttribute( OnGoingAttributesInterface ongoingAttribute, String name ) {
-        Attribute attribute = new Attribute();
-        attribute.setAttributeId( ongoingAttribute.getAttributeId() );
-        if( !name.isEmpty() ) {
-            attribute.setAdditionalInformations( name );
+            log.log( Level.INFO, "Revoke ends at {0}", System.currentTimeMillis() );
+            return true;
+        } finally {
+            lock.unlock();
         }
-        return attribute;
     }
 
     /**
@@ -369,7 +524,7 @@ public final class ContextHandler extends AbstractContextHandler {
         getObligationManager().translateObligations( evaluation, message.getSessionId(), STATUS.END );
 
         // access must be revoked
-        if( revoke( session, policy.getAttributesForCondition( PolicyTags.getCondition( STATUS.END ) ) ) ) {
+        if( revoke( session ) ) {
             log.log( Level.INFO, "EndAccess evaluation with revoke ends at {0}", System.currentTimeMillis() );
         }
 
@@ -385,55 +540,343 @@ public final class ContextHandler extends AbstractContextHandler {
 
     /**
      * This is the function where the effective reevaluation takes place.
+     * The sessions interested in the attribute are read by pages of at most
+     * REEVALUATION_CHUNK_SIZE sessions, each page is queued in the reevaluation
+     * table and reevaluated before the next one is read.
      */
     public boolean reevaluateSessions( Attribute attribute ) {
+        AttributeChangeCoalescer.Batch batch = new AttributeChangeCoalescer.Batch();
+        batch.addAll( Collections.singletonList( attribute ) );
+        return reevaluateSessions( batch );
+    }
+
+    /**
+     * Reevaluates the sessions interested in any attribute of a batch of
+     * changes, each session once even if it is interested in several of them
+     */
+    private boolean reevaluateSessions( AttributeChangeCoalescer.Batch batch ) {
         try {
-            log.info( "ReevaluateSessions for  attributeId : " + attribute.getAttributeId() );
-            List<SessionInterface> sessionList = getSessionListForCategory( attribute.getCategory(), attribute.getAttributeId(),
-                attribute.getAdditionalInformations() );
-            if( sessionList != null ) {
-                for( SessionInterface session : sessionList ) {
-                    reevaluate( session );
-                }
+            FanOut fanOut = new FanOut( batch.getSince(), getPipRegistry().snapshot( batch.getAttributes() ) );
+            Set<String> selected = new HashSet<>();
+            boolean reevaluated = true;
+            for( Attribute attribute : batch.getAttributes() ) {
+                log.info( "ReevaluateSessions for  attributeId : " + attribute.getAttributeId() );
+                reevaluated &= reevaluateSessions( attribute, batch.getMerged( attribute ), selected, fanOut );
             }
-            return true;
+            fanOut.record( reevaluationMetrics, batch );
+            log.log( Level.INFO, "Reevaluated {0} sessions for {1} attributes, {2} revoked, reevaluation totals : {3}",
+                new Object[] { fanOut.reevaluated.get(), batch.getAttributes().size(), fanOut.revoked.get(),
+                    reevaluationMetrics } );
+            return reevaluated;
         } catch( Exception e ) {
             log.severe( "Error in Reevaluate sessions : " + e.getMessage() );
         }
         return false;
     }
 
-    public synchronized void reevaluate( SessionInterface session ) throws PolicyException, RequestException {
-        log.log( Level.INFO, "Reevaluation begins at {0}", System.currentTimeMillis() );
+    /**
+     * Reevaluates the sessions interested in an attribute that have not been
+     * selected yet by another attribute of the same batch
+     *
+     * @param merged
+     *          the number of changes of the attribute merged into this one,
+     *          each would have reevaluated the sessions again
+     */
+    private boolean reevaluateSessions( Attribute attribute, int merged, Set<String> selected, FanOut fanOut ) {
+        SessionQuery query = SessionQuery.forAttribute( attribute.getCategory(), attribute.getAdditionalInformations(),
+            attribute.getAttributeId() );
+        boolean reevaluated = true;
+        String lastSessionId = null;
+        List<SessionInterface> page;
+        do {
+            page = getSessionManager().getSessionsPage( query, lastSessionId, REEVALUATION_CHUNK_SIZE );
+            if( page == null || page.isEmpty() ) {
+                break;
+            }
+            List<SessionInterface> chunk = new ArrayList<>( page.size() );
+            for( SessionInterface session : page ) {
+                if( selected.add( session.getId() ) ) {
+                    chunk.add( session );
+                } else {
+                    fanOut.saved.incrementAndGet();
+                }
+            }
+            fanOut.saved.addAndGet( (long) merged * page.size() );
+            reevaluated &= reevaluateChunk( chunk, attribute, fanOut );
+            lastSessionId = page.get( page.size() - 1 ).getId();
+        } while( page.size() == REEVALUATION_CHUNK_SIZE );
+        return reevaluated;
+    }
 
-        PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
-        RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), getPipRegistry() );
-        request.fatten( false );
+    /**
+     * Queues the sessions of a chunk in the reevaluation table, then
+     * reevaluates the ones that were not already queued or under reevaluation,
+     * in parallel if the reevaluation has its own threads. The sessions
+     * sharing a policy are evaluated by the PDP as a batch beforehand.
+     */
+    private boolean reevaluateChunk( List<SessionInterface> sessions, Attribute attribute, FanOut fanOut ) {
+        List<SessionInterface> queued = new ArrayList<>( sessions.size() );
+        for( SessionInterface session : sessions ) {
+            if( getSessionManager().insertSession( session, attribute ) ) {
+                queued.add( session );
+            } else {
+                log.log( Level.FINE, "Change absorbed by the reevaluation of session {0}", session.getId() );
+            }
+        }
+        Map<String, Boolean> batched = new HashMap<>();
+        boolean reevaluated = evaluateBatches( queued, fanOut, batched );
+        if( reevaluationExecutor == null ) {
+            for( SessionInterface session : queued ) {
+                reevaluated &= reevaluateQueued( session, fanOut, batched.get( session.getId() ) );
+            }
+            return reevaluated;
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<>( queued.size() );
+        for( SessionInterface session : queued ) {
+            tasks.add( () -> reevaluateQueued( session, fanOut, batched.get( session.getId() ) ) );
+        }
+        try {
+            for( Future<Boolean> future : reevaluationExecutor.invokeAll( tasks ) ) {
+                reevaluated &= future.get();
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch( ExecutionException e ) {
+            log.severe( "Error in Reevaluate sessions : " + e.getMessage() );
+            return false;
+        }
+        return reevaluated;
+    }
+
+    /**
+     * Evaluates as a batch the sessions of a chunk sharing a policy, when
+     * they are at least BATCH_EVALUATION_MIN_SESSIONS. The sessions are
+     * grouped by the key of their policy, which is read without loading it.
+     *
+     * @param batched
+     *          filled with the sessions started in the reevaluation table by
+     *          a batch, true if the batch has reevaluated them
+     * @return false if a reevaluation failed, true otherwise
+     */
+    private boolean evaluateBatches( List<SessionInterface> sessions, FanOut fanOut, Map<String, Boolean> batched ) {
+        Map<String, List<SessionInterface>> sessionsByPolicy = new HashMap<>();
+        for( SessionInterface session : sessions ) {
+            String policyKey = session.getPolicyKey() != null ? session.getPolicyKey() : session.getPolicySet();
+            sessionsByPolicy.computeIfAbsent( policyKey, key -> new ArrayList<>() ).add( session );
+        }
+        boolean reevaluated = true;
+        for( List<SessionInterface> policySessions : sessionsByPolicy.values() ) {
+            if( policySessions.size() >= BATCH_EVALUATION_MIN_SESSIONS ) {
+                reevaluated &= evaluateBatch( policySessions, fanOut, batched );
+            }
+        }
+        return reevaluated;
+    }
+
+    /**
+     * Reevaluates the sessions sharing a policy with a single call to the PDP.
+     * Each session is started in the reevaluation table before its request is
+     * fattened, so the changes absorbed afterwards reevaluate it again. The
+     * batch is evaluated without holding the locks of the sessions, each
+     * decision is applied afterwards holding the lock of its session. The
+     * sessions that the batch could not evaluate are left started, to be
+     * evaluated one by one.
+     *
+     * @return false if a reevaluation failed, true otherwise
+     */
+    private boolean evaluateBatch( List<SessionInterface> sessions, FanOut fanOut, Map<String, Boolean> batched ) {
+        List<SessionInterface> batch = new ArrayList<>( sessions.size() );
+        List<RequestWrapper> requests = new ArrayList<>( sessions.size() );
+        for( SessionInterface session : sessions ) {
+            getSessionManager().startSession( session );
+            batched.put( session.getId(), false );
+            try {
+                RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), fanOut.snapshot );
+                request.fatten( false );
+                batch.add( session );
+                requests.add( request );
+            } catch( RequestException | RuntimeException e ) {
+                log.log( Level.SEVERE, "Error fattening the request of session {0} : {1}",
+                    new Object[] { session.getId(), e.getMessage() } );
+            }
+        }
+        if( batch.isEmpty() ) {
+            return true;
+        }
+        List<PDPEvaluation> evaluations;
+        try {
+            PolicyWrapper policy = PolicyWrapper.build( batch.get( 0 ).getPolicySet() );
+            evaluations = getPdp().evaluateBatch( requests, policy, STATUS.START );
+            Reject.ifFalse( evaluations != null && evaluations.size() == batch.size(),
+                "PDP batch evaluation size mismatch" );
+        } catch( PolicyException | RuntimeException e ) {
+            log.log( Level.SEVERE, "Error evaluating a batch of {0} sessions : {1}",
+                new Object[] { sessions.size(), e.getMessage() } );
+            return true;
+        }
+
+        boolean reevaluated = true;
+        for( int i = 0; i < batch.size(); i++ ) {
+            String sessionId = batch.get( i ).getId();
+            if( evaluations.get( i ) == null ) {
+                continue;
+            }
+            batched.put( sessionId, true );
+            fanOut.reevaluated.incrementAndGet();
+            try {
+                if( applyEvaluation( sessionId, evaluations.get( i ) ) ) {
+                    fanOut.onRevoke();
+                }
+            } catch( RuntimeException e ) {
+                log.log( Level.SEVERE, "Error reevaluating session {0} : {1}", new Object[] { sessionId, e.getMessage() } );
+                reevaluated = false;
+            }
+        }
+        log.log( Level.INFO, "Evaluated a batch of {0} sessions", batch.size() );
+        return reevaluated;
+    }
+
+    /**
+     * Applies the decision of a batch to a session holding its lock. The
+     * session is read again, its status may have changed while the batch was
+     * evaluated, and skipped if it has ended meanwhile.
+     *
+     * @return true if the session has been revoked
+     */
+    private boolean applyEvaluation( String sessionId, PDPEvaluation evaluation ) {
+        Lock lock = sessionLocks.get( sessionId );
+        lock.lock();
+        try {
+            Optional<SessionInterface> session = getSessionManager().getSessionForId( sessionId );
+            if( !session.isPresent() ) {
+                log.log( Level.FINE, "Session {0} ended while its batch was evaluated", sessionId );
+                return false;
+            }
+            return applyEvaluation( session.get(), evaluation );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reevaluates a session inserted in the reevaluation table, then removes
+     * it from the table. The reevaluation is repeated, on the session as it is
+     * stored by then, if changes have been absorbed while it was queued or
+     * running. The snapshot of the batch may predate those changes, hence the
+     * repeated reevaluations read the attribute values from the PIP registry.
+     *
+     * @param batched
+     *          null if the session is not in a batch, true if the batch has
+     *          reevaluated it, false if the batch has only started it
+     * @return false if a reevaluation failed, true otherwise
+     */
+    private boolean reevaluateQueued( SessionInterface session, FanOut fanOut, Boolean batched ) {
+        boolean reevaluated = true;
+        SessionInterface current = session;
+        PIPRegistryInterface pipRegistry = fanOut.snapshot;
+        boolean start = batched == null;
+        boolean evaluate = batched == null || !batched;
+        boolean stopped = false;
+        while( !stopped ) {
+            if( current != null && evaluate ) {
+                try {
+                    fanOut.reevaluated.incrementAndGet();
+                    if( reevaluateSession( current, pipRegistry, start ) ) {
+                        fanOut.onRevoke();
+                    }
+                } catch( PolicyException | RequestException | RuntimeException e ) {
+                    log.log( Level.SEVERE, "Error reevaluating session {0} : {1}",
+                        new Object[] { session.getId(), e.getMessage() } );
+                    reevaluated = false;
+                }
+            }
+            start = true;
+            evaluate = true;
+            pipRegistry = getPipRegistry();
+            stopped = getSessionManager().stopSession( session );
+            if( !stopped ) {
+                current = getSessionManager().getSessionForId( session.getId() ).orElse( null );
+            }
+        }
+        return reevaluated;
+    }
+
+    /**
+     * Reevaluates a session holding its lock, the session is revoked or
+     * resumed if the decision of the PDP changed
+     */
+    public void reevaluate( SessionInterface session ) throws PolicyException, RequestException {
+        reevaluateSession( session, getPipRegistry(), false );
+    }
+
+    /**
+     * Reevaluates a session holding its lock
+     *
+     * @param pipRegistry
+     *          the registry fattening the request, the snapshot of the batch
+     *          when the session is reevaluated for an attribute change
+     * @param start
+     *          true to start the session in the reevaluation table before its
+     *          request is fattened
+     * @return true if the session has been revoked
+     */
+    private boolean reevaluateSession( SessionInterface session, PIPRegistryInterface pipRegistry, boolean start )
+            throws PolicyException, RequestException {
+        Lock lock = sessionLocks.get( session.getId() );
+        lock.lock();
+        try {
+            if( start ) {
+                getSessionManager().startSession( session );
+            }
+            log.log( Level.INFO, "Reevaluation begins at {0}", System.currentTimeMillis() );
 
-        PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
+            PolicyWrapper policy = PolicyWrapper.build( session.getPolicySet() );
+            RequestWrapper request = RequestWrapper.build( session.getOriginalRequest(), pipRegistry );
+            request.fatten( false );
+
+            PDPEvaluation evaluation = getPdp().evaluate( request, policy, STATUS.START );
+            return applyEvaluation( session, evaluation );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Revokes or resumes a session if the decision of the PDP changed, the
+     * caller holds the lock of the session
+     *
+     * @return true if the session has been revoked
+     */
+    private boolean applyEvaluation( SessionInterface session, PDPEvaluation evaluation ) {
         Reject.ifNull( evaluation );
         getObligationManager().translateObligations( evaluation, session.getId(), STATUS.END );
 
         log.log( Level.INFO, "Reevaluate evaluated at {0} pdp response : {1}",
             new Object[] { System.currentTimeMillis(), evaluation.getResult() } );
 
+        boolean revoked = false;
         if( session.isStatus( STATUS.START.name() )
                 && evaluation.isDecision( DecisionType.DENY ) ) {
             log.log( Level.INFO, "Revoke at {0}", System.currentTimeMillis() );
             getSessionManager().updateEntry( session.getId(), STATUS.REVOKE.name() );
-
+            scheduleExpiry( session.getId(), STATUS.REVOKE );
+            revoked = true;
         } else if( session.isStatus( STATUS.REVOKE.name() )
                 && evaluation.isDecision( DecisionType.PERMIT ) ) {
             log.log( Level.INFO, "Resume at {0}", System.currentTimeMillis() );
             getSessionManager().updateEntry( session.getId(), STATUS.START.name() );
+            scheduleExpiry( session.getId(), STATUS.START );
         } else {
             log.log( Level.INFO, "Reevaluation ends without change at {0}", System.currentTimeMillis() );
-            return;
+            return false;
         }
 
         ReevaluationResponseMessage response = buildReevaluationResponse( session, evaluation );
         getRequestManager().sendReevaluation( response );
         log.log( Level.INFO, "Reevaluation ends changing status at {0}", System.currentTimeMillis() );
+        return revoked;
     }
 
     private ReevaluationResponseMessage buildReevaluationResponse( SessionInterface session, PDPEvaluation evaluation ) {
@@ -448,12 +891,57 @@ public final class ContextHandler extends AbstractContextHandler {
     @Override
     public void attributeChanged( AttributeChangeMessage message ) {
         log.log( Level.INFO, "Attribute changed received at {0}", System.currentTimeMillis() );
-        for( Attribute attribute : message.getAttributes() ) {
-            if( !reevaluateSessions( attribute ) ) {
-                log.log( Level.SEVERE, "Error handling attribute changes" );
-            }
+        if( decisionCache != null ) {
+            decisionCache.invalidate( message.getAttributes() );
         }
+        if( changeCoalescer != null ) {
+            changeCoalescer.add( message.getAttributes() );
+            return;
+        }
+        AttributeChangeCoalescer.Batch batch = new AttributeChangeCoalescer.Batch();
+        batch.addAll( message.getAttributes() );
+        handleChanges( batch );
+    }
 
+    private void handleChanges( AttributeChangeCoalescer.Batch batch ) {
+        if( !reevaluateSessions( batch ) ) {
+            log.log( Level.SEVERE, "Error handling attribute changes" );
+        }
+    }
+
+    /**
+     * Progress of the reevaluations of a batch of attribute changes, shared
+     * by the threads reevaluating its sessions
+     */
+    private static final class FanOut {
+        private final long start;
+        private final AtomicLong reevaluated = new AtomicLong();
+        private final AtomicLong revoked = new AtomicLong();
+        // evaluations avoided by merging the changes and selecting each session once
+        private final AtomicLong saved = new AtomicLong();
+        private final AtomicLong lastRevoke;
+        // the attribute values shared by the sessions of the batch
+        private final PIPRegistryInterface snapshot;
+
+        private FanOut( long start, PIPRegistryInterface snapshot ) {
+            this.start = start;
+            this.snapshot = snapshot;
+            lastRevoke = new AtomicLong( start );
+        }
+
+        private void onRevoke() {
+            revoked.incrementAndGet();
+            lastRevoke.accumulateAndGet( System.nanoTime(), Math::max );
+        }
+
+        private void record( ReevaluationMetrics metrics, AttributeChangeCoalescer.Batch batch ) {
+            int coalesced = 0;
+            for( Attribute attribute : batch.getAttributes() ) {
+                coalesced += batch.getMerged( attribute );
+            }
+            metrics.recordSaved( coalesced, saved.get() );
+            metrics.record( reevaluated.get(), revoked.get(), System.nanoTime() - start, lastRevoke.get() - start );
+        }
     }
 
 }
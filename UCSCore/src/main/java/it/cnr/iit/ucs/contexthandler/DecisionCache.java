@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
+import it.cnr.iit.ucs.pap.PAPInterface;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.utility.HashUtility;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributeValueType;
+import oasis.names.tc.xacml.core.schema.wd_17.AttributesType;
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * Cache of the decisions taken by the PDP, placed in front of it by the
+ * context handler. A decision is keyed by the hash of the policy, the status
+ * evaluated and the hash of the canonical form of the fattened request, so
+ * identical requests against the same policy are evaluated once within the
+ * time to live. The least recently used decision is evicted when the cache
+ * is full, the decisions an attribute contributed to are dropped when the
+ * attribute changes.
+ * Indeterminate decisions are never cached, the decisions carrying
+ * obligations only if explicitly allowed. Attributes the PDP reads on its own,
+ * as the current time, are not part of the key: the time to live bounds how
+ * stale they may be.
+ * The cache is thread safe.
+ */
+public final class DecisionCache implements PDPInterface {
+
+    private final PDPInterface pdp;
+    private final long ttl;
+    private final int maxSize;
+    private final boolean cacheObligations;
+    private final LongSupplier clock;
+    private final Map<String, Decision> decisions;
+    // keys of the cached decisions by the id of the attributes they were taken on
+    private final Map<String, Set<String>> keysByAttribute = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param ttl
+     *          the milliseconds a decision is reused for
+     * @param maxSize
+     *          the maximum number of decisions kept
+     * @param cacheObligations
+     *          true to cache the decisions carrying obligations
+     */
+    DecisionCache( PDPInterface pdp, long ttl, int maxSize, boolean cacheObligations ) {
+        this( pdp, ttl, maxSize, cacheObligations, System::currentTimeMillis );
+    }
+
+    DecisionCache( PDPInterface pdp, long ttl, int maxSize, boolean cacheObligations, LongSupplier clock ) {
+        this.pdp = pdp;
+        this.ttl = ttl;
+        this.maxSize = Math.max( 1, maxSize );
+        this.cacheObligations = cacheObligations;
+        this.clock = clock;
+        decisions = new LinkedHashMap<String, Decision>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Decision> eldest ) {
+                if( size() > DecisionCache.this.maxSize ) {
+                    unindex( eldest.getKey(), eldest.getValue() );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy, STATUS status ) {
+        String key = getKey( HashUtility.sha256Hex( policy.getPolicy() ), status, request );
+        long now = clock.getAsLong();
+        PDPEvaluation evaluation = get( key, now );
+        if( evaluation == null ) {
+            evaluation = pdp.evaluate( request, policy, status );
+            put( key, request, evaluation, now );
+        }
+        return evaluation;
+    }
+
+    /**
+     * Serves the known decisions from the cache and forwards the others to
+     * the PDP in a single batch
+     */
+    @Override
+    public List<PDPEvaluation> evaluateBatch( List<RequestWrapper> requests, PolicyWrapper policy, STATUS status ) {
+        String policyHash = HashUtility.sha256Hex( policy.getPolicy() );
+        long now = clock.getAsLong();
+        List<PDPEvaluation> evaluations = new ArrayList<>( requests.size() );
+        List<Integer> missed = new ArrayList<>();
+        List<String> keys = new ArrayList<>( requests.size() );
+        for( RequestWrapper request : requests ) {
+            String key = getKey( policyHash, status, request );
+            PDPEvaluation evaluation = get( key, now );
+            if( evaluation == null ) {
+                missed.add( evaluations.size() );
+            }
+            keys.add( key );
+            evaluations.add( evaluation );
+        }
+        if( missed.isEmpty() ) {
+            return evaluations;
+        }
+        List<RequestWrapper> missedRequests = new ArrayList<>( missed.size() );
+        for( int index : missed ) {
+            missedRequests.add( requests.get( index ) );
+        }
+        List<PDPEvaluation> missedEvaluations = pdp.evaluateBatch( missedRequests, policy, status );
+        for( int i = 0; i < missed.size(); i++ ) {
+            int index = missed.get( i );
+            PDPEvaluation evaluation = missedEvaluations.get( i );
+            evaluations.set( index, evaluation );
+            put( keys.get( index ), requests.get( index ), evaluation, now );
+        }
+        return evaluations;
+    }
+
+    private static String getKey( String policyHash, STATUS status, RequestWrapper request ) {
+        return policyHash + "#" + status + "#" + HashUtility.sha256Hex( canonicalize( request.getRequestType() ) );
+    }
+
+    private PDPEvaluation get( String key, long now ) {
+        synchronized( decisions ) {
+            Decision decision = decisions.get( key );
+            if( decision != null && decision.expiry > now ) {
+                hits.incrementAndGet();
+                return decision.evaluation;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void put( String key, RequestWrapper request, PDPEvaluation evaluation, long now ) {
+        if( !isCacheable( evaluation ) ) {
+            return;
+        }
+        Decision decision = new Decision( evaluation, now + ttl, getAttributeIds( request.getRequestType() ) );
+        synchronized( decisions ) {
+            Decision replaced = decisions.put( key, decision );
+            if( replaced != null ) {
+                unindex( key, replaced );
+            }
+            for( String attributeId : decision.attributeIds ) {
+                keysByAttribute.computeIfAbsent( attributeId, id -> new HashSet<>() ).add( key );
+            }
+        }
+    }
+
+    private boolean isCacheable( PDPEvaluation evaluation ) {
+        if( evaluation == null || evaluation.isDecision( DecisionType.INDETERMINATE ) ) {
+            return false;
+        }
+        return cacheObligations || evaluation.getObligations() == null || evaluation.getObligations().isEmpty();
+    }
+
+    /**
+     * Drops the decisions taken on the changed attributes
+     */
+    void invalidate( Collection<Attribute> attributes ) {
+        synchronized( decisions ) {
+            for( Attribute attribute : attributes ) {
+                Set<String> keys = keysByAttribute.remove( attribute.getAttributeId() );
+                if( keys == null ) {
+                    continue;
+                }
+                for( String key : keys ) {
+                    Decision decision = decisions.remove( key );
+                    if( decision != null ) {
+                        unindex( key, decision );
+                        invalidations.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    private void unindex( String key, Decision decision ) {
+        for( String attributeId : decision.attributeIds ) {
+            Set<String> keys = keysByAttribute.get( attributeId );
+            if( keys != null ) {
+                keys.remove( key );
+                if( keys.isEmpty() ) {
+                    keysByAttribute.remove( attributeId );
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the request in a form independent from the order of its
+     * categories, attributes and values
+     */
+    private static String canonicalize( RequestType requestType ) {
+        List<String> attributes = new ArrayList<>();
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                List<String> values = new ArrayList<>();
+                for( AttributeValueType valueType : attributeType.getAttributeValue() ) {
+                    values.add( valueType.getDataType() + "=" + valueType.getContent() );
+                }
+                Collections.sort( values );
+                attributes.add( attributesType.getCategory() + "|" + attributeType.getAttributeId() + "|"
+                        + attributeType.getIssuer() + "|" + attributeType.isIncludeInResult() + "|" + values );
+            }
+        }
+        Collections.sort( attributes );
+        return requestType.isReturnPolicyIdList() + "|" + requestType.isCombinedDecision() + "|" + attributes;
+    }
+
+    private static Set<String> getAttributeIds( RequestType requestType ) {
+        Set<String> attributeIds = new HashSet<>();
+        for( AttributesType attributesType : requestType.getAttributes() ) {
+            for( AttributeType attributeType : attributesType.getAttribute() ) {
+                attributeIds.add( attributeType.getAttributeId() );
+            }
+        }
+        return attributeIds;
+    }
+
+    @Override
+    public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy ) {
+        return pdp.evaluate( request, policy );
+    }
+
+    @Override
+    public PDPEvaluation evaluate( RequestWrapper request ) {
+        return pdp.evaluate( request );
+    }
+
+    @Override
+    public void setPap( PAPInterface pap ) {
+        pdp.setPap( pap );
+    }
+
+    @Override
+    public void setObligationManager( ObligationManagerInterface obligationManager ) {
+        pdp.setObligationManager( obligationManager );
+    }
+
+    /**
+     * Retrieves the number of evaluations served by a cached decision
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of evaluations forwarded to the PDP
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of decisions dropped by an attribute change
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Retrieves the number of decisions currently kept, expired ones included
+     */
+    public int size() {
+        synchronized( decisions ) {
+            return decisions.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "%d decisions, %d hits, %d misses, %d invalidations", size(), getHits(), getMisses(),
+            getInvalidations() );
+    }
+
+    private static final class Decision {
+        private final PDPEvaluation evaluation;
+        private final long expiry;
+        private final Set<String> attributeIds;
+
+        private Decision( PDPEvaluation evaluation, long expiry, Set<String> attributeIds ) {
+            this.evaluation = evaluation;
+            this.expiry = expiry;
+            this.attributeIds = attributeIds;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the reevaluations triggered by the attribute changes.
+ * The time to last revoke of a change is measured from its notification to
+ * the moment the last session it revoked has been sent to its PEP, it tells
+ * how long a change takes to take effect and so how many threads the
+ * reevaluation needs.
+ * The changes coalesced in a window count as a single change, the
+ * evaluations they saved are counted apart.
+ */
+public final class ReevaluationMetrics {
+
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong revokes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong lastDuration = new AtomicLong();
+    private final AtomicLong lastTimeToLastRevoke = new AtomicLong();
+    private final AtomicLong maxTimeToLastRevoke = new AtomicLong();
+
+    /**
+     * Records the reevaluations of an attribute change
+     *
+     * @param reevaluated
+     *          the number of sessions reevaluated
+     * @param revoked
+     *          the number of sessions revoked
+     * @param duration
+     *          the nanoseconds taken by all the reevaluations
+     * @param timeToLastRevoke
+     *          the nanoseconds before the last revoke, meaningless if no
+     *          session has been revoked
+     */
+    void record( long reevaluated, long revoked, long duration, long timeToLastRevoke ) {
+        changes.incrementAndGet();
+        sessions.addAndGet( reevaluated );
+        lastDuration.set( TimeUnit.NANOSECONDS.toMillis( duration ) );
+        if( revoked > 0 ) {
+            long millis = TimeUnit.NANOSECONDS.toMillis( timeToLastRevoke );
+            revokes.addAndGet( revoked );
+            lastTimeToLastRevoke.set( millis );
+            maxTimeToLastRevoke.accumulateAndGet( millis, Math::max );
+        }
+    }
+
+    /**
+     * Records the evaluations saved by a batch of changes
+     *
+     * @param coalescedChanges
+     *          the number of changes merged into a change of the same
+     *          attribute
+     * @param savedEvaluations
+     *          the number of session evaluations the merged changes and the
+     *          sessions selected by several attributes would have taken
+     */
+    void recordSaved( long coalescedChanges, long savedEvaluations ) {
+        coalesced.addAndGet( coalescedChanges );
+        saved.addAndGet( savedEvaluations );
+    }
+
+    /**
+     * Retrieves the number of attribute changes reevaluated
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /**
+     * Retrieves the number of sessions reevaluated
+     */
+    public long getReevaluatedSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * Retrieves the number of sessions revoked by a reevaluation
+     */
+    public long getRevokedSessions() {
+        return revokes.get();
+    }
+
+    /**
+     * Retrieves the number of changes merged into a change of the same
+     * attribute
+     */
+    public long getCoalescedChanges() {
+        return coalesced.get();
+    }
+
+    /**
+     * Retrieves the number of session evaluations saved by coalescing the
+     * changes
+     */
+    public long getSavedEvaluations() {
+        return saved.get();
+    }
+
+    /**
+     * Retrieves the milliseconds taken by the reevaluations of the last change
+     */
+    public long getLastDuration() {
+        return lastDuration.get();
+    }
+
+    /**
+     * Retrieves the milliseconds before the last revoke of the last change
+     * that revoked any session
+     */
+    public long getLastTimeToLastRevoke() {
+        return lastTimeToLastRevoke.get();
+    }
+
+    /**
+     * Retrieves the longest time to last revoke recorded, in milliseconds
+     */
+    public long getMaxTimeToLastRevoke() {
+        return maxTimeToLastRevoke.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "%d changes, %d sessions reevaluated, %d revoked, time to last revoke %d ms (max %d ms), "
+                + "%d changes coalesced, %d evaluations saved",
+            getChanges(), getReevaluatedSessions(), getRevokedSessions(), getLastTimeToLastRevoke(),
+            getMaxTimeToLastRevoke(), getCoalescedChanges(), getSavedEvaluations() );
+    }
+
+}
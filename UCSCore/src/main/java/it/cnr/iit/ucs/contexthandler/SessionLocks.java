@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Striped locks serializing the operations on the same session.
+ * A session id always maps to the same stripe, hence two operations on a
+ * session never overlap while operations on different sessions proceed in
+ * parallel unless their ids share a stripe. The memory taken by the locks is
+ * fixed regardless of the number of sessions.
+ * The stripes of several sessions are locked in ascending order, hence the
+ * threads locking many sessions at once never deadlock among them nor with
+ * the threads locking a single session.
+ */
+final class SessionLocks {
+
+    static final int DEFAULT_STRIPES = 1024;
+
+    private final Lock[] stripes;
+    private final int mask;
+
+    SessionLocks() {
+        this( DEFAULT_STRIPES );
+    }
+
+    SessionLocks( int stripeCount ) {
+        Reject.ifFalse( stripeCount > 0 && Integer.bitCount( stripeCount ) == 1, "stripe count must be a power of 2" );
+        stripes = new Lock[stripeCount];
+        for( int i = 0; i < stripeCount; i++ ) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = stripeCount - 1;
+    }
+
+    /**
+     * Retrieves the lock guarding the session, a null id maps to the first
+     * stripe
+     */
+    Lock get( String sessionId ) {
+        return stripes[indexOf( sessionId )];
+    }
+
+    /**
+     * Locks the stripes guarding the sessions, each once
+     *
+     * @return the locks held, to be released by unlockAll
+     */
+    List<Lock> lockAll( Collection<String> sessionIds ) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for( String sessionId : sessionIds ) {
+            indexes.add( indexOf( sessionId ) );
+        }
+        List<Lock> locks = new ArrayList<>( indexes.size() );
+        for( int index : indexes ) {
+            stripes[index].lock();
+            locks.add( stripes[index] );
+        }
+        return locks;
+    }
+
+    static void unlockAll( List<Lock> locks ) {
+        for( int i = locks.size() - 1; i >= 0; i-- ) {
+            locks.get( i ).unlock();
+        }
+    }
+
+    private int indexOf( String sessionId ) {
+        if( sessionId == null ) {
+            return 0;
+        }
+        int hash = sessionId.hashCode();
+        return ( hash ^ ( hash >>> 16 ) ) & mask;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Hashed timing wheel holding the expiry deadlines of the sessions.
+ * Time is divided in ticks, each deadline is placed in the bucket of its tick
+ * modulo the number of buckets, hence scheduling and cancelling cost O(1) and
+ * advancing the wheel costs as much as the deadlines in the buckets passed
+ * over, regardless of how many sessions are scheduled.
+ * A session has at most one deadline, scheduling it again replaces the
+ * previous one. The status the session had when it was scheduled is returned
+ * along with the expired session.
+ */
+final class SessionTimingWheel {
+
+    private static final int DEFAULT_BUCKETS = 512;
+
+    private final long tickDuration;
+    private final long origin;
+    private final int mask;
+    private final Set<Deadline>[] buckets;
+    private final Map<String, Deadline> deadlines = new HashMap<>();
+    // last tick whose bucket has been expired
+    private long currentTick = 0;
+
+    SessionTimingWheel( long tickDuration, long now ) {
+        this( tickDuration, now, DEFAULT_BUCKETS );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    SessionTimingWheel( long tickDuration, long now, int bucketCount ) {
+        Reject.ifLessThan( tickDuration, 1, "tick duration" );
+        Reject.ifFalse( bucketCount > 0 && Integer.bitCount( bucketCount ) == 1, "bucket count must be a power of 2" );
+        this.tickDuration = tickDuration;
+        this.origin = now;
+        this.mask = bucketCount - 1;
+        buckets = new Set[bucketCount];
+        for( int i = 0; i < bucketCount; i++ ) {
+            buckets[i] = new HashSet<>();
+        }
+    }
+
+    /**
+     * Schedules the expiry of a session, replacing the one it already had
+     *
+     * @param sessionId
+     *          the id of the session
+     * @param status
+     *          the status the session is in
+     * @param ttl
+     *          the time to live of the session in milliseconds
+     * @param now
+     *          the current time in milliseconds
+     */
+    synchronized void schedule( String sessionId, STATUS status, long ttl, long now ) {
+        Reject.ifBlank( sessionId );
+        Reject.ifNull( status );
+        Reject.ifLessThan( ttl, 1, "session ttl" );
+        cancel( sessionId );
+        // round up, a session never expires before its time to live
+        long tick = Math.max( currentTick + 1, ( now - origin + ttl + tickDuration - 1 ) / tickDuration );
+        Deadline deadline = new Deadline( sessionId, status, tick );
+        deadlines.put( sessionId, deadline );
+        buckets[(int) ( tick & mask )].add( deadline );
+    }
+
+    /**
+     * Cancels the expiry of a session
+     *
+     * @param sessionId
+     *          the id of the session
+     * @return true if the session had an expiry, false otherwise
+     */
+    synchronized boolean cancel( String sessionId ) {
+        Deadline deadline = deadlines.remove( sessionId );
+        if( deadline == null ) {
+            return false;
+        }
+        buckets[(int) ( deadline.tick & mask )].remove( deadline );
+        return true;
+    }
+
+    /**
+     * Advances the wheel up to the current time and removes the sessions
+     * whose deadline has passed
+     *
+     * @param now
+     *          the current time in milliseconds
+     * @return the expired sessions along with the status they were scheduled in
+     */
+    synchronized Map<String, STATUS> advance( long now ) {
+        Map<String, STATUS> expired = new LinkedHashMap<>();
+        long targetTick = ( now - origin ) / tickDuration;
+        // after a full turn every bucket has been visited once
+        long firstTick = Math.max( currentTick + 1, targetTick - mask );
+        for( long tick = firstTick; tick <= targetTick; tick++ ) {
+            Iterator<Deadline> iterator = buckets[(int) ( tick & mask )].iterator();
+            while( iterator.hasNext() ) {
+                Deadline deadline = iterator.next();
+                if( deadline.tick <= targetTick ) {
+                    iterator.remove();
+                    deadlines.remove( deadline.sessionId );
+                    expired.put( deadline.sessionId, deadline.status );
+                }
+            }
+        }
+        currentTick = Math.max( currentTick, targetTick );
+        return expired;
+    }
+
+    /**
+     * Checks whether a session has an expiry
+     *
+     * @param sessionId
+     *          the id of the session
+     * @return true if the session has an expiry, false otherwise
+     */
+    synchronized boolean isScheduled( String sessionId ) {
+        return deadlines.containsKey( sessionId );
+    }
+
+    synchronized int size() {
+        return deadlines.size();
+    }
+
+    private static final class Deadline {
+        private final String sessionId;
+        private final STATUS status;
+        private final long tick;
+
+        private Deadline( String sessionId, STATUS status, long tick ) {
+            this.sessionId = sessionId;
+            this.status = status;
+            this.tick = tick;
+        }
+    }
+
+}
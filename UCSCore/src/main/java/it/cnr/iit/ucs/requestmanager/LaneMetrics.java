@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.cnr.iit.ucs.constants.LANE;
+
+/**
+ * Counters of the messages handled by a lane of the request manager.
+ * The wait time of a message is measured from the moment it is queued to the
+ * moment a worker of the lane takes it, it tells whether the lane needs more
+ * workers.
+ */
+public final class LaneMetrics {
+
+    private final LANE lane;
+    private final Collection<? extends MessagePartition> partitions;
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong lastWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+
+    LaneMetrics( LANE lane, Collection<? extends MessagePartition> partitions ) {
+        this.lane = lane;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Records a message taken by a worker of the lane
+     *
+     * @param wait
+     *          the nanoseconds the message has been queued
+     */
+    void record( long wait ) {
+        handled.incrementAndGet();
+        totalWait.addAndGet( wait );
+        long micros = TimeUnit.NANOSECONDS.toMicros( wait );
+        lastWait.set( micros );
+        maxWait.accumulateAndGet( micros, Math::max );
+    }
+
+    void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    public LANE getLane() {
+        return lane;
+    }
+
+    /**
+     * Retrieves the number of messages currently queued in the lane
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for( MessagePartition partition : partitions ) {
+            depth += partition.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Retrieves the number of messages taken by the workers of the lane
+     */
+    public long getHandledMessages() {
+        return handled.get();
+    }
+
+    /**
+     * Retrieves the number of messages rejected because the lane was full
+     */
+    public long getRejectedMessages() {
+        return rejected.get();
+    }
+
+    /**
+     * Retrieves the average time the messages waited in the lane, in
+     * microseconds
+     */
+    public long getAverageWait() {
+        long count = handled.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMicros( totalWait.get() / count ) : 0;
+    }
+
+    /**
+     * Retrieves the time the last message waited in the lane, in microseconds
+     */
+    public long getLastWait() {
+        return lastWait.get();
+    }
+
+    /**
+     * Retrieves the longest time a message waited in the lane, in microseconds
+     */
+    public long getMaxWait() {
+        return maxWait.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "%s lane: %d queued, %d handled, %d rejected, wait %d us (average %d us, max %d us)",
+            lane, getQueueDepth(), getHandledMessages(), getRejectedMessages(), getLastWait(), getAverageWait(),
+            getMaxWait() );
+    }
+
+}
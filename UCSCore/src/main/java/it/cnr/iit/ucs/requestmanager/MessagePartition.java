@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import it.cnr.iit.ucs.message.Message;
+
+/**
+ * A partition of a lane, it hands the messages over from any number of
+ * producers to the single worker of the partition, in the order they were
+ * queued.
+ */
+interface MessagePartition {
+
+    /**
+     * Queues a message, waiting for room if the partition is full
+     */
+    void put( Message message ) throws InterruptedException;
+
+    /**
+     * Queues a message unless the partition stays full for longer than the
+     * timeout
+     *
+     * @param timeout
+     *          the timeout in milliseconds
+     * @return true if the message has been queued
+     */
+    boolean offer( Message message, long timeout ) throws InterruptedException;
+
+    /**
+     * Waits for messages and hands the queued ones over to the handler, it is
+     * called by the worker of the partition only
+     *
+     * @return the number of messages handed over
+     */
+    int drain( Handler handler ) throws InterruptedException;
+
+    /**
+     * Retrieves the number of messages queued
+     */
+    int size();
+
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param queued
+         *          the {@link System#nanoTime()} the message was queued at
+         */
+        void handle( Message message, long queued );
+    }
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import it.cnr.iit.ucs.message.Message;
+
+/**
+ * A partition backed by a linked blocking queue.
+ */
+final class QueuePartition implements MessagePartition {
+
+    private final BlockingQueue<Pending> queue;
+
+    /**
+     * @param capacity
+     *          the number of messages the partition can hold, 0 for an
+     *          unbounded partition
+     */
+    QueuePartition( int capacity ) {
+        queue = new LinkedBlockingQueue<>( capacity > 0 ? capacity : Integer.MAX_VALUE );
+    }
+
+    @Override
+    public void put( Message message ) throws InterruptedException {
+        queue.put( new Pending( message ) );
+    }
+
+    @Override
+    public boolean offer( Message message, long timeout ) throws InterruptedException {
+        return queue.offer( new Pending( message ), timeout, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public int drain( Handler handler ) throws InterruptedException {
+        Pending pending = queue.take();
+        handler.handle( pending.message, pending.queued );
+        return 1;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    private static final class Pending {
+        private final Message message;
+        private final long queued = System.nanoTime();
+
+        private Pending( Message message ) {
+            this.message = message;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import it.cnr.iit.ucs.constants.LANE;
+import it.cnr.iit.ucs.constants.PIPELINE;
+import it.cnr.iit.ucs.message.IdentifiedMessage;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * A lane of the request manager, with its own queues and workers.
+ * The messages are partitioned among the workers of the lane by session id,
+ * the attribute changes by the id and the entity of their first attribute,
+ * the other messages by message id. Hence the operations on a session and
+ * the changes of an attribute are handled in order by the same worker while
+ * different sessions and attributes are handled in parallel. The lanes do not share any
+ * worker, so a burst of messages in a lane only delays that lane.
+ * The capacity of the lane is split among its partitions, which hand the
+ * messages over to the workers through the configured {@link PIPELINE}.
+ */
+final class RequestLane {
+
+    private static final Logger log = Logger.getLogger( RequestLane.class.getName() );
+
+    private final LANE lane;
+    private final List<MessagePartition> partitions = new ArrayList<>();
+    private final LaneMetrics metrics;
+    private final ExecutorService workers;
+
+    /**
+     * @param capacity
+     *          the number of messages the lane can hold, 0 for an unbounded lane
+     */
+    RequestLane( LANE lane, int workerCount, int capacity, PIPELINE pipeline ) {
+        Reject.ifNull( lane );
+        Reject.ifFalse( workerCount > 0, "a lane needs at least a worker" );
+        this.lane = lane;
+        int partitionCapacity = capacity > 0 ? ( capacity + workerCount - 1 ) / workerCount : 0;
+        for( int i = 0; i < workerCount; i++ ) {
+            partitions.add( pipeline == PIPELINE.RING_BUFFER ? new RingBufferPartition( partitionCapacity )
+                    : new QueuePartition( partitionCapacity ) );
+        }
+        metrics = new LaneMetrics( lane, partitions );
+        AtomicInteger count = new AtomicInteger();
+        String prefix = "request-manager-" + lane.name().toLowerCase().replace( '_', '-' ) + "-";
+        workers = Executors.newFixedThreadPool( workerCount,
+            runnable -> new Thread( runnable, prefix + count.incrementAndGet() ) );
+    }
+
+    /**
+     * Queues a message in the partition it belongs to, waiting for room if
+     * the partition is full
+     */
+    void put( Message message ) throws InterruptedException {
+        getPartition( message ).put( message );
+    }
+
+    /**
+     * Queues a message in the partition it belongs to, unless the partition
+     * stays full for longer than the timeout
+     *
+     * @return true if the message has been queued, false if it is rejected
+     */
+    boolean offer( Message message, long timeout ) throws InterruptedException {
+        boolean queued = getPartition( message ).offer( message, timeout );
+        if( !queued ) {
+            metrics.recordRejected();
+        }
+        return queued;
+    }
+
+    /**
+     * Starts a worker for each partition of the lane
+     *
+     * @param handler
+     *          the handler of the messages, a failing message does not stop
+     *          its worker
+     */
+    void start( Consumer<Message> handler ) {
+        for( MessagePartition partition : partitions ) {
+            workers.submit( () -> drain( partition, handler ) );
+        }
+    }
+
+    private void drain( MessagePartition partition, Consumer<Message> handler ) {
+        MessagePartition.Handler partitionHandler = ( message, queued ) -> {
+            metrics.record( System.nanoTime() - queued );
+            try {
+                handler.accept( message );
+            } catch( Exception e ) {
+                log.severe( "Error handling message " + message.getMessageId() + " in " + lane + " lane : "
+                        + e.getMessage() );
+            }
+        };
+        try {
+            while( !Thread.currentThread().isInterrupted() ) {
+                partition.drain( partitionHandler );
+            }
+        } catch( InterruptedException e ) {
+            log.severe( e.getMessage() );
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private MessagePartition getPartition( Message message ) {
+        String key = getPartitionKey( message );
+        int hash = key != null ? key.hashCode() : 0;
+        return partitions.get( Math.floorMod( hash ^ ( hash >>> 16 ), partitions.size() ) );
+    }
+
+    private static String getPartitionKey( Message message ) {
+        if( message instanceof IdentifiedMessage && ( (IdentifiedMessage) message ).getSessionId() != null ) {
+            return ( (IdentifiedMessage) message ).getSessionId();
+        }
+        if( message instanceof AttributeChangeMessage ) {
+            List<Attribute> attributes = ( (AttributeChangeMessage) message ).getAttributes();
+            if( !attributes.isEmpty() ) {
+                Attribute attribute = attributes.get( 0 );
+                return attribute.getAttributeId() + "#" + attribute.getAdditionalInformations();
+            }
+        }
+        return message.getMessageId();
+    }
+
+    int getWorkerCount() {
+        return partitions.size();
+    }
+
+    LaneMetrics getMetrics() {
+        return metrics;
+    }
+
+}
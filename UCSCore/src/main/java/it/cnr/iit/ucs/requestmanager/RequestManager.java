@@ -15,12 +15,14 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.requestmanager;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import it.cnr.iit.ucs.constants.LANE;
 import it.cnr.iit.ucs.constants.PURPOSE;
+import it.cnr.iit.ucs.exceptions.OverloadException;
 import it.cnr.iit.ucs.message.Message;
 import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
@@ -33,6 +35,12 @@ import it.cnr.iit.utility.errorhandling.Reject;
 /**
  * All the requests coming to the context handler have to reach the request
  * manager first that will choose how to handle them.
+ * The requests of the PEPs and the attribute changes of the PIPs travel in
+ * separate lanes, each with its own queues and workers, so a storm of
+ * reevaluations does not starve the new accesses and a burst of accesses does
+ * not delay the revocations, see {@link RequestManagerProperties#getLaneWeight(LANE)}.
+ * Within a lane the operations on a session are handled in order while
+ * different sessions are handled in parallel.
  *
  * @author Antonio La Marra, Alessandro Rosetti
  */
@@ -41,7 +49,7 @@ public class RequestManager extends AbstractRequestManager {
     private static final Logger log = Logger.getLogger( RequestManager.class.getName() );
     private boolean active = false;
 
-    private ExecutorService inquirers;
+    private final Map<LANE, RequestLane> lanes = new EnumMap<>( LANE.class );
 
     public RequestManager( RequestManagerProperties properties ) {
         super( properties );
@@ -50,20 +58,69 @@ public class RequestManager extends AbstractRequestManager {
     }
 
     /**
-     * Initialises the request manager with a pool of threads
+     * Initialises the request manager with a pool of threads for each lane.
+     * Every lane has a worker of its own, the rest of the workers are shared
+     * among the lanes by weight, hence the lanes start one worker each when
+     * fewer workers than lanes are configured
      *
      * @return true if everything goes fine, false in case of exceptions
     */
     private void initializeInquirers() {
         try {
-            inquirers = Executors.newFixedThreadPool( 1 );
+            int workers = properties.getWorkers();
+            if( workers < LANE.values().length ) {
+                log.warning( "The request manager starts one worker per lane, " + LANE.values().length
+                        + " workers instead of " + workers );
+            }
+            int[] laneWorkers = shareWorkers( Math.max( 0, workers - LANE.values().length ) );
+            for( LANE lane : LANE.values() ) {
+                lanes.put( lane, new RequestLane( lane, 1 + laneWorkers[lane.ordinal()], properties.getQueueCapacity(),
+                    properties.getPipeline() ) );
+            }
         } catch( Exception e ) {
             log.severe( "Error initialising the RequestManager inquirers : " + e.getMessage() );
         }
     }
 
+    /**
+     * Shares the workers among the lanes in proportion to their weights, the
+     * workers left by the rounding go to the lanes with the largest remainders
+     *
+     * @return the workers of each lane, indexed by lane ordinal
+     */
+    private int[] shareWorkers( int workers ) {
+        LANE[] laneValues = LANE.values();
+        int[] shares = new int[laneValues.length];
+        int totalWeight = 0;
+        for( LANE lane : laneValues ) {
+            totalWeight += Math.max( 0, properties.getLaneWeight( lane ) );
+        }
+        if( totalWeight == 0 ) {
+            return shares;
+        }
+        long[] remainders = new long[laneValues.length];
+        int left = workers;
+        for( LANE lane : laneValues ) {
+            long weighted = (long) workers * Math.max( 0, properties.getLaneWeight( lane ) );
+            shares[lane.ordinal()] = (int) ( weighted / totalWeight );
+            remainders[lane.ordinal()] = weighted % totalWeight;
+            left -= shares[lane.ordinal()];
+        }
+        for( ; left > 0; left-- ) {
+            int largest = 0;
+            for( int i = 1; i < remainders.length; i++ ) {
+                if( remainders[i] > remainders[largest] ) {
+                    largest = i;
+                }
+            }
+            shares[largest]++;
+            remainders[largest] = -1;
+        }
+        return shares;
+    }
+
     @Override
-    public synchronized void sendReevaluation( ReevaluationResponseMessage reevaluation ) {
+    public void sendReevaluation( ReevaluationResponseMessage reevaluation ) {
         Reject.ifNull( reevaluation, "Null message" );
         log.info( "Sending on going reevaluation." );
         getPEPMap().get( ( reevaluation ).getPepId() )
@@ -73,18 +130,25 @@ public class RequestManager extends AbstractRequestManager {
     /**
      * Handles the case of a message received from outside
      * Once a message coming from outside is received from the request manager, it
-     * puts it in the priority queue of messages
+     * puts it in the lane of the message. The requests of the PEPs are rejected
+     * if their lane stays full, the attribute changes wait for room since
+     * dropping them could leave sessions running that should be revoked.
+     *
+     * @throws OverloadException
+     *           if the lane of the request is full
      */
     @Override
-    public synchronized boolean sendMessage( Message message ) {
+    public boolean sendMessage( Message message ) {
         Reject.ifNull( message, "Null message" );
         try {
             if( !active ) {
                 handleMessage( message );
             } else {
-                getQueueOutput().put( message );
+                enqueue( lanes.get( getLane( message ) ), message );
             }
             return true;
+        } catch( OverloadException e ) {
+            throw e;
         } catch( Exception e ) {
             log.severe( e.getLocalizedMessage() );
             Thread.currentThread().interrupt();
@@ -92,27 +156,46 @@ public class RequestManager extends AbstractRequestManager {
         }
     }
 
-    /**
-     * The context handler inquirers perform an infinite loop in order to retrieve
-     * the messages coming to the request manager and sends them to the context handler.
-    */
-    private class ContextHandlerInquirer implements Callable<Message> {
-
-        @Override
-        public Message call() {
-            Message message;
-            try {
-                while( ( message = getQueueOutput().take() ) != null ) {
-                    handleMessage( message );
-                }
-            } catch( Exception e ) {
-                log.severe( e.getMessage() );
-                Thread.currentThread().interrupt();
-            }
-            return null;
+    private void enqueue( RequestLane lane, Message message ) throws InterruptedException {
+        if( message instanceof AttributeChangeMessage ) {
+            lane.put( message );
+        } else if( !lane.offer( message, properties.getEnqueueTimeout() ) ) {
+            log.warning( "Rejected message " + message.getMessageId() + ", the lane is full" );
+            throw new OverloadException( "The request manager is overloaded", getRetryAfter( lane ) );
         }
     }
 
+    /**
+     * Estimates when a rejected request may be sent again from how long the
+     * messages are currently waiting in its lane
+     *
+     * @return the delay in seconds, at least 1
+     */
+    private static long getRetryAfter( RequestLane lane ) {
+        long wait = Math.max( lane.getMetrics().getLastWait(), lane.getMetrics().getAverageWait() );
+        return Math.max( 1, TimeUnit.MICROSECONDS.toSeconds( wait + TimeUnit.SECONDS.toMicros( 1 ) - 1 ) );
+    }
+
+    private static LANE getLane( Message message ) {
+        return message instanceof AttributeChangeMessage ? LANE.ATTRIBUTE_CHANGE : LANE.ACCESS;
+    }
+
+    /**
+     * Retrieves the queue depth and the wait time of a lane
+     */
+    public LaneMetrics getLaneMetrics( LANE lane ) {
+        Reject.ifNull( lane );
+        return lanes.get( lane ).getMetrics();
+    }
+
+    /**
+     * Retrieves the number of workers of a lane
+     */
+    public int getLaneWorkers( LANE lane ) {
+        Reject.ifNull( lane );
+        return lanes.get( lane ).getWorkerCount();
+    }
+
     private void handleMessage( Message message ) throws Exception {
         Message responseMessage = null;
         if( message instanceof AttributeChangeMessage ) {
@@ -130,9 +213,24 @@ public class RequestManager extends AbstractRequestManager {
         getPEPMap().get( responseMessage.getDestination() ).receiveResponse( responseMessage );
     }
 
+    /**
+     * Starts the workers of the lanes, which perform an infinite loop in order
+     * to retrieve the messages coming to the request manager and send them to
+     * the context handler
+     */
     @Override
     public void startMonitoring() {
-        inquirers.submit( new ContextHandlerInquirer() );
+        for( RequestLane lane : lanes.values() ) {
+            lane.start( this::handleLaneMessage );
+        }
+    }
+
+    private void handleLaneMessage( Message message ) {
+        try {
+            handleMessage( message );
+        } catch( Exception e ) {
+            throw new IllegalStateException( e.getMessage(), e );
+        }
     }
 
 }
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.requestmanager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * A partition backed by a preallocated multi-producer ring buffer.
+ * Each slot carries a sequence telling whether it is free for the producer
+ * claiming that position or holds a message published for the worker: the
+ * producers claim their positions with a compare and set on the tail and the
+ * worker drains the published slots in batches, so no lock is taken and no
+ * node is allocated per message. The worker parks while the ring is empty and
+ * the producers wake it up, the producers facing a full ring back off for a
+ * while before trying again.
+ * The ring buffer is always bounded, its size is the capacity rounded up to a
+ * power of 2.
+ */
+final class RingBufferPartition implements MessagePartition {
+
+    static final int DEFAULT_SIZE = 4096;
+    static final int BATCH_SIZE = 64;
+
+    private static final long WORKER_PARK = TimeUnit.MILLISECONDS.toNanos( 1 );
+    private static final long PRODUCER_PARK = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+    private final Message[] messages;
+    private final long[] queued;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private volatile Thread waiting;
+
+    /**
+     * @param capacity
+     *          the number of messages the partition can hold, 0 for the
+     *          default size
+     */
+    RingBufferPartition( int capacity ) {
+        Reject.ifFalse( capacity >= 0 && capacity <= 1 << 30, "invalid ring buffer capacity" );
+        int size = capacity > 0 ? Math.max( 2, Integer.highestOneBit( capacity - 1 ) << 1 ) : DEFAULT_SIZE;
+        messages = new Message[size];
+        queued = new long[size];
+        sequences = new AtomicLongArray( size );
+        for( int i = 0; i < size; i++ ) {
+            sequences.set( i, i );
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public void put( Message message ) throws InterruptedException {
+        while( !publish( message ) ) {
+            backOff();
+        }
+    }
+
+    @Override
+    public boolean offer( Message message, long timeout ) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeout );
+        while( !publish( message ) ) {
+            if( System.nanoTime() - deadline >= 0 ) {
+                return false;
+            }
+            backOff();
+        }
+        return true;
+    }
+
+    private boolean publish( Message message ) {
+        Reject.ifNull( message );
+        long now = System.nanoTime();
+        while( true ) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long available = sequences.get( index ) - position;
+            if( available < 0 ) {
+                return false;
+            }
+            if( available == 0 && tail.compareAndSet( position, position + 1 ) ) {
+                messages[index] = message;
+                queued[index] = now;
+                sequences.set( index, position + 1 );
+                Thread worker = waiting;
+                if( worker != null ) {
+                    LockSupport.unpark( worker );
+                }
+                return true;
+            }
+        }
+    }
+
+    private static void backOff() throws InterruptedException {
+        LockSupport.parkNanos( PRODUCER_PARK );
+        if( Thread.interrupted() ) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public int drain( Handler handler ) throws InterruptedException {
+        int count;
+        while( ( count = drainPublished( handler ) ) == 0 ) {
+            waiting = Thread.currentThread();
+            if( isEmpty() ) {
+                LockSupport.parkNanos( this, WORKER_PARK );
+            }
+            waiting = null;
+            if( Thread.interrupted() ) {
+                throw new InterruptedException();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hands over the messages published after the head, up to a batch, each
+     * slot is freed before its message is handled
+     */
+    private int drainPublished( Handler handler ) {
+        long position = head;
+        int count = 0;
+        while( count < BATCH_SIZE ) {
+            int index = (int) position & mask;
+            if( sequences.get( index ) != position + 1 ) {
+                break;
+            }
+            Message message = messages[index];
+            long queuedAt = queued[index];
+            messages[index] = null;
+            sequences.set( index, position + mask + 1 );
+            head = ++position;
+            count++;
+            handler.handle( message, queuedAt );
+        }
+        return count;
+    }
+
+    private boolean isEmpty() {
+        long position = head;
+        return sequences.get( (int) position & mask ) != position + 1;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max( 0, Math.min( size, mask + 1L ) );
+    }
+
+}
@@ -0,0 +1,385 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.exceptions.PIPException;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
+import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
+import it.cnr.iit.ucs.properties.components.SessionManagerProperties;
+import it.cnr.iit.ucs.requestmanager.RequestManagerToCHInterface;
+import it.cnr.iit.ucs.sessionmanager.InMemorySessionManager;
+import it.cnr.iit.ucs.sessionmanager.SessionInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionManagerInterface;
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.DataType;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+public class AttributeChangeCoalescerTest {
+
+    private static final long WINDOW = 200;
+    private static final int SESSIONS = 10;
+
+    private final List<SessionInterface> sessions = new ArrayList<>();
+
+    @Test
+    public void testChangesMergedWithinWindow() throws InterruptedException {
+        BlockingQueue<AttributeChangeCoalescer.Batch> batches = new LinkedBlockingQueue<>();
+        AttributeChangeCoalescer coalescer = new AttributeChangeCoalescer( WINDOW, batches::add );
+        coalescer.add( Arrays.asList( attribute( "light", "1" ), attribute( "camera", "on" ) ) );
+        coalescer.add( Collections.singletonList( attribute( "light", "0" ) ) );
+        coalescer.add( Collections.singletonList( attribute( "light", "1" ) ) );
+
+        AttributeChangeCoalescer.Batch batch = batches.poll( 10, TimeUnit.SECONDS );
+        assertEquals( 2, batch.getAttributes().size() );
+        Attribute light = batch.getAttributes().iterator().next();
+        assertEquals( "1", light.getAttributeValues( DataType.STRING ).get( 0 ) );
+        assertEquals( 2, batch.getMerged( light ) );
+
+        // a change after the window opens the next one
+        coalescer.add( Collections.singletonList( attribute( "light", "0" ) ) );
+        batch = batches.poll( 10, TimeUnit.SECONDS );
+        assertEquals( 1, batch.getAttributes().size() );
+        assertEquals( 0, batch.getMerged( batch.getAttributes().iterator().next() ) );
+    }
+
+    @Test
+    public void testEachSessionReevaluatedOncePerWindow() throws InterruptedException {
+        PDPInterface pdp = permitPdp();
+        ContextHandler contextHandler = contextHandler( pdp );
+        contextHandler.attributeChanged( message( attribute( "light", "1" ) ) );
+        contextHandler.attributeChanged( message( attribute( "light", "0" ) ) );
+        contextHandler.attributeChanged( message( attribute( "light", "1" ), attribute( "camera", "on" ) ) );
+
+        ReevaluationMetrics metrics = contextHandler.getReevaluationMetrics();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while( metrics.getChanges() == 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, metrics.getChanges() );
+        assertEquals( SESSIONS, metrics.getReevaluatedSessions() );
+        assertEquals( 2, metrics.getCoalescedChanges() );
+        // two merged changes of light and the sessions selected again by camera
+        assertEquals( 3L * SESSIONS, metrics.getSavedEvaluations() );
+        Mockito.verify( pdp, Mockito.times( SESSIONS ) ).evaluate( ArgumentMatchers.<RequestWrapper>any(),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() );
+    }
+
+    @Test
+    public void testBatchFattenedFromSnapshot() throws PIPException {
+        PIPCHInterface light = pip( attribute( "light", "0" ) );
+        Attribute subjectRole = attribute( "role", "IIT" );
+        subjectRole.setCategory( Category.SUBJECT );
+        subjectRole.setAdditionalInformations( "alice" );
+        PIPCHInterface role = pip( subjectRole );
+        PDPInterface pdp = permitPdp();
+        ContextHandler contextHandler = contextHandler( pdp );
+        contextHandler.getPipRegistry().add( light );
+        contextHandler.getPipRegistry().add( role );
+
+        assertTrue( contextHandler.reevaluateSessions( attribute( "light", "1" ) ) );
+        assertEquals( SESSIONS, contextHandler.getReevaluationMetrics().getReevaluatedSessions() );
+        // the pushed value is not read again, the role of alice is read once for all the sessions
+        Mockito.verify( light, Mockito.never() ).retrieve( ArgumentMatchers.<Attribute>any() );
+        Mockito.verify( role, Mockito.times( 1 ) ).retrieve( ArgumentMatchers.<Attribute>any() );
+        Mockito.verify( role, Mockito.times( SESSIONS ) ).getRetrievalAttributes( ArgumentMatchers.any() );
+        // the sessions share the policy, the PDP evaluates them in a single batch
+        Mockito.verify( pdp ).evaluateBatch( ArgumentMatchers.argThat( requests -> requests.size() == SESSIONS ),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() );
+        // each session is started once, the policy is loaded once for the batch
+        Mockito.verify( contextHandler.getSessionManager(), Mockito.times( SESSIONS ) )
+            .startSession( ArgumentMatchers.any() );
+        long policyLoads = sessions.stream().flatMap( session -> Mockito.mockingDetails( session ).getInvocations().stream() )
+            .filter( invocation -> invocation.getMethod().getName().equals( "getPolicySet" ) ).count();
+        assertEquals( 1, policyLoads );
+    }
+
+    @Test
+    public void testPipNotListingAttributesRetrievesEachRequest() throws PIPException {
+        PIPCHInterface pip = pip( attribute( "light", "0" ) );
+        Mockito.when( pip.getRetrievalAttributes( ArgumentMatchers.any() ) ).thenReturn( null );
+        ContextHandler contextHandler = contextHandler( permitPdp() );
+        contextHandler.getPipRegistry().add( pip );
+
+        assertTrue( contextHandler.reevaluateSessions( attribute( "light", "1" ) ) );
+        assertEquals( SESSIONS, contextHandler.getReevaluationMetrics().getReevaluatedSessions() );
+        Mockito.verify( pip, Mockito.times( SESSIONS ) ).retrieve( ArgumentMatchers.<RequestType>any() );
+        Mockito.verify( pip, Mockito.never() ).retrieve( ArgumentMatchers.<Attribute>any() );
+    }
+
+    @Test
+    public void testReplayReadsNewerValue() throws PIPException {
+        String[] light = { "on" };
+        PIPCHInterface pip = pip( attribute( "light", "on" ) );
+        Mockito.when( pip.retrieve( ArgumentMatchers.<Attribute>any() ) ).thenAnswer( invocation -> light[0] );
+        Mockito.doAnswer( invocation -> {
+            RequestType requestType = invocation.getArgument( 0 );
+            requestType.addAttribute( attribute( "light", light[0] ), light[0] );
+            return null;
+        } ).when( pip ).retrieve( ArgumentMatchers.<RequestType>any() );
+
+        PDPEvaluation permit = evaluation( DecisionType.PERMIT );
+        PDPEvaluation deny = evaluation( DecisionType.DENY );
+        PDPInterface pdp = permitPdp();
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                RequestWrapper request = invocation.getArgument( 0 );
+                String value = request.getRequestType().getAttribute( "environment", "light" );
+                // the light is switched off while the batch is evaluated
+                light[0] = "off";
+                return "off".equals( value ) ? deny : permit;
+            } );
+        ContextHandler contextHandler = contextHandler( pdp );
+        contextHandler.getPipRegistry().add( pip );
+        // the change is absorbed by every session under reevaluation
+        Set<String> stopped = ConcurrentHashMap.newKeySet();
+        SessionManagerInterface sessionManager = contextHandler.getSessionManager();
+        Mockito.when( sessionManager.stopSession( ArgumentMatchers.any() ) )
+            .thenAnswer( invocation -> !stopped.add( ( (SessionInterface) invocation.getArgument( 0 ) ).getId() ) );
+
+        assertTrue( contextHandler.reevaluateSessions( attribute( "light", "on" ) ) );
+        assertEquals( 2L * SESSIONS, contextHandler.getReevaluationMetrics().getReevaluatedSessions() );
+        assertEquals( SESSIONS, contextHandler.getReevaluationMetrics().getRevokedSessions() );
+    }
+
+    @Test
+    public void testChangeWhileQueuedReplaysSession() throws PIPException {
+        String[] light = { "on" };
+        PIPCHInterface pip = pip( attribute( "light", "on" ) );
+        Mockito.when( pip.retrieve( ArgumentMatchers.<Attribute>any() ) ).thenAnswer( invocation -> light[0] );
+        Mockito.doAnswer( invocation -> {
+            RequestType requestType = invocation.getArgument( 0 );
+            requestType.addAttribute( attribute( "light", light[0] ), light[0] );
+            return null;
+        } ).when( pip ).retrieve( ArgumentMatchers.<RequestType>any() );
+
+        PDPEvaluation permit = evaluation( DecisionType.PERMIT );
+        PDPEvaluation deny = evaluation( DecisionType.DENY );
+        PDPInterface pdp = permitPdp();
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                RequestWrapper request = invocation.getArgument( 0 );
+                return "off".equals( request.getRequestType().getAttribute( "environment", "light" ) ) ? deny : permit;
+            } );
+        ContextHandler contextHandler = contextHandler( pdp );
+        contextHandler.getPipRegistry().add( pip );
+        // the reevaluation table of a real session manager, the light is
+        // switched off while the sessions are still queued for the first change
+        SessionManagerInterface table = new InMemorySessionManager( Mockito.mock( SessionManagerProperties.class ) );
+        SessionManagerInterface sessionManager = contextHandler.getSessionManager();
+        Mockito.when( sessionManager.insertSession( ArgumentMatchers.any(), ArgumentMatchers.any() ) )
+            .thenAnswer( invocation -> {
+                SessionInterface session = invocation.getArgument( 0 );
+                boolean inserted = table.insertSession( session, invocation.getArgument( 1 ) );
+                light[0] = "off";
+                table.insertSession( session, attribute( "light", "off" ) );
+                return inserted;
+            } );
+        Mockito.when( sessionManager.startSession( ArgumentMatchers.any() ) )
+            .thenAnswer( invocation -> table.startSession( invocation.getArgument( 0 ) ) );
+        Mockito.when( sessionManager.stopSession( ArgumentMatchers.any() ) )
+            .thenAnswer( invocation -> table.stopSession( invocation.getArgument( 0 ) ) );
+
+        assertTrue( contextHandler.reevaluateSessions( attribute( "light", "on" ) ) );
+        assertEquals( 2L * SESSIONS, contextHandler.getReevaluationMetrics().getReevaluatedSessions() );
+        assertEquals( SESSIONS, contextHandler.getReevaluationMetrics().getRevokedSessions() );
+    }
+
+    @Test
+    public void testSessionEndedWhileBatchEvaluated() throws Exception {
+        PDPEvaluation deny = evaluation( DecisionType.DENY );
+        PDPInterface pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenReturn( deny );
+        ContextHandler contextHandler = contextHandler( pdp );
+        Mockito.when( contextHandler.getSessionManager().deleteEntry( ArgumentMatchers.anyString() ) )
+            .thenAnswer( invocation -> sessions.removeIf( session -> session.getId().equals( invocation.getArgument( 0 ) ) ) );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the batch does not hold the locks of its sessions, one of them ends meanwhile
+            Mockito.when( pdp.evaluateBatch( ArgumentMatchers.<List<RequestWrapper>>any(),
+                ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                    EndAccessMessage message = new EndAccessMessage( "pep", "ch" );
+                    message.setSessionId( "session0" );
+                    executor.submit( () -> contextHandler.endAccess( message ) ).get( 5, TimeUnit.SECONDS );
+                    List<RequestWrapper> requests = invocation.getArgument( 0 );
+                    return Collections.nCopies( requests.size(), deny );
+                } );
+
+            assertTrue( contextHandler.reevaluateSessions( attribute( "light", "1" ) ) );
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals( SESSIONS - 1L, contextHandler.getReevaluationMetrics().getRevokedSessions() );
+        Mockito.verify( contextHandler.getSessionManager(), Mockito.never() ).updateEntry( "session0",
+            STATUS.REVOKE.name() );
+    }
+
+    private static PIPCHInterface pip( Attribute attribute ) throws PIPException {
+        PIPCHInterface pip = Mockito.mock( PIPCHInterface.class );
+        Mockito.when( pip.getAttributeIds() ).thenReturn( Collections.singletonList( attribute.getAttributeId() ) );
+        Mockito.when( pip.getRetrievalAttributes( ArgumentMatchers.any() ) )
+            .thenReturn( Collections.singletonList( attribute ) );
+        Mockito.when( pip.retrieve( ArgumentMatchers.<Attribute>any() ) )
+            .thenReturn( attribute.getAttributeValues( DataType.STRING ).get( 0 ) );
+        return pip;
+    }
+
+    private ContextHandler contextHandler( PDPInterface pdp ) {
+        String policy = FileUtility.readFileAsString( "../res/xmls/policy_1.xml" );
+        String request = FileUtility.readFileAsString( "../res/xmls/request.xml" );
+        for( int i = 0; i < SESSIONS; i++ ) {
+            SessionInterface session = Mockito.mock( SessionInterface.class );
+            Mockito.when( session.getId() ).thenReturn( "session" + i );
+            Mockito.when( session.getPolicySet() ).thenReturn( policy );
+            Mockito.when( session.getPolicyKey() ).thenReturn( "policy_1" );
+            Mockito.when( session.getOriginalRequest() ).thenReturn( request );
+            Mockito.when( session.isStatus( STATUS.START.name() ) ).thenReturn( true );
+            Mockito.when( session.getPepId() ).thenReturn( "1" );
+            sessions.add( session );
+        }
+        // every attribute selects all the sessions in a single page
+        SessionManagerInterface sessionManager = Mockito.mock( SessionManagerInterface.class );
+        Mockito.when( sessionManager.getSessionsPage( ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyInt() ) )
+            .thenAnswer( invocation -> invocation.getArgument( 1 ) == null ? new ArrayList<>( sessions ) : new ArrayList<>() );
+        Mockito.when( sessionManager.getSessionForId( ArgumentMatchers.any() ) ).thenAnswer( invocation -> sessions
+            .stream().filter( session -> session.getId().equals( invocation.getArgument( 0 ) ) ).findFirst() );
+        Mockito.when( sessionManager.insertSession( ArgumentMatchers.any(), ArgumentMatchers.any() ) ).thenReturn( true );
+        Mockito.when( sessionManager.stopSession( ArgumentMatchers.any() ) ).thenReturn( true );
+
+        ContextHandler contextHandler = new ContextHandler( properties() );
+        contextHandler.setPdp( pdp );
+        contextHandler.setSessionManager( sessionManager );
+        contextHandler.setObligationManager( Mockito.mock( ObligationManagerInterface.class ) );
+        contextHandler.setRequestManager( Mockito.mock( RequestManagerToCHInterface.class ) );
+        return contextHandler;
+    }
+
+    private static PDPEvaluation evaluation( DecisionType decision ) {
+        PDPEvaluation evaluation = Mockito.mock( PDPEvaluation.class );
+        Mockito.when( evaluation.getResult() ).thenReturn( decision.value() );
+        Mockito.when( evaluation.isDecision( decision ) ).thenReturn( true );
+        return evaluation;
+    }
+
+    private static PDPInterface permitPdp() {
+        PDPEvaluation evaluation = evaluation( DecisionType.PERMIT );
+        PDPInterface pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenReturn( evaluation );
+        // the batch is evaluated request by request, as the PDP does
+        Mockito.when( pdp.evaluateBatch( ArgumentMatchers.<List<RequestWrapper>>any(),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                List<RequestWrapper> requests = invocation.getArgument( 0 );
+                List<PDPEvaluation> evaluations = new ArrayList<>();
+                for( RequestWrapper request : requests ) {
+                    evaluations.add( pdp.evaluate( request, invocation.getArgument( 1 ), invocation.getArgument( 2 ) ) );
+                }
+                return evaluations;
+            } );
+        return pdp;
+    }
+
+    private static AttributeChangeMessage message( Attribute... attributes ) {
+        return new AttributeChangeMessage( "pip", "ch", new ArrayList<>( Arrays.asList( attributes ) ) );
+    }
+
+    private static Attribute attribute( String attributeId, String value ) {
+        Attribute attribute = new Attribute();
+        attribute.setCategory( Category.ENVIRONMENT );
+        attribute.setAttributeId( attributeId );
+        attribute.setDataType( DataType.STRING );
+        attribute.setAttributeValues( DataType.STRING, value );
+        return attribute;
+    }
+
+    private static ContextHandlerProperties properties() {
+        return new ContextHandlerProperties() {
+
+            @Override
+            public String getName() {
+                return "ContextHandler";
+            }
+
+            @Override
+            public String getUri() {
+                return "http://localhost:9998";
+            }
+
+            @Override
+            public String getId() {
+                return "1";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public long getSessionTtl( STATUS status ) {
+                return 0;
+            }
+
+            @Override
+            public long getSessionExpiryTick() {
+                return 1000;
+            }
+
+            @Override
+            public int getReevaluationThreads() {
+                return 1;
+            }
+
+            @Override
+            public long getAttributeChangeWindow() {
+                return WINDOW;
+            }
+
+            @Override
+            public long getDecisionCacheTtl() {
+                return 0;
+            }
+
+            @Override
+            public int getDecisionCacheSize() {
+                return 0;
+            }
+
+            @Override
+            public boolean isDecisionCacheObligations() {
+                return false;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,231 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
+import it.cnr.iit.ucs.requestmanager.RequestManagerToCHInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionManagerInterface;
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+
+/**
+ * Contention benchmark of the reevaluations: several threads reevaluate
+ * either distinct sessions, which must proceed in parallel, or the same
+ * session, which must be reevaluated by one thread at a time. The PDP takes
+ * a fixed time, as a policy whose attributes are fetched remotely does.
+ * The fan-out of an attribute change revoking many sessions is measured with
+ * and without the reevaluation threads of the context handler.
+ */
+public class ContextHandlerContentionTest {
+
+    private static final Logger log = Logger.getLogger( ContextHandlerContentionTest.class.getName() );
+
+    private static final long EVALUATION_MILLIS = 5;
+    private static final int THREADS = 8;
+    private static final int REEVALUATIONS = 160;
+    private static final int SELECTED_SESSIONS = 160;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private String policy;
+    private String request;
+    private ContextHandler contextHandler;
+
+    @Before
+    public void init() {
+        policy = FileUtility.readFileAsString( "../res/xmls/policy_1.xml" );
+        request = FileUtility.readFileAsString( "../res/xmls/request.xml" );
+        contextHandler = contextHandler( 1, DecisionType.PERMIT, Mockito.mock( SessionManagerInterface.class ) );
+    }
+
+    private ContextHandler contextHandler( int reevaluationThreads, DecisionType decision,
+            SessionManagerInterface sessionManager ) {
+        ContextHandler handler = new ContextHandler( properties( reevaluationThreads ) );
+        handler.setPdp( slowPdp( decision ) );
+        handler.setSessionManager( sessionManager );
+        handler.setObligationManager( Mockito.mock( ObligationManagerInterface.class ) );
+        handler.setRequestManager( Mockito.mock( RequestManagerToCHInterface.class ) );
+        return handler;
+    }
+
+    @Test
+    public void testDistinctSessionsScale() throws Exception {
+        double single = throughput( 1, false );
+        double concurrent = throughput( THREADS, false );
+        log.info( String.format( "distinct sessions: %.1f reevaluations/s with 1 thread, %.1f with %d threads, "
+                + "%d evaluations at once",
+            single, concurrent, THREADS, maxRunning.get() ) );
+        assertTrue( "reevaluations of distinct sessions do not scale", concurrent > 3 * single );
+    }
+
+    @Test
+    public void testSameSessionIsSerialized() throws Exception {
+        double concurrent = throughput( THREADS, true );
+        log.info( String.format( "same session: %.1f reevaluations/s with %d threads", concurrent, THREADS ) );
+        assertEquals( 1, maxRunning.get() );
+    }
+
+    @Test
+    public void testFanOutRevokesFaster() {
+        ReevaluationMetrics sequential = fanOut( 1 );
+        ReevaluationMetrics parallel = fanOut( THREADS );
+        log.info( String.format( "fan-out of %d sessions: last revoke after %d ms sequentially, %d ms with %d threads",
+            SELECTED_SESSIONS, sequential.getLastTimeToLastRevoke(), parallel.getLastTimeToLastRevoke(), THREADS ) );
+        assertEquals( SELECTED_SESSIONS, parallel.getReevaluatedSessions() );
+        assertEquals( SELECTED_SESSIONS, parallel.getRevokedSessions() );
+        assertTrue( "the fan-out does not revoke faster",
+            parallel.getLastTimeToLastRevoke() * 2 < sequential.getLastTimeToLastRevoke() );
+    }
+
+    private ReevaluationMetrics fanOut( int threads ) {
+        List<SessionInterface> sessions = new ArrayList<>();
+        for( int i = 0; i < SELECTED_SESSIONS; i++ ) {
+            sessions.add( session( "session" + i ) );
+        }
+        SessionManagerInterface sessionManager = Mockito.mock( SessionManagerInterface.class );
+        Mockito.when( sessionManager.getSessionsPage( ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyInt() ) )
+            .thenReturn( sessions, new ArrayList<>() );
+        Mockito.when( sessionManager.insertSession( ArgumentMatchers.any(), ArgumentMatchers.any() ) ).thenReturn( true );
+        Mockito.when( sessionManager.stopSession( ArgumentMatchers.any() ) ).thenReturn( true );
+
+        ContextHandler handler = contextHandler( threads, DecisionType.DENY, sessionManager );
+        Attribute attribute = new Attribute();
+        attribute.setCategory( Category.ENVIRONMENT );
+        attribute.setAttributeId( "urn:oasis:names:tc:xacml:3.0:environment:light" );
+        assertTrue( handler.reevaluateSessions( attribute ) );
+        return handler.getReevaluationMetrics();
+    }
+
+    private double throughput( int threads, boolean sameSession ) throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for( int i = 0; i < REEVALUATIONS; i++ ) {
+            SessionInterface session = session( sameSession ? "session" : "session" + i );
+            tasks.add( () -> {
+                contextHandler.reevaluate( session );
+                return null;
+            } );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            long start = System.nanoTime();
+            for( Future<Void> future : executor.invokeAll( tasks ) ) {
+                future.get();
+            }
+            return REEVALUATIONS / ( ( System.nanoTime() - start ) / 1e9 );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private PDPInterface slowPdp( DecisionType decision ) {
+        PDPEvaluation evaluation = Mockito.mock( PDPEvaluation.class );
+        Mockito.when( evaluation.getResult() ).thenReturn( decision.value() );
+        Mockito.when( evaluation.isDecision( decision ) ).thenReturn( true );
+        PDPInterface pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+                Thread.sleep( EVALUATION_MILLIS );
+                running.decrementAndGet();
+                return evaluation;
+            } );
+        return pdp;
+    }
+
+    private SessionInterface session( String sessionId ) {
+        SessionInterface session = Mockito.mock( SessionInterface.class );
+        Mockito.when( session.getId() ).thenReturn( sessionId );
+        Mockito.when( session.getPolicySet() ).thenReturn( policy );
+        Mockito.when( session.getOriginalRequest() ).thenReturn( request );
+        Mockito.when( session.isStatus( STATUS.START.name() ) ).thenReturn( true );
+        Mockito.when( session.getPepId() ).thenReturn( "1" );
+        return session;
+    }
+
+    private static ContextHandlerProperties properties( int reevaluationThreads ) {
+        return new ContextHandlerProperties() {
+
+            @Override
+            public String getName() {
+                return "ContextHandler";
+            }
+
+            @Override
+            public String getUri() {
+                return "http://localhost:9998";
+            }
+
+            @Override
+            public String getId() {
+                return "1";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public long getSessionTtl( STATUS status ) {
+                return 0;
+            }
+
+            @Override
+            public long getSessionExpiryTick() {
+                return 1000;
+            }
+
+            @Override
+            public int getReevaluationThreads() {
+                return reevaluationThreads;
+            }
+
+            @Override
+            public long getAttributeChangeWindow() {
+                return 0;
+            }
+
+            @Override
+            public long getDecisionCacheTtl() {
+                return 0;
+            }
+
+            @Override
+            public int getDecisionCacheSize() {
+                return 0;
+            }
+
+            @Override
+            public boolean isDecisionCacheObligations() {
+                return false;
+            }
+        };
+    }
+
+}
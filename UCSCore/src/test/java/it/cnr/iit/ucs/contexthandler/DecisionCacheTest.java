@@ -0,0 +1,158 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+
+/**
+ * Identical requests against the same policy and status are evaluated once
+ * within the time to live, the decisions are dropped when an attribute they
+ * were taken on changes.
+ */
+public class DecisionCacheTest {
+
+    private static final long TTL = 1000;
+    private static final String ROLE = "urn:oasis:names:tc:xacml:1.0:subject:role";
+    private static final String SUBJECT = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+    private static final String STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    private final long[] now = { 0 };
+    private final ArrayList<String> obligations = new ArrayList<>();
+    private PDPInterface pdp;
+    private String request;
+    private PolicyWrapper policy;
+
+    @Before
+    public void init() throws Exception {
+        PDPEvaluation evaluation = Mockito.mock( PDPEvaluation.class );
+        Mockito.when( evaluation.isDecision( DecisionType.PERMIT ) ).thenReturn( true );
+        Mockito.when( evaluation.getObligations() ).thenReturn( obligations );
+        pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenReturn( evaluation );
+        Mockito.when( pdp.evaluateBatch( ArgumentMatchers.<List<RequestWrapper>>any(),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                List<RequestWrapper> requests = invocation.getArgument( 0 );
+                return requests.stream().map( requestWrapper -> evaluation ).collect( Collectors.toList() );
+            } );
+        request = FileUtility.readFileAsString( "../res/xmls/request.xml" );
+        policy = PolicyWrapper.build( FileUtility.readFileAsString( "../res/xmls/policy_1.xml" ) );
+    }
+
+    @Test
+    public void testIdenticalRequestsEvaluatedOnce() throws Exception {
+        DecisionCache cache = cache( 16, false );
+        PDPEvaluation first = cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        assertSame( first, cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY ) );
+        assertEquals( 1, cache.getHits() );
+
+        // another status or another value of an attribute is evaluated again
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.START );
+        cache.evaluate( fattened( "CNR" ), policy, STATUS.TRY );
+        assertEquals( 3, cache.getMisses() );
+        verifyEvaluations( 3 );
+
+        now[0] += TTL;
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        verifyEvaluations( 4 );
+    }
+
+    @Test
+    public void testChangedAttributeInvalidates() throws Exception {
+        DecisionCache cache = cache( 16, false );
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.START );
+        cache.evaluate( fattened( "CNR" ), policy, STATUS.START );
+        cache.evaluate( RequestWrapper.build( request ), policy, STATUS.START );
+
+        Attribute role = new Attribute();
+        role.setAttributeId( ROLE );
+        cache.invalidate( Collections.singletonList( role ) );
+        assertEquals( 2, cache.getInvalidations() );
+        assertEquals( 1, cache.size() );
+
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.START );
+        cache.evaluate( RequestWrapper.build( request ), policy, STATUS.START );
+        verifyEvaluations( 4 );
+    }
+
+    @Test
+    public void testObligationsCachedOnlyIfAllowed() throws Exception {
+        obligations.add( "notify" );
+        DecisionCache cache = cache( 16, false );
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        verifyEvaluations( 2 );
+
+        cache = cache( 16, true );
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        cache.evaluate( fattened( "IIT" ), policy, STATUS.TRY );
+        verifyEvaluations( 3 );
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        DecisionCache cache = cache( 2, false );
+        cache.evaluate( fattened( "a" ), policy, STATUS.TRY );
+        cache.evaluate( fattened( "b" ), policy, STATUS.TRY );
+        cache.evaluate( fattened( "c" ), policy, STATUS.TRY );
+        assertEquals( 2, cache.size() );
+        cache.evaluate( fattened( "a" ), policy, STATUS.TRY );
+        verifyEvaluations( 4 );
+    }
+
+    @Test
+    public void testBatchForwardsMisses() throws Exception {
+        DecisionCache cache = cache( 16, false );
+        PDPEvaluation first = cache.evaluate( fattened( "IIT" ), policy, STATUS.START );
+        List<PDPEvaluation> evaluations = cache.evaluateBatch(
+            Arrays.asList( fattened( "CNR" ), fattened( "IIT" ), fattened( "UNIPI" ) ), policy, STATUS.START );
+        assertEquals( 3, evaluations.size() );
+        assertSame( first, evaluations.get( 1 ) );
+        assertEquals( 1, cache.getHits() );
+
+        // only the misses are forwarded to the PDP
+        Mockito.verify( pdp ).evaluateBatch( ArgumentMatchers.argThat( requests -> requests.size() == 2 ),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() );
+
+        // the decisions of the batch are cached as well
+        cache.evaluateBatch( Arrays.asList( fattened( "CNR" ), fattened( "UNIPI" ) ), policy, STATUS.START );
+        assertEquals( 3, cache.getHits() );
+        verifyEvaluations( 1 );
+    }
+
+    private DecisionCache cache( int maxSize, boolean cacheObligations ) {
+        return new DecisionCache( pdp, TTL, maxSize, cacheObligations, () -> now[0] );
+    }
+
+    private RequestWrapper fattened( String role ) throws Exception {
+        RequestWrapper requestWrapper = RequestWrapper.build( request );
+        requestWrapper.getRequestType().addAttribute( SUBJECT, STRING, ROLE, role );
+        return requestWrapper;
+    }
+
+    private void verifyEvaluations( int evaluations ) {
+        Mockito.verify( pdp, Mockito.times( evaluations ) ).evaluate( ArgumentMatchers.<RequestWrapper>any(),
+            ArgumentMatchers.<PolicyWrapper>any(), ArgumentMatchers.<STATUS>any() );
+    }
+
+}
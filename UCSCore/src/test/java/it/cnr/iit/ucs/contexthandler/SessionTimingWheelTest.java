@@ -0,0 +1,60 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.constants.STATUS;
+
+public class SessionTimingWheelTest {
+
+    private static final long TICK = 100;
+
+    @Test
+    public void testExpiresAfterTtl() {
+        SessionTimingWheel wheel = new SessionTimingWheel( TICK, 0, 8 );
+        wheel.schedule( "try", STATUS.TRY, 250, 0 );
+        wheel.schedule( "revoke", STATUS.REVOKE, 1000, 0 );
+
+        assertTrue( wheel.advance( 299 ).isEmpty() );
+        Map<String, STATUS> expired = wheel.advance( 300 );
+        assertEquals( 1, expired.size() );
+        assertEquals( STATUS.TRY, expired.get( "try" ) );
+
+        // the revoke deadline is more than a turn of the wheel away
+        assertTrue( wheel.advance( 999 ).isEmpty() );
+        assertEquals( STATUS.REVOKE, wheel.advance( 1000 ).get( "revoke" ) );
+        assertEquals( 0, wheel.size() );
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        SessionTimingWheel wheel = new SessionTimingWheel( TICK, 0, 8 );
+        wheel.schedule( "s1", STATUS.TRY, 200, 0 );
+        wheel.schedule( "s2", STATUS.TRY, 200, 0 );
+        wheel.schedule( "s1", STATUS.START, 500, 100 );
+        assertTrue( wheel.cancel( "s2" ) );
+        assertFalse( wheel.cancel( "s2" ) );
+        assertTrue( wheel.isScheduled( "s1" ) );
+        assertFalse( wheel.isScheduled( "s2" ) );
+
+        assertTrue( wheel.advance( 500 ).isEmpty() );
+        assertEquals( STATUS.START, wheel.advance( 600 ).get( "s1" ) );
+        assertFalse( wheel.isScheduled( "s1" ) );
+    }
+
+    @Test
+    public void testLateAdvanceExpiresEverything() {
+        SessionTimingWheel wheel = new SessionTimingWheel( TICK, 0, 8 );
+        for( int i = 0; i < 100; i++ ) {
+            wheel.schedule( "s" + i, STATUS.TRY, 100 + i * 10L, 0 );
+        }
+        assertEquals( 100, wheel.advance( 10_000 ).size() );
+        assertEquals( 0, wheel.size() );
+    }
+
+}
@@ -0,0 +1,251 @@
+package it.cnr.iit.ucs.contexthandler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import it.cnr.iit.ucs.constants.STATUS;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
+import it.cnr.iit.ucs.pdp.PDPEvaluation;
+import it.cnr.iit.ucs.pdp.PDPInterface;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
+import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
+import it.cnr.iit.ucs.requestmanager.RequestManagerToCHInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionCursor;
+import it.cnr.iit.ucs.sessionmanager.SessionInterface;
+import it.cnr.iit.ucs.sessionmanager.SessionManagerInterface;
+import it.cnr.iit.utility.FileUtility;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.DataType;
+import it.cnr.iit.xacml.wrappers.PolicyWrapper;
+import it.cnr.iit.xacml.wrappers.RequestWrapper;
+
+import oasis.names.tc.xacml.core.schema.wd_17.DecisionType;
+
+/**
+ * Sessions monitoring the same attribute share its subscription: the PIP
+ * is contacted only by the first session starting and the last one ending,
+ * and ending a session does not query the session manager.
+ */
+public class SubscriptionCountTest {
+
+    private static final long EXPIRY_TICK = 50;
+
+    private final Map<String, String> statuses = new HashMap<>();
+    private final Attribute role = new Attribute();
+    private PIPCHInterface pip;
+    private SessionManagerInterface sessionManager;
+    private ContextHandler contextHandler;
+
+    @Before
+    public void init() throws Exception {
+        role.setAttributeId( "urn:oasis:names:tc:xacml:1.0:subject:role" );
+        role.setCategory( Category.SUBJECT );
+        role.setDataType( DataType.STRING );
+        role.setAdditionalInformations( "alice" );
+        pip = Mockito.mock( PIPCHInterface.class );
+        Mockito.when( pip.getAttributeIds() ).thenReturn( Collections.singletonList( role.getAttributeId() ) );
+        Mockito.when( pip.getRetrievalAttributes( ArgumentMatchers.any() ) ).thenReturn( Collections.singletonList( role ) );
+        Mockito.when( pip.subscribe( ArgumentMatchers.<Attribute>any() ) ).thenReturn( "IIT" );
+        Mockito.when( pip.retrieve( ArgumentMatchers.<Attribute>any() ) ).thenReturn( "IIT" );
+
+        String policy = FileUtility.readFileAsString( "../res/xmls/policy_1.xml" );
+        String request = FileUtility.readFileAsString( "../res/xmls/request.xml" );
+        sessionManager = Mockito.mock( SessionManagerInterface.class );
+        Mockito.when( sessionManager.getSessionForId( ArgumentMatchers.anyString() ) ).thenAnswer( invocation -> {
+            String sessionId = invocation.getArgument( 0 );
+            SessionInterface session = Mockito.mock( SessionInterface.class );
+            Mockito.when( session.getId() ).thenReturn( sessionId );
+            Mockito.when( session.getPolicySet() ).thenReturn( policy );
+            Mockito.when( session.getOriginalRequest() ).thenReturn( request );
+            Mockito.when( session.isStatus( ArgumentMatchers.anyString() ) )
+                .thenAnswer( status -> status.getArgument( 0 ).equals( statuses.get( sessionId ) ) );
+            return Optional.of( session );
+        } );
+        Mockito.when( sessionManager.updateEntry( ArgumentMatchers.anyString(), ArgumentMatchers.anyString() ) )
+            .thenAnswer( invocation -> statuses.put( invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) != null );
+        Mockito.when( sessionManager.deleteEntry( ArgumentMatchers.anyString() ) ).thenReturn( true );
+
+        contextHandler = new ContextHandler( properties( 0 ) );
+        contextHandler.setPdp( permitPdp() );
+        contextHandler.setSessionManager( sessionManager );
+        contextHandler.setObligationManager( Mockito.mock( ObligationManagerInterface.class ) );
+        contextHandler.setRequestManager( Mockito.mock( RequestManagerToCHInterface.class ) );
+        contextHandler.getPipRegistry().add( pip );
+    }
+
+    @Test
+    public void testSubscriptionSharedBySessions() throws Exception {
+        start( "s1" );
+        start( "s2" );
+        start( "s3" );
+        assertEquals( 3, contextHandler.getPipRegistry().getSubscriptionCount( role ) );
+        Mockito.verify( pip, Mockito.times( 1 ) ).subscribe( ArgumentMatchers.<Attribute>any() );
+
+        end( "s1" );
+        end( "s2" );
+        assertEquals( 1, contextHandler.getPipRegistry().getSubscriptionCount( role ) );
+        Mockito.verify( pip, Mockito.never() ).unsubscribe( ArgumentMatchers.any() );
+
+        end( "s3" );
+        assertEquals( 0, contextHandler.getPipRegistry().getSubscriptionCount( role ) );
+        Mockito.verify( pip, Mockito.times( 1 ) ).unsubscribe( Collections.singletonList( role ) );
+        Mockito.verify( sessionManager, Mockito.never() ).countSessions( ArgumentMatchers.any() );
+        Mockito.verify( sessionManager, Mockito.never() ).getOnGoingAttributes( ArgumentMatchers.anyString() );
+
+        // a session starting afterwards subscribes the attribute again
+        start( "s4" );
+        Mockito.verify( pip, Mockito.times( 2 ) ).subscribe( ArgumentMatchers.<Attribute>any() );
+    }
+
+    @Test
+    public void testSubscriptionReadsAttributeOnce() throws Exception {
+        // the value returned by the subscription is used even when the PIP has none
+        Mockito.when( pip.subscribe( ArgumentMatchers.<Attribute>any() ) ).thenReturn( null );
+        start( "s1" );
+        Mockito.verify( pip, Mockito.times( 1 ) ).subscribe( ArgumentMatchers.<Attribute>any() );
+        Mockito.verify( pip, Mockito.never() ).retrieve( ArgumentMatchers.<Attribute>any() );
+
+        start( "s2" );
+        assertEquals( 2, contextHandler.getPipRegistry().getSubscriptionCount( role ) );
+        Mockito.verify( pip, Mockito.times( 1 ) ).subscribe( ArgumentMatchers.<Attribute>any() );
+        Mockito.verify( pip, Mockito.times( 1 ) ).retrieve( ArgumentMatchers.<Attribute>any() );
+    }
+
+    @Test
+    public void testStartingSessionDoesNotExpire() throws Exception {
+        // the session expires while its start is evaluated, after it subscribed its attributes
+        PDPEvaluation permit = permit();
+        PDPInterface pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenAnswer( invocation -> {
+                Thread.sleep( 10 * EXPIRY_TICK );
+                return permit;
+            } );
+        statuses.put( "s1", STATUS.TRY.name() );
+        Iterator<SessionInterface> tried = Collections.singletonList( sessionManager.getSessionForId( "s1" ).get() )
+            .iterator();
+        SessionCursor cursor = Mockito.mock( SessionCursor.class );
+        Mockito.when( cursor.hasNext() ).thenAnswer( invocation -> tried.hasNext() );
+        Mockito.when( cursor.next() ).thenAnswer( invocation -> tried.next() );
+        Mockito.when( sessionManager.streamSessions( ArgumentMatchers.any() ) ).thenReturn( cursor );
+
+        contextHandler = new ContextHandler( properties( 2 * EXPIRY_TICK ) );
+        contextHandler.setPdp( pdp );
+        contextHandler.setObligationManager( Mockito.mock( ObligationManagerInterface.class ) );
+        contextHandler.setRequestManager( Mockito.mock( RequestManagerToCHInterface.class ) );
+        contextHandler.getPipRegistry().add( pip );
+        contextHandler.setSessionManager( sessionManager );
+        start( "s1" );
+        Thread.sleep( 5 * EXPIRY_TICK );
+
+        assertEquals( STATUS.START.name(), statuses.get( "s1" ) );
+        assertEquals( 1, contextHandler.getPipRegistry().getSubscriptionCount( role ) );
+        Mockito.verify( sessionManager, Mockito.never() ).deleteEntries( ArgumentMatchers.any() );
+    }
+
+    private void start( String sessionId ) throws Exception {
+        statuses.put( sessionId, STATUS.TRY.name() );
+        StartAccessMessage message = new StartAccessMessage( "pep", "ch" );
+        message.setSessionId( sessionId );
+        contextHandler.startAccess( message );
+    }
+
+    private void end( String sessionId ) throws Exception {
+        EndAccessMessage message = new EndAccessMessage( "pep", "ch" );
+        message.setSessionId( sessionId );
+        contextHandler.endAccess( message );
+    }
+
+    private static PDPEvaluation permit() {
+        PDPEvaluation evaluation = Mockito.mock( PDPEvaluation.class );
+        Mockito.when( evaluation.getResult() ).thenReturn( DecisionType.PERMIT.value() );
+        Mockito.when( evaluation.isDecision( DecisionType.PERMIT ) ).thenReturn( true );
+        return evaluation;
+    }
+
+    private static PDPInterface permitPdp() {
+        PDPEvaluation evaluation = permit();
+        PDPInterface pdp = Mockito.mock( PDPInterface.class );
+        Mockito.when( pdp.evaluate( ArgumentMatchers.<RequestWrapper>any(), ArgumentMatchers.<PolicyWrapper>any(),
+            ArgumentMatchers.<STATUS>any() ) ).thenReturn( evaluation );
+        return pdp;
+    }
+
+    /**
+     * @param tryTtl
+     *          the time to live of the sessions in TRY, 0 to never expire them
+     */
+    private static ContextHandlerProperties properties( long tryTtl ) {
+        return new ContextHandlerProperties() {
+
+            @Override
+            public String getName() {
+                return "ContextHandler";
+            }
+
+            @Override
+            public String getUri() {
+                return "http://localhost:9998";
+            }
+
+            @Override
+            public String getId() {
+                return "1";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public long getSessionTtl( STATUS status ) {
+                return status == STATUS.TRY ? tryTtl : 0;
+            }
+
+            @Override
+            public long getSessionExpiryTick() {
+                return EXPIRY_TICK;
+            }
+
+            @Override
+            public int getReevaluationThreads() {
+                return 1;
+            }
+
+            @Override
+            public long getAttributeChangeWindow() {
+                return 0;
+            }
+
+            @Override
+            public long getDecisionCacheTtl() {
+                return 0;
+            }
+
+            @Override
+            public int getDecisionCacheSize() {
+                return 0;
+            }
+
+            @Override
+            public boolean isDecisionCacheObligations() {
+                return false;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,110 @@
+package it.cnr.iit.ucs.requestmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+
+/**
+ * The partitions hand the messages of every producer over in order, the
+ * enqueue to dequeue latency of the two pipelines is measured at 1, 4 and 16
+ * producers.
+ */
+public class MessagePartitionTest {
+
+    private static final Logger log = Logger.getLogger( MessagePartitionTest.class.getName() );
+
+    private static final int MESSAGES = 20_000;
+
+    @Test
+    public void testRingBufferBounded() throws InterruptedException {
+        RingBufferPartition partition = new RingBufferPartition( 3 );
+        for( int i = 0; i < 4; i++ ) {
+            assertTrue( partition.offer( message( 0, i ), 0 ) );
+        }
+        assertFalse( partition.offer( message( 0, 4 ), 10 ) );
+        assertEquals( 4, partition.size() );
+
+        List<Message> drained = new ArrayList<>();
+        assertEquals( 4, partition.drain( ( message, queued ) -> drained.add( message ) ) );
+        assertEquals( "0#0", drained.get( 0 ).getMessageId() );
+        assertEquals( "0#3", drained.get( 3 ).getMessageId() );
+        assertEquals( 0, partition.size() );
+        assertTrue( partition.offer( message( 0, 4 ), 0 ) );
+    }
+
+    @Test
+    public void testOrderAndLatencyByProducers() throws InterruptedException {
+        for( int producers : new int[] { 1, 4, 16 } ) {
+            long queue = measure( producers, QueuePartition::new );
+            long ring = measure( producers, RingBufferPartition::new );
+            log.info( String.format( "%2d producers: queue %d ns, ring buffer %d ns per message", producers, queue,
+                ring ) );
+        }
+    }
+
+    /**
+     * Sends the messages from the producers through a partition and checks
+     * the order of each producer
+     *
+     * @return the average nanoseconds between the enqueue and the dequeue
+     */
+    private static long measure( int producers, IntFunction<MessagePartition> partitions ) throws InterruptedException {
+        MessagePartition partition = partitions.apply( 1024 );
+        int perProducer = MESSAGES / producers;
+        int[] next = new int[producers];
+        long[] latency = { 0 };
+        CountDownLatch start = new CountDownLatch( 1 );
+        List<Thread> threads = new ArrayList<>();
+        for( int p = 0; p < producers; p++ ) {
+            int producer = p;
+            Thread thread = new Thread( () -> {
+                try {
+                    start.await();
+                    for( int i = 0; i < perProducer; i++ ) {
+                        partition.put( message( producer, i ) );
+                    }
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        int received = 0;
+        while( received < perProducer * producers ) {
+            received += partition.drain( ( message, queued ) -> {
+                latency[0] += System.nanoTime() - queued;
+                String[] id = message.getMessageId().split( "#" );
+                int producer = Integer.parseInt( id[0] );
+                assertEquals( next[producer]++, Integer.parseInt( id[1] ) );
+            } );
+        }
+        for( Thread thread : threads ) {
+            thread.join( TimeUnit.SECONDS.toMillis( 10 ) );
+        }
+        for( int count : next ) {
+            assertEquals( perProducer, count );
+        }
+        return latency[0] / received;
+    }
+
+    private static Message message( int producer, int sequence ) {
+        StartAccessMessage message = new StartAccessMessage( "pep", "ch" );
+        message.setMessageId( producer + "#" + sequence );
+        return message;
+    }
+
+}
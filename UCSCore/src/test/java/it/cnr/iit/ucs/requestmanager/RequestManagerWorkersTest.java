@@ -0,0 +1,326 @@
+package it.cnr.iit.ucs.requestmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import it.cnr.iit.ucs.constants.LANE;
+import it.cnr.iit.ucs.constants.PIPELINE;
+import it.cnr.iit.ucs.contexthandler.ContextHandlerInterface;
+import it.cnr.iit.ucs.exceptions.OverloadException;
+import it.cnr.iit.ucs.message.Message;
+import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
+import it.cnr.iit.ucs.message.endaccess.EndAccessResponseMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
+import it.cnr.iit.ucs.message.startaccess.StartAccessResponseMessage;
+import it.cnr.iit.ucs.pep.PEPInterface;
+import it.cnr.iit.ucs.properties.components.RequestManagerProperties;
+import it.cnr.iit.xacml.Attribute;
+import it.cnr.iit.xacml.Category;
+import it.cnr.iit.xacml.DataType;
+
+/**
+ * Messages of different sessions are handled in parallel by the workers,
+ * the messages of a session and the changes of an attribute are handled in
+ * the order they were sent and the attribute changes do not delay the
+ * accesses.
+ */
+public class RequestManagerWorkersTest {
+
+    private static final Logger log = Logger.getLogger( RequestManagerWorkersTest.class.getName() );
+
+    private static final int SESSIONS = 40;
+    private static final long CH_LATENCY = 10;
+
+    @Test
+    public void testWorkersScale() throws Exception {
+        long single = run( 1, PIPELINE.QUEUE, new ConcurrentHashMap<>() );
+        long parallel = run( 4, PIPELINE.QUEUE, new ConcurrentHashMap<>() );
+        log.info( "single worker: " + single + " ms, 4 workers: " + parallel + " ms" );
+        assertTrue( "single " + single + " ms, parallel " + parallel + " ms", parallel * 2 < single );
+    }
+
+    @Test
+    public void testSessionOrderPreserved() throws Exception {
+        assertSessionOrderPreserved( PIPELINE.QUEUE );
+    }
+
+    @Test
+    public void testSessionOrderPreservedByRingBuffer() throws Exception {
+        assertSessionOrderPreserved( PIPELINE.RING_BUFFER );
+    }
+
+    private static void assertSessionOrderPreserved( PIPELINE pipeline ) throws Exception {
+        Map<String, List<String>> operations = new ConcurrentHashMap<>();
+        run( 4, pipeline, operations );
+        assertEquals( SESSIONS, operations.size() );
+        for( List<String> sessionOperations : operations.values() ) {
+            assertEquals( "start", sessionOperations.get( 0 ) );
+            assertEquals( "end", sessionOperations.get( 1 ) );
+        }
+    }
+
+    @Test
+    public void testAttributeChangesDoNotStarveAccesses() throws Exception {
+        CountDownLatch started = new CountDownLatch( SESSIONS );
+        ContextHandlerInterface contextHandler = Mockito.mock( ContextHandlerInterface.class );
+        Mockito.doAnswer( invocation -> {
+            Thread.sleep( 5 * CH_LATENCY );
+            return null;
+        } ).when( contextHandler ).attributeChanged( ArgumentMatchers.any() );
+        Mockito.when( contextHandler.startAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            StartAccessMessage message = invocation.getArgument( 0 );
+            return new StartAccessResponseMessage( "ch", "pep", message.getMessageId() );
+        } );
+        PEPInterface pep = Mockito.mock( PEPInterface.class );
+        Mockito.when( pep.receiveResponse( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            started.countDown();
+            return null;
+        } );
+        RequestManager requestManager = new RequestManager( properties( 4, 1, 0, PIPELINE.QUEUE ) );
+        assertEquals( 3, requestManager.getLaneWorkers( LANE.ACCESS ) );
+        assertEquals( 1, requestManager.getLaneWorkers( LANE.ATTRIBUTE_CHANGE ) );
+        requestManager.setContextHandler( contextHandler );
+        requestManager.setPEPMap( Collections.singletonMap( "pep", pep ) );
+        requestManager.startMonitoring();
+
+        // a storm of changes takes seconds to be reevaluated
+        for( int i = 0; i < SESSIONS; i++ ) {
+            requestManager.sendMessage( new AttributeChangeMessage( "pip", "ch", new ArrayList<>() ) );
+        }
+        for( int i = 0; i < SESSIONS; i++ ) {
+            StartAccessMessage start = new StartAccessMessage( "pep", "ch" );
+            start.setSessionId( "session" + i );
+            requestManager.sendMessage( start );
+        }
+        assertTrue( started.await( SESSIONS * CH_LATENCY, TimeUnit.MILLISECONDS ) );
+        LaneMetrics changes = requestManager.getLaneMetrics( LANE.ATTRIBUTE_CHANGE );
+        LaneMetrics accesses = requestManager.getLaneMetrics( LANE.ACCESS );
+        log.info( changes + ", " + accesses );
+        assertTrue( changes.getQueueDepth() > 0 );
+        assertEquals( 0, accesses.getQueueDepth() );
+        assertEquals( SESSIONS, accesses.getHandledMessages() );
+        assertTrue( changes.getHandledMessages() < SESSIONS );
+    }
+
+    @Test
+    public void testWorkersSharedAmongLanes() {
+        for( int workers = 1; workers <= 8; workers++ ) {
+            for( int attributeChangeWeight = 0; attributeChangeWeight <= workers; attributeChangeWeight++ ) {
+                RequestManager requestManager = new RequestManager( properties( workers, attributeChangeWeight, 0,
+                    PIPELINE.QUEUE ) );
+                int access = requestManager.getLaneWorkers( LANE.ACCESS );
+                int attributeChange = requestManager.getLaneWorkers( LANE.ATTRIBUTE_CHANGE );
+                // one worker per lane at least, never more workers than configured otherwise
+                assertEquals( Math.max( workers, LANE.values().length ), access + attributeChange );
+                assertTrue( access >= 1 && attributeChange >= 1 );
+                assertTrue( attributeChangeWeight > 0 || attributeChange == 1 );
+            }
+        }
+    }
+
+    @Test
+    public void testAttributeChangesKeepTheirOrder() throws Exception {
+        int attributes = 4;
+        int changes = 50;
+        CountDownLatch handled = new CountDownLatch( attributes * changes );
+        Map<String, List<String>> values = new ConcurrentHashMap<>();
+        ContextHandlerInterface contextHandler = Mockito.mock( ContextHandlerInterface.class );
+        Mockito.doAnswer( invocation -> {
+            Attribute attribute = ( (AttributeChangeMessage) invocation.getArgument( 0 ) ).getAttributes().get( 0 );
+            Thread.sleep( ThreadLocalRandom.current().nextInt( 2 ) );
+            values.computeIfAbsent( attribute.getAttributeId(), id -> Collections.synchronizedList( new ArrayList<>() ) )
+                .add( attribute.getAttributeValues( DataType.STRING ).get( 0 ) );
+            handled.countDown();
+            return null;
+        } ).when( contextHandler ).attributeChanged( ArgumentMatchers.any() );
+        RequestManager requestManager = new RequestManager( properties( 8, 4, 0, PIPELINE.QUEUE ) );
+        assertEquals( 4, requestManager.getLaneWorkers( LANE.ATTRIBUTE_CHANGE ) );
+        requestManager.setContextHandler( contextHandler );
+        requestManager.setPEPMap( Collections.singletonMap( "pep", Mockito.mock( PEPInterface.class ) ) );
+        requestManager.startMonitoring();
+
+        for( int i = 0; i < changes; i++ ) {
+            for( int a = 0; a < attributes; a++ ) {
+                Attribute attribute = new Attribute();
+                attribute.setCategory( Category.ENVIRONMENT );
+                attribute.setAttributeId( "attribute" + a );
+                attribute.setDataType( DataType.STRING );
+                attribute.setAttributeValues( DataType.STRING, String.valueOf( i ) );
+                requestManager.sendMessage(
+                    new AttributeChangeMessage( "pip", "ch", new ArrayList<>( Collections.singletonList( attribute ) ) ) );
+            }
+        }
+        assertTrue( handled.await( 30, TimeUnit.SECONDS ) );
+        assertEquals( attributes, values.size() );
+        for( List<String> attributeValues : values.values() ) {
+            for( int i = 0; i < changes; i++ ) {
+                assertEquals( String.valueOf( i ), attributeValues.get( i ) );
+            }
+        }
+    }
+
+    @Test
+    public void testFullLaneRejectsAccesses() throws Exception {
+        assertFullLaneRejects( PIPELINE.QUEUE );
+    }
+
+    @Test
+    public void testFullRingBufferRejectsAccesses() throws Exception {
+        assertFullLaneRejects( PIPELINE.RING_BUFFER );
+    }
+
+    private static void assertFullLaneRejects( PIPELINE pipeline ) throws Exception {
+        CountDownLatch release = new CountDownLatch( 1 );
+        ContextHandlerInterface contextHandler = Mockito.mock( ContextHandlerInterface.class );
+        Mockito.when( contextHandler.startAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            release.await();
+            StartAccessMessage message = invocation.getArgument( 0 );
+            return new StartAccessResponseMessage( "ch", "pep", message.getMessageId() );
+        } );
+        RequestManager requestManager = new RequestManager( properties( 1, 0, 5, pipeline ) );
+        requestManager.setContextHandler( contextHandler );
+        requestManager.setPEPMap( Collections.singletonMap( "pep", Mockito.mock( PEPInterface.class ) ) );
+        requestManager.startMonitoring();
+
+        int rejected = 0;
+        for( int i = 0; i < SESSIONS; i++ ) {
+            StartAccessMessage start = new StartAccessMessage( "pep", "ch" );
+            start.setSessionId( "session" + i );
+            try {
+                requestManager.sendMessage( start );
+            } catch( OverloadException e ) {
+                assertTrue( e.getRetryAfter() >= 1 );
+                rejected++;
+            }
+        }
+        release.countDown();
+        // the worker holds a message and the lane the 5 queued after it, rounded up to 8 by the ring buffer
+        assertTrue( "rejected " + rejected, rejected >= SESSIONS - 9 );
+        assertEquals( rejected, requestManager.getLaneMetrics( LANE.ACCESS ).getRejectedMessages() );
+    }
+
+    /**
+     * Starts and ends every session, returns the milliseconds taken to
+     * handle all the messages
+     */
+    private static long run( int workers, PIPELINE pipeline, Map<String, List<String>> operations ) throws Exception {
+        CountDownLatch done = new CountDownLatch( 2 * SESSIONS );
+        ContextHandlerInterface contextHandler = Mockito.mock( ContextHandlerInterface.class );
+        Mockito.when( contextHandler.startAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            StartAccessMessage message = invocation.getArgument( 0 );
+            record( operations, message.getSessionId(), "start" );
+            return new StartAccessResponseMessage( "ch", "pep", message.getMessageId() );
+        } );
+        Mockito.when( contextHandler.endAccess( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            EndAccessMessage message = invocation.getArgument( 0 );
+            record( operations, message.getSessionId(), "end" );
+            return new EndAccessResponseMessage( "ch", "pep", message.getMessageId() );
+        } );
+        PEPInterface pep = Mockito.mock( PEPInterface.class );
+        Mockito.when( pep.receiveResponse( ArgumentMatchers.any() ) ).thenAnswer( invocation -> {
+            done.countDown();
+            return null;
+        } );
+
+        RequestManager requestManager = new RequestManager( properties( workers, 0, 0, pipeline ) );
+        requestManager.setContextHandler( contextHandler );
+        requestManager.setPEPMap( Collections.singletonMap( "pep", pep ) );
+        requestManager.startMonitoring();
+
+        List<Message> messages = new ArrayList<>();
+        for( int i = 0; i < SESSIONS; i++ ) {
+            StartAccessMessage start = new StartAccessMessage( "pep", "ch" );
+            start.setSessionId( "session" + i );
+            messages.add( start );
+        }
+        for( int i = 0; i < SESSIONS; i++ ) {
+            EndAccessMessage end = new EndAccessMessage( "pep", "ch" );
+            end.setSessionId( "session" + i );
+            messages.add( end );
+        }
+        long start = System.nanoTime();
+        for( Message message : messages ) {
+            assertTrue( requestManager.sendMessage( message ) );
+        }
+        assertTrue( done.await( 30, TimeUnit.SECONDS ) );
+        return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+    }
+
+    private static void record( Map<String, List<String>> operations, String sessionId, String operation )
+            throws InterruptedException {
+        Thread.sleep( CH_LATENCY );
+        operations.computeIfAbsent( sessionId, id -> Collections.synchronizedList( new ArrayList<>() ) ).add( operation );
+    }
+
+    private static RequestManagerProperties properties( int workers, int attributeChangeWeight, int capacity,
+            PIPELINE pipeline ) {
+        return new RequestManagerProperties() {
+
+            @Override
+            public String getName() {
+                return "RequestManager";
+            }
+
+            @Override
+            public Map<String, String> getAdditionalProperties() {
+                return null;
+            }
+
+            @Override
+            public String getId() {
+                return "1";
+            }
+
+            @Override
+            public String getApiRemoteResponse() {
+                return null;
+            }
+
+            @Override
+            public boolean isActive() {
+                return true;
+            }
+
+            @Override
+            public int getWorkers() {
+                return workers;
+            }
+
+            @Override
+            public int getLaneWeight( LANE lane ) {
+                return lane == LANE.ACCESS ? workers - attributeChangeWeight : attributeChangeWeight;
+            }
+
+            @Override
+            public int getQueueCapacity() {
+                return capacity;
+            }
+
+            @Override
+            public long getEnqueueTimeout() {
+                return 0;
+            }
+
+            @Override
+            public PIPELINE getPipeline() {
+                return pipeline;
+            }
+        };
+    }
+
+}
@@ -171,12 +171,18 @@ public class UCSRestBaseTests {
         Mockito.when( sessionManagerInterface.getOnGoingAttributes( ArgumentMatchers.anyString() ) ).thenReturn( null );
         Mockito.when( sessionManagerInterface.deleteEntry( ArgumentMatchers.anyString() ) ).thenReturn( true );
         Mockito.when( sessionManagerInterface.createEntry( ArgumentMatchers.any() ) ).thenReturn( true );
+        Mockito.when( sessionManagerInterface.insertSession( ArgumentMatchers.any(), ArgumentMatchers.any() ) ).thenReturn( true );
+        Mockito.when( sessionManagerInterface.stopSession( ArgumentMatchers.any() ) ).thenReturn( true );
 
         List<SessionInterface> sessionInterfaceList = new ArrayList<>( Arrays.asList( new SessionInterface[] { sessionInterface } ) );
         Mockito.when( sessionManagerInterface.getSessionsForSubjectAttributes(
             ArgumentMatchers.anyString(), ArgumentMatchers.anyString() ) ).thenReturn( sessionInterfaceList );
         Mockito.when( sessionManagerInterface.getSessionsForEnvironmentAttributes(
             ArgumentMatchers.anyString() ) ).thenReturn( sessionInterfaceList );
+        Mockito.when( sessionManagerInterface.getSessionsPage(
+            ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyInt() ) ).thenReturn( sessionInterfaceList );
+        Mockito.when( sessionManagerInterface.countSessions( ArgumentMatchers.any() ) )
+            .thenReturn( (long) sessionInterfaceList.size() );
 
         return sessionManagerInterface;
     }
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.constants;
+
+/**
+ * The lanes of the messages handled by the request manager, each lane has its
+ * own queues and workers so a burst in one lane does not delay the others.
+ */
+public enum LANE {
+    /**
+     * The tryAccess, startAccess and endAccess requests of the PEPs
+     */
+    ACCESS,
+    /**
+     * The attribute changes notified by the PIPs, which may revoke sessions
+     */
+    ATTRIBUTE_CHANGE;
+}
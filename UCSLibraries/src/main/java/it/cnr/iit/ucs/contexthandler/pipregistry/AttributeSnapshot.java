@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler.pipregistry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.base.Throwables;
+
+import it.cnr.iit.ucs.exceptions.PIPException;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
+import it.cnr.iit.xacml.Attribute;
+
+import oasis.names.tc.xacml.core.schema.wd_17.RequestType;
+
+/**
+ * Snapshot of the attribute values shared by the requests of a batch.
+ * The requests retrieved through the snapshot are fattened with the pushed
+ * values of the changed attributes, every other attribute is read from its
+ * PIP once per entity, by the first request that needs it, and served from
+ * the snapshot to the others. The PIPs that do not list the attributes of a
+ * request retrieve it whole, as the registry does. Subscriptions and the
+ * other operations are performed by the registry the snapshot was taken from.
+ * The snapshot is thread safe.
+ */
+final class AttributeSnapshot implements PIPRegistryInterface {
+
+    private static final Logger log = Logger.getLogger( AttributeSnapshot.class.getName() );
+
+    private final PIPRegistryInterface registry;
+    private final List<PIPCHInterface> pipList;
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+    private final AtomicLong reads = new AtomicLong();
+
+    AttributeSnapshot( PIPRegistryInterface registry, List<PIPCHInterface> pipList, Collection<Attribute> pushedAttributes ) {
+        this.registry = registry;
+        this.pipList = pipList;
+        for( Attribute attribute : pushedAttributes ) {
+            List<String> pushed = attribute.getDataType() != null ? attribute.getAttributeValues( attribute.getDataType() )
+                    : null;
+            if( pushed != null && !pushed.isEmpty() ) {
+                values.put( key( attribute ), pushed.get( 0 ) );
+            }
+        }
+    }
+
+    @Override
+    public void retrieveAll( RequestType requestType ) {
+        try {
+            for( PIPCHInterface pip : pipList ) {
+                List<Attribute> attributes = pip.getRetrievalAttributes( requestType );
+                if( attributes == null ) {
+                    pip.retrieve( requestType );
+                    continue;
+                }
+                for( Attribute attribute : attributes ) {
+                    requestType.addAttribute( attribute, getValue( pip, attribute ) );
+                }
+            }
+        } catch( Exception e ) {
+            log.severe( "Error retrieve : " + e.getMessage() );
+            Throwables.throwIfUnchecked( new RuntimeException( "Error retrieve : " + e.getMessage() ) );
+        }
+    }
+
+    private String getValue( PIPCHInterface pip, Attribute attribute ) {
+        return values.computeIfAbsent( key( attribute ), key -> {
+            try {
+                reads.incrementAndGet();
+                return pip.retrieve( attribute );
+            } catch( PIPException e ) {
+                throw new IllegalStateException( e.getMessage(), e );
+            }
+        } );
+    }
+
+    /**
+     * Retrieves the number of attribute values read from the PIPs
+     */
+    long getReadCount() {
+        return reads.get();
+    }
+
+    private static String key( Attribute attribute ) {
+        return attribute.getCategory() + "#" + attribute.getAttributeId() + "#" + attribute.getAdditionalInformations();
+    }
+
+    @Override
+    public boolean add( PIPCHInterface pip ) {
+        return registry.add( pip );
+    }
+
+    @Override
+    public boolean remove( PIPCHInterface pip ) {
+        return registry.remove( pip );
+    }
+
+    @Override
+    public void removeAll() {
+        registry.removeAll();
+    }
+
+    @Override
+    public void unsubscribeAll( List<Attribute> attributes ) {
+        registry.unsubscribeAll( attributes );
+    }
+
+    @Override
+    public void subscribeAll( RequestType requestType ) {
+        registry.subscribeAll( requestType );
+    }
+
+    @Override
+    public void unsubscribeAll( RequestType requestType ) {
+        registry.unsubscribeAll( requestType );
+    }
+
+    @Override
+    public int getSubscriptionCount( Attribute attribute ) {
+        return registry.getSubscriptionCount( attribute );
+    }
+
+    @Override
+    public Optional<PIPCHInterface> getByAttributeId( String attributeId ) {
+        return registry.getByAttributeId( attributeId );
+    }
+
+    @Override
+    public Optional<PIPCHInterface> getByAttribute( Attribute attribute ) {
+        return registry.getByAttribute( attribute );
+    }
+
+    @Override
+    public boolean hasAttribute( Attribute attribute ) {
+        return registry.hasAttribute( attribute );
+    }
+
+    @Override
+    public PIPRegistryInterface snapshot( Collection<Attribute> pushedAttributes ) {
+        return registry.snapshot( pushedAttributes );
+    }
+
+}
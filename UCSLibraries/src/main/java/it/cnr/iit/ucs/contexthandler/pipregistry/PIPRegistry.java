@@ -1,6 +1,7 @@
 package it.cnr.iit.ucs.contexthandler.pipregistry;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Logger;
@@ -17,6 +18,7 @@ public class PIPRegistry implements PIPRegistryInterface {
     private static final Logger log = Logger.getLogger( PIPRegistry.class.getName() );
 
     private List<PIPCHInterface> pipList;
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
 
     public PIPRegistry() {
         super();
@@ -40,6 +42,9 @@ public class PIPRegistry implements PIPRegistryInterface {
 
     @Override
     public void unsubscribeAll( List<Attribute> attributes ) {
+        for( Attribute attribute : attributes ) {
+            subscriptions.clear( attribute );
+        }
         for( PIPCHInterface pip : pipList ) {
             try {
                 pip.unsubscribe( attributes );
@@ -49,11 +54,24 @@ public class PIPRegistry implements PIPRegistryInterface {
         }
     }
 
+    /**
+     * Subscribes the attributes of the request counting the references to
+     * them, a PIP is asked to subscribe an attribute only if no other request
+     * has subscribed it yet. The PIPs that do not list the attributes of a
+     * request subscribe it whole, without counting.
+     */
     @Override
     public void subscribeAll( RequestType requestType ) {
         try {
             for( PIPCHInterface pip : pipList ) {
-                pip.subscribe( requestType );
+                List<Attribute> attributes = pip.getRetrievalAttributes( requestType );
+                if( attributes == null ) {
+                    pip.subscribe( requestType );
+                    continue;
+                }
+                for( Attribute attribute : attributes ) {
+                    requestType.addAttribute( attribute, subscriptions.acquire( pip, attribute ) );
+                }
             }
         } catch( Exception e ) {
             log.severe( "Error subscribe : " + e.getMessage() );
@@ -61,6 +79,34 @@ public class PIPRegistry implements PIPRegistryInterface {
         }
     }
 
+    /**
+     * Releases the references to the attributes of the request, a PIP is
+     * asked to unsubscribe an attribute only if no other request still
+     * references it. The attributes of the PIPs that do not list them have
+     * no references and stay subscribed.
+     */
+    @Override
+    public void unsubscribeAll( RequestType requestType ) {
+        for( PIPCHInterface pip : pipList ) {
+            try {
+                List<Attribute> attributes = pip.getRetrievalAttributes( requestType );
+                if( attributes == null ) {
+                    continue;
+                }
+                for( Attribute attribute : attributes ) {
+                    subscriptions.release( pip, attribute );
+                }
+            } catch( Exception e ) {
+                log.severe( "Error unsubscribe : " + e.getMessage() );
+            }
+        }
+    }
+
+    @Override
+    public int getSubscriptionCount( Attribute attribute ) {
+        return subscriptions.getReferences( attribute );
+    }
+
     @Override
     public void retrieveAll( RequestType requestType ) {
         try {
@@ -95,4 +141,9 @@ public class PIPRegistry implements PIPRegistryInterface {
         return getByAttribute( attribute ).isPresent();
     }
 
+    @Override
+    public PIPRegistryInterface snapshot( Collection<Attribute> pushedAttributes ) {
+        return new AttributeSnapshot( this, pipList, pushedAttributes );
+    }
+
 }
@@ -1,5 +1,6 @@
 package it.cnr.iit.ucs.contexthandler.pipregistry;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,6 +26,20 @@ public interface PIPRegistryInterface {
 
     public void subscribeAll( RequestType requestType );
 
+    /**
+     * Releases the subscriptions taken by subscribeAll for the request
+     *
+     * @param requestType
+     *          the request whose attributes are no longer monitored
+     */
+    public void unsubscribeAll( RequestType requestType );
+
+    /**
+     * Retrieves the number of requests holding a subscription to the
+     * attribute, the entity is given as additional information
+     */
+    public int getSubscriptionCount( Attribute attribute );
+
     public void retrieveAll( RequestType requestType );
 
     public Optional<PIPCHInterface> getByAttributeId( String attributeId );
@@ -33,4 +48,15 @@ public interface PIPRegistryInterface {
 
     public boolean hasAttribute( Attribute attribute );
 
+    /**
+     * Takes a snapshot of the attribute values to be shared by the requests
+     * retrieved through it, each attribute is read once per entity
+     *
+     * @param pushedAttributes
+     *          the attributes whose values have just been pushed by their
+     *          PIPs, they are not read again
+     * @return a registry retrieving the requests from the snapshot
+     */
+    public PIPRegistryInterface snapshot( Collection<Attribute> pushedAttributes );
+
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.contexthandler.pipregistry;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import it.cnr.iit.ucs.exceptions.PIPException;
+import it.cnr.iit.ucs.pip.PIPCHInterface;
+import it.cnr.iit.xacml.Attribute;
+
+/**
+ * Reference counts of the attributes subscribed to the PIPs, per attribute
+ * and entity. The PIP is asked to subscribe an attribute only when its first
+ * reference is acquired and to unsubscribe it only when its last reference
+ * is released, the other references just update the count.
+ * The transitions of an attribute are performed holding the lock of its
+ * subscription, outside the updates of the map, hence a subscribe and an
+ * unsubscribe of the same attribute never reach the PIP out of order, while
+ * attributes with different keys do not wait for each other.
+ */
+final class SubscriptionRegistry {
+
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Acquires a reference to an attribute, subscribing it on the first one
+     *
+     * @return the value of the attribute, as returned by the subscription on
+     *         the first reference
+     */
+    String acquire( PIPCHInterface pip, Attribute attribute ) throws PIPException {
+        String key = key( attribute );
+        while( true ) {
+            Subscription subscription = subscriptions.computeIfAbsent( key, k -> new Subscription() );
+            synchronized( subscription ) {
+                if( subscription.removed ) {
+                    continue;
+                }
+                if( subscription.references > 0 ) {
+                    subscription.references++;
+                    return pip.retrieve( attribute );
+                }
+                String value;
+                try {
+                    value = pip.subscribe( attribute );
+                } catch( PIPException e ) {
+                    remove( key, subscription );
+                    throw e;
+                }
+                subscription.references = 1;
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to an attribute, unsubscribing it on the last one.
+     * Attributes without references are ignored, if the PIP fails to
+     * unsubscribe the count is left unchanged.
+     */
+    void release( PIPCHInterface pip, Attribute attribute ) throws PIPException {
+        String key = key( attribute );
+        Subscription subscription = subscriptions.get( key );
+        if( subscription == null ) {
+            return;
+        }
+        synchronized( subscription ) {
+            if( subscription.removed || subscription.references == 0 ) {
+                return;
+            }
+            if( subscription.references > 1 ) {
+                subscription.references--;
+                return;
+            }
+            pip.unsubscribe( Collections.singletonList( attribute ) );
+            remove( key, subscription );
+        }
+    }
+
+    /**
+     * Drops the references to an attribute unsubscribed regardless of them
+     */
+    void clear( Attribute attribute ) {
+        Subscription subscription = subscriptions.get( key( attribute ) );
+        if( subscription != null ) {
+            synchronized( subscription ) {
+                remove( key( attribute ), subscription );
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of references to an attribute
+     */
+    int getReferences( Attribute attribute ) {
+        Subscription subscription = subscriptions.get( key( attribute ) );
+        if( subscription == null ) {
+            return 0;
+        }
+        synchronized( subscription ) {
+            return subscription.removed ? 0 : subscription.references;
+        }
+    }
+
+    /**
+     * Retires a subscription, the caller holds its lock. Acquires waiting on it
+     * retry on the one that replaces it in the map.
+     */
+    private void remove( String key, Subscription subscription ) {
+        subscription.removed = true;
+        subscriptions.remove( key, subscription );
+    }
+
+    private static String key( Attribute attribute ) {
+        return attribute.getCategory() + "#" + attribute.getAttributeId() + "#" + attribute.getAdditionalInformations();
+    }
+
+    /**
+     * The state of an attribute, guarded by its own lock
+     */
+    private static final class Subscription {
+        private int references;
+        private boolean removed;
+    }
+
+}
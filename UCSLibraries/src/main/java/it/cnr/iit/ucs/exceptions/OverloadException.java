@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.exceptions;
+
+import it.cnr.iit.utility.errorhandling.exception.ErrorType;
+import it.cnr.iit.utility.errorhandling.exception.SystemException;
+
+/**
+ * Thrown when a request is rejected because the UCS is overloaded, the
+ * request can be sent again after the suggested delay.
+ */
+public class OverloadException extends SystemException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    public OverloadException( String message, long retryAfter ) {
+        super( ErrorType.TRANSIENT_ERROR, message );
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Retrieves the delay after which the request may be sent again
+     *
+     * @return the delay in seconds
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -83,4 +83,9 @@ public class FileJournaling implements JournalingInterface {
         }
     }
 
+    @Override
+    public boolean isEnabled() {
+        return journal.isPresent();
+    }
+
 }
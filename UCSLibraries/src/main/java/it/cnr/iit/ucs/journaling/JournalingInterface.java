@@ -10,4 +10,10 @@ public interface JournalingInterface {
 
     public boolean logMultipleStrings( String... strings );
 
+    /**
+     * States if the logged strings are effectively written, so that callers
+     * can avoid building them otherwise
+     */
+    public boolean isEnabled();
+
 }
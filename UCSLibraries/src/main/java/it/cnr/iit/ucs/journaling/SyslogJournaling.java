@@ -19,4 +19,9 @@ public class SyslogJournaling implements JournalingInterface {
         return false;
     }
 
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
 }
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.pdp;
 
+import java.util.List;
+
 import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.obligationmanager.ObligationManagerInterface;
 import it.cnr.iit.ucs.pap.PAPInterface;
@@ -51,6 +53,20 @@ public interface PDPInterface {
      */
     public PDPEvaluation evaluate( RequestWrapper request, PolicyWrapper policy, STATUS status );
 
+    /**
+     * Ask the evaluation of several requests versus the same policy, the
+     * policy is resolved once for all of them
+     *
+     * @param requests
+     *          the requests to evaluate
+     * @param policy
+     *          the policy shared by the requests
+     * @param status
+     * @return the PDPEvaluations in the order of the requests, null for the
+     *         requests that could not be evaluated
+     */
+    public List<PDPEvaluation> evaluateBatch( List<RequestWrapper> requests, PolicyWrapper policy, STATUS status );
+
     /**
      * Ask the evaluation to the PDP providing to it the request in string format
      * and the policy in string format. This choice has been performed because,
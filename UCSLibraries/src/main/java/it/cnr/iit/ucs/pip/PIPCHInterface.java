@@ -56,6 +56,25 @@ public interface PIPCHInterface extends PIPBaseInterface {
      */
     public void retrieve( RequestType accessRequest ) throws PIPException;
 
+    /**
+     * Retrieves the attributes the retrieve of a request would add to it,
+     * each with the entity it refers to as additional information, without
+     * reading their values. Requests whose attributes refer to the same
+     * entities can then share a single read of each attribute.
+     *
+     * The PIPs that do not list them, as by default, have their requests
+     * retrieved and subscribed one at a time.
+     *
+     * @param accessRequest
+     *          a XACML request where the entities will be retrieved
+     * @return the attributes to read for the request, null if the PIP does not
+     *         list them
+     * @throws PIPException
+     */
+    public default List<Attribute> getRetrievalAttributes( RequestType accessRequest ) throws PIPException {
+        return null;
+    }
+
     /**
      * Unsubscribes one or more attributes for a certain user from being monitored
      * by the PIP
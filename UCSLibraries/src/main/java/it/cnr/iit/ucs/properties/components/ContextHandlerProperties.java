@@ -15,7 +15,86 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.properties.components;
 
+import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.properties.base.CommonProperties;
 import it.cnr.iit.ucs.properties.base.UriProperties;
 
-public interface ContextHandlerProperties extends CommonProperties, UriProperties {}
\ No newline at end of file
+public interface ContextHandlerProperties extends CommonProperties, UriProperties {
+
+    /**
+     * Retrieves how long a session may stay in a status before it is expired
+     * and deleted, counted from the last status change
+     *
+     * @param status
+     *          the status of the session
+     * @return the time to live in milliseconds, 0 if sessions in that status
+     *         never expire, 0 by default
+     */
+    public default long getSessionTtl( STATUS status ) {
+        return 0;
+    }
+
+    /**
+     * Retrieves the resolution of the session expiry, sessions are expired
+     * at most this late
+     *
+     * @return the expiry tick in milliseconds, 1000 by default
+     */
+    public default long getSessionExpiryTick() {
+        return 1000;
+    }
+
+    /**
+     * Retrieves the number of threads reevaluating the sessions selected by
+     * an attribute change
+     *
+     * @return the number of threads, 1 or less to reevaluate the sessions one
+     *         at a time in the thread notifying the change, 1 by default
+     */
+    public default int getReevaluationThreads() {
+        return 1;
+    }
+
+    /**
+     * Retrieves the window within which the attribute changes are coalesced
+     * before being reevaluated, counted from the first change of the window
+     *
+     * @return the window in milliseconds, 0 to reevaluate each change as soon
+     *         as it is notified, 0 by default
+     */
+    public default long getAttributeChangeWindow() {
+        return 0;
+    }
+
+    /**
+     * Retrieves how long a decision of the PDP is reused for the evaluations
+     * of the same policy, status and attribute values
+     *
+     * @return the time to live in milliseconds, 0 to disable the decision
+     *         cache, 0 by default
+     */
+    public default long getDecisionCacheTtl() {
+        return 0;
+    }
+
+    /**
+     * Retrieves the maximum number of decisions held by the decision cache,
+     * the least recently used are evicted first
+     *
+     * @return the maximum number of decisions, 1024 by default
+     */
+    public default int getDecisionCacheSize() {
+        return 1024;
+    }
+
+    /**
+     * States if the decisions carrying obligations may be cached, their
+     * obligations are then fulfilled again for each reuse
+     *
+     * @return true if the decisions with obligations are cached, false by default
+     */
+    public default boolean isDecisionCacheObligations() {
+        return false;
+    }
+
+}
\ No newline at end of file
@@ -18,4 +18,25 @@ package it.cnr.iit.ucs.properties.components;
 import it.cnr.iit.ucs.properties.base.JournalProperties;
 import it.cnr.iit.ucs.properties.base.CommonProperties;
 
-public interface PdpProperties extends CommonProperties, JournalProperties {}
+public interface PdpProperties extends CommonProperties, JournalProperties {
+
+    /**
+     * Retrieves the number of compiled policies the PDP keeps
+     *
+     * @return the size of the policy cache, 0 to compile the policy at every
+     *         evaluation, 0 by default
+     */
+    public default int getPolicyCacheSize() {
+        return 0;
+    }
+
+    /**
+     * Retrieves the number of threads evaluating the requests of a batch
+     *
+     * @return the number of threads, 1 or less to evaluate the requests one
+     *         at a time in the calling thread, 1 by default
+     */
+    public default int getEvaluationThreads() {
+        return 1;
+    }
+}
@@ -15,10 +15,67 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.properties.components;
 
+import it.cnr.iit.ucs.constants.LANE;
+import it.cnr.iit.ucs.constants.PIPELINE;
 import it.cnr.iit.ucs.properties.base.CommonProperties;
 
 public interface RequestManagerProperties extends CommonProperties {
     public String getApiRemoteResponse();
 
     public boolean isActive();
+
+    /**
+     * Retrieves the number of workers handling the messages, the messages
+     * of a session are always handled by the same worker. Every lane has a
+     * worker of its own, so a number lower than the number of lanes starts
+     * one worker per lane
+     *
+     * @return the number of workers, shared among the lanes by weight, 1 by
+     *         default
+     */
+    public default int getWorkers() {
+        return 1;
+    }
+
+    /**
+     * Retrieves the weight of a lane, the lane gets a worker of its own and
+     * the workers beyond one per lane in proportion to its weight
+     *
+     * @param lane
+     *          the lane of the messages
+     * @return the weight of the lane, 1 by default
+     */
+    public default int getLaneWeight( LANE lane ) {
+        return 1;
+    }
+
+    /**
+     * Retrieves the number of messages a lane can hold before the requests of
+     * the PEPs are rejected, the attribute changes wait for room instead
+     *
+     * @return the capacity of each lane, 0 for unbounded lanes, 0 by default
+     */
+    public default int getQueueCapacity() {
+        return 0;
+    }
+
+    /**
+     * Retrieves how long a request of a PEP waits for room in a full lane
+     * before being rejected
+     *
+     * @return the timeout in milliseconds, 0 to reject as soon as the lane is
+     *         full, 0 by default
+     */
+    public default long getEnqueueTimeout() {
+        return 0;
+    }
+
+    /**
+     * Retrieves the pipeline handing the messages over to the workers
+     *
+     * @return the pipeline, {@link PIPELINE#QUEUE} if null or by default
+     */
+    public default PIPELINE getPipeline() {
+        return PIPELINE.QUEUE;
+    }
 }
@@ -19,4 +19,47 @@ import it.cnr.iit.ucs.properties.base.CommonProperties;
 
 public interface SessionManagerProperties extends CommonProperties {
     public String getDbUri();
+
+    /**
+     * Maximum number of free database connections the pool keeps open, this
+     * does not bound the connections in use: the pool opens a new connection
+     * whenever none is free. A value lower than 2 disables the pool and a
+     * single connection is shared, 1 by default
+     */
+    public default int getPoolMaxFreeConnections() {
+        return 1;
+    }
+
+    /**
+     * Whether pooled connections are validated before being handed out, this
+     * costs a round trip to the database every time a connection is taken,
+     * false by default
+     */
+    public default boolean isPoolValidation() {
+        return false;
+    }
+
+    /**
+     * Milliseconds since they were opened after which pooled connections are
+     * closed, whether idle or not, 0 to keep them forever, 0 by default
+     */
+    public default long getPoolMaxConnectionAge() {
+        return 0;
+    }
+
+    /**
+     * Milliseconds between two flushes of the write-behind session manager,
+     * 1000 by default
+     */
+    public default long getFlushInterval() {
+        return 1000;
+    }
+
+    /**
+     * Number of pending writes that triggers a flush of the write-behind session
+     * manager before the interval expires, 500 by default
+     */
+    public default int getFlushBatchSize() {
+        return 500;
+    }
 }
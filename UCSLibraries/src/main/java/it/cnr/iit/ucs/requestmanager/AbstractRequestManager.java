@@ -22,7 +22,6 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 
 import it.cnr.iit.ucs.contexthandler.ContextHandlerInterface;
-import it.cnr.iit.ucs.message.Message;
 import it.cnr.iit.ucs.message.attributechange.AttributeChangeMessage;
 import it.cnr.iit.ucs.pep.PEPInterface;
 import it.cnr.iit.ucs.properties.components.RequestManagerProperties;
@@ -42,8 +41,6 @@ public abstract class AbstractRequestManager implements RequestManagerToCHInterf
 
     protected static final Logger log = Logger.getLogger( AbstractRequestManager.class.getName() );
 
-    private final BlockingQueue<Message> queueInput = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Message> queueOutput = new LinkedBlockingQueue<>();
     private final BlockingQueue<AttributeChangeMessage> retrieveRequests = new LinkedBlockingQueue<>();
 
     private ContextHandlerInterface contextHandler;
@@ -75,14 +72,6 @@ public abstract class AbstractRequestManager implements RequestManagerToCHInterf
         return pepMap;
     }
 
-    protected BlockingQueue<Message> getQueueInput() {
-        return queueInput;
-    }
-
-    protected BlockingQueue<Message> getQueueOutput() {
-        return queueOutput;
-    }
-
     protected final BlockingQueue<AttributeChangeMessage> getRetrieveRequestsQueue() {
         return retrieveRequests;
     }
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.requestmanager;
 
+import it.cnr.iit.ucs.exceptions.OverloadException;
 import it.cnr.iit.ucs.message.Message;
 
 /**
@@ -34,6 +35,8 @@ public interface RequestManagerInterface {
      * @param message
      *          the message to be sent
      * @return the response of the ContextHandler
+     * @throws OverloadException
+     *           if the message is rejected because the request manager is full
      */
     public boolean sendMessage( Message message );
 
@@ -50,22 +50,38 @@ public interface ReevaluationTableInterface {
 
     /**
      * Tries to insert the session along with the Attribute that has triggered the
-     * evaluation
+     * evaluation. If the session is already in the table the attribute is
+     * recorded against it and the notification is absorbed by the queued or
+     * running reevaluation.
      * 
      * @param session
      *          the session under evaluation
      * @param attribute
      *          the attribute that has triggered the evaluation
-     * @return true if the insertion goes ok, false otherwise
+     * @return true if the session has been inserted and must be reevaluated by
+     *         the caller, false if it was already in the table
      */
     public boolean insertSession( SessionInterface session, Attribute attribute );
 
+    /**
+     * Stores in the table that the reevaluation of an inserted session begins.
+     * The notifications absorbed from now on are not covered by this
+     * reevaluation.
+     * 
+     * @param session
+     *          the session to reevaluate
+     * @return true if the session is in the table, false otherwise
+     */
+    public boolean startSession( SessionInterface session );
+
     /**
      * Stores in the table that the session has been reevaluated
      * 
      * @param session
      *          the session that was under reevaluation
-     * @return true if everything goes ok, false otherwise
+     * @return true if the session has left the table, false if notifications
+     *         have been absorbed while it was reevaluated, then the session
+     *         stays in the table and must be reevaluated again
      */
     public boolean stopSession( SessionInterface session );
 
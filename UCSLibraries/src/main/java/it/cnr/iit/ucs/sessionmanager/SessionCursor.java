@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the sessions selected by a query of the session manager.
+ * The sessions are read while the cursor advances, the cursor holds the
+ * resources of the query until it is closed.
+ */
+public interface SessionCursor extends Iterator<SessionInterface>, AutoCloseable {
+
+    /**
+     * Releases the resources of the query, the sessions not read yet are
+     * discarded
+     */
+    @Override
+    public void close();
+
+}
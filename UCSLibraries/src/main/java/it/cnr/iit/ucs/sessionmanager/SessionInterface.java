@@ -45,6 +45,14 @@ public interface SessionInterface {
      */
     public String getPolicySet();
 
+    /**
+     * Retrieves a key of the policy set read without loading it, the
+     * sessions holding the same policy set have the same key
+     *
+     * @return the key of the policy set, null if the session has none
+     */
+    public String getPolicyKey();
+
     /**
      * Retrieves the status of the session
      *
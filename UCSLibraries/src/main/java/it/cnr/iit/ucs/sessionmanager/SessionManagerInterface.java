@@ -15,6 +15,7 @@
  ******************************************************************************/
 package it.cnr.iit.ucs.sessionmanager;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -75,6 +76,17 @@ public interface SessionManagerInterface extends ReevaluationTableInterface {
      */
     public Boolean deleteEntry( String sessionId );
 
+    /**
+     * Removes the entries identified by those session ids, along with their
+     * on going attributes, in as few statements as possible. Ids with no
+     * session are ignored.
+     *
+     * @param sessionIds
+     *          the ids of the sessions to be removed
+     * @return the number of sessions removed
+     */
+    public int deleteEntries( Collection<String> sessionIds );
+
     /**
      * Retrieves the list of sessions interested by that attribute id
      *
@@ -158,6 +170,42 @@ public interface SessionManagerInterface extends ReevaluationTableInterface {
      */
     public List<SessionInterface> getSessionsForStatus( String status );
 
+    /**
+     * Streams the sessions selected by the query without retrieving them all at
+     * once. The cursor must be closed once read.
+     *
+     * @param query
+     *          the selection of the sessions
+     * @return the cursor over the selected sessions
+     */
+    public SessionCursor streamSessions( SessionQuery query );
+
+    /**
+     * Counts the sessions selected by the query without retrieving them
+     *
+     * @param query
+     *          the selection of the sessions
+     * @return the number of selected sessions
+     */
+    public long countSessions( SessionQuery query );
+
+    /**
+     * Retrieves a page of the sessions selected by the query, ordered by
+     * session id. The next page starts after the id of the last session of
+     * the previous one, hence sessions added or removed in the meantime do not
+     * shift the pages.
+     *
+     * @param query
+     *          the selection of the sessions
+     * @param afterSessionId
+     *          the id of the last session of the previous page, null for the
+     *          first page
+     * @param pageSize
+     *          the maximum number of sessions in the page
+     * @return the sessions in the page, fewer than pageSize if it is the last
+     */
+    public List<SessionInterface> getSessionsPage( SessionQuery query, String afterSessionId, int pageSize );
+
     /**
      * Retrieves the list of ongoing attributes related to the session id passed
      * as parameter.
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.ucs.sessionmanager;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+import it.cnr.iit.xacml.Category;
+
+/**
+ * Selection of sessions used by the streaming, counting and paginated
+ * queries of the session manager. A query selects either all the sessions
+ * in a status or, like the getSessionsFor*Attributes methods, the sessions
+ * in START or REVOKE status interested in an attribute, optionally related
+ * to a named entity.
+ */
+public final class SessionQuery {
+
+    private final String status;
+    private final String attributeId;
+    private final Category category;
+    private final String name;
+
+    private SessionQuery( String status, String attributeId, Category category, String name ) {
+        this.status = status;
+        this.attributeId = attributeId;
+        this.category = category;
+        this.name = name;
+    }
+
+    /**
+     * Selects the sessions in the status passed as parameter
+     */
+    public static SessionQuery forStatus( String status ) {
+        Reject.ifBlank( status );
+        return new SessionQuery( status, null, null, null );
+    }
+
+    /**
+     * Selects the sessions interested in the attribute id, regardless of the
+     * entity it is related to
+     */
+    public static SessionQuery forAttribute( String attributeId ) {
+        Reject.ifBlank( attributeId );
+        return new SessionQuery( null, attributeId, null, null );
+    }
+
+    /**
+     * Selects the sessions interested in the attribute id related to the
+     * entity with that name. The name is ignored for the environment
+     * attributes, which are not related to any entity.
+     *
+     * @param category
+     *          the category of the attribute
+     * @param name
+     *          the name of the subject, resource or action
+     * @param attributeId
+     *          the attribute id
+     */
+    public static SessionQuery forAttribute( Category category, String name, String attributeId ) {
+        Reject.ifNull( category, "Invalid category" );
+        Reject.ifBlank( attributeId );
+        if( category == Category.ENVIRONMENT ) {
+            return new SessionQuery( null, attributeId, category, "" );
+        }
+        Reject.ifBlank( name );
+        return new SessionQuery( null, attributeId, category, name );
+    }
+
+    /**
+     * Tells if the query selects the sessions by status
+     */
+    public boolean isStatusQuery() {
+        return status != null;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getAttributeId() {
+        return attributeId;
+    }
+
+    /**
+     * Retrieves the category of the attribute, null if the query matches the
+     * attribute id only
+     */
+    public Category getCategory() {
+        return category;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return isStatusQuery() ? "status " + status
+                : "attribute " + attributeId + ( category != null ? " of " + category.name() + " " + name : "" );
+    }
+
+}
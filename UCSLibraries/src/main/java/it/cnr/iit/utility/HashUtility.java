@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2018 IIT-CNR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package it.cnr.iit.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import it.cnr.iit.utility.errorhandling.Reject;
+
+/**
+ * Hashes of the contents exchanged by the UCS, used to address and to cache
+ * them.
+ */
+public final class HashUtility {
+
+    // length of the hex encoded SHA-256 hash
+    public static final int SHA256_HEX_LENGTH = 64;
+
+    private HashUtility() {} // NOSONAR
+
+    /**
+     * Hashes a text with SHA-256
+     *
+     * @param content
+     *          the text to hash
+     * @return the hex encoded SHA-256 hash of the UTF-8 bytes of the text
+     */
+    public static String sha256Hex( String content ) {
+        Reject.ifNull( content );
+        try {
+            byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( content.getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder sb = new StringBuilder( SHA256_HEX_LENGTH );
+            for( byte b : digest ) {
+                sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return sb.toString();
+        } catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( "SHA-256 not available", e );
+        }
+    }
+
+}
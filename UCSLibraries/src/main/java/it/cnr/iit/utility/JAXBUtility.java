@@ -17,6 +17,8 @@ package it.cnr.iit.utility;
 
 import java.io.ByteArrayInputStream;
 import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -43,6 +45,19 @@ public final class JAXBUtility {
     // constant that represents the schema we're using
     public static final String SCHEMA = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
 
+    // contexts are thread safe and costly to create, one is kept per class
+    private static final ConcurrentMap<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
+
+    private static JAXBContext getContext( Class<?> clazz ) throws JAXBException {
+        JAXBContext context = contexts.get( clazz );
+        if( context == null ) {
+            context = JAXBContext.newInstance( clazz );
+            JAXBContext previous = contexts.putIfAbsent( clazz, context );
+            context = previous != null ? previous : context;
+        }
+        return context;
+    }
+
     /**
      * Takes an object which skeleton has been provided by the xjc utility and
      * marshals it into a string that represents the xml
@@ -60,7 +75,7 @@ public final class JAXBUtility {
      */
     public static final <T> String marshalToString( Class<T> clazz, T object,
             String name, String schema ) throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance( clazz );
+        JAXBContext jaxbContext = getContext( clazz );
         Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
         jaxbMarshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, true );
 
@@ -86,7 +101,7 @@ public final class JAXBUtility {
      */
     public static final <T> T unmarshalToObject( Class<T> clazz, String xmlString )
             throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance( clazz );
+        JAXBContext jaxbContext = getContext( clazz );
         Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
         Source stream = new StreamSource(
             new ByteArrayInputStream( xmlString.getBytes() ) );
@@ -20,6 +20,7 @@ public class RequestWrapper {
 
     private PIPRegistryInterface pipRegistry;
     private RequestType requestType;
+    // the xml of the request type, null once the request type is fattened
     private String request;
 
     private RequestWrapper() {}
@@ -45,7 +46,14 @@ public class RequestWrapper {
         return RequestWrapper.build( request.getRequest(), request.pipRegistry );
     }
 
-    public String getRequest() {
+    /**
+     * Retrieves the xml of the request, a fattened request is marshalled only
+     * when its xml is asked for
+     */
+    public synchronized String getRequest() {
+        if( request == null ) {
+            update();
+        }
         return request;
     }
 
@@ -64,7 +72,7 @@ public class RequestWrapper {
         return false;
     }
 
-    public boolean update() {
+    public synchronized boolean update() {
         try {
             request = marshalRequestType( requestType );
             return true;
@@ -84,7 +92,8 @@ public class RequestWrapper {
         } else {
             pipRegistry.retrieveAll( requestType );
         }
-        return update();
+        request = null;
+        return true;
     }
 
     public static RequestType unmarshalRequestType( String request ) throws JAXBException {
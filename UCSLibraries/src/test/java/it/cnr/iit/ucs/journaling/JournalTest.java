@@ -25,6 +25,11 @@ public class JournalTest {
         public boolean logMultipleStrings( String... strings ) {
             return true;
         }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
     };
 
     JournalProperties fileSystem = new JournalProperties() {
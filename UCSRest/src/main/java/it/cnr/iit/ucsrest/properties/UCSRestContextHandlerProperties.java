@@ -4,6 +4,7 @@ import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Value;
 
+import it.cnr.iit.ucs.constants.STATUS;
 import it.cnr.iit.ucs.properties.components.ContextHandlerProperties;
 
 public class UCSRestContextHandlerProperties extends BaseProperties implements ContextHandlerProperties {
@@ -11,6 +12,33 @@ public class UCSRestContextHandlerProperties extends BaseProperties implements C
     @Value( "${uri}" )
     private String uri;
 
+    @Value( "${session-ttl-try:0}" )
+    private long sessionTtlTry = 0;
+
+    @Value( "${session-ttl-start:0}" )
+    private long sessionTtlStart = 0;
+
+    @Value( "${session-ttl-revoke:0}" )
+    private long sessionTtlRevoke = 0;
+
+    @Value( "${session-expiry-tick:1000}" )
+    private long sessionExpiryTick = 1000;
+
+    @Value( "${reevaluation-threads:4}" )
+    private int reevaluationThreads = 4;
+
+    @Value( "${attribute-change-window:0}" )
+    private long attributeChangeWindow = 0;
+
+    @Value( "${decision-cache-ttl:0}" )
+    private long decisionCacheTtl = 0;
+
+    @Value( "${decision-cache-size:1024}" )
+    private int decisionCacheSize = 1024;
+
+    @Value( "${decision-cache-obligations:false}" )
+    private boolean decisionCacheObligations = false;
+
     @Override
     public String getUri() {
         return uri;
@@ -20,6 +48,98 @@ public class UCSRestContextHandlerProperties extends BaseProperties implements C
         this.uri = uri;
     }
 
+    @Override
+    public long getSessionTtl( STATUS status ) {
+        switch( status ) {
+            case TRY:
+                return sessionTtlTry;
+            case START:
+                return sessionTtlStart;
+            case REVOKE:
+                return sessionTtlRevoke;
+            default:
+                return 0;
+        }
+    }
+
+    public long getSessionTtlTry() {
+        return sessionTtlTry;
+    }
+
+    public void setSessionTtlTry( long sessionTtlTry ) {
+        this.sessionTtlTry = sessionTtlTry;
+    }
+
+    public long getSessionTtlStart() {
+        return sessionTtlStart;
+    }
+
+    public void setSessionTtlStart( long sessionTtlStart ) {
+        this.sessionTtlStart = sessionTtlStart;
+    }
+
+    public long getSessionTtlRevoke() {
+        return sessionTtlRevoke;
+    }
+
+    public void setSessionTtlRevoke( long sessionTtlRevoke ) {
+        this.sessionTtlRevoke = sessionTtlRevoke;
+    }
+
+    @Override
+    public long getSessionExpiryTick() {
+        return sessionExpiryTick;
+    }
+
+    public void setSessionExpiryTick( long sessionExpiryTick ) {
+        this.sessionExpiryTick = sessionExpiryTick;
+    }
+
+    @Override
+    public int getReevaluationThreads() {
+        return reevaluationThreads;
+    }
+
+    public void setReevaluationThreads( int reevaluationThreads ) {
+        this.reevaluationThreads = reevaluationThreads;
+    }
+
+    @Override
+    public long getAttributeChangeWindow() {
+        return attributeChangeWindow;
+    }
+
+    public void setAttributeChangeWindow( long attributeChangeWindow ) {
+        this.attributeChangeWindow = attributeChangeWindow;
+    }
+
+    @Override
+    public long getDecisionCacheTtl() {
+        return decisionCacheTtl;
+    }
+
+    public void setDecisionCacheTtl( long decisionCacheTtl ) {
+        this.decisionCacheTtl = decisionCacheTtl;
+    }
+
+    @Override
+    public int getDecisionCacheSize() {
+        return decisionCacheSize;
+    }
+
+    public void setDecisionCacheSize( int decisionCacheSize ) {
+        this.decisionCacheSize = decisionCacheSize;
+    }
+
+    @Override
+    public boolean isDecisionCacheObligations() {
+        return decisionCacheObligations;
+    }
+
+    public void setDecisionCacheObligations( boolean decisionCacheObligations ) {
+        this.decisionCacheObligations = decisionCacheObligations;
+    }
+
     @Override
     public Map<String, String> getAdditionalProperties() {
         return null;
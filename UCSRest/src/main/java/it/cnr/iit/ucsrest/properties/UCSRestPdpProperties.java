@@ -15,6 +15,12 @@ public class UCSRestPdpProperties extends BaseProperties implements PdpPropertie
     @Value( "${journal-protocol}" )
     private String journalProtocol;
 
+    @Value( "${policy-cache-size:64}" )
+    private int policyCacheSize = 64;
+
+    @Value( "${evaluation-threads:4}" )
+    private int evaluationThreads = 4;
+
     public void setJournalPath( String journalPath ) {
         this.journalPath = journalPath;
     }
@@ -38,4 +44,22 @@ public class UCSRestPdpProperties extends BaseProperties implements PdpPropertie
         return new HashMap<>();
     }
 
+    @Override
+    public int getPolicyCacheSize() {
+        return policyCacheSize;
+    }
+
+    public void setPolicyCacheSize( int policyCacheSize ) {
+        this.policyCacheSize = policyCacheSize;
+    }
+
+    @Override
+    public int getEvaluationThreads() {
+        return evaluationThreads;
+    }
+
+    public void setEvaluationThreads( int evaluationThreads ) {
+        this.evaluationThreads = evaluationThreads;
+    }
+
 }
@@ -2,6 +2,8 @@ package it.cnr.iit.ucsrest.properties;
 
 import org.springframework.beans.factory.annotation.Value;
 
+import it.cnr.iit.ucs.constants.LANE;
+import it.cnr.iit.ucs.constants.PIPELINE;
 import it.cnr.iit.ucs.properties.components.RequestManagerProperties;
 
 public class UCSRestRequestManagerProperties extends BaseProperties implements RequestManagerProperties {
@@ -12,6 +14,24 @@ public class UCSRestRequestManagerProperties extends BaseProperties implements R
     @Value( "${active}" )
     private boolean active;
 
+    @Value( "${workers:4}" )
+    private int workers = 4;
+
+    @Value( "${access-lane-weight:3}" )
+    private int accessLaneWeight = 3;
+
+    @Value( "${attribute-change-lane-weight:1}" )
+    private int attributeChangeLaneWeight = 1;
+
+    @Value( "${queue-capacity:10000}" )
+    private int queueCapacity = 10000;
+
+    @Value( "${enqueue-timeout:0}" )
+    private long enqueueTimeout = 0;
+
+    @Value( "${pipeline:QUEUE}" )
+    private PIPELINE pipeline = PIPELINE.QUEUE;
+
     @Override
     public String getApiRemoteResponse() {
         return apiRemoteResponse;
@@ -30,4 +50,68 @@ public class UCSRestRequestManagerProperties extends BaseProperties implements R
         return active;
     }
 
+    @Override
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers( int workers ) {
+        this.workers = workers;
+    }
+
+    @Override
+    public int getLaneWeight( LANE lane ) {
+        switch( lane ) {
+            case ACCESS:
+                return accessLaneWeight;
+            case ATTRIBUTE_CHANGE:
+                return attributeChangeLaneWeight;
+            default:
+                return 1;
+        }
+    }
+
+    public int getAccessLaneWeight() {
+        return accessLaneWeight;
+    }
+
+    public void setAccessLaneWeight( int accessLaneWeight ) {
+        this.accessLaneWeight = accessLaneWeight;
+    }
+
+    public int getAttributeChangeLaneWeight() {
+        return attributeChangeLaneWeight;
+    }
+
+    public void setAttributeChangeLaneWeight( int attributeChangeLaneWeight ) {
+        this.attributeChangeLaneWeight = attributeChangeLaneWeight;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity( int queueCapacity ) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public long getEnqueueTimeout() {
+        return enqueueTimeout;
+    }
+
+    public void setEnqueueTimeout( long enqueueTimeout ) {
+        this.enqueueTimeout = enqueueTimeout;
+    }
+
+    @Override
+    public PIPELINE getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline( PIPELINE pipeline ) {
+        this.pipeline = pipeline;
+    }
+
 }
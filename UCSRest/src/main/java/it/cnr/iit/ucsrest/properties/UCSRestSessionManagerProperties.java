@@ -9,6 +9,21 @@ public class UCSRestSessionManagerProperties extends BaseProperties implements S
     @Value( "${db-uri}" )
     private String dbUri;
 
+    @Value( "${pool-max-free-connections:1}" )
+    private int poolMaxFreeConnections = 1;
+
+    @Value( "${pool-validation:false}" )
+    private boolean poolValidation = false;
+
+    @Value( "${pool-max-connection-age:0}" )
+    private long poolMaxConnectionAge = 0;
+
+    @Value( "${flush-interval:1000}" )
+    private long flushInterval = 1000;
+
+    @Value( "${flush-batch-size:500}" )
+    private int flushBatchSize = 500;
+
     @Override
     public String getDbUri() {
         return dbUri;
@@ -18,4 +33,49 @@ public class UCSRestSessionManagerProperties extends BaseProperties implements S
         this.dbUri = dbUri;
     }
 
+    @Override
+    public int getPoolMaxFreeConnections() {
+        return poolMaxFreeConnections;
+    }
+
+    public void setPoolMaxFreeConnections( int poolMaxFreeConnections ) {
+        this.poolMaxFreeConnections = poolMaxFreeConnections;
+    }
+
+    @Override
+    public boolean isPoolValidation() {
+        return poolValidation;
+    }
+
+    public void setPoolValidation( boolean poolValidation ) {
+        this.poolValidation = poolValidation;
+    }
+
+    @Override
+    public long getPoolMaxConnectionAge() {
+        return poolMaxConnectionAge;
+    }
+
+    public void setPoolMaxConnectionAge( long poolMaxConnectionAge ) {
+        this.poolMaxConnectionAge = poolMaxConnectionAge;
+    }
+
+    @Override
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval( long flushInterval ) {
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public int getFlushBatchSize() {
+        return flushBatchSize;
+    }
+
+    public void setFlushBatchSize( int flushBatchSize ) {
+        this.flushBatchSize = flushBatchSize;
+    }
+
 }
@@ -21,7 +21,11 @@ import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -29,6 +33,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import it.cnr.iit.ucs.constants.OperationName;
 import it.cnr.iit.ucs.core.UCSCoreServiceBuilder;
+import it.cnr.iit.ucs.exceptions.OverloadException;
 import it.cnr.iit.ucs.message.endaccess.EndAccessMessage;
 import it.cnr.iit.ucs.message.startaccess.StartAccessMessage;
 import it.cnr.iit.ucs.message.tryaccess.TryAccessMessage;
@@ -65,6 +70,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for tryaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "UCS overloaded, retry after the Retry-After seconds" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.TRYACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -78,6 +84,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for startaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "UCS overloaded, retry after the Retry-After seconds" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.STARTACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -91,6 +98,7 @@ public class UCSRestController {
     @ApiOperation( httpMethod = "POST", value = "Receives request from PEP for endaccess operation" )
     @ApiResponses( value = {
         @ApiResponse( code = 500, message = "Invalid message received" ),
+        @ApiResponse( code = 429, message = "UCS overloaded, retry after the Retry-After seconds" ),
         @ApiResponse( code = 200, message = "OK" ) } )
     @PostMapping( value = OperationName.ENDACCESS_REST, consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE )
@@ -101,4 +109,16 @@ public class UCSRestController {
         return ucs.endAccess( message );
     }
 
+    /**
+     * Tells the PEP that its request has been rejected because the UCS is
+     * overloaded and when it may send it again
+     */
+    @ExceptionHandler( OverloadException.class )
+    public ResponseEntity<Boolean> overloaded( OverloadException e ) {
+        log.log( Level.WARNING, "Request rejected : {0}", e.getMessage() );
+        return ResponseEntity.status( HttpStatus.TOO_MANY_REQUESTS )
+            .header( HttpHeaders.RETRY_AFTER, String.valueOf( e.getRetryAfter() ) )
+            .body( false );
+    }
+
 }